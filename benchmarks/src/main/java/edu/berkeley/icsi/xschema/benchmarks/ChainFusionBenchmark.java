@@ -0,0 +1,93 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.pipe.runner.Firing;
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+/**
+ * Laps of one token around a ring of immediate transitions, a chain as long as the ring, with a listener
+ * on UPDATED_STATE as a FiringWriter would have:  unfused, every transition is a round and a report;
+ * with chain fusion, a lap is one round.  The <code>rounds</code> counter gives rounds per second, to divide
+ * by the primary score (laps per second) for rounds per lap.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChainFusionBenchmark implements PropertyChangeListener {
+
+	@Param({"10", "100", "1000"})
+	public int ringSize;
+
+	@Param({"false", "true"})
+	public boolean chainFusion;
+
+	@Param({"100"})
+	public int laps;
+
+	private CompiledNet net;
+	private CompiledPetriNetRunner runner;
+	private int reported;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Rounds {
+		public long rounds;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			rounds = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void buildNet() throws Exception {
+		net = CompiledNet.compile(new GraspNets().buildRing(ringSize, ringSize));
+	}
+
+	@Setup(Level.Invocation)
+	public void prepareRunner() throws Exception {
+		runner = new CompiledPetriNetRunner(net);
+		runner.setDetached(true);
+		runner.setSeed(NetFixture.SEED);
+		runner.setChainFusion(chainFusion);
+		runner.setFiringLimit(chainFusion ? laps : laps * ringSize);
+		runner.addPropertyChangeListener(this);
+		runner.markPlace("P0", "Default", 1);
+	}
+
+	@Benchmark
+	public long run(Rounds counter) {
+		runner.run();
+		counter.rounds += runner.getRound();
+		return runner.getFirings();
+	}
+
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		if (evt.getPropertyName().equals(CompiledPetriNetRunner.UPDATED_STATE)) {
+			reported += ((Firing) evt.getNewValue()).round;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import uk.ac.imperial.pipe.models.petrinet.AbstractTransitionJsonParameters;
+
+/**
+ * Benchmark counterpart of TestingApproachExternalTransition:  increments "num" on every firing.
+ */
+public class CountingApproachExternalTransition extends AbstractTransitionJsonParameters {
+
+	@Override
+	public void fire() {
+		JsonObject jsonObject = getParameters();
+		int num = jsonObject.getInt("num");
+		JsonObject newJson = Json.createObjectBuilder().add("num", ++num).build();
+		updateParameters(newJson);
+	}
+}
@@ -0,0 +1,22 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import edu.berkeley.icsi.xschema.parameters.AbstractTransitionParameters;
+import edu.berkeley.icsi.xschema.parameters.TransitionParameters;
+
+/**
+ * {@link CountingApproachExternalTransition} over a ParameterStore:  increments "num" in place on every firing.
+ */
+public class CountingApproachParameterTransition extends AbstractTransitionParameters {
+
+	private int num;
+
+	@Override
+	protected void resolve(TransitionParameters parameters) {
+		num = parameters.indexOf("num");
+	}
+
+	@Override
+	public void fire() {
+		getParameters().add(num, 1);
+	}
+}
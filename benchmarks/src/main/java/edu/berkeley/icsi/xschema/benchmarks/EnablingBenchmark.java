@@ -0,0 +1,108 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.pipe.models.petrinet.ExecutablePetriNet;
+import uk.ac.imperial.pipe.models.petrinet.InboundArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.runner.BatchEnabling;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.Marking;
+
+/**
+ * Cost of evaluating the enabling of every transition of a wide, flat net of {@link GraspNets#buildCloseHands(int)}
+ * copies, with about half its places marked:  walking the Arc objects of inboundArcs(transition) of the executable
+ * net, parsing each weight (a lower bound for pipe-core, which evaluates weights as expressions); evaluating one
+ * transition at a time over the compiled rows, as {@link Marking#reset(int[])} does by default; and in one pass
+ * over the columns of a {@link BatchEnabling}.  Compare the scores across <code>copies</code> for scaling with width.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EnablingBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int copies;
+
+	private ExecutablePetriNet executablePetriNet;
+	private Marking marking;
+	private Marking batchMarking;
+	private BatchEnabling batchEnabling;
+	private int[] counts;
+
+	@Setup(Level.Trial)
+	public void buildNet() throws Exception {
+		PetriNet petriNet = new GraspNets().buildCloseHands(copies);
+		Random random = new Random(NetFixture.SEED);
+		for (Place place : petriNet.getPlaces()) {
+			if (random.nextBoolean()) {
+				place.setTokenCount("Default", 1);
+			}
+		}
+		executablePetriNet = petriNet.getExecutablePetriNet();
+		CompiledNet net = CompiledNet.compile(petriNet);
+		counts = net.getInitialMarking();
+		marking = new Marking(net);
+		batchMarking = new Marking(net);
+		batchEnabling = new BatchEnabling(net);
+		batchMarking.setBatchEnabling(batchEnabling);
+	}
+
+	@Benchmark
+	public int objectGraph() {
+		int enabled = 0;
+		for (Transition transition : executablePetriNet.getTransitions()) {
+			boolean fireable = true;
+			for (InboundArc arc : executablePetriNet.inboundArcs(transition)) {
+				Place place = (Place) arc.getSource();
+				for (Map.Entry<String, String> weight : arc.getTokenWeights().entrySet()) {
+					if (place.getTokenCount(weight.getKey()) < Integer.parseInt(weight.getValue())) {
+						fireable = false;
+					}
+				}
+			}
+			if (fireable) {
+				enabled++;
+			}
+		}
+		return enabled;
+	}
+
+	@Benchmark
+	public int perTransition() {
+		marking.reset(counts);
+		return marking.getEnabledCount();
+	}
+
+	@Benchmark
+	public long[] batch() {
+		return batchEnabling.evaluate(batchMarking);
+	}
+
+	@Benchmark
+	public int batchReset() {
+		batchMarking.reset(counts);
+		return batchMarking.getEnabledCount();
+	}
+}
@@ -0,0 +1,77 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.pipe.models.petrinet.DiscreteExternalTransition;
+import edu.berkeley.icsi.xschema.parameters.ParameterStore;
+import edu.berkeley.icsi.xschema.runner.ExternalClass;
+
+/**
+ * Cost of dispatching one external firing, with the cheap parameterized Approach transition as the external class,
+ * so that dispatch dominates:  through pipe-core's DiscreteExternalTransition, by loading and instantiating the class
+ * reflectively on each firing, through a method handle bound to a cached instance, as the compiled runners do,
+ * and by a direct call on the instance, the lower bound.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExternalFireBenchmark {
+
+	private static final String PARAMETER_CLASS = "edu.berkeley.icsi.xschema.benchmarks.CountingApproachParameterTransition";
+	private static final String PARAMETERS = "{\"transitions\":{\"Grasp.Approach.T3\":{\"num\":1}}}";
+	private ParameterStore store;
+	private DiscreteExternalTransition modelTransition;
+	private CountingApproachParameterTransition instance;
+	private MethodHandle boundFire;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		store = new ParameterStore(PARAMETERS);
+		store.setActiveTransition("Grasp.Approach.T3");
+		modelTransition = new DiscreteExternalTransition("T3", "T3", PARAMETER_CLASS);
+		modelTransition.setContext(store);
+		ExternalClass externalClass = ExternalClass.resolve(PARAMETER_CLASS);
+		instance = (CountingApproachParameterTransition) externalClass.newInstance();
+		externalClass.setContext(instance, store);
+		boundFire = externalClass.bindFire(instance);
+	}
+
+	@Benchmark
+	public void discreteExternalTransition() {
+		modelTransition.fire();
+	}
+
+	@Benchmark
+	public void reflective() throws Exception {
+		CountingApproachParameterTransition transition = (CountingApproachParameterTransition)
+				Class.forName(PARAMETER_CLASS).newInstance();
+		transition.setContext(store);
+		transition.fire();
+	}
+
+	@Benchmark
+	public void methodHandle() {
+		ExternalClass.fire(boundFire);
+	}
+
+	@Benchmark
+	public void direct() {
+		instance.fire();
+	}
+}
@@ -0,0 +1,154 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.pipe.models.petrinet.Arc;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.OutboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.runner.CompiledHierarchy;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * Startup cost of assembling a schema include by include, compiling after each include, as an editor would:
+ * recompiling the executable net each time, against a {@link CompiledHierarchy}, which reads only the edited includes
+ * but still builds the whole CompiledNet.
+ * Each include is a Close_hand net whose Enabled place is merged with the Prepare transition of its parent.
+ * In the flat layout every include has the root as parent, so the root is edited (and read again) every time;
+ * in the nested layout each include is the parent of the next.
+ * <p>
+ * Once the schema is assembled, the cost of an edit to a single include:  reading it again into its fragment
+ * ({@link CompiledHierarchy#refresh()}), which should stay flat as includes are added; compiling through the
+ * {@link CompiledHierarchy}, which builds the CompiledNet from all fragments and so grows with the schema; and a full
+ * compile of the executable net.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class IncludeCompositionBenchmark {
+
+	public static final String FLAT = "flat";
+	public static final String NESTED = "nested";
+
+	@Param({"10", "100", "500"})
+	public int includes;
+
+	@Param({FLAT, NESTED})
+	public String layout;
+
+	private IncludeHierarchy assembled;
+	private CompiledHierarchy assembledHierarchy;
+	private IncludeHierarchy lastInclude;
+
+	@Setup(Level.Trial)
+	public void assemble() throws Exception {
+		GraspNets nets = new GraspNets();
+		assembled = new IncludeHierarchy(nets.buildBasicNet("net0"), "Grasp");
+		assembledHierarchy = new CompiledHierarchy(assembled);
+		IncludeHierarchy parent = assembled;
+		for (int i = 1; i <= includes; i++) {
+			String alias = "Close_hand"+i;
+			lastInclude = assembledHierarchy.include(parent, nets.buildCloseHand(), alias);
+			assembledHierarchy.mergeArc(false, parent, alias, "Enabled", "Prepare", tokenWeights());
+			parent = next(parent, lastInclude);
+		}
+		assembledHierarchy.getCompiledNet();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Benchmark
+	public CompiledNet recompileAfterEachInclude() throws Exception {
+		GraspNets nets = new GraspNets();
+		IncludeHierarchy root = new IncludeHierarchy(nets.buildBasicNet("net0"), "Grasp");
+		IncludeHierarchy parent = root;
+		CompiledNet net = null;
+		for (int i = 1; i <= includes; i++) {
+			String alias = "Close_hand"+i;
+			IncludeHierarchy child = parent.include(nets.buildCloseHand(), alias);
+			child.addToInterface(child.getPetriNet().getComponent("Enabled", Place.class), true, false, false, false);
+			parent.addAvailablePlaceToPetriNet(parent.getInterfacePlace(alias+".Enabled"));
+			Arc arc = new OutboundNormalArc(parent.getPetriNet().getComponent("Prepare", Transition.class),
+					parent.getInterfacePlace(alias+".Enabled"), tokenWeights());
+			parent.getPetriNet().add(arc);
+			net = CompiledNet.compile(root);
+			parent = next(parent, child);
+		}
+		return net;
+	}
+
+	@Benchmark
+	public CompiledNet compiledHierarchyAfterEachInclude() throws Exception {
+		GraspNets nets = new GraspNets();
+		IncludeHierarchy root = new IncludeHierarchy(nets.buildBasicNet("net0"), "Grasp");
+		CompiledHierarchy hierarchy = new CompiledHierarchy(root);
+		IncludeHierarchy parent = root;
+		CompiledNet net = null;
+		for (int i = 1; i <= includes; i++) {
+			String alias = "Close_hand"+i;
+			IncludeHierarchy child = hierarchy.include(parent, nets.buildCloseHand(), alias);
+			hierarchy.mergeArc(false, parent, alias, "Enabled", "Prepare", tokenWeights());
+			net = hierarchy.getCompiledNet();
+			parent = next(parent, child);
+		}
+		return net;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public CompiledNet compileAfterSingleIncludeEdit() {
+		assembledHierarchy.changed(lastInclude);
+		return assembledHierarchy.getCompiledNet();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public int refreshAfterSingleIncludeEdit() {
+		assembledHierarchy.changed(lastInclude);
+		return assembledHierarchy.refresh();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public CompiledNet fullCompileAfterSingleIncludeEdit() {
+		return CompiledNet.compile(assembled);
+	}
+
+	private IncludeHierarchy next(IncludeHierarchy parent, IncludeHierarchy child) {
+		return layout.equals(NESTED) ? child : parent;
+	}
+
+	private Map<String, String> tokenWeights() {
+		Map<String, String> tokenWeights = new HashMap<String, String>();
+		tokenWeights.put("Default", "1");
+		return tokenWeights;
+	}
+}
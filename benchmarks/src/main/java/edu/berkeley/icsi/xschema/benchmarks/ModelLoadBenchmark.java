@@ -0,0 +1,90 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.OutboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.model.ModelImage;
+import edu.berkeley.icsi.xschema.model.ModelWriter;
+
+/**
+ * Startup cost of a schema library of Close_hand includes under a Grasp root:  built through the DSL and
+ * {@link IncludeHierarchy#include}, as the examples do, against read from a {@link ModelImage} file,
+ * either whole or one include at a time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelLoadBenchmark {
+
+	@Param({"10", "100", "500"})
+	public int includes;
+
+	private Path path;
+
+	@Setup(Level.Trial)
+	public void writeImage() throws Exception {
+		path = Files.createTempFile("library", ".xsm");
+		ModelWriter.write(build()).write(path);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteImage() throws Exception {
+		Files.deleteIfExists(path);
+	}
+
+	@Benchmark
+	public IncludeHierarchy buildThroughDsl() throws Exception {
+		return build();
+	}
+
+	@Benchmark
+	public IncludeHierarchy loadWholeImage() throws Exception {
+		return ModelImage.read(path).buildHierarchy();
+	}
+
+	@Benchmark
+	public IncludeHierarchy loadOneInclude() throws Exception {
+		return ModelImage.read(path).buildHierarchy("Grasp.Close_hand"+includes);
+	}
+
+	private IncludeHierarchy build() throws Exception {
+		GraspNets nets = new GraspNets();
+		IncludeHierarchy root = new IncludeHierarchy(nets.buildBasicNet("net0"), "Grasp");
+		Map<String, String> tokenWeights = new HashMap<String, String>();
+		tokenWeights.put("Default", "1");
+		for (int i = 1; i <= includes; i++) {
+			String alias = "Close_hand"+i;
+			IncludeHierarchy child = root.include(nets.buildCloseHand(), alias);
+			child.addToInterface(child.getPetriNet().getComponent("Enabled", Place.class), true, false, false, false);
+			root.addAvailablePlaceToPetriNet(root.getInterfacePlace(alias+".Enabled"));
+			root.getPetriNet().add(new OutboundNormalArc(root.getPetriNet().getComponent("Prepare", Transition.class),
+					root.getInterfacePlace(alias+".Enabled"), tokenWeights));
+		}
+		return root;
+	}
+}
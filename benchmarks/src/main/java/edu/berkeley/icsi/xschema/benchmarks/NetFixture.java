@@ -0,0 +1,180 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
+import javax.json.Json;
+
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.JsonParameters;
+import uk.ac.imperial.pipe.runner.PetriNetRunner;
+import uk.ac.imperial.pipe.runner.Runner;
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+/**
+ * A net from {@link GraspNets}, marked and wired to its external transition contexts the way GraspExampleTest does it,
+ * with a runner ready to run.
+ * Net names are "basic", "closeHand", "completeGrasp" and "ring-N", a {@link GraspNets#buildRing(int, int)} of N places
+ * with one circulating token per {@link #RING_SPACING} places.
+ * Runner kinds are "petriNet" ({@link PetriNetRunner}) and "compiled" ({@link CompiledPetriNetRunner}).
+ */
+public class NetFixture implements PropertyChangeListener {
+
+	public static final int RING_SPACING = 100;
+	public static final long SEED = 123456l;
+	public static final String PETRI_NET = "petriNet";
+	public static final String COMPILED = "compiled";
+	private static final String RING = "ring-";
+	private String netName;
+	private String runnerKind;
+	private PetriNet net;
+	private CompiledNet compiledNet;
+	private Runner runner;
+	private long firings;
+	private boolean initialState;
+	private boolean ringMarked;
+
+	public NetFixture(String netName) throws Exception {
+		this(netName, PETRI_NET);
+	}
+
+	public NetFixture(String netName, String runnerKind) throws Exception {
+		this.netName = netName;
+		this.runnerKind = runnerKind;
+		this.net = buildNet(netName);
+	}
+
+	private PetriNet buildNet(String netName) throws Exception {
+		GraspNets nets = new GraspNets(SensedCloseExternalTransition.class.getName(),
+				CountingApproachExternalTransition.class.getName());
+		switch (netName) {
+		case "basic":
+			return nets.buildBasicNet("net1");
+		case "closeHand":
+			return nets.buildCloseHand();
+		case "completeGrasp":
+			return nets.buildCompleteGrasp().getPetriNet();
+		default:
+			if (netName.startsWith(RING)) {
+				return nets.buildRing(Integer.parseInt(netName.substring(RING.length())), RING_SPACING);
+			}
+			throw new IllegalArgumentException("NetFixture:  unknown net "+netName);
+		}
+	}
+
+	/**
+	 * Builds a fresh runner over the net, and marks it ready to run.  The Grasp nets are rebuilt first,
+	 * because a previous run leaves them marked Done; the ring keeps circulating its tokens, so it is reused.
+	 * @param firingLimit for the run
+	 * @return runner
+	 * @throws Exception
+	 */
+	public Runner prepare(int firingLimit) throws Exception {
+		rebuildNet();
+		return prepare(buildRunner(), firingLimit);
+	}
+
+	/**
+	 * As {@link #prepare(int)}, for a compiled runner that is stepped from outside, with no firing limit.
+	 * @return runner, to be started with {@link SteppingRunner#begin()}
+	 * @throws Exception
+	 */
+	public SteppingRunner prepareStepping() throws Exception {
+		rebuildNet();
+		SteppingRunner stepping = new SteppingRunner(compiledNet());
+		prepare(stepping, Integer.MAX_VALUE);
+		return stepping;
+	}
+
+	private void rebuildNet() throws Exception {
+		if (!isRing()) {
+			net = buildNet(netName);
+			compiledNet = null;
+		}
+	}
+
+	private Runner prepare(Runner runner, int firingLimit) throws Exception {
+		this.runner = runner;
+		mark();
+		runner.addPropertyChangeListener(this);
+		initialState = true;
+		runner.setFiringLimit(firingLimit);
+		runner.setSeed(SEED);
+		return runner;
+	}
+
+	private CompiledNet compiledNet() {
+		if (compiledNet == null) {
+			compiledNet = CompiledNet.compile(net);
+		}
+		return compiledNet;
+	}
+
+	private Runner buildRunner() {
+		switch (runnerKind) {
+		case PETRI_NET:
+			return new PetriNetRunner(net);
+		case COMPILED:
+			return new CompiledPetriNetRunner(compiledNet());
+		default:
+			throw new IllegalArgumentException("NetFixture:  unknown runner "+runnerKind);
+		}
+	}
+
+	private void mark() throws Exception {
+		switch (netName) {
+		case "basic":
+			runner.markPlace("Enabled", "Default", 1);
+			break;
+		case "closeHand":
+			runner.markPlace("Enabled", "Default", 1);
+			runner.setTransitionContext("Close", new PlaceMarker(runner, "Close_sensed"));
+			break;
+		case "completeGrasp":
+			runner.markPlace("Grasp.Enabled", "Default", 1);
+			JsonParameters parameters = new JsonParameters(
+					Json.createObjectBuilder().add("transitions", Json.createObjectBuilder().add("Grasp.Approach.T3",
+							Json.createObjectBuilder().add("num", 1))).build().toString());
+			parameters.setActiveTransition("Grasp.Approach.T3");
+			runner.setTransitionContext("Grasp.Approach.T3", parameters);
+			runner.setTransitionContext("Grasp.Close_hand.Close", new PlaceMarker(runner, "Grasp.Close_hand.Missed"));
+			break;
+		default:
+			if (!ringMarked) {
+				int places = Integer.parseInt(netName.substring(RING.length()));
+				for (int i = 0; i < places; i += RING_SPACING) {
+					runner.markPlace("P"+i, "Default", 1);
+				}
+				ringMarked = true;
+			}
+		}
+	}
+
+	public boolean isRing() {
+		return netName.startsWith(RING);
+	}
+
+	public Runner getRunner() {
+		return runner;
+	}
+
+	/**
+	 * @return transitions fired by all runs prepared by this fixture; the round 0 report of each run is not a firing
+	 */
+	public long getFirings() {
+		return firings;
+	}
+
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		if (evt.getPropertyName().equals(PetriNetRunner.UPDATED_STATE)) {
+			if (initialState) {
+				initialState = false;
+			} else {
+				firings++;
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.pipe.runner.JsonParameters;
+import edu.berkeley.icsi.xschema.parameters.ParameterStore;
+
+/**
+ * Cost of one firing of the parameterized Approach transition:  with JsonParameters, which rebuilds
+ * the JSON object on every firing, and with a ParameterStore, which updates "num" in place.
+ * The export benchmark adds the cost of reading the store back as JsonParameters after each firing,
+ * the worst case for lazy serialization.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParameterFireBenchmark {
+
+	private static final String PARAMETERS = "{\"transitions\":{\"Grasp.Approach.T3\":{\"num\":1}}}";
+	private CountingApproachExternalTransition jsonTransition;
+	private CountingApproachParameterTransition storeTransition;
+	private ParameterStore store;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		JsonParameters parameters = new JsonParameters(PARAMETERS);
+		parameters.setActiveTransition("Grasp.Approach.T3");
+		jsonTransition = new CountingApproachExternalTransition();
+		jsonTransition.setContext(parameters);
+		store = new ParameterStore(PARAMETERS);
+		store.setActiveTransition("Grasp.Approach.T3");
+		storeTransition = new CountingApproachParameterTransition();
+		storeTransition.setContext(store);
+	}
+
+	@Benchmark
+	public void jsonParameters() {
+		jsonTransition.fire();
+	}
+
+	@Benchmark
+	public void parameterStore() {
+		storeTransition.fire();
+	}
+
+	@Benchmark
+	public JsonParameters parameterStoreExported() {
+		storeTransition.fire();
+		return store.getJsonParameters();
+	}
+}
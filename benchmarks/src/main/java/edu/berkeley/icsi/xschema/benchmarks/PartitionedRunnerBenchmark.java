@@ -0,0 +1,99 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.partition.InProcessTransport;
+import edu.berkeley.icsi.xschema.partition.PartitionedRunner;
+import edu.berkeley.icsi.xschema.partition.Partitioning;
+import edu.berkeley.icsi.xschema.partition.SocketTransport;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+/**
+ * Cost of a run of {@link GraspNets#buildCloseHands(int)} copies, each copy a partition, with every copy's
+ * P0 and P6 marked:  in one {@link CompiledPetriNetRunner}, and in a {@link PartitionedRunner} with its partitions
+ * on threads, connected in process and over loopback sockets.  Divide by the 4 firings per copy for the cost of
+ * a round; the difference from the compiled runner is the price of the lock step between partitions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PartitionedRunnerBenchmark {
+
+	@Param({"4", "16"})
+	public int copies;
+
+	private CompiledPetriNetRunner compiledRunner;
+	private PartitionedRunner inProcessRunner;
+	private PartitionedRunner socketRunner;
+	private SocketTransport socketTransport;
+
+	@Setup(Level.Trial)
+	public void buildRunners() throws Exception {
+		PetriNet petriNet = new GraspNets().buildCloseHands(copies);
+		List<String> names = new ArrayList<String>();
+		for (int c = 0; c < copies; c++) {
+			names.add("C"+c);
+			petriNet.getComponent("C"+c+".P0", Place.class).setTokenCount("Default", 1);
+			petriNet.getComponent("C"+c+".P6", Place.class).setTokenCount("Default", 1);
+		}
+		CompiledNet net = CompiledNet.compile(petriNet);
+		compiledRunner = new CompiledPetriNetRunner(net);
+		compiledRunner.setDetached(true);
+		Partitioning partitioning = new Partitioning(net, names);
+		inProcessRunner = new PartitionedRunner(partitioning, new InProcessTransport(copies + 1));
+		socketTransport = SocketTransport.loopback(copies + 1);
+		socketRunner = new PartitionedRunner(partitioning, socketTransport);
+		for (PartitionedRunner runner : new PartitionedRunner[] {inProcessRunner, socketRunner}) {
+			runner.setDetached(true);
+			runner.localPartitions();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void stopPartitions() throws Exception {
+		inProcessRunner.shutdown();
+		socketRunner.shutdown();
+		socketTransport.close();
+	}
+
+	@Benchmark
+	public int compiled() {
+		compiledRunner.run();
+		return compiledRunner.getRound();
+	}
+
+	@Benchmark
+	public int inProcess() {
+		inProcessRunner.run();
+		return inProcessRunner.getRound();
+	}
+
+	@Benchmark
+	public int sockets() {
+		socketRunner.run();
+		return socketRunner.getRound();
+	}
+}
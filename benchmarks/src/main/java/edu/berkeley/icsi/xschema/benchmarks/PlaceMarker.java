@@ -0,0 +1,26 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import uk.ac.imperial.pipe.runner.InterfaceException;
+import uk.ac.imperial.pipe.runner.Runner;
+
+/**
+ * Transition context for {@link SensedCloseExternalTransition}:  marks one place with one Default token.
+ */
+public class PlaceMarker {
+
+	private Runner runner;
+	private String placeId;
+
+	public PlaceMarker(Runner runner, String placeId) {
+		this.runner = runner;
+		this.placeId = placeId;
+	}
+
+	public void mark() {
+		try {
+			runner.markPlace(placeId, "Default", 1);
+		} catch (InterfaceException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.pipe.runner.Runner;
+
+/**
+ * Runs and firings per second for {@link Runner#run()} on the Grasp example nets and on synthetic rings.
+ * The Grasp nets stop by themselves after at most 16 firings; the rings run to the firing limit.
+ * <p>
+ * Allocation per firing:  run with <code>-prof gc</code>, and divide <code>gc.alloc.rate.norm</code> (bytes per run)
+ * by firings per run (the <code>firings</code> counter divided by the primary score).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RunnerBenchmark {
+
+	@Param({"basic", "closeHand", "completeGrasp", "ring-10000", "ring-100000", "ring-1000000"})
+	public String net;
+
+	@Param({NetFixture.PETRI_NET, NetFixture.COMPILED})
+	public String runnerKind;
+
+	@Param({"10000"})
+	public int firingLimit;
+
+	private NetFixture fixture;
+	private Runner runner;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Firings {
+		public long firings;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			firings = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void buildNet() throws Exception {
+		fixture = new NetFixture(net, runnerKind);
+	}
+
+	@Setup(Level.Invocation)
+	public void prepareRunner() throws Exception {
+		runner = fixture.prepare(firingLimit);
+	}
+
+	@Benchmark
+	public void run(Firings counter) {
+		long before = fixture.getFirings();
+		runner.run();
+		counter.firings += fixture.getFirings() - before;
+	}
+}
@@ -0,0 +1,157 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.host.HostedInstance;
+import edu.berkeley.icsi.xschema.host.InstanceListener;
+import edu.berkeley.icsi.xschema.host.RunnerHost;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+/**
+ * Many instances of a ring, each with one circulating token, run to a firing limit:  on a {@link RunnerHost},
+ * in time slices, against a detached {@link CompiledPetriNetRunner} per instance submitted to a pool of the same size.
+ * <p>
+ * The primary score is the time to run every instance to its limit; firings per run are fixed.  Fairness is
+ * measured when the first instance completes:  <code>laggardProgress</code> is the progress of the slowest
+ * instance, as a percentage of the limit, and <code>jainIndex</code> is Jain's fairness index of the firings
+ * of all instances, times 100 (100 when every instance has fired equally).  Runners on a pool run one instance
+ * to its limit before starting the next, so their laggards have not started.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class RunnerHostBenchmark implements InstanceListener {
+
+	@Param({"10000"})
+	public int instances;
+
+	@Param({"1", "4"})
+	public int workers;
+
+	@Param({"16", "256"})
+	public int sliceFirings;
+
+	@Param({"1000"})
+	public int firingLimit;
+
+	@Param({"100"})
+	public int ringSize;
+
+	private CompiledNet net;
+	private RunnerHost host;
+	private List<HostedInstance> hosted;
+	private volatile boolean sampled;
+	private double laggardProgress;
+	private double jainIndex;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Fairness {
+		public double laggardProgress;
+		public double jainIndex;
+	}
+
+	@Setup(Level.Trial)
+	public void buildNet() throws Exception {
+		net = CompiledNet.compile(new GraspNets().buildRing(ringSize, ringSize));
+	}
+
+	@Setup(Level.Invocation)
+	public void prepareHost() throws Exception {
+		host = new RunnerHost(net, workers);
+		host.setSliceFirings(sliceFirings);
+		host.setFiringLimit(firingLimit);
+		host.setListener(this);
+		for (int i = 0; i < instances; i++) {
+			host.addInstance(NetFixture.SEED + i).markPlace("P0", "Default", 1);
+		}
+		hosted = host.getInstances();
+		sampled = false;
+	}
+
+	@TearDown(Level.Invocation)
+	public void shutdownHost() {
+		host.shutdown();
+	}
+
+	@Benchmark
+	public long hosted(Fairness fairness) throws Exception {
+		for (HostedInstance instance : hosted) {
+			instance.start();
+		}
+		host.awaitQuiescence(Long.MAX_VALUE);
+		fairness.laggardProgress = laggardProgress;
+		fairness.jainIndex = jainIndex;
+		return host.getFirings();
+	}
+
+	@Benchmark
+	public long runnerPerInstance(Fairness fairness) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		final CompiledPetriNetRunner[] runners = new CompiledPetriNetRunner[instances];
+		for (int i = 0; i < instances; i++) {
+			runners[i] = new CompiledPetriNetRunner(net);
+			runners[i].setDetached(true);
+			runners[i].setSeed(NetFixture.SEED + i);
+			runners[i].setFiringLimit(firingLimit);
+			runners[i].markPlace("P0", "Default", 1);
+			pool.execute(runners[i]);
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		// when the first runner completes, only the runners on the other workers have fired
+		fairness.laggardProgress = 0;
+		fairness.jainIndex = 100.0 * workers / instances;
+		long firings = 0;
+		for (CompiledPetriNetRunner runner : runners) {
+			firings += runner.getRound();
+		}
+		return firings;
+	}
+
+	@Override
+	public void instanceIdle(HostedInstance instance) {
+	}
+
+	@Override
+	public void instanceCompleted(HostedInstance instance) {
+		if (sampled) {
+			return;
+		}
+		sampled = true;
+		double sum = 0;
+		double squares = 0;
+		int slowest = Integer.MAX_VALUE;
+		for (HostedInstance other : hosted) {
+			int round = other.getRound();
+			sum += round;
+			squares += (double) round * round;
+			slowest = Math.min(slowest, round);
+		}
+		laggardProgress = 100.0 * slowest / firingLimit;
+		jainIndex = (squares == 0) ? 100 : 100 * sum * sum / (hosted.size() * squares);
+	}
+}
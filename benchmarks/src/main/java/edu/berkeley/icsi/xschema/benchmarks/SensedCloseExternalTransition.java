@@ -0,0 +1,16 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import uk.ac.imperial.pipe.models.petrinet.AbstractExternalTransition;
+
+/**
+ * Benchmark counterpart of TestingCloseExternalTransition:  the context is a {@link PlaceMarker}
+ * that marks the sensed place, as the test does through its closeExternalTransitionFired callback.
+ */
+public class SensedCloseExternalTransition extends AbstractExternalTransition {
+
+	@Override
+	public void fire() {
+		((PlaceMarker) context).mark();
+	}
+
+}
@@ -0,0 +1,65 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency distribution of a single step of a run in progress:  one round of enabled-transition selection,
+ * one firing and one state report.  The run is started once per trial, outside the measurement;
+ * the Grasp nets run out of enabled transitions after a few rounds, so their run is restarted, also outside
+ * the measurement, whenever it ends.  Only the compiled runner can be stepped from outside, so PetriNetRunner
+ * is not measured here; its whole-run cost is in {@link RunnerBenchmark}.
+ * JMH reports the p0.99 percentile (among others) for each net.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StepLatencyBenchmark {
+
+	@Param({"basic", "closeHand", "completeGrasp", "ring-10000", "ring-100000", "ring-1000000"})
+	public String net;
+
+	private NetFixture fixture;
+	private SteppingRunner runner;
+	private boolean running;
+
+	@Setup(Level.Trial)
+	public void buildNet() throws Exception {
+		fixture = new NetFixture(net, NetFixture.COMPILED);
+		startRun();
+	}
+
+	@Setup(Level.Invocation)
+	public void restartEndedRun() throws Exception {
+		if (!running) {
+			startRun();
+		}
+	}
+
+	@Benchmark
+	public boolean step() {
+		running = runner.next();
+		return running;
+	}
+
+	private void startRun() throws Exception {
+		runner = fixture.prepareStepping();
+		runner.begin();
+		running = true;
+	}
+}
@@ -0,0 +1,30 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+/**
+ * A {@link CompiledPetriNetRunner} whose run is driven from outside, one round at a time,
+ * so that a benchmark can time a single step of a run already in progress.
+ */
+public class SteppingRunner extends CompiledPetriNetRunner {
+
+	public SteppingRunner(CompiledNet net) {
+		super(net);
+	}
+
+	/**
+	 * Starts a run:  reads the marking and reports round 0.
+	 */
+	public void begin() {
+		start();
+	}
+
+	/**
+	 * Runs one round of the run started by {@link #begin()}.
+	 * @return false if no transition could fire, and the run is over
+	 */
+	public boolean next() {
+		return step();
+	}
+}
@@ -0,0 +1,49 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.analysis.StructuralAnalysis;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * Cost of the {@link StructuralAnalysis} of a wide, flat net of {@link GraspNets#buildCloseHands(int)} copies:
+ * its incidence matrix, P- and T-invariants, bounds and conflicts.  Each copy is independent, so the invariants
+ * grow linearly with <code>copies</code>; compare with the time to explore or simulate the same net.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StructuralAnalysisBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int copies;
+
+	private CompiledNet net;
+
+	@Setup(Level.Trial)
+	public void buildNet() throws Exception {
+		net = CompiledNet.compile(new GraspNets().buildCloseHands(copies));
+	}
+
+	@Benchmark
+	public StructuralAnalysis analyze() {
+		return new StructuralAnalysis(net);
+	}
+}
@@ -0,0 +1,79 @@
+package edu.berkeley.icsi.xschema.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+import edu.berkeley.icsi.xschema.runner.TimedPetriNetRunner;
+
+/**
+ * Firings per second of the event-queue runner against the round-based runner, on a ring with a token at
+ * every spacing-th place:  <code>round</code> is CompiledPetriNetRunner on a ring of immediate transitions,
+ * <code>timedImmediate</code> is TimedPetriNetRunner on the same ring (the cost of the timed runner when
+ * nothing is timed), and <code>timed</code> is TimedPetriNetRunner on a ring of exponential transitions,
+ * where every firing is taken from the event queue and up to ringSize / spacing firings are scheduled.
+ * Each invocation is one run of <code>firings</code> firings; multiply the score by it for firings per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TimedRunnerBenchmark {
+
+	@Param({"100", "10000"})
+	public int ringSize;
+
+	@Param({"10"})
+	public int spacing;
+
+	@Param({"round", "timedImmediate", "timed"})
+	public String engine;
+
+	@Param({"10000"})
+	public int firings;
+
+	private CompiledNet net;
+	private CompiledPetriNetRunner runner;
+
+	@Setup(Level.Trial)
+	public void buildNet() throws Exception {
+		if (engine.equals("timed")) {
+			net = CompiledNet.compileTimed(new GraspNets().buildTimedRing(ringSize, spacing, "1.0"));
+		} else {
+			net = CompiledNet.compile(new GraspNets().buildRing(ringSize, spacing));
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void prepareRunner() throws Exception {
+		runner = engine.equals("round") ? new CompiledPetriNetRunner(net) : new TimedPetriNetRunner(net);
+		runner.setDetached(true);
+		runner.setSeed(NetFixture.SEED);
+		runner.setFiringLimit(firings);
+		for (int i = 0; i < ringSize; i += spacing) {
+			runner.markPlace("P"+i, "Default", 1);
+		}
+	}
+
+	@Benchmark
+	public long run() {
+		runner.run();
+		return runner.getFirings();
+	}
+}
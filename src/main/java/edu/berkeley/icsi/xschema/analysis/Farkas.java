@@ -0,0 +1,142 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal semi-positive invariants of an integer matrix, by the Farkas algorithm:  vectors y &ge; 0 with
+ * <code>y A = 0</code>, whose supports contain the support of no other such vector.  For the incidence matrix of a
+ * net, by place, these are its P-invariants; for the transpose, its T-invariants.
+ * <p>
+ * Each row of A starts paired with a unit vector; one column at a time, every pair of rows with opposite signs in
+ * the column is combined to cancel it, rows that are nonzero in it are dropped, and rows whose unit part covers
+ * that of another row are pruned.  Columns are taken in the order that adds fewest rows, and every vector is kept
+ * sparse, so the nets of a hierarchy, whose includes touch few places each, stay small throughout.
+ * The number of rows can still grow exponentially; past a limit, the computation gives up.
+ */
+class Farkas {
+
+	private Farkas() {
+	}
+
+	/**
+	 * @param matrix A
+	 * @param maxRows limit on the rows held at once
+	 * @return the minimal invariants, by row, over the rows of A; null if the limit was reached,
+	 * or an entry overflowed
+	 */
+	static SparseIntMatrix invariants(SparseIntMatrix matrix, int maxRows) {
+		List<SparseVector[]> rows = new ArrayList<SparseVector[]>();
+		for (int r = 0; r < matrix.getRowCount(); r++) {
+			rows.add(new SparseVector[] {matrix.row(r), SparseVector.unit(r)});
+		}
+		boolean[] done = new boolean[matrix.getColumnCount()];
+		try {
+			for (int column = nextColumn(rows, done); column >= 0; column = nextColumn(rows, done)) {
+				done[column] = true;
+				rows = eliminate(rows, column);
+				if (rows.size() > maxRows) {
+					return null;
+				}
+			}
+		} catch (ArithmeticException e) {
+			return null;
+		}
+		List<SparseVector> invariants = new ArrayList<SparseVector>(rows.size());
+		for (SparseVector[] row : rows) {
+			invariants.add(row[1]);
+		}
+		return new SparseIntMatrix(matrix.getRowCount(), invariants);
+	}
+
+	/**
+	 * @return the column not yet eliminated whose elimination adds the fewest rows, or -1 if none is left;
+	 * columns that are zero in every row are marked done
+	 */
+	private static int nextColumn(List<SparseVector[]> rows, boolean[] done) {
+		int[] positive = new int[done.length];
+		int[] negative = new int[done.length];
+		for (SparseVector[] row : rows) {
+			SparseVector part = row[0];
+			for (int i = 0; i < part.size(); i++) {
+				if (part.values[i] > 0) {
+					positive[part.indices[i]]++;
+				} else {
+					negative[part.indices[i]]++;
+				}
+			}
+		}
+		int best = -1;
+		long bestGrowth = Long.MAX_VALUE;
+		for (int column = 0; column < done.length; column++) {
+			if (done[column]) {
+				continue;
+			}
+			if (positive[column] + negative[column] == 0) {
+				done[column] = true;
+				continue;
+			}
+			long growth = (long) positive[column] * negative[column] - positive[column] - negative[column];
+			if (growth < bestGrowth) {
+				best = column;
+				bestGrowth = growth;
+			}
+		}
+		return best;
+	}
+
+	private static List<SparseVector[]> eliminate(List<SparseVector[]> rows, int column) {
+		List<SparseVector[]> kept = new ArrayList<SparseVector[]>();
+		List<SparseVector[]> positive = new ArrayList<SparseVector[]>();
+		List<SparseVector[]> negative = new ArrayList<SparseVector[]>();
+		for (SparseVector[] row : rows) {
+			int value = row[0].get(column);
+			if (value == 0) {
+				kept.add(row);
+			} else if (value > 0) {
+				positive.add(row);
+			} else {
+				negative.add(row);
+			}
+		}
+		int unchanged = kept.size();
+		for (SparseVector[] a : positive) {
+			long aValue = a[0].get(column);
+			for (SparseVector[] b : negative) {
+				long bValue = -b[0].get(column);
+				SparseVector[] combined = new SparseVector[] {a[0].combine(bValue, b[0], aValue),
+						a[1].combine(bValue, b[1], aValue)};
+				int gcd = SparseVector.gcd(combined[0].gcd(), combined[1].gcd());
+				combined[0] = combined[0].divide(gcd);
+				combined[1] = combined[1].divide(gcd);
+				kept.add(combined);
+			}
+		}
+		return prune(kept, unchanged);
+	}
+
+	/**
+	 * Drops the rows whose unit part covers the support of another row's; of rows with equal supports, keeps the first.
+	 * @param unchanged the first rows, carried over from the last column, none of which covers another
+	 */
+	private static List<SparseVector[]> prune(List<SparseVector[]> rows, int unchanged) {
+		List<SparseVector[]> minimal = new ArrayList<SparseVector[]>(rows.size());
+		for (int i = 0; i < rows.size(); i++) {
+			SparseVector support = rows.get(i)[1];
+			boolean covers = false;
+			for (int j = 0; (j < rows.size()) && !covers; j++) {
+				if ((j == i) || ((i < unchanged) && (j < unchanged))) {
+					continue;
+				}
+				SparseVector other = rows.get(j)[1];
+				if (support.containsSupport(other)) {
+					covers = (other.size() < support.size()) || (j < i);
+				}
+			}
+			if (!covers) {
+				minimal.add(rows.get(i));
+			}
+		}
+		return minimal;
+	}
+}
@@ -0,0 +1,146 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The states of one level of a breadth-first search, in blocks of packed states.
+ * Blocks are held in memory up to a limit; beyond it, they are spilled to a temporary file,
+ * and read back when taken.  Blocks may be added and taken by any thread.
+ */
+class Frontier implements Closeable {
+
+	public static final int BLOCK_STATES = 1024;
+	private final int width;
+	private final int memoryBlocks;
+	private final Path spillDirectory;
+	private final Deque<Block> blocks;
+	private Path spillFile;
+	private FileChannel channel;
+	private long readPosition;
+	private long writePosition;
+	private int spilledBlocks;
+	private long states;
+
+	/**
+	 * @param width longs per state
+	 * @param memoryBlocks blocks held in memory before spilling
+	 * @param spillDirectory for the spill file, or null to hold every block in memory
+	 */
+	public Frontier(int width, int memoryBlocks, Path spillDirectory) {
+		this.width = width;
+		this.memoryBlocks = memoryBlocks;
+		this.spillDirectory = spillDirectory;
+		this.blocks = new ArrayDeque<Block>();
+	}
+
+	public Block newBlock() {
+		return new Block(new long[BLOCK_STATES * width]);
+	}
+
+	public synchronized void add(Block block) throws IOException {
+		if (block.count == 0) {
+			return;
+		}
+		states += block.count;
+		if ((spillDirectory == null) || (blocks.size() < memoryBlocks)) {
+			blocks.add(block);
+		} else {
+			spill(block);
+		}
+	}
+
+	/**
+	 * @return a block, or null when the frontier is empty
+	 * @throws IOException
+	 */
+	public synchronized Block take() throws IOException {
+		if (!blocks.isEmpty()) {
+			return blocks.poll();
+		}
+		if (spilledBlocks == 0) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(4);
+		readFully(header, readPosition);
+		header.flip();
+		Block block = newBlock();
+		block.count = header.getInt();
+		ByteBuffer body = ByteBuffer.allocate(8 * block.count * width);
+		readFully(body, readPosition + 4);
+		body.flip();
+		body.asLongBuffer().get(block.states, 0, block.count * width);
+		readPosition += 4 + body.capacity();
+		spilledBlocks--;
+		return block;
+	}
+
+	private void spill(Block block) throws IOException {
+		if (channel == null) {
+			spillFile = Files.createTempFile(spillDirectory, "frontier", ".states");
+			channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(4 + 8 * block.count * width);
+		buffer.putInt(block.count);
+		LongBuffer longs = buffer.asLongBuffer();
+		longs.put(block.states, 0, block.count * width);
+		buffer.position(buffer.capacity());
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			writePosition += channel.write(buffer, writePosition);
+		}
+		spilledBlocks++;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Frontier:  spill file ended early");
+			}
+		}
+	}
+
+	/**
+	 * @return states added
+	 */
+	public synchronized long size() {
+		return states;
+	}
+
+	public synchronized boolean hasSpilled() {
+		return channel != null;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Up to {@link Frontier#BLOCK_STATES} packed states.
+	 */
+	static class Block {
+		protected final long[] states;
+		protected int count;
+
+		public Block(long[] states) {
+			this.states = states;
+		}
+
+		public boolean isFull() {
+			return count == BLOCK_STATES;
+		}
+	}
+}
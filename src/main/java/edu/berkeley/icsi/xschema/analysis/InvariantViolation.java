@@ -0,0 +1,39 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+/**
+ * The reachable markings found to violate an invariant given to {@link ReachabilityExplorer}.
+ */
+public class InvariantViolation {
+
+	private final String name;
+	private final long count;
+	private final int[] example;
+
+	public InvariantViolation(String name, long count, int[] example) {
+		this.name = name;
+		this.count = count;
+		this.example = example;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return number of reachable markings that violate the invariant; 0 if it holds
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	public boolean holds() {
+		return count == 0;
+	}
+
+	/**
+	 * @return the first violating marking found, by slot; null if the invariant holds
+	 */
+	public int[] getExample() {
+		return example;
+	}
+}
@@ -0,0 +1,14 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+/**
+ * A property of a marking, checked by the {@link ReachabilityExplorer} in every reachable state.
+ * Called from many threads at once; implementations must not keep state between calls.
+ */
+public interface MarkingPredicate {
+
+	/**
+	 * @param counts token counts by slot, as in {@link edu.berkeley.icsi.xschema.runner.Marking}; not to be modified or retained
+	 * @return true if the property holds
+	 */
+	public boolean holds(int[] counts);
+}
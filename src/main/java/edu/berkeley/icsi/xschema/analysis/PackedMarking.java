@@ -0,0 +1,100 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+/**
+ * Packs the slot counts of a marking into longs, with a fixed number of bits per slot,
+ * so a state of a net with small counts takes a few words rather than an int per slot.
+ * A count above {@link #getMaxCount()} cannot be packed; the explorer treats it as exceeding the bound of the place.
+ */
+public class PackedMarking {
+
+	private final int slots;
+	private final int bits;
+	private final int slotsPerWord;
+	private final int words;
+	private final long mask;
+
+	/**
+	 * @param slots of the marking
+	 * @param bits per slot, from 1 to 32
+	 */
+	public PackedMarking(int slots, int bits) {
+		if ((bits < 1) || (bits > 32)) {
+			throw new IllegalArgumentException("PackedMarking:  bits per slot must be from 1 to 32, but was "+bits);
+		}
+		this.slots = slots;
+		this.bits = bits;
+		this.slotsPerWord = 64 / bits;
+		this.words = Math.max(1, (slots + slotsPerWord - 1) / slotsPerWord);
+		this.mask = (1L << bits) - 1;
+	}
+
+	/**
+	 * @return longs per packed marking
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	public int getMaxCount() {
+		return (int) mask;
+	}
+
+	/**
+	 * @param counts of every slot
+	 * @param packed destination
+	 * @param offset of the first word in the destination
+	 * @return false if a count is too large to pack; the destination is then incomplete
+	 */
+	public boolean pack(int[] counts, long[] packed, int offset) {
+		for (int word = 0; word < words; word++) {
+			long value = 0;
+			int first = word * slotsPerWord;
+			int last = Math.min(slots, first + slotsPerWord);
+			for (int slot = last - 1; slot >= first; slot--) {
+				int count = counts[slot];
+				if ((count & 0xffffffffL) > mask) {
+					return false;
+				}
+				value = (value << bits) | (count & mask);
+			}
+			packed[offset + word] = value;
+		}
+		return true;
+	}
+
+	/**
+	 * @param packed source
+	 * @param offset of the first word in the source
+	 * @param counts of every slot
+	 */
+	public void unpack(long[] packed, int offset, int[] counts) {
+		for (int word = 0; word < words; word++) {
+			long value = packed[offset + word];
+			int first = word * slotsPerWord;
+			int last = Math.min(slots, first + slotsPerWord);
+			for (int slot = first; slot < last; slot++) {
+				counts[slot] = (int) (value & mask);
+				value >>>= bits;
+			}
+		}
+	}
+
+	/**
+	 * @param packed
+	 * @param offset
+	 * @param words
+	 * @return well-mixed 64-bit hash of the words
+	 */
+	public static long hash(long[] packed, int offset, int words) {
+		long hash = 0x9E3779B97F4A7C15L;
+		for (int i = offset; i < offset + words; i++) {
+			hash = (hash ^ packed[i]) * 0xBF58476D1CE4E5B9L;
+			hash ^= hash >>> 31;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,616 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+import edu.berkeley.icsi.xschema.analysis.Frontier.Block;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.Marking;
+
+/**
+ * Explores every marking reachable from the initial marking of a net, breadth first, in parallel,
+ * and reports deadlocks, places that grow without bound, and markings that violate given invariants,
+ * e.g., that "Grasp.Done" and "Grasp.Suspended" are never marked at the same time.
+ * <p>
+ * States are packed into longs ({@link PackedMarking}) and kept in a concurrent {@link StateSet}.
+ * Each level of the search is split into tasks on a fork-join pool, whose work stealing balances levels
+ * whose states have very different numbers of successors.  The frontier of a level can be spilled to disk
+ * ({@link #setSpillDirectory(Path, int)}); for state spaces whose visited set is larger than the heap,
+ * {@link #setHashCompaction(boolean) hash compaction} keeps a 64-bit hash per state instead of the state,
+ * at a small risk of missing states whose hash collides with a visited one.
+ * <p>
+ * Firing follows the rules of the runners:  only enabled transitions of the highest enabled priority level can fire.
+ * External transitions move tokens along their arcs; markings made by their classes, or from outside the net,
+ * are not explored.  A place is reported unbounded when a reachable firing strictly increases it and nothing
+ * else (possible only without inhibitor arcs or priorities), and as exceeding its bound when a reachable marking
+ * holds more tokens than fit in the packed bits; states beyond the bound are not explored further.
+ * <p>
+ * Two reductions keep the state space of a hierarchy with many parallel children from growing exponentially.
+ * {@link #setPartialOrderReduction(boolean) Partial-order reduction} fires, in each marking, only a stubborn set
+ * of transitions, so independent transitions of separate includes are explored in one order instead of every
+ * interleaving.  {@link #setSymmetryReduction(boolean) Symmetry reduction} stores one marking for all those that
+ * differ only by an exchange of structurally identical sibling includes.  Both preserve deadlocks, and the
+ * invariants whose places are given; state and edge counts are then those of the reduced space, and reported
+ * markings may be any of the equivalent ones.  An invariant added without its places turns both reductions off.
+ */
+public class ReachabilityExplorer {
+
+	public static final int DEFAULT_BITS_PER_SLOT = 8;
+	public static final long DEFAULT_MAX_STATES = 10000000;
+	public static final int DEFAULT_MAX_REPORTED = 10;
+	public static final int DEFAULT_MEMORY_BLOCKS = 4096;
+	private static final int LEAF_STATES = 64;
+	private final CompiledNet net;
+	private final ForkJoinPool pool;
+	private final int[] initial;
+	private final Map<String, MarkingPredicate> invariants;
+	private final int[][] growingPlaces;
+	private int bitsPerSlot;
+	private long maxStates;
+	private int maxReported;
+	private Path spillDirectory;
+	private int memoryBlocks;
+	private boolean hashCompaction;
+	private boolean partialOrderReduction;
+	private boolean symmetryReduction;
+	private final boolean[] visiblePlaces;
+	private boolean opaqueInvariants;
+
+	public ReachabilityExplorer(PetriNet petriNet) {
+		this(CompiledNet.compile(petriNet));
+	}
+
+	public ReachabilityExplorer(IncludeHierarchy includes) {
+		this(CompiledNet.compile(includes));
+	}
+
+	public ReachabilityExplorer(CompiledNet net) {
+		this(net, new ForkJoinPool());
+	}
+
+	public ReachabilityExplorer(CompiledNet net, ForkJoinPool pool) {
+		this.net = net;
+		this.pool = pool;
+		this.initial = net.getInitialMarking();
+		this.invariants = new LinkedHashMap<String, MarkingPredicate>();
+		this.growingPlaces = growingPlaces(net);
+		this.visiblePlaces = new boolean[net.getPlaceCount()];
+		this.bitsPerSlot = DEFAULT_BITS_PER_SLOT;
+		this.maxStates = DEFAULT_MAX_STATES;
+		this.maxReported = DEFAULT_MAX_REPORTED;
+		this.memoryBlocks = DEFAULT_MEMORY_BLOCKS;
+	}
+
+	/**
+	 * For each transition, the places it strictly increases if it changes no place for the worse:  such a
+	 * transition, once enabled, stays enabled and grows those places forever.  Only valid without inhibitor
+	 * arcs and with a single priority level, where enabling is monotonic; otherwise no place is listed.
+	 */
+	private static int[][] growingPlaces(CompiledNet net) {
+		int[][] growing = new int[net.getTransitionCount()][];
+		boolean monotonic = (net.getInhibitorStart()[net.getTransitionCount()] == 0) && (net.getLevelCount() <= 1);
+		int tokens = Math.max(1, net.getTokenTypeCount());
+		int[] change = new int[net.getSlotCount()];
+		for (int transition = 0; transition < growing.length; transition++) {
+			growing[transition] = new int[0];
+			if (!monotonic) {
+				continue;
+			}
+			Arrays.fill(change, 0);
+			for (int i = net.getInputStart()[transition]; i < net.getInputStart()[transition + 1]; i++) {
+				change[net.getInputSlot()[i]] -= net.getInputWeight()[i];
+			}
+			for (int i = net.getOutputStart()[transition]; i < net.getOutputStart()[transition + 1]; i++) {
+				change[net.getOutputSlot()[i]] += net.getOutputWeight()[i];
+			}
+			List<Integer> places = new ArrayList<Integer>();
+			boolean decreases = false;
+			for (int slot = 0; slot < change.length; slot++) {
+				if (change[slot] < 0) {
+					decreases = true;
+				} else if ((change[slot] > 0) && (net.getCapacity(slot / tokens) == 0) && !places.contains(slot / tokens)) {
+					places.add(slot / tokens);
+				}
+			}
+			if (!decreases) {
+				growing[transition] = new int[places.size()];
+				for (int i = 0; i < places.size(); i++) {
+					growing[transition][i] = places.get(i);
+				}
+			}
+		}
+		return growing;
+	}
+
+	/**
+	 * Sets the count of a slot in the initial marking, which is otherwise the marking the net was compiled with.
+	 * @param placeId
+	 * @param token
+	 * @param count
+	 * @throws InterfaceException if the net has no such place or token
+	 */
+	public void markPlace(String placeId, String token, int count) throws InterfaceException {
+		initial[slot(placeId, token)] = count;
+	}
+
+	private int slot(String placeId, String token) throws InterfaceException {
+		int place = placeIndex(placeId);
+		int tokenIndex = net.tokenIndex(token);
+		if (tokenIndex < 0) {
+			throw new InterfaceException("ReachabilityExplorer:  token "+token+" not found in executable net");
+		}
+		return net.slot(place, tokenIndex);
+	}
+
+	private int placeIndex(String placeId) throws InterfaceException {
+		int place = net.placeIndex(placeId);
+		if (place < 0) {
+			throw new InterfaceException("ReachabilityExplorer:  place "+placeId+" not found in executable net");
+		}
+		return place;
+	}
+
+	/**
+	 * @param name reported with violations
+	 * @param invariant checked in every reachable marking
+	 * @param placeIds the places the invariant reads; if none are given, it may read any place,
+	 * and neither reduction is applied
+	 * @throws InterfaceException if the net has no such place
+	 */
+	public void addInvariant(String name, MarkingPredicate invariant, String... placeIds) throws InterfaceException {
+		for (String placeId : placeIds) {
+			visiblePlaces[placeIndex(placeId)] = true;
+		}
+		opaqueInvariants |= (placeIds.length == 0);
+		invariants.put(name, invariant);
+	}
+
+	/**
+	 * Adds the invariant that at most one of the places holds tokens.
+	 * @param placeIds
+	 * @throws InterfaceException if the net has no such place
+	 */
+	public void addMutualExclusion(String... placeIds) throws InterfaceException {
+		final int[] places = new int[placeIds.length];
+		for (int i = 0; i < places.length; i++) {
+			places[i] = placeIndex(placeIds[i]);
+		}
+		final int tokens = net.getTokenTypeCount();
+		addInvariant("mutual exclusion of "+Arrays.toString(placeIds), new MarkingPredicate() {
+			@Override
+			public boolean holds(int[] counts) {
+				int marked = 0;
+				for (int place : places) {
+					for (int slot = place * tokens; slot < (place + 1) * tokens; slot++) {
+						if (counts[slot] > 0) {
+							marked++;
+							break;
+						}
+					}
+				}
+				return marked <= 1;
+			}
+		}, placeIds);
+	}
+
+	/**
+	 * @param bitsPerSlot from 1 to 32; counts above 2^bits - 1 are reported as exceeding the bound
+	 */
+	public void setBitsPerSlot(int bitsPerSlot) {
+		this.bitsPerSlot = bitsPerSlot;
+	}
+
+	/**
+	 * @param maxStates after which the search stops, and the result is incomplete
+	 */
+	public void setMaxStates(long maxStates) {
+		this.maxStates = maxStates;
+	}
+
+	/**
+	 * @param maxReported example markings kept for deadlocks
+	 */
+	public void setMaxReported(int maxReported) {
+		this.maxReported = maxReported;
+	}
+
+	/**
+	 * @param spillDirectory for frontier files
+	 * @param memoryBlocks blocks of 1024 states held in memory per level before spilling;
+	 * all but one per worker thread are full
+	 */
+	public void setSpillDirectory(Path spillDirectory, int memoryBlocks) {
+		this.spillDirectory = spillDirectory;
+		this.memoryBlocks = memoryBlocks;
+	}
+
+	/**
+	 * @param hashCompaction if true, the visited set holds a 64-bit hash of each state rather than the state
+	 */
+	public void setHashCompaction(boolean hashCompaction) {
+		this.hashCompaction = hashCompaction;
+	}
+
+	/**
+	 * @param partialOrderReduction if true, fire only a stubborn set of the enabled transitions of each marking;
+	 * ignored for nets with inhibitor arcs, place capacities or priorities
+	 */
+	public void setPartialOrderReduction(boolean partialOrderReduction) {
+		this.partialOrderReduction = partialOrderReduction;
+	}
+
+	/**
+	 * @param symmetryReduction if true, store one marking for those that differ by an exchange of identical includes
+	 */
+	public void setSymmetryReduction(boolean symmetryReduction) {
+		this.symmetryReduction = symmetryReduction;
+	}
+
+	public CompiledNet getCompiledNet() {
+		return net;
+	}
+
+	/**
+	 * Explores the state space.
+	 * @return result
+	 * @throws IOException if the frontier cannot be spilled
+	 */
+	public ReachabilityResult explore() throws IOException {
+		return new Exploration().run();
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * The state of one call to {@link ReachabilityExplorer#explore()}.
+	 */
+	private class Exploration {
+		private final PackedMarking codec;
+		private final int width;
+		private final int keyWidth;
+		private final StateSet visited;
+		private final AtomicLong states;
+		private final AtomicLong edges;
+		private final AtomicLong deadlocks;
+		private final ConcurrentLinkedQueue<int[]> deadlockMarkings;
+		private final AtomicIntegerArray unbounded;
+		private final AtomicIntegerArray exceeded;
+		private final String[] invariantNames;
+		private final MarkingPredicate[] invariantChecks;
+		private final AtomicLongArray violations;
+		private final AtomicReferenceArray<int[]> violatingMarkings;
+		private final ThreadLocal<Scratch> scratch;
+		private final ConcurrentLinkedQueue<Scratch> scratches;
+		private final StubbornSets stubbornSets;
+		private final Symmetry symmetry;
+		private volatile boolean truncated;
+		private boolean spilled;
+
+		public Exploration() {
+			codec = new PackedMarking(net.getSlotCount(), bitsPerSlot);
+			width = codec.getWords();
+			keyWidth = hashCompaction ? 1 : width;
+			visited = new StateSet(keyWidth);
+			states = new AtomicLong();
+			edges = new AtomicLong();
+			deadlocks = new AtomicLong();
+			deadlockMarkings = new ConcurrentLinkedQueue<int[]>();
+			unbounded = new AtomicIntegerArray(net.getPlaceCount());
+			exceeded = new AtomicIntegerArray(net.getPlaceCount());
+			invariantNames = invariants.keySet().toArray(new String[invariants.size()]);
+			invariantChecks = invariants.values().toArray(new MarkingPredicate[invariants.size()]);
+			violations = new AtomicLongArray(invariantNames.length);
+			violatingMarkings = new AtomicReferenceArray<int[]>(invariantNames.length);
+			StubbornSets sets = new StubbornSets(net, visiblePlaces);
+			stubbornSets = (partialOrderReduction && !opaqueInvariants && sets.isApplicable()) ? sets : null;
+			symmetry = (symmetryReduction && !opaqueInvariants) ? Symmetry.detect(net, visiblePlaces) : null;
+			scratches = new ConcurrentLinkedQueue<Scratch>();
+			scratch = new ThreadLocal<Scratch>() {
+				@Override
+				protected Scratch initialValue() {
+					Scratch local = new Scratch();
+					scratches.add(local);
+					return local;
+				}
+			};
+		}
+
+		public ReachabilityResult run() throws IOException {
+			Frontier current = new Frontier(width, memoryBlocks, spillDirectory);
+			Scratch local = scratch.get();
+			int levels = 0;
+			System.arraycopy(initial, 0, local.successor, 0, initial.length);
+			if (symmetry != null) {
+				symmetry.canonicalize(local.successor);
+			}
+			if (!codec.pack(local.successor, local.packed, 0)) {
+				markExceeded(initial);
+			} else {
+				visited.add(local.key(), 0, local.hashKey());
+				states.incrementAndGet();
+				Block block = current.newBlock();
+				System.arraycopy(local.packed, 0, block.states, 0, width);
+				block.count = 1;
+				current.add(block);
+			}
+			try {
+				while (current.size() > 0) {
+					Frontier next = new Frontier(width, memoryBlocks, spillDirectory);
+					expandLevel(current, next);
+					spilled |= current.hasSpilled();
+					current.close();
+					current = next;
+					if (current.size() > 0) {
+						levels++;
+					}
+				}
+			} finally {
+				current.close();
+			}
+			return new ReachabilityResult(net, states.get(), edges.get(), levels, !truncated, spilled,
+					deadlocks.get(), new ArrayList<int[]>(deadlockMarkings), places(unbounded), places(exceeded),
+					invariantResults(), stubbornSets != null,
+					(symmetry == null) ? new ArrayList<List<String>>() : symmetry.getGroups());
+		}
+
+		/**
+		 * Each worker thread fills one output block across all the tasks it runs, so blocks are full
+		 * except for the last of each worker, added to the next level when the level ends.
+		 */
+		private void expandLevel(Frontier current, Frontier next) throws IOException {
+			List<ExpandTask> tasks = new ArrayList<ExpandTask>();
+			Block block = current.take();
+			while (block != null) {
+				tasks.add(new ExpandTask(block, 0, block.count, next));
+				block = current.take();
+				if ((block == null) || (tasks.size() == 4 * pool.getParallelism())) {
+					try {
+						pool.invoke(new TaskBatch(tasks));
+					} catch (IllegalStateException e) {
+						// the pool may rethrow a copy, with the original as its cause
+						for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+							if (cause instanceof IOException) {
+								throw (IOException) cause;
+							}
+						}
+						throw e;
+					}
+					tasks.clear();
+				}
+			}
+			for (Scratch local : scratches) {
+				if (local.out != null) {
+					next.add(local.out);
+					local.out = null;
+				}
+			}
+		}
+
+		private void expand(Block block, int from, int to, Frontier next) {
+			Scratch local = scratch.get();
+			if (local.out == null) {
+				local.out = next.newBlock();
+			}
+			local.edges = 0;
+			for (int i = from; i < to; i++) {
+				codec.unpack(block.states, i * width, local.counts);
+				checkInvariants(local.counts);
+				local.marking.reset(local.counts);
+				int fireable = local.marking.getFireableCount();
+				if (fireable == 0) {
+					if ((deadlocks.incrementAndGet() <= maxReported)) {
+						deadlockMarkings.add(local.counts.clone());
+					}
+					continue;
+				}
+				int reduced = (stubbornSets == null) ? -1 :
+						stubbornSets.reduce(local.marking, local.counts, local.workspace, local.reduced);
+				if (reduced < 0) {
+					for (int k = 0; k < fireable; k++) {
+						fire(local, local.marking.select(k), next);
+					}
+					continue;
+				}
+				boolean allNew = true;
+				for (int k = 0; k < reduced; k++) {
+					allNew &= fire(local, local.reduced[k], next);
+				}
+				if (!allNew) {
+					// a successor already seen may close a cycle that would postpone the other transitions forever
+					for (int k = 0; k < fireable; k++) {
+						int transition = local.marking.select(k);
+						if (!contains(local.reduced, reduced, transition)) {
+							fire(local, transition, next);
+						}
+					}
+				}
+			}
+			edges.addAndGet(local.edges);
+		}
+
+		/**
+		 * Adds the successor of the marking in local.counts to the next level, if it was not seen before.
+		 * @return false if the successor was seen before
+		 */
+		private boolean fire(Scratch local, int transition, Frontier next) {
+			local.edges++;
+			for (int place : growingPlaces[transition]) {
+				unbounded.set(place, 1);
+			}
+			int[] successor = local.successor;
+			System.arraycopy(local.counts, 0, successor, 0, successor.length);
+			int[] inputStart = net.getInputStart();
+			int[] inputSlot = net.getInputSlot();
+			int[] inputWeight = net.getInputWeight();
+			for (int j = inputStart[transition]; j < inputStart[transition + 1]; j++) {
+				successor[inputSlot[j]] -= inputWeight[j];
+			}
+			int[] outputStart = net.getOutputStart();
+			int[] outputSlot = net.getOutputSlot();
+			int[] outputWeight = net.getOutputWeight();
+			for (int j = outputStart[transition]; j < outputStart[transition + 1]; j++) {
+				successor[outputSlot[j]] += outputWeight[j];
+			}
+			if (symmetry != null) {
+				symmetry.canonicalize(successor);
+			}
+			if (!codec.pack(successor, local.packed, 0)) {
+				markExceeded(successor);
+				return true;
+			}
+			if (!visited.add(local.key(), 0, local.hashKey())) {
+				return false;
+			}
+			if (states.incrementAndGet() > maxStates) {
+				truncated = true;
+				return true;
+			}
+			Block out = local.out;
+			System.arraycopy(local.packed, 0, out.states, out.count * width, width);
+			out.count++;
+			if (out.isFull()) {
+				add(next, out);
+				local.out = next.newBlock();
+			}
+			return true;
+		}
+
+		private boolean contains(int[] transitions, int count, int transition) {
+			for (int i = 0; i < count; i++) {
+				if (transitions[i] == transition) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void add(Frontier next, Block block) {
+			try {
+				next.add(block);
+			} catch (IOException e) {
+				throw new IllegalStateException("ReachabilityExplorer:  unable to spill frontier", e);
+			}
+		}
+
+		private void checkInvariants(int[] counts) {
+			for (int i = 0; i < invariantChecks.length; i++) {
+				if (!invariantChecks[i].holds(counts)) {
+					violations.incrementAndGet(i);
+					violatingMarkings.compareAndSet(i, null, counts.clone());
+				}
+			}
+		}
+
+		private void markExceeded(int[] counts) {
+			int tokens = Math.max(1, net.getTokenTypeCount());
+			for (int slot = 0; slot < counts.length; slot++) {
+				if (counts[slot] > codec.getMaxCount()) {
+					exceeded.set(slot / tokens, 1);
+				}
+			}
+			truncated = true;
+		}
+
+		private List<String> places(AtomicIntegerArray flags) {
+			List<String> places = new ArrayList<String>();
+			for (int place = 0; place < flags.length(); place++) {
+				if (flags.get(place) != 0) {
+					places.add(net.getPlaceId(place));
+				}
+			}
+			return places;
+		}
+
+		private Map<String, InvariantViolation> invariantResults() {
+			Map<String, InvariantViolation> results = new LinkedHashMap<String, InvariantViolation>();
+			for (int i = 0; i < invariantNames.length; i++) {
+				results.put(invariantNames[i], new InvariantViolation(invariantNames[i], violations.get(i),
+						violatingMarkings.get(i)));
+			}
+			return results;
+		}
+
+		/**
+		 * Arrays reused by one worker thread.
+		 */
+		private class Scratch {
+			private final Marking marking = new Marking(net);
+			private final int[] counts = new int[net.getSlotCount()];
+			private final int[] successor = new int[net.getSlotCount()];
+			private final long[] packed = new long[width];
+			private final long[] hashed = new long[1];
+			private final int[] reduced = new int[net.getTransitionCount()];
+			private final StubbornSets.Workspace workspace = (stubbornSets == null) ? null : stubbornSets.newWorkspace();
+			private Block out;
+			private long edges;
+
+			public long[] key() {
+				if (hashCompaction) {
+					hashed[0] = PackedMarking.hash(packed, 0, width);
+					return hashed;
+				}
+				return packed;
+			}
+
+			public long hashKey() {
+				return PackedMarking.hash(key(), 0, keyWidth);
+			}
+		}
+
+		private class ExpandTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			private final Block block;
+			private final int from;
+			private final int to;
+			private final Frontier next;
+
+			public ExpandTask(Block block, int from, int to, Frontier next) {
+				this.block = block;
+				this.from = from;
+				this.to = to;
+				this.next = next;
+			}
+
+			@Override
+			protected void compute() {
+				if (to - from <= LEAF_STATES) {
+					expand(block, from, to, next);
+				} else {
+					int middle = (from + to) >>> 1;
+					invokeAll(new ExpandTask(block, from, middle, next), new ExpandTask(block, middle, to, next));
+				}
+			}
+		}
+
+		private class TaskBatch extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			private final List<ExpandTask> tasks;
+
+			public TaskBatch(List<ExpandTask> tasks) {
+				this.tasks = tasks;
+			}
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		}
+	}
+}
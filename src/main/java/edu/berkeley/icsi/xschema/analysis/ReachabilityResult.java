@@ -0,0 +1,156 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * What a {@link ReachabilityExplorer} found.  Markings are arrays of counts by slot of the {@link CompiledNet};
+ * {@link #describe(int[])} lists the places they mark.
+ */
+public class ReachabilityResult {
+
+	private final CompiledNet net;
+	private final long stateCount;
+	private final long edgeCount;
+	private final int depth;
+	private final boolean complete;
+	private final boolean spilled;
+	private final long deadlockCount;
+	private final List<int[]> deadlocks;
+	private final List<String> unboundedPlaces;
+	private final List<String> boundExceededPlaces;
+	private final Map<String, InvariantViolation> invariants;
+	private final boolean partialOrderReduced;
+	private final List<List<String>> symmetricIncludes;
+
+	public ReachabilityResult(CompiledNet net, long stateCount, long edgeCount, int depth, boolean complete,
+			boolean spilled, long deadlockCount, List<int[]> deadlocks, List<String> unboundedPlaces,
+			List<String> boundExceededPlaces, Map<String, InvariantViolation> invariants, boolean partialOrderReduced,
+			List<List<String>> symmetricIncludes) {
+		this.net = net;
+		this.stateCount = stateCount;
+		this.edgeCount = edgeCount;
+		this.depth = depth;
+		this.complete = complete;
+		this.spilled = spilled;
+		this.deadlockCount = deadlockCount;
+		this.deadlocks = Collections.unmodifiableList(deadlocks);
+		this.unboundedPlaces = Collections.unmodifiableList(unboundedPlaces);
+		this.boundExceededPlaces = Collections.unmodifiableList(boundExceededPlaces);
+		this.invariants = Collections.unmodifiableMap(invariants);
+		this.partialOrderReduced = partialOrderReduced;
+		this.symmetricIncludes = Collections.unmodifiableList(symmetricIncludes);
+	}
+
+	/**
+	 * @return number of distinct reachable markings found, including the initial marking;
+	 * of the reduced state space, if a reduction was applied
+	 */
+	public long getStateCount() {
+		return stateCount;
+	}
+
+	/**
+	 * @return number of firings explored
+	 */
+	public long getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * @return firings from the initial marking to the farthest marking
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return false if the search stopped at the state limit, or at markings beyond the packed bound
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return true if part of the frontier was written to disk
+	 */
+	public boolean hasSpilled() {
+		return spilled;
+	}
+
+	/**
+	 * @return number of reachable markings in which no transition is enabled
+	 */
+	public long getDeadlockCount() {
+		return deadlockCount;
+	}
+
+	/**
+	 * @return some of the deadlocked markings, up to {@link ReachabilityExplorer#setMaxReported(int)}
+	 */
+	public List<int[]> getDeadlocks() {
+		return deadlocks;
+	}
+
+	/**
+	 * @return places shown to grow without bound
+	 */
+	public List<String> getUnboundedPlaces() {
+		return unboundedPlaces;
+	}
+
+	/**
+	 * @return places that reached more tokens than the explorer's bits per slot can hold
+	 */
+	public List<String> getBoundExceededPlaces() {
+		return boundExceededPlaces;
+	}
+
+	/**
+	 * @return invariants by name
+	 */
+	public Map<String, InvariantViolation> getInvariants() {
+		return invariants;
+	}
+
+	public InvariantViolation getInvariant(String name) {
+		return invariants.get(name);
+	}
+
+	/**
+	 * @return true if only stubborn sets of transitions were fired
+	 */
+	public boolean isPartialOrderReduced() {
+		return partialOrderReduced;
+	}
+
+	/**
+	 * @return groups of includes treated as interchangeable, by fully qualified name; empty without symmetry reduction
+	 */
+	public List<List<String>> getSymmetricIncludes() {
+		return symmetricIncludes;
+	}
+
+	/**
+	 * @param counts marking, by slot
+	 * @return token counts of the marked places, by place id, summed over token types
+	 */
+	public Map<String, Integer> describe(int[] counts) {
+		Map<String, Integer> marked = new TreeMap<String, Integer>();
+		int tokens = net.getTokenTypeCount();
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			int total = 0;
+			for (int token = 0; token < tokens; token++) {
+				total += counts[net.slot(place, token)];
+			}
+			if (total > 0) {
+				marked.put(net.getPlaceId(place), total);
+			}
+		}
+		return marked;
+	}
+}
@@ -0,0 +1,131 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable integer matrix, stored by rows:  the nonzero entries of row r are at positions
+ * <code>getRowStart()[r]</code> to <code>getRowStart()[r + 1] - 1</code> of {@link #getColumns()} and
+ * {@link #getValues()}, in increasing column order, as the arcs of a {@link edu.berkeley.icsi.xschema.runner.CompiledNet}
+ * are stored by transition.
+ */
+public class SparseIntMatrix {
+
+	private final int rowCount;
+	private final int columnCount;
+	private final int[] rowStart;
+	private final int[] columns;
+	private final int[] values;
+
+	/**
+	 * @param columnCount
+	 * @param rows each with increasing columns and nonzero values
+	 */
+	SparseIntMatrix(int columnCount, List<SparseVector> rows) {
+		this.rowCount = rows.size();
+		this.columnCount = columnCount;
+		rowStart = new int[rowCount + 1];
+		for (int r = 0; r < rowCount; r++) {
+			rowStart[r + 1] = rowStart[r] + rows.get(r).size();
+		}
+		columns = new int[rowStart[rowCount]];
+		values = new int[rowStart[rowCount]];
+		for (int r = 0; r < rowCount; r++) {
+			SparseVector row = rows.get(r);
+			System.arraycopy(row.indices, 0, columns, rowStart[r], row.size());
+			System.arraycopy(row.values, 0, values, rowStart[r], row.size());
+		}
+	}
+
+	private SparseIntMatrix(int rowCount, int columnCount, int[] rowStart, int[] columns, int[] values) {
+		this.rowCount = rowCount;
+		this.columnCount = columnCount;
+		this.rowStart = rowStart;
+		this.columns = columns;
+		this.values = values;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	/**
+	 * @param row
+	 * @param column
+	 * @return entry, or 0 if it is not stored
+	 */
+	public int get(int row, int column) {
+		int i = Arrays.binarySearch(columns, rowStart[row], rowStart[row + 1], column);
+		return (i >= 0) ? values[i] : 0;
+	}
+
+	/**
+	 * @param row
+	 * @return number of nonzero entries in the row
+	 */
+	public int getRowSize(int row) {
+		return rowStart[row + 1] - rowStart[row];
+	}
+
+	public int[] getRowStart() {
+		return rowStart;
+	}
+
+	public int[] getColumns() {
+		return columns;
+	}
+
+	public int[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @param row
+	 * @param vector of {@link #getColumnCount()} entries
+	 * @return dot product of the row with the vector
+	 */
+	public long multiply(int row, int[] vector) {
+		long sum = 0;
+		for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+			sum += (long) values[i] * vector[columns[i]];
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the transpose, stored by rows
+	 */
+	public SparseIntMatrix transpose() {
+		int[] start = new int[columnCount + 1];
+		for (int i = 0; i < columns.length; i++) {
+			start[columns[i] + 1]++;
+		}
+		for (int c = 0; c < columnCount; c++) {
+			start[c + 1] += start[c];
+		}
+		int[] next = Arrays.copyOf(start, columnCount);
+		int[] transposedColumns = new int[columns.length];
+		int[] transposedValues = new int[values.length];
+		for (int r = 0; r < rowCount; r++) {
+			for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+				int position = next[columns[i]]++;
+				transposedColumns[position] = r;
+				transposedValues[position] = values[i];
+			}
+		}
+		return new SparseIntMatrix(columnCount, rowCount, start, transposedColumns, transposedValues);
+	}
+
+	/**
+	 * @param row
+	 * @return the row, as a sparse vector
+	 */
+	SparseVector row(int row) {
+		return new SparseVector(Arrays.copyOfRange(columns, rowStart[row], rowStart[row + 1]),
+				Arrays.copyOfRange(values, rowStart[row], rowStart[row + 1]));
+	}
+}
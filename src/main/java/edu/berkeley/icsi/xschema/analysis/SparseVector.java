@@ -0,0 +1,125 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sparse integer vector:  increasing indices, each with a nonzero value.
+ */
+class SparseVector {
+
+	static final SparseVector EMPTY = new SparseVector(new int[0], new int[0]);
+	final int[] indices;
+	final int[] values;
+
+	SparseVector(int[] indices, int[] values) {
+		this.indices = indices;
+		this.values = values;
+	}
+
+	/**
+	 * @param index
+	 * @return vector with a single entry of 1
+	 */
+	static SparseVector unit(int index) {
+		return new SparseVector(new int[] {index}, new int[] {1});
+	}
+
+	int size() {
+		return indices.length;
+	}
+
+	int get(int index) {
+		int i = Arrays.binarySearch(indices, index);
+		return (i >= 0) ? values[i] : 0;
+	}
+
+	/**
+	 * @return <code>factor * this + otherFactor * other</code>, without the entries that cancel
+	 * @throws ArithmeticException if an entry overflows an int
+	 */
+	SparseVector combine(long factor, SparseVector other, long otherFactor) {
+		int[] sumIndices = new int[indices.length + other.indices.length];
+		int[] sumValues = new int[sumIndices.length];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while ((i < indices.length) || (j < other.indices.length)) {
+			int index;
+			long value;
+			if ((j == other.indices.length) || ((i < indices.length) && (indices[i] < other.indices[j]))) {
+				index = indices[i];
+				value = factor * values[i++];
+			} else if ((i == indices.length) || (other.indices[j] < indices[i])) {
+				index = other.indices[j];
+				value = otherFactor * other.values[j++];
+			} else {
+				index = indices[i];
+				value = factor * values[i++] + otherFactor * other.values[j++];
+			}
+			if (value != 0) {
+				if ((value > Integer.MAX_VALUE) || (value < Integer.MIN_VALUE)) {
+					throw new ArithmeticException("SparseVector:  entry "+index+" overflows");
+				}
+				sumIndices[size] = index;
+				sumValues[size++] = (int) value;
+			}
+		}
+		return new SparseVector(Arrays.copyOf(sumIndices, size), Arrays.copyOf(sumValues, size));
+	}
+
+	/**
+	 * @return gcd of the absolute values of the entries; 0 if there are none
+	 */
+	int gcd() {
+		int gcd = 0;
+		for (int value : values) {
+			gcd = gcd(gcd, Math.abs(value));
+		}
+		return gcd;
+	}
+
+	static int gcd(int a, int b) {
+		while (b != 0) {
+			int remainder = a % b;
+			a = b;
+			b = remainder;
+		}
+		return a;
+	}
+
+	/**
+	 * @param divisor of every entry
+	 * @return this vector with every entry divided
+	 */
+	SparseVector divide(int divisor) {
+		if (divisor <= 1) {
+			return this;
+		}
+		int[] divided = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			divided[i] = values[i] / divisor;
+		}
+		return new SparseVector(indices, divided);
+	}
+
+	/**
+	 * @param other
+	 * @return true if every index of the other vector is an index of this one
+	 */
+	boolean containsSupport(SparseVector other) {
+		if (other.indices.length > indices.length) {
+			return false;
+		}
+		int i = 0;
+		for (int index : other.indices) {
+			while ((i < indices.length) && (indices[i] < index)) {
+				i++;
+			}
+			if ((i == indices.length) || (indices[i] != index)) {
+				return false;
+			}
+			i++;
+		}
+		return true;
+	}
+}
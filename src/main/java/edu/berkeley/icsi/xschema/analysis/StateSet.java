@@ -0,0 +1,102 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+/**
+ * A concurrent set of packed states, each of a fixed number of longs, held in primitive arrays.
+ * The set is split into segments by hash, each an open-addressing table with its own lock,
+ * so threads adding states of different segments do not contend.
+ */
+public class StateSet {
+
+	private static final int SEGMENT_BITS = 6;
+	private static final int INITIAL_CAPACITY = 1024;
+	private final int width;
+	private final Segment[] segments;
+
+	/**
+	 * @param width longs per state
+	 */
+	public StateSet(int width) {
+		this.width = width;
+		segments = new Segment[1 << SEGMENT_BITS];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * @param states source
+	 * @param offset of the state in the source
+	 * @param hash of the state's words, from {@link PackedMarking#hash(long[], int, int)}
+	 * @return true if the state was not in the set, and has been added
+	 */
+	public boolean add(long[] states, int offset, long hash) {
+		return segments[(int) (hash >>> (64 - SEGMENT_BITS))].add(states, offset, hash);
+	}
+
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	private class Segment {
+		private long[] table;
+		private boolean[] used;
+		private int size;
+
+		public Segment() {
+			table = new long[INITIAL_CAPACITY * width];
+			used = new boolean[INITIAL_CAPACITY];
+		}
+
+		public synchronized boolean add(long[] states, int offset, long hash) {
+			int index = find(table, used, states, offset, hash);
+			if (used[index]) {
+				return false;
+			}
+			used[index] = true;
+			System.arraycopy(states, offset, table, index * width, width);
+			size++;
+			if (2 * size > used.length) {
+				grow();
+			}
+			return true;
+		}
+
+		private int find(long[] table, boolean[] used, long[] states, int offset, long hash) {
+			int mask = used.length - 1;
+			int index = (int) hash & mask;
+			while (used[index] && !equal(table, index * width, states, offset)) {
+				index = (index + 1) & mask;
+			}
+			return index;
+		}
+
+		private boolean equal(long[] table, int position, long[] states, int offset) {
+			for (int i = 0; i < width; i++) {
+				if (table[position + i] != states[offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void grow() {
+			long[] newTable = new long[2 * table.length];
+			boolean[] newUsed = new boolean[2 * used.length];
+			for (int index = 0; index < used.length; index++) {
+				if (used[index]) {
+					int position = find(newTable, newUsed, table, index * width, PackedMarking.hash(table, index * width, width));
+					newUsed[position] = true;
+					System.arraycopy(table, index * width, newTable, position * width, width);
+				}
+			}
+			table = newTable;
+			used = newUsed;
+		}
+	}
+}
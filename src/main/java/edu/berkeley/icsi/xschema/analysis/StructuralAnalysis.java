@@ -0,0 +1,476 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * What can be known of a net from its structure alone, without exploring its markings:  its incidence matrix,
+ * its minimal P- and T-invariants, which transitions are in conflict or may be concurrent, and bounds on the places.
+ * <p>
+ * The incidence matrix counts the tokens of all types in a place as one, so a P-invariant y is a weighting of the
+ * places whose weighted total of tokens no firing changes, and each place p it covers can never hold more than
+ * <code>y.M0 / y[p]</code> tokens, from the initial marking M0 of the {@link CompiledNet}.  A place covered by no
+ * invariant, and without a capacity, may be unbounded; its bound is {@link #UNKNOWN_BOUND}.
+ * The bounds hold for markings reached by firing; markings made from outside the net, by markPlace or a
+ * ConcurrentPlaceInput, do not respect them.  Inhibitor and test arcs, capacities and priorities only
+ * restrict firing, so they do not change the invariants.
+ * <p>
+ * Two transitions are in conflict if the firing of one may disable the other:  it consumes from a place the other
+ * consumes or tests, fills a place that inhibits the other, or fills a place with a capacity the other also fills.
+ * Transitions in no conflict are independent:  when both are enabled, either may fire first, and the other
+ * stays enabled.  Priority levels are not considered.
+ * <p>
+ * Two transitions may be concurrent, i.e., enabled in the same reachable marking, unless a P-invariant rules it out:
+ * the weighted total of the tokens that the two need at once, by input and test arcs, is more than the invariant's
+ * total in the initial marking.  Concurrency is over-approximated:  transitions that are not concurrent are never
+ * enabled together, but concurrent ones may not be either.  It is not independence:  transitions in conflict may be
+ * concurrent, and independent ones may never be enabled together.
+ * <p>
+ * Invariants are found by the Farkas algorithm over sparse vectors, which may need exponentially many rows;
+ * past {@link #DEFAULT_MAX_ROWS}, or the given limit, invariants are not computed, and {@link #isComplete()} is
+ * false.  Immutable; {@link StructuralAnalysisCache} keeps one for a {@link edu.berkeley.icsi.xschema.runner.CompiledHierarchy}
+ * as it is edited.
+ */
+public class StructuralAnalysis {
+
+	public static final int UNKNOWN_BOUND = -1;
+	public static final int DEFAULT_MAX_ROWS = 10000;
+	private final CompiledNet net;
+	private final SparseIntMatrix incidence;
+	private final SparseIntMatrix placeInvariants;
+	private final SparseIntMatrix transitionInvariants;
+	private final int[] bounds;
+	private final int[][] conflicts;
+	private final SparseIntMatrix demand;
+	private final long[] invariantTotals;
+
+	public StructuralAnalysis(PetriNet petriNet) {
+		this(CompiledNet.compile(petriNet));
+	}
+
+	public StructuralAnalysis(IncludeHierarchy includes) {
+		this(CompiledNet.compile(includes));
+	}
+
+	public StructuralAnalysis(CompiledNet net) {
+		this(net, DEFAULT_MAX_ROWS);
+	}
+
+	/**
+	 * @param net
+	 * @param maxRows limit on the rows of the Farkas algorithm, for each of the P- and T-invariants
+	 */
+	public StructuralAnalysis(CompiledNet net, int maxRows) {
+		this.net = net;
+		this.incidence = incidence(net);
+		this.placeInvariants = Farkas.invariants(incidence, maxRows);
+		this.transitionInvariants = Farkas.invariants(incidence.transpose(), maxRows);
+		this.bounds = bounds(net, placeInvariants);
+		this.conflicts = conflicts(net);
+		this.demand = demand(net);
+		this.invariantTotals = invariantTotals(net, placeInvariants);
+	}
+
+	/**
+	 * @return matrix with a row per place and a column per transition, of the change in the tokens of the place
+	 * when the transition fires
+	 */
+	private static SparseIntMatrix incidence(CompiledNet net) {
+		int tokens = net.getTokenTypeCount();
+		int[] change = new int[net.getPlaceCount()];
+		List<SparseVector> columns = new ArrayList<SparseVector>(net.getTransitionCount());
+		for (int t = 0; t < net.getTransitionCount(); t++) {
+			for (int i = net.getInputStart()[t]; i < net.getInputStart()[t + 1]; i++) {
+				change[net.getInputSlot()[i] / tokens] -= net.getInputWeight()[i];
+			}
+			for (int i = net.getOutputStart()[t]; i < net.getOutputStart()[t + 1]; i++) {
+				change[net.getOutputSlot()[i] / tokens] += net.getOutputWeight()[i];
+			}
+			int[] places = touchedPlaces(net, t, tokens);
+			int[] values = new int[places.length];
+			int size = 0;
+			for (int place : places) {
+				if (change[place] != 0) {
+					places[size] = place;
+					values[size++] = change[place];
+					change[place] = 0;
+				}
+			}
+			columns.add(new SparseVector(Arrays.copyOf(places, size), Arrays.copyOf(values, size)));
+		}
+		return new SparseIntMatrix(net.getPlaceCount(), columns).transpose();
+	}
+
+	/**
+	 * @return places of the input and output arcs of the transition, in increasing order, once each
+	 */
+	private static int[] touchedPlaces(CompiledNet net, int transition, int tokens) {
+		int inputs = net.getInputStart()[transition + 1] - net.getInputStart()[transition];
+		int outputs = net.getOutputStart()[transition + 1] - net.getOutputStart()[transition];
+		int[] places = new int[inputs + outputs];
+		for (int i = 0; i < inputs; i++) {
+			places[i] = net.getInputSlot()[net.getInputStart()[transition] + i] / tokens;
+		}
+		for (int i = 0; i < outputs; i++) {
+			places[inputs + i] = net.getOutputSlot()[net.getOutputStart()[transition] + i] / tokens;
+		}
+		Arrays.sort(places);
+		int size = 0;
+		for (int i = 0; i < places.length; i++) {
+			if ((size == 0) || (places[size - 1] != places[i])) {
+				places[size++] = places[i];
+			}
+		}
+		return Arrays.copyOf(places, size);
+	}
+
+	/**
+	 * @return matrix with a row per transition and a column per place, of the tokens the transition needs in the place
+	 * to be enabled:  the greater of the weights of its input and test arcs
+	 */
+	private static SparseIntMatrix demand(CompiledNet net) {
+		int tokens = net.getTokenTypeCount();
+		int[] input = new int[net.getPlaceCount()];
+		int[] test = new int[net.getPlaceCount()];
+		List<SparseVector> rows = new ArrayList<SparseVector>(net.getTransitionCount());
+		for (int t = 0; t < net.getTransitionCount(); t++) {
+			List<Integer> touched = new ArrayList<Integer>();
+			for (int i = net.getInputStart()[t]; i < net.getInputStart()[t + 1]; i++) {
+				input[net.getInputSlot()[i] / tokens] += net.getInputWeight()[i];
+				addOnce(touched, net.getInputSlot()[i] / tokens);
+			}
+			for (int i = net.getTestStart()[t]; i < net.getTestStart()[t + 1]; i++) {
+				test[net.getTestSlot()[i] / tokens] += net.getTestWeight()[i];
+				addOnce(touched, net.getTestSlot()[i] / tokens);
+			}
+			int[] places = new int[touched.size()];
+			for (int i = 0; i < places.length; i++) {
+				places[i] = touched.get(i);
+			}
+			Arrays.sort(places);
+			int[] values = new int[places.length];
+			int size = 0;
+			for (int place : places) {
+				int needed = Math.max(input[place], test[place]);
+				if (needed != 0) {
+					places[size] = place;
+					values[size++] = needed;
+				}
+				input[place] = 0;
+				test[place] = 0;
+			}
+			rows.add(new SparseVector(Arrays.copyOf(places, size), Arrays.copyOf(values, size)));
+		}
+		return new SparseIntMatrix(net.getPlaceCount(), rows);
+	}
+
+	/**
+	 * @return per P-invariant, its weighted total of the tokens of the initial marking; null without invariants
+	 */
+	private static long[] invariantTotals(CompiledNet net, SparseIntMatrix invariants) {
+		if (invariants == null) {
+			return null;
+		}
+		long[] totals = new long[invariants.getRowCount()];
+		int[] placeTotals = initialPlaceTotals(net);
+		for (int row = 0; row < totals.length; row++) {
+			totals[row] = invariants.multiply(row, placeTotals);
+		}
+		return totals;
+	}
+
+	private static int[] initialPlaceTotals(CompiledNet net) {
+		int tokens = net.getTokenTypeCount();
+		int[] initial = net.getInitialMarking();
+		int[] totals = new int[net.getPlaceCount()];
+		for (int slot = 0; slot < initial.length; slot++) {
+			totals[slot / tokens] += initial[slot];
+		}
+		return totals;
+	}
+
+	/**
+	 * @return per place, the least bound given by an invariant covering it, or by its capacity
+	 */
+	private static int[] bounds(CompiledNet net, SparseIntMatrix invariants) {
+		int[] bounds = new int[net.getPlaceCount()];
+		Arrays.fill(bounds, UNKNOWN_BOUND);
+		for (int place = 0; place < bounds.length; place++) {
+			if (net.getCapacity(place) > 0) {
+				bounds[place] = net.getCapacity(place);
+			}
+		}
+		if (invariants == null) {
+			return bounds;
+		}
+		int[] totals = initialPlaceTotals(net);
+		int[] rowStart = invariants.getRowStart();
+		int[] places = invariants.getColumns();
+		int[] weights = invariants.getValues();
+		for (int row = 0; row < invariants.getRowCount(); row++) {
+			long weighted = invariants.multiply(row, totals);
+			for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+				long bound = Math.min(Integer.MAX_VALUE, weighted / weights[i]);
+				int place = places[i];
+				if ((bounds[place] == UNKNOWN_BOUND) || (bound < bounds[place])) {
+					bounds[place] = (int) bound;
+				}
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * @return per transition, in increasing order, the other transitions it is in conflict with
+	 */
+	private static int[][] conflicts(CompiledNet net) {
+		int tokens = net.getTokenTypeCount();
+		int places = net.getPlaceCount();
+		List<List<Integer>> consumers = lists(places);
+		List<List<Integer>> readers = lists(places);
+		List<List<Integer>> producers = lists(places);
+		List<List<Integer>> inhibited = lists(places);
+		for (int t = 0; t < net.getTransitionCount(); t++) {
+			for (int i = net.getInputStart()[t]; i < net.getInputStart()[t + 1]; i++) {
+				addOnce(consumers.get(net.getInputSlot()[i] / tokens), t);
+				addOnce(readers.get(net.getInputSlot()[i] / tokens), t);
+			}
+			for (int i = net.getTestStart()[t]; i < net.getTestStart()[t + 1]; i++) {
+				addOnce(readers.get(net.getTestSlot()[i] / tokens), t);
+			}
+			for (int i = net.getInhibitorStart()[t]; i < net.getInhibitorStart()[t + 1]; i++) {
+				addOnce(inhibited.get(net.getInhibitorPlace()[i]), t);
+			}
+			for (int i = net.getOutputStart()[t]; i < net.getOutputStart()[t + 1]; i++) {
+				addOnce(producers.get(net.getOutputSlot()[i] / tokens), t);
+			}
+		}
+		List<List<Integer>> conflictLists = lists(net.getTransitionCount());
+		for (int place = 0; place < places; place++) {
+			addPairs(conflictLists, consumers.get(place), readers.get(place));
+			addPairs(conflictLists, producers.get(place), inhibited.get(place));
+			if (net.getCapacity(place) > 0) {
+				addPairs(conflictLists, producers.get(place), producers.get(place));
+			}
+		}
+		int[][] conflicts = new int[net.getTransitionCount()][];
+		for (int t = 0; t < conflicts.length; t++) {
+			List<Integer> list = conflictLists.get(t);
+			conflicts[t] = new int[list.size()];
+			for (int i = 0; i < conflicts[t].length; i++) {
+				conflicts[t][i] = list.get(i);
+			}
+			Arrays.sort(conflicts[t]);
+		}
+		return conflicts;
+	}
+
+	/**
+	 * Records each transition of the first list, which may disable each of the second, as in conflict with it.
+	 */
+	private static void addPairs(List<List<Integer>> conflicts, List<Integer> disabling, List<Integer> disabled) {
+		for (int t : disabling) {
+			for (int u : disabled) {
+				if (t != u) {
+					addOnce(conflicts.get(t), u);
+					addOnce(conflicts.get(u), t);
+				}
+			}
+		}
+	}
+
+	private static List<List<Integer>> lists(int size) {
+		List<List<Integer>> lists = new ArrayList<List<Integer>>(size);
+		for (int i = 0; i < size; i++) {
+			lists.add(new ArrayList<Integer>());
+		}
+		return lists;
+	}
+
+	private static void addOnce(List<Integer> list, int value) {
+		if (!list.contains(value)) {
+			list.add(value);
+		}
+	}
+
+	public CompiledNet getNet() {
+		return net;
+	}
+
+	/**
+	 * @return matrix with a row per place and a column per transition
+	 */
+	public SparseIntMatrix getIncidence() {
+		return incidence;
+	}
+
+	/**
+	 * @return false if the invariants were not computed, within the limit on rows
+	 */
+	public boolean isComplete() {
+		return (placeInvariants != null) && (transitionInvariants != null);
+	}
+
+	/**
+	 * @return minimal P-invariants, one per row, over the places; null if not {@link #isComplete() computed}
+	 */
+	public SparseIntMatrix getPlaceInvariants() {
+		return placeInvariants;
+	}
+
+	/**
+	 * @return minimal T-invariants, one per row, over the transitions:  the numbers of firings of each transition
+	 * that return the net to the marking it started from; null if not {@link #isComplete() computed}
+	 */
+	public SparseIntMatrix getTransitionInvariants() {
+		return transitionInvariants;
+	}
+
+	/**
+	 * @param place
+	 * @return most tokens the place can hold, or {@link #UNKNOWN_BOUND}
+	 */
+	public int getBound(int place) {
+		return bounds[place];
+	}
+
+	/**
+	 * @param placeId
+	 * @return most tokens the place can hold, or {@link #UNKNOWN_BOUND}
+	 */
+	public int getBound(String placeId) {
+		int place = net.placeIndex(placeId);
+		if (place < 0) {
+			throw new IllegalArgumentException("StructuralAnalysis:  place "+placeId+" not found in compiled net");
+		}
+		return bounds[place];
+	}
+
+	/**
+	 * @param place
+	 * @return true if the place can never hold more than one token, so may be kept as a bit
+	 */
+	public boolean isSafe(int place) {
+		return (bounds[place] == 0) || (bounds[place] == 1);
+	}
+
+	/**
+	 * @return true if every place is covered by a P-invariant or a capacity, so the net is bounded from any marking
+	 */
+	public boolean isBounded() {
+		for (int bound : bounds) {
+			if (bound == UNKNOWN_BOUND) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param transition
+	 * @return the transitions in conflict with it, in increasing order
+	 */
+	public int[] getConflicts(int transition) {
+		return conflicts[transition];
+	}
+
+	public boolean isConflict(int transition, int other) {
+		return Arrays.binarySearch(conflicts[transition], other) >= 0;
+	}
+
+	/**
+	 * @param transition
+	 * @param other
+	 * @return true if the two transitions are distinct and not in conflict, so may fire in either order
+	 */
+	public boolean isIndependent(int transition, int other) {
+		return (transition != other) && !isConflict(transition, other);
+	}
+
+	/**
+	 * @param transition
+	 * @param other
+	 * @return false if the two transitions are the same, or a P-invariant shows they are never enabled together;
+	 * true if they may be, including when the invariants were not {@link #isComplete() computed}
+	 */
+	public boolean isConcurrent(int transition, int other) {
+		if (transition == other) {
+			return false;
+		}
+		if (invariantTotals == null) {
+			return true;
+		}
+		int[] rowStart = placeInvariants.getRowStart();
+		int[] places = placeInvariants.getColumns();
+		int[] weights = placeInvariants.getValues();
+		for (int row = 0; row < invariantTotals.length; row++) {
+			long needed = 0;
+			for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+				needed += (long) weights[i] * Math.max(demand.get(transition, places[i]), demand.get(other, places[i]));
+			}
+			if (needed > invariantTotals[row]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param transition
+	 * @return the transitions that may be concurrent with it, in increasing order
+	 */
+	public int[] getConcurrent(int transition) {
+		int[] concurrent = new int[net.getTransitionCount()];
+		int size = 0;
+		for (int other = 0; other < concurrent.length; other++) {
+			if (isConcurrent(transition, other)) {
+				concurrent[size++] = other;
+			}
+		}
+		return Arrays.copyOf(concurrent, size);
+	}
+
+	/**
+	 * Compares the bounds of an earlier analysis of the net, e.g., before a merge arc was added, with this one.
+	 * @param before analysis of an earlier version of the net
+	 * @return ids of the places with a bound before that have none now, and of new places without a bound
+	 */
+	public List<String> unboundedSince(StructuralAnalysis before) {
+		List<String> unbounded = new ArrayList<String>();
+		for (int place = 0; place < bounds.length; place++) {
+			if (bounds[place] != UNKNOWN_BOUND) {
+				continue;
+			}
+			String placeId = net.getPlaceId(place);
+			int earlier = before.net.placeIndex(placeId);
+			if ((earlier < 0) || (before.bounds[earlier] != UNKNOWN_BOUND)) {
+				unbounded.add(placeId);
+			}
+		}
+		return unbounded;
+	}
+
+	/**
+	 * @param invariant row of {@link #getPlaceInvariants()}
+	 * @return e.g., "Grasp.Enabled + 2 Grasp.Ongoing"
+	 */
+	public String describePlaceInvariant(int invariant) {
+		StringBuilder sb = new StringBuilder();
+		int[] rowStart = placeInvariants.getRowStart();
+		for (int i = rowStart[invariant]; i < rowStart[invariant + 1]; i++) {
+			if (sb.length() > 0) {
+				sb.append(" + ");
+			}
+			if (placeInvariants.getValues()[i] != 1) {
+				sb.append(placeInvariants.getValues()[i]).append(" ");
+			}
+			sb.append(net.getPlaceId(placeInvariants.getColumns()[i]));
+		}
+		return sb.toString();
+	}
+}
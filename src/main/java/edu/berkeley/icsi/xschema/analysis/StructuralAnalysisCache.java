@@ -0,0 +1,57 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import edu.berkeley.icsi.xschema.runner.CompiledHierarchy;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * Keeps the {@link StructuralAnalysis} of a {@link CompiledHierarchy} as the hierarchy is edited.
+ * <p>
+ * The hierarchy returns the same {@link CompiledNet} until it is edited, so the analysis is computed again only
+ * when the compiled net has changed; a tool can ask for it after every edit, e.g., to check with
+ * {@link StructuralAnalysis#unboundedSince(StructuralAnalysis)} that a merge arc left no place unbounded,
+ * without running the net.  Edits made directly to an include's PetriNet must be reported to the hierarchy
+ * with {@link CompiledHierarchy#changed}, as for its compiled net.  Thread-safe.
+ */
+public class StructuralAnalysisCache {
+
+	private final CompiledHierarchy hierarchy;
+	private final int maxRows;
+	private StructuralAnalysis analysis;
+	private int computeCount;
+
+	public StructuralAnalysisCache(CompiledHierarchy hierarchy) {
+		this(hierarchy, StructuralAnalysis.DEFAULT_MAX_ROWS);
+	}
+
+	/**
+	 * @param hierarchy
+	 * @param maxRows limit on the rows of the Farkas algorithm
+	 */
+	public StructuralAnalysisCache(CompiledHierarchy hierarchy, int maxRows) {
+		this.hierarchy = hierarchy;
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * @return analysis of the current compiled net of the hierarchy; the same analysis until the next edit
+	 */
+	public synchronized StructuralAnalysis get() {
+		CompiledNet net = hierarchy.getCompiledNet();
+		if ((analysis == null) || (analysis.getNet() != net)) {
+			analysis = new StructuralAnalysis(net, maxRows);
+			computeCount++;
+		}
+		return analysis;
+	}
+
+	/**
+	 * @return number of analyses computed; one, and one more after each edit
+	 */
+	public synchronized int getComputeCount() {
+		return computeCount;
+	}
+
+	public CompiledHierarchy getHierarchy() {
+		return hierarchy;
+	}
+}
@@ -0,0 +1,210 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.Marking;
+
+/**
+ * Stubborn sets for partial-order reduction:  of the transitions enabled in a marking, a subset whose firings
+ * cannot be disabled or made redundant by any sequence of transitions outside it.  Exploring only the subset
+ * reaches every deadlock, and, if no transition of the subset changes a visible place, every marking of the
+ * visible places.  Transitions of separate includes that share no places are independent, so interleavings of
+ * children such as Pre-shape and Approach are explored in one order rather than all of them.
+ * <p>
+ * Sets are computed with Valmari's closure:  an enabled transition brings in every transition that consumes or
+ * tests a place it consumes or tests, and a disabled transition brings in every transition that produces into
+ * a place it lacks tokens in.  This is only valid when enabling depends on nothing else, so a net with inhibitor
+ * arcs, place capacities or more than one priority level is not {@link #isApplicable() applicable}.
+ */
+class StubbornSets {
+
+	private final CompiledNet net;
+	private final boolean applicable;
+	private final boolean[] visible;
+	private final int[][] consumers;
+	private final int[][] producers;
+
+	/**
+	 * @param net
+	 * @param visiblePlaces places read by the properties being checked; transitions that change them are visible
+	 */
+	public StubbornSets(CompiledNet net, boolean[] visiblePlaces) {
+		this.net = net;
+		this.applicable = isApplicable(net);
+		int transitions = net.getTransitionCount();
+		int tokens = net.getTokenTypeCount();
+		List<List<Integer>> consumerLists = lists(net.getSlotCount());
+		List<List<Integer>> producerLists = lists(net.getSlotCount());
+		int[] change = new int[net.getSlotCount()];
+		visible = new boolean[transitions];
+		for (int t = 0; t < transitions; t++) {
+			for (int i = net.getInputStart()[t]; i < net.getInputStart()[t + 1]; i++) {
+				addOnce(consumerLists.get(net.getInputSlot()[i]), t);
+				change[net.getInputSlot()[i]] -= net.getInputWeight()[i];
+			}
+			for (int i = net.getTestStart()[t]; i < net.getTestStart()[t + 1]; i++) {
+				addOnce(consumerLists.get(net.getTestSlot()[i]), t);
+			}
+			for (int i = net.getOutputStart()[t]; i < net.getOutputStart()[t + 1]; i++) {
+				addOnce(producerLists.get(net.getOutputSlot()[i]), t);
+				change[net.getOutputSlot()[i]] += net.getOutputWeight()[i];
+			}
+			for (int slot = 0; slot < change.length; slot++) {
+				if ((change[slot] != 0) && visiblePlaces[slot / tokens]) {
+					visible[t] = true;
+				}
+				change[slot] = 0;
+			}
+		}
+		consumers = arrays(consumerLists);
+		producers = arrays(producerLists);
+	}
+
+	private static boolean isApplicable(CompiledNet net) {
+		if ((net.getInhibitorStart()[net.getTransitionCount()] > 0) || (net.getLevelCount() > 1)) {
+			return false;
+		}
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			if (net.getCapacity(place) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static List<List<Integer>> lists(int size) {
+		List<List<Integer>> lists = new ArrayList<List<Integer>>(size);
+		for (int i = 0; i < size; i++) {
+			lists.add(new ArrayList<Integer>());
+		}
+		return lists;
+	}
+
+	private static void addOnce(List<Integer> list, int transition) {
+		if (list.isEmpty() || (list.get(list.size() - 1) != transition)) {
+			list.add(transition);
+		}
+	}
+
+	private static int[][] arrays(List<List<Integer>> lists) {
+		int[][] arrays = new int[lists.size()][];
+		for (int i = 0; i < arrays.length; i++) {
+			arrays[i] = new int[lists.get(i).size()];
+			for (int j = 0; j < arrays[i].length; j++) {
+				arrays[i][j] = lists.get(i).get(j);
+			}
+		}
+		return arrays;
+	}
+
+	public boolean isApplicable() {
+		return applicable;
+	}
+
+	public boolean isVisible(int transition) {
+		return visible[transition];
+	}
+
+	public Workspace newWorkspace() {
+		return new Workspace();
+	}
+
+	/**
+	 * Finds the smallest stubborn set, over every enabled seed, that holds no visible enabled transition.
+	 * @param marking reset to the marking being expanded
+	 * @param counts of the marking
+	 * @param workspace of the calling thread
+	 * @param result receives the enabled transitions of the set
+	 * @return number of transitions in result, or -1 if every enabled transition must be fired
+	 */
+	public int reduce(Marking marking, int[] counts, Workspace workspace, int[] result) {
+		int fireable = marking.getFireableCount();
+		if (!applicable || (fireable < 2)) {
+			return -1;
+		}
+		int best = fireable;
+		for (int k = 0; (k < fireable) && (best > 1); k++) {
+			int size = closure(marking.select(k), marking, counts, workspace, best);
+			if (size < best) {
+				best = size;
+				System.arraycopy(workspace.members, 0, result, 0, size);
+			}
+		}
+		return (best < fireable) ? best : -1;
+	}
+
+	/**
+	 * @return number of enabled transitions in the closure of the seed, or limit if it reaches limit
+	 * or holds a visible enabled transition
+	 */
+	private int closure(int seed, Marking marking, int[] counts, Workspace workspace, int limit) {
+		int[] stamp = workspace.stamp;
+		int[] stack = workspace.stack;
+		int epoch = ++workspace.epoch;
+		int top = 0;
+		int enabled = 0;
+		stamp[seed] = epoch;
+		stack[top++] = seed;
+		while (top > 0) {
+			int t = stack[--top];
+			if (marking.isEnabled(t)) {
+				if (visible[t] || (enabled + 1 >= limit)) {
+					return limit;
+				}
+				workspace.members[enabled++] = t;
+				int[] slots = workspace.slots;
+				int count = 0;
+				for (int i = net.getInputStart()[t]; i < net.getInputStart()[t + 1]; i++) {
+					slots[count++] = net.getInputSlot()[i];
+				}
+				for (int i = net.getTestStart()[t]; i < net.getTestStart()[t + 1]; i++) {
+					slots[count++] = net.getTestSlot()[i];
+				}
+				for (int i = 0; i < count; i++) {
+					top = push(consumers[slots[i]], stamp, epoch, stack, top);
+				}
+			} else {
+				top = push(producers[unsatisfied(t, counts)], stamp, epoch, stack, top);
+			}
+		}
+		return enabled;
+	}
+
+	private int unsatisfied(int t, int[] counts) {
+		for (int i = net.getInputStart()[t]; i < net.getInputStart()[t + 1]; i++) {
+			if (counts[net.getInputSlot()[i]] < net.getInputWeight()[i]) {
+				return net.getInputSlot()[i];
+			}
+		}
+		for (int i = net.getTestStart()[t]; i < net.getTestStart()[t + 1]; i++) {
+			if (counts[net.getTestSlot()[i]] < net.getTestWeight()[i]) {
+				return net.getTestSlot()[i];
+			}
+		}
+		throw new IllegalStateException("StubbornSets:  transition "+net.getTransitionId(t)+
+				" is disabled, but none of its places lacks tokens");
+	}
+
+	private static int push(int[] transitions, int[] stamp, int epoch, int[] stack, int top) {
+		for (int u : transitions) {
+			if (stamp[u] != epoch) {
+				stamp[u] = epoch;
+				stack[top++] = u;
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Arrays reused by one thread.
+	 */
+	class Workspace {
+		private final int[] stamp = new int[net.getTransitionCount()];
+		private final int[] stack = new int[net.getTransitionCount()];
+		private final int[] members = new int[net.getTransitionCount()];
+		private final int[] slots = new int[2 * net.getSlotCount()];
+		private int epoch;
+	}
+}
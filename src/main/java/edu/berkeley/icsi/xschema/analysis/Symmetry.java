@@ -0,0 +1,270 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * Groups of structurally identical sibling includes, such as several children built by the same method:
+ * includes whose places and transitions have the same ids within the include, and for which exchanging
+ * any two maps the compiled net onto itself, arcs, weights, capacities and priorities included.
+ * Markings that differ only by such an exchange have the same futures, so the explorer stores one of them,
+ * the {@link #canonicalize(int[]) canonical} marking, in which the includes of each group are sorted by their counts.
+ * <p>
+ * Includes are recognized by the qualified ids of the compiled net ("Grasp.Prepare.Approach.Enabled");
+ * a net compiled from a single PetriNet has no includes, and no symmetry.  Includes holding a place read
+ * by a property being checked are never exchanged.  Only the outermost symmetric includes are grouped;
+ * includes nested in a grouped include are exchanged with it.
+ */
+class Symmetry {
+
+	private final List<String[]> includes;
+	private final List<int[][]> groups;
+
+	private Symmetry(List<String[]> includes, List<int[][]> groups) {
+		this.includes = includes;
+		this.groups = groups;
+	}
+
+	/**
+	 * @param net
+	 * @param fixedPlaces places that must not be exchanged
+	 * @return symmetry groups of the net, possibly none
+	 */
+	public static Symmetry detect(CompiledNet net, boolean[] fixedPlaces) {
+		Map<String, Include> candidates = new TreeMap<String, Include>();
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			String id = net.getPlaceId(place);
+			for (String prefix : prefixes(id)) {
+				candidate(candidates, prefix).places.put(id.substring(prefix.length() + 1), place);
+			}
+		}
+		for (int transition = 0; transition < net.getTransitionCount(); transition++) {
+			String id = net.getTransitionId(transition);
+			for (String prefix : prefixes(id)) {
+				candidate(candidates, prefix).transitions.put(id.substring(prefix.length() + 1), transition);
+			}
+		}
+		Map<String, List<Include>> siblings = new LinkedHashMap<String, List<Include>>();
+		for (Include include : candidates.values()) {
+			int parent = include.name.lastIndexOf('.');
+			if ((parent < 0) || include.holdsAny(fixedPlaces)) {
+				continue;
+			}
+			String key = include.name.substring(0, parent)+" "+include.places.keySet()+" "+include.transitions.keySet();
+			if (!siblings.containsKey(key)) {
+				siblings.put(key, new ArrayList<Include>());
+			}
+			siblings.get(key).add(include);
+		}
+		List<String[]> includeNames = new ArrayList<String[]>();
+		List<int[][]> groups = new ArrayList<int[][]>();
+		List<String> grouped = new ArrayList<String>();
+		for (List<Include> sibling : siblings.values()) {
+			if ((sibling.size() < 2) || nested(sibling.get(0).name, grouped)) {
+				continue;
+			}
+			Include reference = sibling.get(0);
+			List<Include> group = new ArrayList<Include>();
+			group.add(reference);
+			for (Include other : sibling.subList(1, sibling.size())) {
+				if (exchangeable(net, reference, other)) {
+					group.add(other);
+				}
+			}
+			if (group.size() > 1) {
+				String[] names = new String[group.size()];
+				int[][] blocks = new int[group.size()][];
+				for (int i = 0; i < names.length; i++) {
+					names[i] = group.get(i).name;
+					blocks[i] = group.get(i).slots(net);
+					grouped.add(names[i]);
+				}
+				includeNames.add(names);
+				groups.add(blocks);
+			}
+		}
+		return new Symmetry(includeNames, groups);
+	}
+
+	/**
+	 * @return include prefixes of a qualified id, outermost first, without the root alone
+	 */
+	private static List<String> prefixes(String id) {
+		List<String> prefixes = new ArrayList<String>();
+		for (int dot = id.indexOf('.'); dot >= 0; dot = id.indexOf('.', dot + 1)) {
+			prefixes.add(id.substring(0, dot));
+		}
+		return prefixes;
+	}
+
+	private static Include candidate(Map<String, Include> candidates, String name) {
+		Include include = candidates.get(name);
+		if (include == null) {
+			include = new Include(name);
+			candidates.put(name, include);
+		}
+		return include;
+	}
+
+	private static boolean nested(String name, List<String> grouped) {
+		for (String outer : grouped) {
+			if (name.startsWith(outer+".")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if exchanging the places and transitions of the two includes maps the net onto itself
+	 */
+	private static boolean exchangeable(CompiledNet net, Include first, Include second) {
+		int[] placeMap = identity(net.getPlaceCount());
+		int[] transitionMap = identity(net.getTransitionCount());
+		for (String id : first.places.keySet()) {
+			placeMap[first.places.get(id)] = second.places.get(id);
+			placeMap[second.places.get(id)] = first.places.get(id);
+		}
+		for (String id : first.transitions.keySet()) {
+			transitionMap[first.transitions.get(id)] = second.transitions.get(id);
+			transitionMap[second.transitions.get(id)] = first.transitions.get(id);
+		}
+		for (int place = 0; place < placeMap.length; place++) {
+			if (net.getCapacity(place) != net.getCapacity(placeMap[place])) {
+				return false;
+			}
+		}
+		int tokens = net.getTokenTypeCount();
+		for (int t = 0; t < transitionMap.length; t++) {
+			int image = transitionMap[t];
+			if ((net.getPriority(t) != net.getPriority(image)) || (net.isExternal(t) != net.isExternal(image)) ||
+					!sameRow(net.getInputStart(), net.getInputSlot(), net.getInputWeight(), t, image, placeMap, tokens) ||
+					!sameRow(net.getTestStart(), net.getTestSlot(), net.getTestWeight(), t, image, placeMap, tokens) ||
+					!sameRow(net.getOutputStart(), net.getOutputSlot(), net.getOutputWeight(), t, image, placeMap, tokens) ||
+					!sameRow(net.getInhibitorStart(), net.getInhibitorPlace(), null, t, image, placeMap, 1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int[] identity(int size) {
+		int[] map = new int[size];
+		for (int i = 0; i < size; i++) {
+			map[i] = i;
+		}
+		return map;
+	}
+
+	/**
+	 * @return true if the row of image is the row of transition, with places mapped
+	 */
+	private static boolean sameRow(int[] start, int[] slots, int[] weights, int transition, int image,
+			int[] placeMap, int tokens) {
+		if (start[transition + 1] - start[transition] != start[image + 1] - start[image]) {
+			return false;
+		}
+		long[] mapped = new long[start[transition + 1] - start[transition]];
+		long[] actual = new long[mapped.length];
+		for (int i = 0; i < mapped.length; i++) {
+			int slot = slots[start[transition] + i];
+			int mappedSlot = placeMap[slot / tokens] * tokens + slot % tokens;
+			mapped[i] = ((long) mappedSlot << 32) | ((weights == null) ? 0 : weights[start[transition] + i]);
+			actual[i] = ((long) slots[start[image] + i] << 32) | ((weights == null) ? 0 : weights[start[image] + i]);
+		}
+		Arrays.sort(mapped);
+		Arrays.sort(actual);
+		return Arrays.equals(mapped, actual);
+	}
+
+	public boolean isEmpty() {
+		return groups.isEmpty();
+	}
+
+	/**
+	 * @return the fully qualified names of the includes of each group
+	 */
+	public List<List<String>> getGroups() {
+		List<List<String>> names = new ArrayList<List<String>>();
+		for (String[] group : includes) {
+			names.add(Collections.unmodifiableList(Arrays.asList(group)));
+		}
+		return names;
+	}
+
+	/**
+	 * Sorts the includes of each group by their counts, slot by slot, so that markings that differ only
+	 * by an exchange of symmetric includes become equal.
+	 * @param counts marking, changed in place
+	 */
+	public void canonicalize(int[] counts) {
+		for (int[][] blocks : groups) {
+			for (int i = 1; i < blocks.length; i++) {
+				for (int j = i; (j > 0) && (compare(counts, blocks[j - 1], blocks[j]) > 0); j--) {
+					swap(counts, blocks[j - 1], blocks[j]);
+				}
+			}
+		}
+	}
+
+	private static int compare(int[] counts, int[] first, int[] second) {
+		for (int i = 0; i < first.length; i++) {
+			if (counts[first[i]] != counts[second[i]]) {
+				return (counts[first[i]] < counts[second[i]]) ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	private static void swap(int[] counts, int[] first, int[] second) {
+		for (int i = 0; i < first.length; i++) {
+			int count = counts[first[i]];
+			counts[first[i]] = counts[second[i]];
+			counts[second[i]] = count;
+		}
+	}
+
+	/**
+	 * The places and transitions of a candidate include, including those of its own includes, by id within the include.
+	 */
+	private static class Include {
+		private final String name;
+		private final Map<String, Integer> places = new TreeMap<String, Integer>();
+		private final Map<String, Integer> transitions = new TreeMap<String, Integer>();
+
+		public Include(String name) {
+			this.name = name;
+		}
+
+		public boolean holdsAny(boolean[] fixedPlaces) {
+			for (int place : places.values()) {
+				if (fixedPlaces[place]) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return slots of the places, in id order
+		 */
+		public int[] slots(CompiledNet net) {
+			int tokens = net.getTokenTypeCount();
+			int[] slots = new int[places.size() * tokens];
+			int i = 0;
+			for (int place : places.values()) {
+				for (int token = 0; token < tokens; token++) {
+					slots[i++] = net.slot(place, token);
+				}
+			}
+			return slots;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package edu.berkeley.icsi.xschema.ensemble;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+/**
+ * Runs one net for a range of seeds in parallel, and aggregates the runs into {@link EnsembleStatistics},
+ * without writing a report per run.
+ * <p>
+ * The net is compiled once, and every run is an independent, detached {@link CompiledPetriNetRunner}
+ * over the shared {@link CompiledNet}, with its own marking, seed, place markings and firing limit.
+ * Seed ranges are split across a fork-join pool; each task accumulates its own statistics, which are merged
+ * on the way back.  The statistics for a range of seeds do not depend on the parallelism of the pool.
+ * <p>
+ * Each run fires its own instances of the classes of external transitions.  A context set with
+ * {@link #setTransitionContext(String, Object)} is given to the instances of every run, so it is called from
+ * several threads at once, and must be safe for that.
+ */
+public class EnsembleRunner {
+
+	public static final int DEFAULT_BATCH_SIZE = 16;
+	private final CompiledNet net;
+	private final ForkJoinPool pool;
+	private final List<String[]> placeMarkings;
+	private final List<Integer> placeCounts;
+	private final Object[] contexts;
+	private int firingLimit;
+	private int batchSize;
+
+	public EnsembleRunner(PetriNet petriNet) {
+		this(CompiledNet.compile(petriNet));
+	}
+
+	public EnsembleRunner(IncludeHierarchy includes) {
+		this(CompiledNet.compile(includes));
+	}
+
+	public EnsembleRunner(CompiledNet net) {
+		this(net, new ForkJoinPool());
+	}
+
+	public EnsembleRunner(CompiledNet net, ForkJoinPool pool) {
+		this.net = net;
+		this.pool = pool;
+		this.contexts = new Object[net.getTransitionCount()];
+		this.placeMarkings = new ArrayList<String[]>();
+		this.placeCounts = new ArrayList<Integer>();
+		this.firingLimit = Integer.MAX_VALUE;
+		this.batchSize = DEFAULT_BATCH_SIZE;
+	}
+
+	/**
+	 * Marks a place at the start of every run, as {@link CompiledPetriNetRunner#markPlace(String, String, int)}.
+	 * @throws InterfaceException if the net has no such place or token
+	 */
+	public void markPlace(String placeId, String token, int count) throws InterfaceException {
+		if (net.placeIndex(placeId) < 0) {
+			throw new InterfaceException("EnsembleRunner:  place "+placeId+" not found in executable net");
+		}
+		if (net.tokenIndex(token) < 0) {
+			throw new InterfaceException("EnsembleRunner:  token "+token+" not found in executable net");
+		}
+		placeMarkings.add(new String[] {placeId, token});
+		placeCounts.add(count);
+	}
+
+	/**
+	 * Sets the context of the external transition for every run; see the class comment for thread safety.
+	 * @param transitionId external transition
+	 * @param context
+	 */
+	public void setTransitionContext(String transitionId, Object context) {
+		int transition = net.transitionIndex(transitionId);
+		if ((transition < 0) || !net.isExternal(transition)) {
+			throw new IllegalArgumentException("EnsembleRunner:  "+transitionId+
+					" is not an external transition of the executable net");
+		}
+		contexts[transition] = context;
+	}
+
+	public void setFiringLimit(int firingLimit) {
+		this.firingLimit = firingLimit;
+	}
+
+	/**
+	 * @param batchSize seeds run sequentially by one task; smaller batches balance better, larger ones cost less to split
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Runs seeds firstSeed to firstSeed + runs - 1, and waits for all of them.
+	 * @param firstSeed
+	 * @param runs
+	 * @return statistics of all runs
+	 */
+	public EnsembleStatistics run(long firstSeed, int runs) {
+		return pool.invoke(new SeedTask(firstSeed, runs));
+	}
+
+	public CompiledNet getCompiledNet() {
+		return net;
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private class SeedTask extends RecursiveTask<EnsembleStatistics> {
+
+		private static final long serialVersionUID = 1L;
+		private final long firstSeed;
+		private final int runs;
+
+		public SeedTask(long firstSeed, int runs) {
+			this.firstSeed = firstSeed;
+			this.runs = runs;
+		}
+
+		@Override
+		protected EnsembleStatistics compute() {
+			if (runs <= batchSize) {
+				return runBatch();
+			}
+			int half = runs / 2;
+			SeedTask second = new SeedTask(firstSeed + half, runs - half);
+			second.fork();
+			EnsembleStatistics statistics = new SeedTask(firstSeed, half).compute();
+			statistics.merge(second.join());
+			return statistics;
+		}
+
+		private EnsembleStatistics runBatch() {
+			EnsembleStatistics statistics = new EnsembleStatistics(net);
+			EnsembleMember member = new EnsembleMember(net, contexts);
+			member.setFiringLimit(firingLimit);
+			for (long seed = firstSeed; seed < firstSeed + runs; seed++) {
+				member.setSeed(seed);
+				for (int i = 0; i < placeMarkings.size(); i++) {
+					member.mark(placeMarkings.get(i)[0], placeMarkings.get(i)[1], placeCounts.get(i));
+				}
+				member.run();
+				member.addTo(statistics);
+			}
+			return statistics;
+		}
+	}
+
+	/**
+	 * One run at a time, counting firings per transition and the places marked along the way.
+	 */
+	private static class EnsembleMember extends CompiledPetriNetRunner {
+
+		private final int[] fired;
+		private final boolean[] marked;
+		private final int[] finalTotals;
+
+		public EnsembleMember(CompiledNet net, Object[] contexts) {
+			super(net);
+			setDetached(true);
+			fired = new int[net.getTransitionCount()];
+			marked = new boolean[net.getPlaceCount()];
+			finalTotals = new int[net.getPlaceCount()];
+			for (int transition = 0; transition < contexts.length; transition++) {
+				if (contexts[transition] != null) {
+					bindContext(transition, contexts[transition]);
+				}
+			}
+		}
+
+		public void mark(String placeId, String token, int count) {
+			try {
+				markPlace(placeId, token, count);
+			} catch (InterfaceException e) {
+				throw new IllegalStateException(e);
+			}
+			if (count > 0) {
+				marked[net.placeIndex(placeId)] = true;
+			}
+		}
+
+		@Override
+		protected void start() {
+			Arrays.fill(fired, 0);
+			super.start();
+			for (int place = 0; place < marked.length; place++) {
+				if (marking.getPlaceTotal(place) > 0) {
+					marked[place] = true;
+				}
+			}
+		}
+
+		@Override
+		protected void fire(int transition) {
+			super.fire(transition);
+			fired[transition]++;
+			int[] outputStart = net.getOutputStart();
+			int[] outputSlot = net.getOutputSlot();
+			for (int i = outputStart[transition]; i < outputStart[transition + 1]; i++) {
+				marked[outputSlot[i] / net.getTokenTypeCount()] = true;
+			}
+		}
+
+		public void addTo(EnsembleStatistics statistics) {
+			for (int place = 0; place < finalTotals.length; place++) {
+				finalTotals[place] = marking.getPlaceTotal(place);
+			}
+			statistics.add(finalTotals, marked, fired, getRound());
+			Arrays.fill(marked, false);
+		}
+	}
+}
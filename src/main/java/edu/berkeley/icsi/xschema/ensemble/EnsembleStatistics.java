@@ -0,0 +1,175 @@
+package edu.berkeley.icsi.xschema.ensemble;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * Statistics over the runs of an {@link EnsembleRunner}:  for each place, the final token count
+ * (min, max, mean, variance) and the number of runs in which it was ever marked; for each transition,
+ * the total number of firings and the number of runs in which it fired; and the number of rounds per run.
+ * <p>
+ * Statistics for disjoint sets of seeds are accumulated separately and then {@link #merge(EnsembleStatistics) merged},
+ * so each worker of the ensemble updates only its own instance.
+ */
+public class EnsembleStatistics {
+
+	private final CompiledNet net;
+	private long runs;
+	private final double[] finalSum;
+	private final double[] finalSumSquares;
+	private final int[] finalMin;
+	private final int[] finalMax;
+	private final long[] runsMarked;
+	private final long[] firings;
+	private final long[] runsFired;
+	private long totalRounds;
+	private int minRounds = Integer.MAX_VALUE;
+	private int maxRounds;
+
+	public EnsembleStatistics(CompiledNet net) {
+		this.net = net;
+		finalSum = new double[net.getPlaceCount()];
+		finalSumSquares = new double[net.getPlaceCount()];
+		finalMin = new int[net.getPlaceCount()];
+		Arrays.fill(finalMin, Integer.MAX_VALUE);
+		finalMax = new int[net.getPlaceCount()];
+		runsMarked = new long[net.getPlaceCount()];
+		firings = new long[net.getTransitionCount()];
+		runsFired = new long[net.getTransitionCount()];
+	}
+
+	/**
+	 * Adds one run.
+	 * @param finalTotals tokens per place at the end of the run
+	 * @param marked places marked at any point of the run
+	 * @param fired firings per transition in the run
+	 * @param rounds of the run
+	 */
+	protected void add(int[] finalTotals, boolean[] marked, int[] fired, int rounds) {
+		runs++;
+		for (int place = 0; place < finalTotals.length; place++) {
+			int tokens = finalTotals[place];
+			finalSum[place] += tokens;
+			finalSumSquares[place] += (double) tokens * tokens;
+			finalMin[place] = Math.min(finalMin[place], tokens);
+			finalMax[place] = Math.max(finalMax[place], tokens);
+			if (marked[place]) {
+				runsMarked[place]++;
+			}
+		}
+		for (int transition = 0; transition < fired.length; transition++) {
+			firings[transition] += fired[transition];
+			if (fired[transition] > 0) {
+				runsFired[transition]++;
+			}
+		}
+		totalRounds += rounds;
+		minRounds = Math.min(minRounds, rounds);
+		maxRounds = Math.max(maxRounds, rounds);
+	}
+
+	/**
+	 * Adds the runs of other statistics for the same net.
+	 * @param other
+	 */
+	public void merge(EnsembleStatistics other) {
+		runs += other.runs;
+		for (int place = 0; place < finalSum.length; place++) {
+			finalSum[place] += other.finalSum[place];
+			finalSumSquares[place] += other.finalSumSquares[place];
+			finalMin[place] = Math.min(finalMin[place], other.finalMin[place]);
+			finalMax[place] = Math.max(finalMax[place], other.finalMax[place]);
+			runsMarked[place] += other.runsMarked[place];
+		}
+		for (int transition = 0; transition < firings.length; transition++) {
+			firings[transition] += other.firings[transition];
+			runsFired[transition] += other.runsFired[transition];
+		}
+		totalRounds += other.totalRounds;
+		minRounds = Math.min(minRounds, other.minRounds);
+		maxRounds = Math.max(maxRounds, other.maxRounds);
+	}
+
+	public long getRuns() {
+		return runs;
+	}
+
+	public double getMeanTokens(String placeId) {
+		return (runs == 0) ? 0 : finalSum[place(placeId)] / runs;
+	}
+
+	public double getTokenVariance(String placeId) {
+		if (runs == 0) {
+			return 0;
+		}
+		int place = place(placeId);
+		double mean = finalSum[place] / runs;
+		return Math.max(0, finalSumSquares[place] / runs - mean * mean);
+	}
+
+	public int getMinTokens(String placeId) {
+		return (runs == 0) ? 0 : finalMin[place(placeId)];
+	}
+
+	public int getMaxTokens(String placeId) {
+		return finalMax[place(placeId)];
+	}
+
+	/**
+	 * @param placeId
+	 * @return runs in which the place held a token at any point, including its initial marking
+	 */
+	public long getRunsMarked(String placeId) {
+		return runsMarked[place(placeId)];
+	}
+
+	public long getFirings(String transitionId) {
+		return firings[transition(transitionId)];
+	}
+
+	public long getRunsFired(String transitionId) {
+		return runsFired[transition(transitionId)];
+	}
+
+	/**
+	 * @return total firings per transition id, in transition index order
+	 */
+	public Map<String, Long> getFiringHistogram() {
+		Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+		for (int transition = 0; transition < firings.length; transition++) {
+			histogram.put(net.getTransitionId(transition), firings[transition]);
+		}
+		return histogram;
+	}
+
+	public double getMeanRounds() {
+		return (runs == 0) ? 0 : (double) totalRounds / runs;
+	}
+
+	public int getMinRounds() {
+		return (runs == 0) ? 0 : minRounds;
+	}
+
+	public int getMaxRounds() {
+		return maxRounds;
+	}
+
+	private int place(String placeId) {
+		int place = net.placeIndex(placeId);
+		if (place < 0) {
+			throw new IllegalArgumentException("EnsembleStatistics:  unknown place "+placeId);
+		}
+		return place;
+	}
+
+	private int transition(String transitionId) {
+		int transition = net.transitionIndex(transitionId);
+		if (transition < 0) {
+			throw new IllegalArgumentException("EnsembleStatistics:  unknown transition "+transitionId);
+		}
+		return transition;
+	}
+}
@@ -0,0 +1,254 @@
+package edu.berkeley.icsi.xschema.host;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+
+import uk.ac.imperial.pipe.runner.InterfaceException;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.ExternalClass;
+import edu.berkeley.icsi.xschema.runner.RestorableRandom;
+
+/**
+ * One run of the shared net of a {@link RunnerHost}, such as the Grasp controller of one arm.
+ * An instance holds only its token counts, its random generator state, its round and the markings
+ * requested since its last time slice; the structure of the net, and the enabled set, belong to the host
+ * and its workers.
+ * <p>
+ * Places may be marked from any thread.  As with {@link edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner},
+ * a marking is applied at the start of the next time slice, and markings made before {@link #start()} are
+ * applied before the first firing, so an instance fires the same sequence as a detached runner with the same seed.
+ * <p>
+ * External transitions fire this instance's own instances of their classes, created when first fired or given
+ * a context; the arrays that hold them are allocated only then, so instances of nets that never fire an external
+ * transition stay as small as their token counts.
+ */
+public class HostedInstance {
+
+	enum Status {NEW, QUEUED, RUNNING, IDLE, COMPLETED}
+
+	private final RunnerHost host;
+	private final int id;
+	private final int[] counts;
+	private long randomState;
+	private int round;
+	private int firingLimit;
+	private long slices;
+	private int[] pending;
+	private int pendingSize;
+	private Status status;
+	private Object[] externalInstances;
+	private MethodHandle[] externalFires;
+	final Runnable slice;
+
+	HostedInstance(RunnerHost host, int id, long seed, int firingLimit) {
+		this.host = host;
+		this.id = id;
+		this.counts = host.getCompiledNet().getInitialMarking();
+		this.randomState = new RestorableRandom(seed).getState();
+		this.firingLimit = firingLimit;
+		this.pending = new int[0];
+		this.status = Status.NEW;
+		this.slice = host.new Slice(this);
+	}
+
+	/**
+	 * Schedules the instance for its first time slice.
+	 */
+	public void start() {
+		boolean schedule;
+		synchronized (this) {
+			schedule = (status == Status.NEW);
+			if (schedule) {
+				status = Status.QUEUED;
+			}
+		}
+		if (schedule) {
+			host.schedule(this);
+		}
+	}
+
+	/**
+	 * Requests a marking, applied at the start of the next time slice; an idle instance is scheduled again.
+	 * @throws InterfaceException if the net has no such place or token
+	 */
+	public void markPlace(String placeId, String token, int count) throws InterfaceException {
+		int slot = host.findSlot(placeId, token);
+		boolean schedule;
+		synchronized (this) {
+			if (2 * pendingSize == pending.length) {
+				pending = Arrays.copyOf(pending, Math.max(4, 2 * pending.length));
+			}
+			pending[2 * pendingSize] = slot;
+			pending[2 * pendingSize + 1] = count;
+			pendingSize++;
+			schedule = (status == Status.IDLE);
+			if (schedule) {
+				status = Status.QUEUED;
+			}
+		}
+		if (schedule) {
+			host.schedule(this);
+		}
+	}
+
+	/**
+	 * Sets the context of this instance's own instance of the external transition's class.
+	 * Set contexts before {@link #start()}, or while the instance is idle:  the class is fired on worker threads.
+	 * @param transitionId external transition
+	 * @param context
+	 */
+	public synchronized void setTransitionContext(String transitionId, Object context) {
+		CompiledNet net = host.getCompiledNet();
+		int transition = net.transitionIndex(transitionId);
+		if ((transition < 0) || !net.isExternal(transition)) {
+			throw new IllegalArgumentException("HostedInstance:  "+transitionId+
+					" is not an external transition of the executable net");
+		}
+		if ((externalFires == null) || (externalFires[transition] == null)) {
+			bindExternal(transition);
+		}
+		net.getExternalClass(transition).setContext(externalInstances[transition], context);
+	}
+
+	/**
+	 * @param transition external
+	 * @return this instance's instance of its class, or null before it is first needed
+	 */
+	public synchronized Object getExternalInstance(int transition) {
+		return (externalInstances == null) ? null : externalInstances[transition];
+	}
+
+	/**
+	 * Fires this instance's instance of an external transition's class; called by the worker running a time slice.
+	 * @param transition external
+	 */
+	void fireExternal(int transition) {
+		MethodHandle fire;
+		synchronized (this) {
+			if ((externalFires == null) || (externalFires[transition] == null)) {
+				bindExternal(transition);
+			}
+			fire = externalFires[transition];
+		}
+		ExternalClass.fire(fire);
+	}
+
+	private void bindExternal(int transition) {
+		CompiledNet net = host.getCompiledNet();
+		if (externalFires == null) {
+			externalInstances = new Object[net.getTransitionCount()];
+			externalFires = new MethodHandle[net.getTransitionCount()];
+		}
+		ExternalClass externalClass = net.getExternalClass(transition);
+		externalInstances[transition] = externalClass.newInstance();
+		externalFires[transition] = externalClass.bindFire(externalInstances[transition]);
+	}
+
+	/**
+	 * @return count at the end of the last time slice
+	 * @throws InterfaceException if the net has no such place or token
+	 */
+	public synchronized int getCount(String placeId, String token) throws InterfaceException {
+		return counts[host.findSlot(placeId, token)];
+	}
+
+	/**
+	 * Copies the token counts at the end of the last time slice.
+	 * @param target of at least {@link CompiledNet#getSlotCount()} slots
+	 */
+	public synchronized void copyCounts(int[] target) {
+		System.arraycopy(counts, 0, target, 0, counts.length);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public synchronized int getRound() {
+		return round;
+	}
+
+	/**
+	 * @return time slices run so far
+	 */
+	public synchronized long getSlices() {
+		return slices;
+	}
+
+	public synchronized void setFiringLimit(int firingLimit) {
+		this.firingLimit = firingLimit;
+	}
+
+	public synchronized int getFiringLimit() {
+		return firingLimit;
+	}
+
+	/**
+	 * @return true if nothing can fire, and no marking is pending
+	 */
+	public synchronized boolean isIdle() {
+		return status == Status.IDLE;
+	}
+
+	/**
+	 * @return true if the instance reached its firing limit, or was removed from its host
+	 */
+	public synchronized boolean isCompleted() {
+		return status == Status.COMPLETED;
+	}
+
+	synchronized Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Moves the instance into a worker's marking and generator, with its pending markings applied.
+	 * @return false if the instance was removed while queued
+	 */
+	synchronized boolean checkOut(RunnerHost.Worker worker) {
+		if (status != Status.QUEUED) {
+			return false;
+		}
+		status = Status.RUNNING;
+		worker.marking.reset(counts);
+		for (int i = 0; i < pendingSize; i++) {
+			worker.marking.set(pending[2 * i], pending[2 * i + 1]);
+		}
+		pendingSize = 0;
+		worker.random.setState(randomState);
+		worker.round = round;
+		worker.firingLimit = firingLimit;
+		return true;
+	}
+
+	/**
+	 * Saves the worker's marking and generator at the end of a time slice.
+	 * @return status after the slice:  queued again if it can still fire or has pending markings
+	 */
+	synchronized Status checkIn(RunnerHost.Worker worker) {
+		worker.marking.copyCounts(counts);
+		randomState = worker.random.getState();
+		round = worker.round;
+		slices++;
+		if (status != Status.RUNNING) {
+			return status;
+		}
+		if (round >= firingLimit) {
+			status = Status.COMPLETED;
+		} else if ((pendingSize > 0) || (worker.marking.getFireableCount() > 0)) {
+			status = Status.QUEUED;
+		} else {
+			status = Status.IDLE;
+		}
+		return status;
+	}
+
+	/**
+	 * @return the previous status
+	 */
+	synchronized Status complete() {
+		Status previous = status;
+		status = Status.COMPLETED;
+		return previous;
+	}
+}
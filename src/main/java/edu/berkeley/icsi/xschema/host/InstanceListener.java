@@ -0,0 +1,20 @@
+package edu.berkeley.icsi.xschema.host;
+
+/**
+ * Notified by a {@link RunnerHost} when an instance stops running.  Called on a worker thread, after the
+ * instance's marking has been saved; a listener may mark places of the instance, which schedules it again.
+ */
+public interface InstanceListener {
+
+	/**
+	 * Nothing in the instance can fire; it runs again when one of its places is marked.
+	 * @param instance
+	 */
+	public void instanceIdle(HostedInstance instance);
+
+	/**
+	 * The instance reached its firing limit, and will not run again.
+	 * @param instance
+	 */
+	public void instanceCompleted(HostedInstance instance);
+}
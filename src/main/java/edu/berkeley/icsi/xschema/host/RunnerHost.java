@@ -0,0 +1,283 @@
+package edu.berkeley.icsi.xschema.host;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.Marking;
+import edu.berkeley.icsi.xschema.runner.RestorableRandom;
+
+/**
+ * Runs many independent instances of one net, such as a Grasp controller per robot arm, on a small pool
+ * of worker threads rather than a runner and a thread per instance.
+ * <p>
+ * The {@link CompiledNet} is shared by every instance, and is only read.  A {@link HostedInstance} holds only
+ * its token counts, so its memory is proportional to the places of the net, not to its transitions or arcs.
+ * Each worker owns one {@link Marking}, with the enabled set and its index; for a time slice, the worker loads
+ * an instance's counts into it, fires up to {@link #setSliceFirings(int) slice firings} transitions,
+ * choosing among the fireable ones as {@link edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner} does,
+ * and saves the counts back.  An instance that can still fire is queued again behind every other runnable
+ * instance, so runnable instances get slices round-robin; an instance that cannot fire waits, taking no
+ * worker time, until one of its places is marked.
+ * <p>
+ * Instances exchange tokens with their environment through {@link HostedInstance#markPlace(String, String, int)}
+ * and an {@link InstanceListener}.  An instance that fires an external transition fires its own instance of the
+ * transition's class, created the first time it is needed, with the context set by
+ * {@link HostedInstance#setTransitionContext(String, Object)}.
+ */
+public class RunnerHost {
+
+	public static final int DEFAULT_SLICE_FIRINGS = 64;
+	private final CompiledNet net;
+	private final ExecutorService workers;
+	private final ThreadLocal<Worker> worker;
+	private final List<HostedInstance> instances;
+	private final AtomicInteger active;
+	private final Object quiescence;
+	private volatile int sliceFirings;
+	private volatile InstanceListener listener;
+	private int firingLimit;
+
+	public RunnerHost(PetriNet petriNet) {
+		this(CompiledNet.compile(petriNet));
+	}
+
+	public RunnerHost(IncludeHierarchy includes) {
+		this(CompiledNet.compile(includes));
+	}
+
+	public RunnerHost(CompiledNet net) {
+		this(net, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param net shared by every instance
+	 * @param workerCount threads running time slices
+	 */
+	public RunnerHost(final CompiledNet net, int workerCount) {
+		this.net = net;
+		this.workers = Executors.newFixedThreadPool(workerCount, new WorkerFactory());
+		this.worker = new ThreadLocal<Worker>() {
+			@Override
+			protected Worker initialValue() {
+				return new Worker(net);
+			}
+		};
+		this.instances = new ArrayList<HostedInstance>();
+		this.active = new AtomicInteger();
+		this.quiescence = new Object();
+		this.sliceFirings = DEFAULT_SLICE_FIRINGS;
+		this.firingLimit = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Adds an instance, starting from the marking the net was compiled with; it runs once {@link HostedInstance#start() started}.
+	 * @param seed of the instance's random choices
+	 * @return instance
+	 */
+	public HostedInstance addInstance(long seed) {
+		synchronized (instances) {
+			HostedInstance instance = new HostedInstance(this, instances.size(), seed, firingLimit);
+			instances.add(instance);
+			return instance;
+		}
+	}
+
+	/**
+	 * Stops an instance after its current time slice; it is not scheduled again.
+	 * @param instance
+	 */
+	public void remove(HostedInstance instance) {
+		instance.complete();
+	}
+
+	/**
+	 * @return every instance added, in order of their ids
+	 */
+	public List<HostedInstance> getInstances() {
+		synchronized (instances) {
+			return new ArrayList<HostedInstance>(instances);
+		}
+	}
+
+	/**
+	 * @param sliceFirings transitions an instance fires before another instance gets its worker
+	 */
+	public void setSliceFirings(int sliceFirings) {
+		this.sliceFirings = Math.max(1, sliceFirings);
+	}
+
+	public int getSliceFirings() {
+		return sliceFirings;
+	}
+
+	/**
+	 * @param firingLimit of instances added from now on
+	 */
+	public void setFiringLimit(int firingLimit) {
+		this.firingLimit = firingLimit;
+	}
+
+	/**
+	 * @param listener notified when an instance becomes idle or completes; null to remove
+	 */
+	public void setListener(InstanceListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return firings of every instance so far, at the end of their last time slices
+	 */
+	public long getFirings() {
+		long firings = 0;
+		for (HostedInstance instance : getInstances()) {
+			firings += instance.getRound();
+		}
+		return firings;
+	}
+
+	/**
+	 * @return instances queued or running
+	 */
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	/**
+	 * Waits until no instance is queued or running:  each is idle, completed, or not yet started.
+	 * @param timeout milliseconds
+	 * @return false if the timeout elapsed first
+	 * @throws InterruptedException
+	 */
+	public boolean awaitQuiescence(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (quiescence) {
+			while (active.get() > 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				quiescence.wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	public CompiledNet getCompiledNet() {
+		return net;
+	}
+
+	int findSlot(String placeId, String token) throws InterfaceException {
+		int place = net.placeIndex(placeId);
+		if (place < 0) {
+			throw new InterfaceException("RunnerHost:  place "+placeId+" not found in executable net");
+		}
+		int tokenIndex = net.tokenIndex(token);
+		if (tokenIndex < 0) {
+			throw new InterfaceException("RunnerHost:  token "+token+" not found in executable net");
+		}
+		return net.slot(place, tokenIndex);
+	}
+
+	void schedule(HostedInstance instance) {
+		active.incrementAndGet();
+		workers.execute(instance.slice);
+	}
+
+	private void deactivate() {
+		if (active.decrementAndGet() == 0) {
+			synchronized (quiescence) {
+				quiescence.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Runs one time slice of an instance on the calling worker.
+	 */
+	private void runSlice(HostedInstance instance) {
+		Worker current = worker.get();
+		if (!instance.checkOut(current)) {
+			deactivate();
+			return;
+		}
+		Marking marking = current.marking;
+		int end = (int) Math.min(current.firingLimit, (long) current.round + sliceFirings);
+		while (current.round < end) {
+			int fireable = marking.getFireableCount();
+			if (fireable == 0) {
+				break;
+			}
+			int transition = marking.select(current.random.nextInt(fireable));
+			marking.fire(transition);
+			current.round++;
+			if (net.isExternal(transition)) {
+				instance.fireExternal(transition);
+			}
+		}
+		HostedInstance.Status status = instance.checkIn(current);
+		if (status == HostedInstance.Status.QUEUED) {
+			workers.execute(instance.slice);
+			return;
+		}
+		InstanceListener notified = listener;
+		if (notified != null) {
+			if (status == HostedInstance.Status.IDLE) {
+				notified.instanceIdle(instance);
+			} else if (status == HostedInstance.Status.COMPLETED) {
+				notified.instanceCompleted(instance);
+			}
+		}
+		deactivate();
+	}
+
+	class Slice implements Runnable {
+		private final HostedInstance instance;
+
+		public Slice(HostedInstance instance) {
+			this.instance = instance;
+		}
+
+		@Override
+		public void run() {
+			runSlice(instance);
+		}
+	}
+
+	/**
+	 * The marking and generator a worker thread loads each instance into.
+	 */
+	static class Worker {
+		final Marking marking;
+		final RestorableRandom random;
+		int round;
+		int firingLimit;
+
+		public Worker(CompiledNet net) {
+			this.marking = new Marking(net);
+			this.random = new RestorableRandom();
+		}
+	}
+
+	private static class WorkerFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "RunnerHost-"+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
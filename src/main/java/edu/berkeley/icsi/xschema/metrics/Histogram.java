@@ -0,0 +1,86 @@
+package edu.berkeley.icsi.xschema.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of non-negative values, such as latencies in nanoseconds, in power-of-two buckets:
+ * bucket i holds values from 2^(i-1) to 2^i - 1, and bucket 0 holds 0.
+ * Recording is a few arithmetic operations and no allocation; percentiles are accurate to a factor of two,
+ * and the count, sum, minimum and maximum are exact.
+ * <p>
+ * Written by one thread; may be read by others (e.g., through JMX) without locking, with slightly stale values.
+ */
+public class Histogram {
+
+	private static final int BUCKETS = 65;
+	private final long[] buckets;
+	private long count;
+	private long sum;
+	private long min;
+	private long max;
+
+	public Histogram() {
+		buckets = new long[BUCKETS];
+		reset();
+	}
+
+	public void record(long value) {
+		buckets[64 - Long.numberOfLeadingZeros(value)]++;
+		count++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	public void reset() {
+		Arrays.fill(buckets, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return smallest value, or 0 if none was recorded
+	 */
+	public long getMin() {
+		return (count == 0) ? 0 : min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return (count == 0) ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * @param percentile from 0 to 100
+	 * @return upper bound of the bucket holding the percentile, at most the maximum; 0 if none was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i];
+			if ((seen >= rank) && (seen > 0)) {
+				long upper = (i == 0) ? 0 : (i == 64) ? Long.MAX_VALUE : (1L << i) - 1;
+				return Math.min(upper, max);
+			}
+		}
+		return max;
+	}
+}
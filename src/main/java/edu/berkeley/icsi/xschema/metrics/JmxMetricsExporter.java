@@ -0,0 +1,122 @@
+package edu.berkeley.icsi.xschema.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes a {@link MetricsRegistry} as an MXBean on the platform MBean server, under
+ * <code>edu.berkeley.icsi.xschema:type=RunnerMetrics,name=<i>name</i></code>, for jconsole or any JMX client.
+ * Values are read from the registry when the client asks for them; nothing is computed on the runner thread.
+ */
+public class JmxMetricsExporter implements RunnerMetricsMXBean {
+
+	public static final String DOMAIN = "edu.berkeley.icsi.xschema";
+	private final MetricsRegistry registry;
+	private final ObjectName objectName;
+
+	public JmxMetricsExporter(MetricsRegistry registry, String name) throws JMException {
+		this.registry = registry;
+		this.objectName = new ObjectName(DOMAIN+":type=RunnerMetrics,name="+ObjectName.quote(name));
+	}
+
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+	}
+
+	public void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+	}
+
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+
+	@Override
+	public long getRuns() {
+		return registry.getRuns();
+	}
+
+	@Override
+	public long getFirings() {
+		return registry.getFirings();
+	}
+
+	@Override
+	public Map<String, Long> getFireCounts() {
+		return registry.getFireCounts();
+	}
+
+	@Override
+	public Map<String, Long> getFireCountsByInclude() {
+		return registry.getFireCountsByInclude();
+	}
+
+	@Override
+	public Map<String, Long> getExternalFireCounts() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, Histogram> entry : registry.getExternalLatencies().entrySet()) {
+			result.put(entry.getKey(), entry.getValue().getCount());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Double> getExternalFireMeanNanos() {
+		Map<String, Double> result = new TreeMap<String, Double>();
+		for (Map.Entry<String, Histogram> entry : registry.getExternalLatencies().entrySet()) {
+			result.put(entry.getKey(), entry.getValue().getMean());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getExternalFireP99Nanos() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, Histogram> entry : registry.getExternalLatencies().entrySet()) {
+			result.put(entry.getKey(), entry.getValue().getPercentile(99));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getExternalFireMaxNanos() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, Histogram> entry : registry.getExternalLatencies().entrySet()) {
+			result.put(entry.getKey(), entry.getValue().getMax());
+		}
+		return result;
+	}
+
+	@Override
+	public double getMeanEnabled() {
+		return registry.getEnabled().getMean();
+	}
+
+	@Override
+	public long getMaxEnabled() {
+		return registry.getEnabled().getMax();
+	}
+
+	@Override
+	public long getListenerTotalNanos() {
+		return registry.getListeners().getSum();
+	}
+
+	@Override
+	public long getListenerP99Nanos() {
+		return registry.getListeners().getPercentile(99);
+	}
+
+	@Override
+	public void reset() {
+		registry.reset();
+	}
+}
@@ -0,0 +1,187 @@
+package edu.berkeley.icsi.xschema.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * {@link RunnerMetrics} that keep, across runs of one net:  fire counts per transition, the latency of
+ * fire() per external transition, the number of enabled transitions per round, and the time spent in listeners.
+ * Counts can be grouped by include, from the qualified ids of transitions ("Grasp.Close_hand.Close" is
+ * in include "Grasp.Close_hand"), to see which include is busiest or slowest.
+ * <p>
+ * Written by the runner thread; read by others, e.g., through a {@link JmxMetricsExporter}, without locking.
+ */
+public class MetricsRegistry implements RunnerMetrics {
+
+	private volatile CompiledNet net;
+	private volatile long[] fireCounts;
+	private volatile Histogram[] externalLatency;
+	private final Histogram enabled;
+	private final Histogram listeners;
+	private volatile long runs;
+
+	public MetricsRegistry() {
+		fireCounts = new long[0];
+		externalLatency = new Histogram[0];
+		enabled = new Histogram();
+		listeners = new Histogram();
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Starts counting for the net; counts are kept across runs of the same net, and reset for a different net.
+	 */
+	@Override
+	public void runStarted(CompiledNet net) {
+		if (net != this.net) {
+			Histogram[] latency = new Histogram[net.getTransitionCount()];
+			for (int transition = 0; transition < latency.length; transition++) {
+				if (net.isExternal(transition)) {
+					latency[transition] = new Histogram();
+				}
+			}
+			externalLatency = latency;
+			fireCounts = new long[net.getTransitionCount()];
+			enabled.reset();
+			listeners.reset();
+			runs = 0;
+			this.net = net;
+		}
+		runs++;
+	}
+
+	@Override
+	public void transitionFired(int transition, int enabledCount) {
+		fireCounts[transition]++;
+		enabled.record(enabledCount);
+	}
+
+	@Override
+	public void externalFired(int transition, long nanos) {
+		externalLatency[transition].record(nanos);
+	}
+
+	@Override
+	public void listenersNotified(long nanos) {
+		listeners.record(nanos);
+	}
+
+	public CompiledNet getNet() {
+		return net;
+	}
+
+	public long getRuns() {
+		return runs;
+	}
+
+	public long getFireCount(int transition) {
+		return fireCounts[transition];
+	}
+
+	/**
+	 * @return firings of all transitions
+	 */
+	public long getFirings() {
+		long total = 0;
+		for (long count : fireCounts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * @return fire counts of the transitions that fired, by transition id
+	 */
+	public Map<String, Long> getFireCounts() {
+		CompiledNet current = net;
+		long[] counts = fireCounts;
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (int transition = 0; transition < counts.length; transition++) {
+			if (counts[transition] > 0) {
+				result.put(current.getTransitionId(transition), counts[transition]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return fire counts of includes with transitions that fired, by include name
+	 */
+	public Map<String, Long> getFireCountsByInclude() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, Long> entry : getFireCounts().entrySet()) {
+			String include = includeOf(entry.getKey());
+			Long count = result.get(include);
+			result.put(include, (count == null) ? entry.getValue() : count + entry.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * @param transitionId
+	 * @return the include of a transition:  its id up to the last '.', or "" for an unqualified id
+	 */
+	public static String includeOf(String transitionId) {
+		int dot = transitionId.lastIndexOf('.');
+		return (dot < 0) ? "" : transitionId.substring(0, dot);
+	}
+
+	/**
+	 * @param transition index of an external transition
+	 * @return latency of its fire() method, in nanoseconds; null for other transitions
+	 */
+	public Histogram getExternalLatency(int transition) {
+		return externalLatency[transition];
+	}
+
+	/**
+	 * @return latency histograms of external transitions that fired, by transition id
+	 */
+	public Map<String, Histogram> getExternalLatencies() {
+		CompiledNet current = net;
+		Histogram[] latency = externalLatency;
+		Map<String, Histogram> result = new TreeMap<String, Histogram>();
+		for (int transition = 0; transition < latency.length; transition++) {
+			if ((latency[transition] != null) && (latency[transition].getCount() > 0)) {
+				result.put(current.getTransitionId(transition), latency[transition]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of enabled transitions, recorded once per round
+	 */
+	public Histogram getEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return nanoseconds spent in listeners, recorded once per round with listeners
+	 */
+	public Histogram getListeners() {
+		return listeners;
+	}
+
+	/**
+	 * Clears the counts in place, so it is safe to call while the runner is recording.
+	 */
+	public void reset() {
+		Arrays.fill(fireCounts, 0);
+		for (Histogram latency : externalLatency) {
+			if (latency != null) {
+				latency.reset();
+			}
+		}
+		enabled.reset();
+		listeners.reset();
+		runs = 0;
+	}
+}
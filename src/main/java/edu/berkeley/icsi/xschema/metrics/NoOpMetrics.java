@@ -0,0 +1,32 @@
+package edu.berkeley.icsi.xschema.metrics;
+
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * The default {@link RunnerMetrics}:  disabled, so the runner does not call it at all.
+ */
+public class NoOpMetrics implements RunnerMetrics {
+
+	public static final NoOpMetrics INSTANCE = new NoOpMetrics();
+
+	@Override
+	public boolean isEnabled() {
+		return false;
+	}
+
+	@Override
+	public void runStarted(CompiledNet net) {
+	}
+
+	@Override
+	public void transitionFired(int transition, int enabled) {
+	}
+
+	@Override
+	public void externalFired(int transition, long nanos) {
+	}
+
+	@Override
+	public void listenersNotified(long nanos) {
+	}
+}
@@ -0,0 +1,39 @@
+package edu.berkeley.icsi.xschema.metrics;
+
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * Receives measurements from the hot path of a {@link edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner}.
+ * Calls are made on the runner thread.  The runner checks {@link #isEnabled()} once, when the metrics are set,
+ * and makes no calls, and reads no clock, if it returns false; {@link NoOpMetrics} is the default.
+ */
+public interface RunnerMetrics {
+
+	/**
+	 * @return false if the runner should not measure anything
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Called when a run starts.
+	 * @param net
+	 */
+	public void runStarted(CompiledNet net);
+
+	/**
+	 * @param transition index of the transition fired
+	 * @param enabled number of enabled transitions, at any priority level, when it was selected
+	 */
+	public void transitionFired(int transition, int enabled);
+
+	/**
+	 * @param transition index of the external transition
+	 * @param nanos spent in its fire() method
+	 */
+	public void externalFired(int transition, long nanos);
+
+	/**
+	 * @param nanos spent delivering one round to listeners:  state events, including building the State, and token changes
+	 */
+	public void listenersNotified(long nanos);
+}
@@ -0,0 +1,35 @@
+package edu.berkeley.icsi.xschema.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of a {@link MetricsRegistry}; latencies are in nanoseconds.
+ */
+public interface RunnerMetricsMXBean {
+
+	public long getRuns();
+
+	public long getFirings();
+
+	public Map<String, Long> getFireCounts();
+
+	public Map<String, Long> getFireCountsByInclude();
+
+	public Map<String, Long> getExternalFireCounts();
+
+	public Map<String, Double> getExternalFireMeanNanos();
+
+	public Map<String, Long> getExternalFireP99Nanos();
+
+	public Map<String, Long> getExternalFireMaxNanos();
+
+	public double getMeanEnabled();
+
+	public long getMaxEnabled();
+
+	public long getListenerTotalNanos();
+
+	public long getListenerP99Nanos();
+
+	public void reset();
+}
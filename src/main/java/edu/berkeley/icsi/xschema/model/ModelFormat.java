@@ -0,0 +1,44 @@
+package edu.berkeley.icsi.xschema.model;
+
+/**
+ * Layout of the binary model image written by {@link ModelWriter} and read by {@link ModelImage}.
+ * All values are big-endian ints unless noted; strings are indices into the string table, -1 for null.
+ * <pre>
+ * header:       MAGIC, VERSION (byte), HIERARCHY or NET (byte), string count, include count
+ * strings:      per string:  UTF-8 length, bytes
+ * directory:    per include, parents before children:  fully qualified name, alias, parent index (-1 for the root),
+ *               section offset, section length
+ * net section:  net name;
+ *               tokens:  count, per token:  id, ARGB color;
+ *               places:  count, per place:  id, name, capacity, status flags (byte), token counts:  count, per count:  token, count;
+ *               transitions:  count, per transition:  id, name, kind (byte), priority, flags (byte), rate, external class;
+ *               away places:  count, per away place:  include path relative to this include, home place id;
+ *               arcs:  count, per arc:  id, type (byte), direction (byte), place id, transition id, weights:  count, per weight:  token, expression
+ * </pre>
+ * An away place is an interface place of a descendant include made available in this include's net, as a merge arc
+ * requires; its id is the include path and home place id, joined by a dot.
+ */
+final class ModelFormat {
+
+	static final int MAGIC = 0x5853484d; // "XSHM"
+	static final byte VERSION = 1;
+	static final byte NET = 0;
+	static final byte HIERARCHY = 1;
+	static final int HEADER = 14;
+	static final int DIRECTORY_ENTRY = 20;
+	static final byte EXTERNAL = 1;
+	static final byte INPUT_ONLY = 2;
+	static final byte OUTPUT_ONLY = 4;
+	static final byte IMMEDIATE = 0;
+	static final byte EXTERNAL_TRANSITION = 1;
+	static final byte TIMED = 1;
+	static final byte INFINITE_SERVER = 2;
+	static final byte NORMAL_ARC = 0;
+	static final byte INHIBITOR_ARC = 1;
+	static final byte TEST_ARC = 2;
+	static final byte INBOUND = 0;
+	static final byte OUTBOUND = 1;
+
+	private ModelFormat() {
+	}
+}
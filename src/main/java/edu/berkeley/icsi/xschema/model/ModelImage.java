@@ -0,0 +1,371 @@
+package edu.berkeley.icsi.xschema.model;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.imperial.pipe.exceptions.IncludeException;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentException;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.Arc;
+import uk.ac.imperial.pipe.models.petrinet.ColoredToken;
+import uk.ac.imperial.pipe.models.petrinet.DiscreteExternalTransition;
+import uk.ac.imperial.pipe.models.petrinet.DiscretePlace;
+import uk.ac.imperial.pipe.models.petrinet.DiscreteTransition;
+import uk.ac.imperial.pipe.models.petrinet.InboundInhibitorArc;
+import uk.ac.imperial.pipe.models.petrinet.InboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.InboundTestArc;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.NormalRate;
+import uk.ac.imperial.pipe.models.petrinet.OutboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.PlaceStatus;
+import uk.ac.imperial.pipe.models.petrinet.PlaceStatusInterface;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.pipe.models.petrinet.name.NormalPetriNetName;
+
+/**
+ * A binary model image, as written by {@link ModelWriter}:  a PetriNet, or an IncludeHierarchy of nets.
+ * <p>
+ * Reading an image only reads its header, string table and include directory.  A net is decoded when it is
+ * built, and its strings when first used, so building one schema of a large library, with
+ * {@link #buildHierarchy(String)}, reads only the includes of that schema; an image read from a file is
+ * memory-mapped, and its other pages are never touched.  Every build returns new model objects, which may be
+ * edited freely.
+ */
+public class ModelImage {
+
+	private final ByteBuffer image;
+	private final int[] stringOffsets;
+	private final String[] strings;
+	private final int includeCount;
+	private final int directory;
+
+	private ModelImage(ByteBuffer image) throws IOException {
+		this.image = image;
+		if (image.getInt(0) != ModelFormat.MAGIC) {
+			throw new IOException("ModelImage:  not a model image");
+		}
+		if (image.get(4) != ModelFormat.VERSION) {
+			throw new IOException("ModelImage:  unsupported model image version "+image.get(4));
+		}
+		stringOffsets = new int[image.getInt(6)];
+		strings = new String[stringOffsets.length];
+		includeCount = image.getInt(10);
+		int position = ModelFormat.HEADER;
+		for (int i = 0; i < stringOffsets.length; i++) {
+			stringOffsets[i] = position;
+			position += 4 + image.getInt(position);
+		}
+		directory = position;
+	}
+
+	/**
+	 * Maps a model image file into memory.
+	 * @param path
+	 * @return image
+	 * @throws IOException if the file cannot be read, or is not a model image
+	 */
+	public static ModelImage read(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new ModelImage(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param image as written by {@link #write(Path)}
+	 * @return image over the buffer, which is not copied
+	 */
+	public static ModelImage wrap(ByteBuffer image) {
+		try {
+			return new ModelImage(image.slice());
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param path
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		try {
+			ByteBuffer buffer = image.duplicate();
+			buffer.clear();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return size of the image in bytes
+	 */
+	public int size() {
+		return image.limit();
+	}
+
+	/**
+	 * @return true if the image holds an IncludeHierarchy, rather than a single net
+	 */
+	public boolean isHierarchy() {
+		return image.get(5) == ModelFormat.HIERARCHY;
+	}
+
+	/**
+	 * @return fully qualified names of the includes, parents before children; the net name of a single net
+	 */
+	public List<String> getIncludeNames() {
+		List<String> names = new ArrayList<String>(includeCount);
+		for (int include = 0; include < includeCount; include++) {
+			names.add(string(entry(include, 0)));
+		}
+		return names;
+	}
+
+	/**
+	 * Builds the net of the root, without the interface places of its includes, or the arcs to them.
+	 * @return net; for an image of a single net, the whole net
+	 * @throws PetriNetComponentException
+	 * @throws PetriNetComponentNotFoundException
+	 */
+	public PetriNet buildPetriNet() throws PetriNetComponentException, PetriNetComponentNotFoundException {
+		return decode(0).petriNet;
+	}
+
+	/**
+	 * @return the whole hierarchy
+	 * @throws IncludeException
+	 * @throws PetriNetComponentException
+	 * @throws PetriNetComponentNotFoundException
+	 */
+	public IncludeHierarchy buildHierarchy()
+			throws IncludeException, PetriNetComponentException, PetriNetComponentNotFoundException {
+		return buildHierarchy(0, string(entry(0, 0)));
+	}
+
+	/**
+	 * Builds one include and its descendants, as a hierarchy of its own, decoding only their nets.
+	 * Merge arcs from its ancestors are not part of it.
+	 * @param fullyQualifiedName of the include, e.g., "Grasp.Close_hand"
+	 * @return hierarchy whose root is named by the include's alias
+	 * @throws IncludeException if the image has no such include
+	 * @throws PetriNetComponentException
+	 * @throws PetriNetComponentNotFoundException
+	 */
+	public IncludeHierarchy buildHierarchy(String fullyQualifiedName)
+			throws IncludeException, PetriNetComponentException, PetriNetComponentNotFoundException {
+		for (int include = 0; include < includeCount; include++) {
+			if (fullyQualifiedName.equals(string(entry(include, 0)))) {
+				String alias = string(entry(include, 1));
+				return buildHierarchy(include, (alias == null) ? fullyQualifiedName : alias);
+			}
+		}
+		throw new IncludeException("ModelImage:  no include named "+fullyQualifiedName);
+	}
+
+	private IncludeHierarchy buildHierarchy(int root, String name)
+			throws IncludeException, PetriNetComponentException, PetriNetComponentNotFoundException {
+		IncludeHierarchy[] hierarchies = new IncludeHierarchy[includeCount];
+		Net[] nets = new Net[includeCount];
+		List<Integer> subtree = new ArrayList<Integer>();
+		for (int include = root; include < includeCount; include++) {
+			int parent = entry(include, 2);
+			if ((include == root) || ((parent >= root) && (hierarchies[parent] != null))) {
+				nets[include] = decode(include);
+				hierarchies[include] = (include == root) ? new IncludeHierarchy(nets[include].petriNet, name) :
+					hierarchies[parent].include(nets[include].petriNet, string(entry(include, 1)));
+				subtree.add(include);
+			}
+		}
+		for (int include : subtree) {
+			IncludeHierarchy hierarchy = hierarchies[include];
+			for (String[] away : nets[include].awayPlaces) {
+				IncludeHierarchy home = hierarchy;
+				for (String alias : away[0].split("\\.")) {
+					home = home.getInclude(alias);
+				}
+				home.addToInterface(home.getPetriNet().getComponent(away[1], Place.class), true, false, false, false);
+				hierarchy.addAvailablePlaceToPetriNet(hierarchy.getInterfacePlace(away[0]+"."+away[1]));
+			}
+		}
+		for (int include : subtree) {
+			Net net = nets[include];
+			for (ArcRecord arc : net.deferredArcs) {
+				net.petriNet.add(arc.build(hierarchies[include].getInterfacePlace(arc.placeId),
+						net.petriNet.getComponent(arc.transitionId, Transition.class)));
+			}
+		}
+		for (int include : subtree) {
+			for (Map.Entry<Place, Byte> status : nets[include].statuses.entrySet()) {
+				setStatus(status.getKey(), status.getValue(), hierarchies[include]);
+			}
+		}
+		return hierarchies[root];
+	}
+
+	private void setStatus(Place place, byte flags, IncludeHierarchy include) {
+		PlaceStatus current = place.getStatus();
+		PlaceStatusInterface status = (current instanceof PlaceStatusInterface) ? (PlaceStatusInterface) current :
+			new PlaceStatusInterface(place, include);
+		status.setExternal((flags & ModelFormat.EXTERNAL) != 0);
+		status.setInputOnlyArcConstraint((flags & ModelFormat.INPUT_ONLY) != 0);
+		status.setOutputOnlyArcConstraint((flags & ModelFormat.OUTPUT_ONLY) != 0);
+		status.update();
+		place.setStatus(status);
+	}
+
+	private int entry(int include, int field) {
+		return image.getInt(directory + include * ModelFormat.DIRECTORY_ENTRY + 4 * field);
+	}
+
+	private Net decode(int include) throws PetriNetComponentException, PetriNetComponentNotFoundException {
+		ByteBuffer buffer = image.duplicate();
+		buffer.position(entry(include, 3));
+		Net net = new Net(new PetriNet(new NormalPetriNetName(getString(buffer))));
+		PetriNet petriNet = net.petriNet;
+		int tokens = buffer.getInt();
+		for (int i = 0; i < tokens; i++) {
+			petriNet.add(new ColoredToken(getString(buffer), new Color(buffer.getInt(), true)));
+		}
+		int places = buffer.getInt();
+		Map<String, Place> placeById = new HashMap<String, Place>();
+		for (int i = 0; i < places; i++) {
+			Place place = new DiscretePlace(getString(buffer), getString(buffer));
+			place.setCapacity(buffer.getInt());
+			byte flags = buffer.get();
+			int counts = buffer.getInt();
+			for (int j = 0; j < counts; j++) {
+				place.setTokenCount(getString(buffer), buffer.getInt());
+			}
+			petriNet.add(place);
+			placeById.put(place.getId(), place);
+			if (flags != 0) {
+				net.statuses.put(place, flags);
+			}
+		}
+		int transitions = buffer.getInt();
+		for (int i = 0; i < transitions; i++) {
+			String id = getString(buffer);
+			String name = getString(buffer);
+			byte kind = buffer.get();
+			int priority = buffer.getInt();
+			byte flags = buffer.get();
+			String rate = getString(buffer);
+			String externalClass = getString(buffer);
+			Transition transition = (kind == ModelFormat.EXTERNAL_TRANSITION) ?
+					new DiscreteExternalTransition(id, name, externalClass) : new DiscreteTransition(id, name);
+			transition.setPriority(priority);
+			transition.setTimed((flags & ModelFormat.TIMED) != 0);
+			transition.setInfiniteServer((flags & ModelFormat.INFINITE_SERVER) != 0);
+			if (rate != null) {
+				transition.setRate(new NormalRate(rate));
+			}
+			petriNet.add(transition);
+		}
+		int awayPlaces = buffer.getInt();
+		for (int i = 0; i < awayPlaces; i++) {
+			net.awayPlaces.add(new String[] {getString(buffer), getString(buffer)});
+		}
+		int arcs = buffer.getInt();
+		for (int i = 0; i < arcs; i++) {
+			ArcRecord arc = new ArcRecord(getString(buffer), buffer.get(), buffer.get(), getString(buffer), getString(buffer));
+			int weights = buffer.getInt();
+			for (int j = 0; j < weights; j++) {
+				arc.weights.put(getString(buffer), getString(buffer));
+			}
+			Place place = placeById.get(arc.placeId);
+			if (place == null) {
+				net.deferredArcs.add(arc);
+			} else {
+				petriNet.add(arc.build(place, petriNet.getComponent(arc.transitionId, Transition.class)));
+			}
+		}
+		return net;
+	}
+
+	private String getString(ByteBuffer buffer) {
+		return string(buffer.getInt());
+	}
+
+	private String string(int index) {
+		if (index < 0) {
+			return null;
+		}
+		String value = strings[index];
+		if (value == null) {
+			int offset = stringOffsets[index];
+			byte[] bytes = new byte[image.getInt(offset)];
+			ByteBuffer buffer = image.duplicate();
+			buffer.position(offset + 4);
+			buffer.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+			strings[index] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * A decoded net, with what can only be added once its include is in a hierarchy.
+	 */
+	private static class Net {
+		private final PetriNet petriNet;
+		private final List<String[]> awayPlaces = new ArrayList<String[]>();
+		private final List<ArcRecord> deferredArcs = new ArrayList<ArcRecord>();
+		private final Map<Place, Byte> statuses = new HashMap<Place, Byte>();
+
+		public Net(PetriNet petriNet) {
+			this.petriNet = petriNet;
+		}
+	}
+
+	private static class ArcRecord {
+		private final String id;
+		private final byte type;
+		private final byte direction;
+		private final String placeId;
+		private final String transitionId;
+		private final Map<String, String> weights = new HashMap<String, String>();
+
+		public ArcRecord(String id, byte type, byte direction, String placeId, String transitionId) {
+			this.id = id;
+			this.type = type;
+			this.direction = direction;
+			this.placeId = placeId;
+			this.transitionId = transitionId;
+		}
+
+		@SuppressWarnings("rawtypes")
+		public Arc build(Place place, Transition transition) {
+			Arc arc;
+			if (direction == ModelFormat.OUTBOUND) {
+				arc = new OutboundNormalArc(transition, place, weights);
+			} else if (type == ModelFormat.INHIBITOR_ARC) {
+				arc = new InboundInhibitorArc(place, transition);
+			} else if (type == ModelFormat.TEST_ARC) {
+				arc = new InboundTestArc(place, transition, weights);
+			} else {
+				arc = new InboundNormalArc(place, transition, weights);
+			}
+			arc.setId(id);
+			return arc;
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package edu.berkeley.icsi.xschema.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.imperial.pipe.models.petrinet.ArcType;
+import uk.ac.imperial.pipe.models.petrinet.DiscreteExternalTransition;
+import uk.ac.imperial.pipe.models.petrinet.InboundArc;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.OutboundArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.PlaceStatus;
+import uk.ac.imperial.pipe.models.petrinet.Token;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+/**
+ * Writes a PetriNet, or a whole IncludeHierarchy, as a {@link ModelImage}:  each include's net, with its tokens,
+ * places, transitions (including external class names) and arcs, the include tree, the interface places
+ * made available to parents for merge arcs, and the flags of external place statuses.
+ * Ids are written as they are after any renaming, so loading needs no renaming.
+ * <p>
+ * Interfaces are saved as home places made available in an ancestor, the form merge arcs take;
+ * layout coordinates are not saved.
+ */
+public class ModelWriter {
+
+	private final Map<String, Integer> stringIndex;
+	private final List<byte[]> strings;
+	private final List<int[]> directory;
+	private final List<ByteBuffer> sections;
+	private ByteBuffer section;
+
+	private ModelWriter() {
+		stringIndex = new HashMap<String, Integer>();
+		strings = new ArrayList<byte[]>();
+		directory = new ArrayList<int[]>();
+		sections = new ArrayList<ByteBuffer>();
+	}
+
+	/**
+	 * @param petriNet
+	 * @return image of the net alone
+	 */
+	public static ModelImage write(PetriNet petriNet) {
+		ModelWriter writer = new ModelWriter();
+		writer.addNet(petriNet, null, petriNet.getNameValue(), null, -1);
+		return writer.image(ModelFormat.NET);
+	}
+
+	/**
+	 * @param root
+	 * @return image of the hierarchy, and every include in it
+	 */
+	public static ModelImage write(IncludeHierarchy root) {
+		ModelWriter writer = new ModelWriter();
+		writer.addInclude(root, null, -1);
+		return writer.image(ModelFormat.HIERARCHY);
+	}
+
+	private void addInclude(IncludeHierarchy include, String alias, int parent) {
+		int index = directory.size();
+		addNet(include.getPetriNet(), include, include.getFullyQualifiedName(), alias, parent);
+		for (Map.Entry<String, IncludeHierarchy> child : include.getIncludeMap().entrySet()) {
+			addInclude(child.getValue(), child.getKey(), index);
+		}
+	}
+
+	private void addNet(PetriNet petriNet, IncludeHierarchy include, String name, String alias, int parent) {
+		section = ByteBuffer.allocate(1024);
+		putString(petriNet.getNameValue());
+		putInt(petriNet.getTokens().size());
+		for (Token token : petriNet.getTokens()) {
+			putString(token.getId());
+			putInt(token.getColor().getRGB());
+		}
+		List<Place> places = new ArrayList<Place>();
+		List<Place> awayPlaces = new ArrayList<Place>();
+		for (Place place : petriNet.getPlaces()) {
+			if (isAway(place, include)) {
+				awayPlaces.add(place);
+			} else {
+				places.add(place);
+			}
+		}
+		putInt(places.size());
+		for (Place place : places) {
+			putString(place.getId());
+			putString(place.getName());
+			putInt(place.getCapacity());
+			putByte(statusFlags(place.getStatus()));
+			putInt(place.getTokenCounts().size());
+			for (Map.Entry<String, Integer> count : place.getTokenCounts().entrySet()) {
+				putString(count.getKey());
+				putInt(count.getValue());
+			}
+		}
+		putInt(petriNet.getTransitions().size());
+		for (Transition transition : petriNet.getTransitions()) {
+			boolean external = transition instanceof DiscreteExternalTransition;
+			putString(transition.getId());
+			putString(transition.getName());
+			putByte(external ? ModelFormat.EXTERNAL_TRANSITION : ModelFormat.IMMEDIATE);
+			putInt(transition.getPriority());
+			putByte((byte) ((transition.isTimed() ? ModelFormat.TIMED : 0) |
+					(transition.isInfiniteServer() ? ModelFormat.INFINITE_SERVER : 0)));
+			putString(transition.getRateExpr());
+			putString(external ? ((DiscreteExternalTransition) transition).getClassName() : null);
+		}
+		putInt(awayPlaces.size());
+		for (Place place : awayPlaces) {
+			int dot = place.getId().lastIndexOf('.');
+			putString(place.getId().substring(0, dot));
+			putString(place.getId().substring(dot + 1));
+		}
+		int arcCountPosition = section.position();
+		putInt(0);
+		int arcs = 0;
+		for (Transition transition : petriNet.getTransitions()) {
+			for (InboundArc arc : petriNet.inboundArcs(transition)) {
+				putArc(arc.getId(), arc.getType(), ModelFormat.INBOUND, arc.getSource().getId(), transition.getId(),
+						arc.getTokenWeights());
+				arcs++;
+			}
+			for (OutboundArc arc : petriNet.outboundArcs(transition)) {
+				putArc(arc.getId(), arc.getType(), ModelFormat.OUTBOUND, arc.getTarget().getId(), transition.getId(),
+						arc.getTokenWeights());
+				arcs++;
+			}
+		}
+		section.putInt(arcCountPosition, arcs);
+		section.flip();
+		directory.add(new int[] {index(name), index(alias), parent});
+		sections.add(section);
+	}
+
+	/**
+	 * @return true if the place is an interface place of a descendant, made available in the include's net
+	 */
+	private boolean isAway(Place place, IncludeHierarchy include) {
+		return (include != null) && (place.getId().indexOf('.') > 0) && (include.getInterfacePlace(place.getId()) != null);
+	}
+
+	private byte statusFlags(PlaceStatus status) {
+		if (status == null) {
+			return 0;
+		}
+		return (byte) ((status.isExternal() ? ModelFormat.EXTERNAL : 0) |
+				(status.isInputOnlyArcConstraint() ? ModelFormat.INPUT_ONLY : 0) |
+				(status.isOutputOnlyArcConstraint() ? ModelFormat.OUTPUT_ONLY : 0));
+	}
+
+	private void putArc(String id, ArcType type, byte direction, String placeId, String transitionId,
+			Map<String, String> weights) {
+		putString(id);
+		putByte((type == ArcType.INHIBITOR) ? ModelFormat.INHIBITOR_ARC :
+				(type == ArcType.TEST) ? ModelFormat.TEST_ARC : ModelFormat.NORMAL_ARC);
+		putByte(direction);
+		putString(placeId);
+		putString(transitionId);
+		putInt(weights.size());
+		for (Map.Entry<String, String> weight : weights.entrySet()) {
+			putString(weight.getKey());
+			putString(weight.getValue());
+		}
+	}
+
+	private ModelImage image(byte kind) {
+		int size = ModelFormat.HEADER;
+		for (byte[] bytes : strings) {
+			size += 4 + bytes.length;
+		}
+		size += ModelFormat.DIRECTORY_ENTRY * directory.size();
+		int offset = size;
+		for (ByteBuffer buffer : sections) {
+			size += buffer.limit();
+		}
+		ByteBuffer image = ByteBuffer.allocate(size);
+		image.putInt(ModelFormat.MAGIC).put(ModelFormat.VERSION).put(kind).putInt(strings.size()).putInt(directory.size());
+		for (byte[] bytes : strings) {
+			image.putInt(bytes.length).put(bytes);
+		}
+		for (int i = 0; i < directory.size(); i++) {
+			int[] entry = directory.get(i);
+			image.putInt(entry[0]).putInt(entry[1]).putInt(entry[2]).putInt(offset).putInt(sections.get(i).limit());
+			offset += sections.get(i).limit();
+		}
+		for (ByteBuffer buffer : sections) {
+			image.put(buffer);
+		}
+		image.flip();
+		return ModelImage.wrap(image);
+	}
+
+	private int index(String value) {
+		if (value == null) {
+			return -1;
+		}
+		Integer index = stringIndex.get(value);
+		if (index == null) {
+			index = strings.size();
+			stringIndex.put(value, index);
+			strings.add(value.getBytes(StandardCharsets.UTF_8));
+		}
+		return index;
+	}
+
+	private void putString(String value) {
+		putInt(index(value));
+	}
+
+	private void putInt(int value) {
+		ensure(4);
+		section.putInt(value);
+	}
+
+	private void putByte(byte value) {
+		ensure(1);
+		section.put(value);
+	}
+
+	private void ensure(int bytes) {
+		if (section.remaining() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(2 * section.capacity());
+			section.flip();
+			larger.put(section);
+			section = larger;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package edu.berkeley.icsi.xschema.parameters;
+
+import uk.ac.imperial.pipe.models.petrinet.AbstractExternalTransition;
+
+/**
+ * Counterpart of AbstractTransitionJsonParameters for transitions that fire often:  the context is a
+ * {@link ParameterStore}, whose active transition supplies the parameters, or the {@link TransitionParameters}
+ * themselves.  Subclasses resolve their parameter indices once, in {@link #resolve(TransitionParameters)},
+ * and read and update them in {@link #fire()} without building JSON.
+ * <p>
+ * For example, the Approach transition of the Grasp net, which counts its firings in "num":
+ * <pre>
+ * protected void resolve(TransitionParameters parameters) {
+ *     num = parameters.indexOf("num");
+ * }
+ *
+ * public void fire() {
+ *     getParameters().add(num, 1);
+ * }
+ * </pre>
+ */
+public abstract class AbstractTransitionParameters extends AbstractExternalTransition {
+
+	private TransitionParameters parameters;
+
+	@Override
+	public void setContext(Object context) {
+		super.setContext(context);
+		if (context instanceof ParameterStore) {
+			parameters = ((ParameterStore) context).getActiveTransition();
+		} else if (context instanceof TransitionParameters) {
+			parameters = (TransitionParameters) context;
+		} else {
+			throw new IllegalArgumentException("AbstractTransitionParameters:  expected a ParameterStore or "+
+					"TransitionParameters as context, but was "+context);
+		}
+		resolve(parameters);
+	}
+
+	/**
+	 * Called when the context is set; look up parameter indices here.
+	 * @param parameters
+	 */
+	protected abstract void resolve(TransitionParameters parameters);
+
+	protected TransitionParameters getParameters() {
+		return parameters;
+	}
+}
@@ -0,0 +1,158 @@
+package edu.berkeley.icsi.xschema.parameters;
+
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+
+import uk.ac.imperial.pipe.runner.JsonParameters;
+
+/**
+ * Parameters of a set of transitions, in the format of {@link JsonParameters}:
+ * <code>{"transitions":{"Grasp.Approach.T3":{"num":1}}}</code>, held as {@link TransitionParameters}.
+ * <p>
+ * The JSON is parsed once, when the store is built.  Transitions extending {@link AbstractTransitionParameters}
+ * then read and update their parameters in place on every firing; the JSON, and the JsonParameters
+ * built from it, are produced only when asked for, and rebuilt only after a change.
+ */
+public class ParameterStore {
+
+	public static final String TRANSITIONS = "transitions";
+	private final Map<String, TransitionParameters> transitions;
+	private String activeTransitionId;
+	private JsonParameters jsonParameters;
+	private long exportedVersion;
+
+	public ParameterStore() {
+		transitions = new LinkedHashMap<String, TransitionParameters>();
+		exportedVersion = -1;
+	}
+
+	/**
+	 * @param json in the format of JsonParameters
+	 */
+	public ParameterStore(String json) {
+		this();
+		JsonReader reader = Json.createReader(new StringReader(json));
+		try {
+			update(reader.readObject());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Replaces or adds the parameters of every transition in the object.
+	 * @param jsonObject in the format of JsonParameters
+	 */
+	public void update(JsonObject jsonObject) {
+		JsonObject transitionObjects = jsonObject.getJsonObject(TRANSITIONS);
+		if (transitionObjects == null) {
+			throw new IllegalArgumentException("ParameterStore:  expected an object named "+TRANSITIONS);
+		}
+		for (String transitionId : transitionObjects.keySet()) {
+			JsonObject parameters = transitionObjects.getJsonObject(transitionId);
+			TransitionParameters existing = transitions.get(transitionId);
+			if (existing == null) {
+				transitions.put(transitionId, new TransitionParameters(transitionId, parameters));
+			} else {
+				existing.update(parameters);
+			}
+		}
+	}
+
+	/**
+	 * @param transitionId
+	 * @return parameters of the transition, added empty if there were none
+	 */
+	public TransitionParameters getTransition(String transitionId) {
+		TransitionParameters parameters = transitions.get(transitionId);
+		if (parameters == null) {
+			parameters = new TransitionParameters(transitionId);
+			transitions.put(transitionId, parameters);
+		}
+		return parameters;
+	}
+
+	public boolean hasTransition(String transitionId) {
+		return transitions.containsKey(transitionId);
+	}
+
+	/**
+	 * As in JsonParameters, the active transition is the one whose parameters a transition
+	 * receives when the store itself is its context.  Changing it discards the cached {@link #getJsonParameters() export}.
+	 * @param transitionId
+	 */
+	public void setActiveTransition(String transitionId) {
+		if ((transitionId == null) ? (activeTransitionId != null) : !transitionId.equals(activeTransitionId)) {
+			jsonParameters = null;
+		}
+		activeTransitionId = transitionId;
+	}
+
+	/**
+	 * @return id of the active transition, or null if none has been set
+	 */
+	public String getActiveTransitionId() {
+		return activeTransitionId;
+	}
+
+	/**
+	 * @return parameters of the active transition
+	 */
+	public TransitionParameters getActiveTransition() {
+		if (activeTransitionId == null) {
+			throw new IllegalStateException("ParameterStore:  no active transition");
+		}
+		return getTransition(activeTransitionId);
+	}
+
+	/**
+	 * Builds the parameters as JSON; each transition's object is rebuilt only if it has changed.
+	 * @return object in the format of JsonParameters
+	 */
+	public JsonObject toJsonObject() {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		for (TransitionParameters parameters : transitions.values()) {
+			builder.add(parameters.getTransitionId(), parameters.toJsonObject());
+		}
+		return Json.createObjectBuilder().add(TRANSITIONS, builder).build();
+	}
+
+	/**
+	 * Exports the store as JsonParameters, with the same active transition.
+	 * The export is cached, and rebuilt only when a parameter or the active transition has changed since.
+	 * @return parameters
+	 */
+	public JsonParameters getJsonParameters() {
+		long version = version();
+		if ((jsonParameters == null) || (version != exportedVersion)) {
+			jsonParameters = new JsonParameters(toString());
+			if (activeTransitionId != null) {
+				jsonParameters.setActiveTransition(activeTransitionId);
+			}
+			exportedVersion = version;
+		}
+		return jsonParameters;
+	}
+
+	/**
+	 * Versions of transitions only grow, and transitions are never removed, so any change grows the sum.
+	 */
+	private long version() {
+		long version = transitions.size();
+		for (TransitionParameters parameters : transitions.values()) {
+			version += parameters.getVersion();
+		}
+		return version;
+	}
+
+	@Override
+	public String toString() {
+		return toJsonObject().toString();
+	}
+}
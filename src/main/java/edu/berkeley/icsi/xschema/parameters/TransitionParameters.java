@@ -0,0 +1,324 @@
+package edu.berkeley.icsi.xschema.parameters;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * Mutable, typed parameters of one transition, held in primitive arrays rather than a JsonObject.
+ * <p>
+ * A parameter is resolved to an index once, with {@link #indexOf(String)}; reads and writes by index
+ * are array accesses, so a transition can update its parameters on every firing without parsing or
+ * building JSON.  The JsonObject is built only when it is asked for, and is cached until the next change.
+ * <p>
+ * Integral JSON numbers are held as longs, other numbers as doubles; booleans and strings are typed as well.
+ * Nested objects, arrays and nulls are kept as JSON values, and can be read or replaced but not updated in place.
+ * Not thread-safe; parameters belong to the runner thread.
+ */
+public class TransitionParameters {
+
+	public static final byte LONG = 0;
+	public static final byte DOUBLE = 1;
+	public static final byte BOOLEAN = 2;
+	public static final byte STRING = 3;
+	public static final byte JSON = 4;
+	private static final int INITIAL_CAPACITY = 4;
+	private final String transitionId;
+	private String[] names;
+	private byte[] types;
+	private long[] longs;
+	private double[] doubles;
+	private Object[] objects;
+	private int size;
+	private int version;
+	private JsonObject json;
+
+	public TransitionParameters(String transitionId) {
+		this.transitionId = transitionId;
+		names = new String[INITIAL_CAPACITY];
+		types = new byte[INITIAL_CAPACITY];
+		longs = new long[INITIAL_CAPACITY];
+		doubles = new double[INITIAL_CAPACITY];
+		objects = new Object[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * @param transitionId
+	 * @param jsonObject initial parameters; retained as the cached JSON until the first change
+	 */
+	public TransitionParameters(String transitionId, JsonObject jsonObject) {
+		this(transitionId);
+		update(jsonObject);
+	}
+
+	/**
+	 * Replaces the value of every parameter in the object, and adds those not yet present.
+	 * @param jsonObject
+	 */
+	public void update(JsonObject jsonObject) {
+		for (Map.Entry<String, JsonValue> entry : jsonObject.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+		json = (size == jsonObject.size()) ? jsonObject : null;
+	}
+
+	private void put(String name, JsonValue value) {
+		int index = indexOrAdd(name);
+		switch (value.getValueType()) {
+		case NUMBER:
+			JsonNumber number = (JsonNumber) value;
+			if (number.isIntegral()) {
+				types[index] = LONG;
+				longs[index] = number.longValue();
+			} else {
+				types[index] = DOUBLE;
+				doubles[index] = number.doubleValue();
+			}
+			break;
+		case TRUE:
+		case FALSE:
+			types[index] = BOOLEAN;
+			longs[index] = (value == JsonValue.TRUE) ? 1 : 0;
+			break;
+		case STRING:
+			types[index] = STRING;
+			objects[index] = ((JsonString) value).getString();
+			break;
+		default:
+			types[index] = JSON;
+			objects[index] = value;
+		}
+		changed();
+	}
+
+	/**
+	 * @param name
+	 * @return index of the parameter, or -1 if there is none
+	 */
+	public int indexOf(String name) {
+		for (int index = 0; index < size; index++) {
+			if (names[index].equals(name)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	private int indexOrAdd(String name) {
+		int index = indexOf(name);
+		if (index >= 0) {
+			return index;
+		}
+		if (size == names.length) {
+			int capacity = 2 * size;
+			names = Arrays.copyOf(names, capacity);
+			types = Arrays.copyOf(types, capacity);
+			longs = Arrays.copyOf(longs, capacity);
+			doubles = Arrays.copyOf(doubles, capacity);
+			objects = Arrays.copyOf(objects, capacity);
+		}
+		names[size] = name;
+		return size++;
+	}
+
+	private int require(String name) {
+		int index = indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException("TransitionParameters:  transition "+transitionId+
+					" has no parameter "+name);
+		}
+		return index;
+	}
+
+	private void check(int index, byte type) {
+		if (types[index] != type) {
+			throw new IllegalArgumentException("TransitionParameters:  parameter "+names[index]+" of transition "+
+					transitionId+" is not of type "+type);
+		}
+	}
+
+	private void changed() {
+		version++;
+		json = null;
+	}
+
+	public String getTransitionId() {
+		return transitionId;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	public byte getType(int index) {
+		return types[index];
+	}
+
+	/**
+	 * @return count of changes; unchanged parameters keep the same version
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	public long getLong(int index) {
+		check(index, LONG);
+		return longs[index];
+	}
+
+	public void setLong(int index, long value) {
+		check(index, LONG);
+		if (longs[index] != value) {
+			longs[index] = value;
+			changed();
+		}
+	}
+
+	public int getInt(int index) {
+		return (int) getLong(index);
+	}
+
+	public void setInt(int index, int value) {
+		setLong(index, value);
+	}
+
+	/**
+	 * Adds to an integral parameter.
+	 * @param index
+	 * @param delta
+	 * @return new value
+	 */
+	public long add(int index, long delta) {
+		setLong(index, longs[index] + delta);
+		return longs[index];
+	}
+
+	/**
+	 * @param index
+	 * @return value of a numeric parameter, integral or not
+	 */
+	public double getDouble(int index) {
+		if (types[index] == LONG) {
+			return longs[index];
+		}
+		check(index, DOUBLE);
+		return doubles[index];
+	}
+
+	public void setDouble(int index, double value) {
+		check(index, DOUBLE);
+		if (Double.doubleToLongBits(doubles[index]) != Double.doubleToLongBits(value)) {
+			doubles[index] = value;
+			changed();
+		}
+	}
+
+	public boolean getBoolean(int index) {
+		check(index, BOOLEAN);
+		return longs[index] != 0;
+	}
+
+	public void setBoolean(int index, boolean value) {
+		check(index, BOOLEAN);
+		long bits = value ? 1 : 0;
+		if (longs[index] != bits) {
+			longs[index] = bits;
+			changed();
+		}
+	}
+
+	public String getString(int index) {
+		check(index, STRING);
+		return (String) objects[index];
+	}
+
+	public void setString(int index, String value) {
+		check(index, STRING);
+		if (!objects[index].equals(value)) {
+			objects[index] = value;
+			changed();
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return value of any parameter, as JSON
+	 */
+	public JsonValue getJsonValue(int index) {
+		return toJsonObject().get(names[index]);
+	}
+
+	/**
+	 * Sets a parameter of any type, adding it if necessary; the type follows the value.
+	 * @param name
+	 * @param value
+	 */
+	public void setJsonValue(String name, JsonValue value) {
+		put(name, value);
+	}
+
+	public int getInt(String name) {
+		return getInt(require(name));
+	}
+
+	public void setInt(String name, int value) {
+		setInt(require(name), value);
+	}
+
+	public double getDouble(String name) {
+		return getDouble(require(name));
+	}
+
+	public boolean getBoolean(String name) {
+		return getBoolean(require(name));
+	}
+
+	public String getString(String name) {
+		return getString(require(name));
+	}
+
+	/**
+	 * Builds the parameters as JSON, or returns the object built since the last change.
+	 * @return parameters, in the order they were first added
+	 */
+	public JsonObject toJsonObject() {
+		if (json == null) {
+			JsonObjectBuilder builder = Json.createObjectBuilder();
+			for (int index = 0; index < size; index++) {
+				switch (types[index]) {
+				case LONG:
+					builder.add(names[index], longs[index]);
+					break;
+				case DOUBLE:
+					builder.add(names[index], doubles[index]);
+					break;
+				case BOOLEAN:
+					builder.add(names[index], longs[index] != 0);
+					break;
+				case STRING:
+					builder.add(names[index], (String) objects[index]);
+					break;
+				default:
+					builder.add(names[index], (JsonValue) objects[index]);
+				}
+			}
+			json = builder.build();
+		}
+		return json;
+	}
+
+	@Override
+	public String toString() {
+		return toJsonObject().toString();
+	}
+}
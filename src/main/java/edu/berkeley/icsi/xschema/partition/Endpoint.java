@@ -0,0 +1,32 @@
+package edu.berkeley.icsi.xschema.partition;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * One endpoint's connection to the others of a {@link Transport}.  Messages from one endpoint to another
+ * arrive in the order sent.  Used by a single thread.
+ */
+public interface Endpoint extends Closeable {
+
+	/**
+	 * Sends a message; it may be buffered until {@link #flush()}.
+	 * @param endpoint to send to
+	 * @param message
+	 * @throws IOException
+	 */
+	public void send(int endpoint, PartitionMessage message) throws IOException;
+
+	/**
+	 * Delivers every buffered message.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException;
+
+	/**
+	 * Waits for the next message to this endpoint, from any other.
+	 * @return message
+	 * @throws IOException if the transport fails, or the wait is interrupted
+	 */
+	public PartitionMessage receive() throws IOException;
+}
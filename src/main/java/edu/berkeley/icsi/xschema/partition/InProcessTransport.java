@@ -0,0 +1,59 @@
+package edu.berkeley.icsi.xschema.partition;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A {@link Transport} between threads of one JVM:  a queue per endpoint, with messages passed by reference.
+ * For tests, and for running the partitions of a net on separate threads.
+ */
+public class InProcessTransport implements Transport {
+
+	private final LinkedBlockingQueue<PartitionMessage>[] queues;
+
+	@SuppressWarnings("unchecked")
+	public InProcessTransport(int endpoints) {
+		queues = new LinkedBlockingQueue[endpoints];
+		for (int i = 0; i < endpoints; i++) {
+			queues[i] = new LinkedBlockingQueue<PartitionMessage>();
+		}
+	}
+
+	@Override
+	public int getEndpointCount() {
+		return queues.length;
+	}
+
+	@Override
+	public Endpoint open(final int endpoint) {
+		return new Endpoint() {
+			@Override
+			public void send(int to, PartitionMessage message) {
+				queues[to].offer(message);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public PartitionMessage receive() throws IOException {
+				try {
+					return queues[endpoint].take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("InProcessTransport:  interrupted waiting for a message");
+				}
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,71 @@
+package edu.berkeley.icsi.xschema.partition;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A message between the {@link PartitionedRunner} and its {@link PartitionRunner}s:  a type, the endpoint that
+ * sent it, and a payload of ints, usually pairs, so that all the token changes or enabling changes of a round
+ * for one receiver travel as one message.
+ * <p>
+ * From the runner to a partition:  {@link #START} (1 if detached), {@link #MARK} (slot, count pairs),
+ * {@link #FIRE} (transition), {@link #COUNTS} (no payload) and {@link #STOP}.  Between partitions:  {@link #TOKENS} (slot, delta pairs).
+ * From a partition to the runner:  {@link #ENABLING} (the number of partitions sent TOKENS, then
+ * transition, enabled pairs) and {@link #COUNTS} (slot, count pairs).
+ */
+public class PartitionMessage {
+
+	public static final int START = 1;
+	public static final int MARK = 2;
+	public static final int FIRE = 3;
+	public static final int TOKENS = 4;
+	public static final int ENABLING = 5;
+	public static final int COUNTS = 6;
+	public static final int STOP = 7;
+	private static final int[] NONE = new int[0];
+	public final int type;
+	public final int source;
+	public final int[] values;
+
+	public PartitionMessage(int type, int source, int[] values) {
+		this.type = type;
+		this.source = source;
+		this.values = values;
+	}
+
+	public PartitionMessage(int type, int source) {
+		this(type, source, NONE);
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(type);
+		out.writeInt(source);
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	/**
+	 * @param in
+	 * @return message
+	 * @throws java.io.EOFException at the end of the stream
+	 * @throws IOException
+	 */
+	public static PartitionMessage read(DataInputStream in) throws IOException {
+		int type = in.readInt();
+		int source = in.readInt();
+		int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		return new PartitionMessage(type, source, values);
+	}
+
+	@Override
+	public String toString() {
+		return "PartitionMessage: type "+type+" from "+source+" "+Arrays.toString(values);
+	}
+}
@@ -0,0 +1,367 @@
+package edu.berkeley.icsi.xschema.partition;
+
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.ExternalClass;
+import edu.berkeley.icsi.xschema.runner.Marking;
+import edu.berkeley.icsi.xschema.runner.TokenChangeEventAdapter;
+import edu.berkeley.icsi.xschema.runner.TokenListener;
+
+/**
+ * One partition of a net run by a {@link PartitionedRunner}, typically one include of a hierarchy, in its own
+ * process or thread.  It fires its own transitions when told to, and answers each command with the changes
+ * to the enabling of its transitions.
+ * <p>
+ * The partition keeps a {@link Marking} of the whole net, but only the counts of the places it
+ * {@link Partitioning#keeps(int, int) keeps} are current.  When one of its transitions fires, the token changes to
+ * shared places are sent, batched into one {@link PartitionMessage#TOKENS} message per partition, to the other
+ * partitions that keep them, which report the resulting enabling changes themselves.
+ * <p>
+ * External transitions fire here, with the contexts set by {@link #setTransitionContext(String, Object)};
+ * they may not mark places through a runner.  Token listeners of the places this partition
+ * {@link Partitioning#keeps(int, int) keeps} are called on its thread, before it reports the round's enabling changes.
+ */
+public class PartitionRunner implements Runnable {
+
+	private final CompiledNet net;
+	private final Partitioning partitioning;
+	private final int partition;
+	private final Transport transport;
+	private final int runner;
+	private final Marking marking;
+	private final boolean[] reported;
+	private final int[][] tokens;
+	private final int[] tokenSizes;
+	private int[] changes;
+	private int changeSize;
+	private final Object[] externalInstances;
+	private final MethodHandle[] externalFires;
+	private final TokenWatch[] tokenWatches;
+	private Endpoint endpoint;
+
+	/**
+	 * @param partitioning of the net
+	 * @param partition this partition
+	 * @param transport whose endpoint for this partition is opened by {@link #run()}
+	 */
+	public PartitionRunner(Partitioning partitioning, int partition, Transport transport) {
+		this.net = partitioning.getNet();
+		this.partitioning = partitioning;
+		this.partition = partition;
+		this.transport = transport;
+		this.runner = partitioning.getPartitionCount();
+		this.marking = new Marking(net);
+		this.reported = new boolean[net.getTransitionCount()];
+		this.tokens = new int[partitioning.getPartitionCount()][8];
+		this.tokenSizes = new int[partitioning.getPartitionCount()];
+		this.changes = new int[8];
+		this.externalInstances = new Object[net.getTransitionCount()];
+		this.externalFires = new MethodHandle[net.getTransitionCount()];
+		this.tokenWatches = new TokenWatch[net.getPlaceCount()];
+	}
+
+	/**
+	 * Delivers the changes as {@link TokenChangeEventAdapter PropertyChangeEvents}, as PetriNetRunner does.
+	 * @param listener called on the thread of this partition
+	 * @param placeId of a place this partition keeps
+	 */
+	public void listenForTokenChanges(PropertyChangeListener listener, String placeId) {
+		listenForTokenChanges(new TokenChangeEventAdapter(net, listener), placeId);
+	}
+
+	/**
+	 * @param listener called on the thread of this partition
+	 * @param placeId of a place this partition keeps
+	 */
+	public void listenForTokenChanges(TokenListener listener, String placeId) {
+		int place = net.placeIndex(placeId);
+		if ((place < 0) || !partitioning.keeps(partition, place)) {
+			throw new IllegalArgumentException("PartitionRunner:  "+placeId+
+					" is not a place kept by partition "+partitioning.getName(partition));
+		}
+		if (tokenWatches[place] == null) {
+			tokenWatches[place] = new TokenWatch(place);
+		}
+		tokenWatches[place].add(listener);
+	}
+
+	/**
+	 * @param transitionId of an external transition of this partition
+	 * @param context for its instance in this partition
+	 */
+	public void setTransitionContext(String transitionId, Object context) {
+		int transition = net.transitionIndex(transitionId);
+		if ((transition < 0) || !net.isExternal(transition) || (partitioning.getPartition(transition) != partition)) {
+			throw new IllegalArgumentException("PartitionRunner:  "+transitionId+
+					" is not an external transition of partition "+partitioning.getName(partition));
+		}
+		ExternalClass externalClass = net.getExternalClass(transition);
+		bindExternal(transition);
+		externalClass.setContext(externalInstances[transition], context);
+	}
+
+	private void bindExternal(int transition) {
+		if (externalFires[transition] == null) {
+			ExternalClass externalClass = net.getExternalClass(transition);
+			externalInstances[transition] = externalClass.newInstance();
+			externalFires[transition] = externalClass.bindFire(externalInstances[transition]);
+		}
+	}
+
+	/**
+	 * Serves commands from the runner until it sends {@link PartitionMessage#STOP}.
+	 */
+	@Override
+	public void run() {
+		try {
+			endpoint = transport.open(partition);
+			try {
+				serve();
+			} finally {
+				endpoint.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("PartitionRunner:  transport failed in partition "+
+					partitioning.getName(partition), e);
+		}
+	}
+
+	private void serve() throws IOException {
+		while (true) {
+			PartitionMessage message = endpoint.receive();
+			switch (message.type) {
+			case PartitionMessage.START:
+				start(message.values.length > 0 && message.values[0] != 0);
+				break;
+			case PartitionMessage.MARK:
+				mark(message.values);
+				break;
+			case PartitionMessage.TOKENS:
+				addTokens(message.values);
+				break;
+			case PartitionMessage.FIRE:
+				fire(message.values[0]);
+				break;
+			case PartitionMessage.COUNTS:
+				sendCounts();
+				break;
+			case PartitionMessage.STOP:
+				return;
+			default:
+				throw new IllegalStateException("PartitionRunner:  unexpected message "+message);
+			}
+			endpoint.flush();
+		}
+	}
+
+	/**
+	 * @param detached if true, starts from the marking the net was compiled with, rather than that of the model
+	 */
+	private void start(boolean detached) throws IOException {
+		if (detached) {
+			marking.reset(net.getInitialMarking());
+		} else {
+			int[] counts = new int[net.getSlotCount()];
+			net.readMarking(counts);
+			marking.reset(counts);
+		}
+		Arrays.fill(reported, false);
+		for (TokenWatch watch : tokenWatches) {
+			if (watch != null) {
+				watch.reset();
+			}
+		}
+		changeSize = 0;
+		for (int transition = 0; transition < reported.length; transition++) {
+			check(transition);
+		}
+		sendEnabling(0);
+	}
+
+	private void mark(int[] values) throws IOException {
+		changeSize = 0;
+		for (int i = 0; i < values.length; i += 2) {
+			marking.set(values[i], values[i + 1]);
+		}
+		for (int i = 0; i < values.length; i += 2) {
+			checkDependents(values[i] / net.getTokenTypeCount());
+			checkTokens(values[i] / net.getTokenTypeCount());
+		}
+		sendEnabling(0);
+	}
+
+	private void addTokens(int[] values) throws IOException {
+		changeSize = 0;
+		for (int i = 0; i < values.length; i += 2) {
+			marking.add(values[i], values[i + 1]);
+		}
+		for (int i = 0; i < values.length; i += 2) {
+			checkDependents(values[i] / net.getTokenTypeCount());
+			checkTokens(values[i] / net.getTokenTypeCount());
+		}
+		sendEnabling(0);
+	}
+
+	private void fire(int transition) throws IOException {
+		marking.fire(transition);
+		if (net.isExternal(transition)) {
+			bindExternal(transition);
+			ExternalClass.fire(externalFires[transition]);
+		}
+		int[] inputStart = net.getInputStart();
+		int[] inputSlot = net.getInputSlot();
+		int[] inputWeight = net.getInputWeight();
+		int[] outputStart = net.getOutputStart();
+		int[] outputSlot = net.getOutputSlot();
+		int[] outputWeight = net.getOutputWeight();
+		for (int i = inputStart[transition]; i < inputStart[transition + 1]; i++) {
+			share(inputSlot[i], -inputWeight[i]);
+		}
+		for (int i = outputStart[transition]; i < outputStart[transition + 1]; i++) {
+			share(outputSlot[i], outputWeight[i]);
+		}
+		int peers = 0;
+		for (int peer = 0; peer < tokenSizes.length; peer++) {
+			if (tokenSizes[peer] > 0) {
+				endpoint.send(peer, new PartitionMessage(PartitionMessage.TOKENS, partition,
+						Arrays.copyOf(tokens[peer], tokenSizes[peer])));
+				tokenSizes[peer] = 0;
+				peers++;
+			}
+		}
+		changeSize = 0;
+		for (int place : Partitioning.touched(net, transition, net.getTokenTypeCount())) {
+			checkDependents(place);
+			checkTokens(place);
+		}
+		sendEnabling(peers);
+	}
+
+	/**
+	 * Queues a token change to a shared place for every other partition that keeps it.
+	 */
+	private void share(int slot, int delta) {
+		for (int peer : partitioning.getPartitions(slot / net.getTokenTypeCount())) {
+			if (peer != partition) {
+				if (tokenSizes[peer] + 2 > tokens[peer].length) {
+					tokens[peer] = Arrays.copyOf(tokens[peer], 2 * tokens[peer].length);
+				}
+				tokens[peer][tokenSizes[peer]++] = slot;
+				tokens[peer][tokenSizes[peer]++] = delta;
+			}
+		}
+	}
+
+	private void checkDependents(int place) {
+		int[] dependentStart = net.getDependentStart();
+		int[] dependents = net.getDependents();
+		for (int i = dependentStart[place]; i < dependentStart[place + 1]; i++) {
+			check(dependents[i]);
+		}
+	}
+
+	private void checkTokens(int place) {
+		if (tokenWatches[place] != null) {
+			tokenWatches[place].check();
+		}
+	}
+
+	private void check(int transition) {
+		if (partitioning.getPartition(transition) != partition) {
+			return;
+		}
+		boolean enabled = marking.isEnabled(transition);
+		if (enabled != reported[transition]) {
+			reported[transition] = enabled;
+			if (changeSize + 2 > changes.length) {
+				changes = Arrays.copyOf(changes, 2 * changes.length);
+			}
+			changes[changeSize++] = transition;
+			changes[changeSize++] = enabled ? 1 : 0;
+		}
+	}
+
+	private void sendEnabling(int peers) throws IOException {
+		int[] values = new int[changeSize + 1];
+		values[0] = peers;
+		System.arraycopy(changes, 0, values, 1, changeSize);
+		endpoint.send(runner, new PartitionMessage(PartitionMessage.ENABLING, partition, values));
+	}
+
+	private void sendCounts() throws IOException {
+		int tokenTypes = net.getTokenTypeCount();
+		int owned = 0;
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			if (partitioning.getOwner(place) == partition) {
+				owned++;
+			}
+		}
+		int[] values = new int[owned * 2 * tokenTypes];
+		int size = 0;
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			if (partitioning.getOwner(place) == partition) {
+				for (int token = 0; token < tokenTypes; token++) {
+					int slot = net.slot(place, token);
+					values[size++] = slot;
+					values[size++] = marking.getCount(slot);
+				}
+			}
+		}
+		endpoint.send(runner, new PartitionMessage(PartitionMessage.COUNTS, partition, values));
+	}
+
+	public int getPartition() {
+		return partition;
+	}
+
+	public Marking getMarking() {
+		return marking;
+	}
+
+	private class TokenWatch {
+		private final int place;
+		private final int[] last;
+		private TokenListener[] listeners;
+
+		public TokenWatch(int place) {
+			this.place = place;
+			this.last = new int[net.getTokenTypeCount()];
+			this.listeners = new TokenListener[0];
+		}
+
+		public void add(TokenListener listener) {
+			listeners = Arrays.copyOf(listeners, listeners.length + 1);
+			listeners[listeners.length - 1] = listener;
+			if (listener instanceof TokenChangeEventAdapter) {
+				((TokenChangeEventAdapter) listener).reset(last);
+			}
+		}
+
+		public void reset() {
+			for (int token = 0; token < last.length; token++) {
+				last[token] = marking.getCount(place, token);
+			}
+			for (TokenListener listener : listeners) {
+				if (listener instanceof TokenChangeEventAdapter) {
+					((TokenChangeEventAdapter) listener).reset(last);
+				}
+			}
+		}
+
+		public void check() {
+			for (int token = 0; token < last.length; token++) {
+				int count = marking.getCount(place, token);
+				if (last[token] != count) {
+					last[token] = count;
+					for (int i = 0; i < listeners.length; i++) {
+						listeners[i].tokensChanged(place, token, count);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,394 @@
+package edu.berkeley.icsi.xschema.partition;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import uk.ac.imperial.pipe.runner.Firing;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+import uk.ac.imperial.pipe.runner.Runner;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+import edu.berkeley.icsi.xschema.runner.EnabledSet;
+import edu.berkeley.icsi.xschema.runner.RestorableRandom;
+
+/**
+ * A {@link Runner} over a net split into {@link Partitioning partitions}, each run by a {@link PartitionRunner}
+ * in its own thread or process, connected by a {@link Transport}.
+ * <p>
+ * Execution is in lock step:  each round, the runner sends the pending markings to the partitions that keep
+ * the marked places, picks one fireable transition with <code>random.nextInt(fireable)</code> from an
+ * {@link EnabledSet} of the whole net, and tells the partition that owns it to fire it.  The round ends when every
+ * partition affected has reported its enabling changes, including the partitions that received token changes to
+ * shared places; so the enabled set is always exact, and a given seed produces the same firing sequence
+ * as {@link CompiledPetriNetRunner} and PetriNetRunner.  The work of a round is spread across partitions, but
+ * rounds are not overlapped; the gain is in running nets too large, or externals too slow, for one process.
+ * <p>
+ * Listeners receive the same {@link CompiledPetriNetRunner#UPDATED_STATE} events; the state for these is
+ * collected from every partition, each round, so only listen to it for diagnosis.  Token listeners and
+ * transition contexts are forwarded to the {@link #localPartitions() local partition} that owns the place or
+ * transition; partitions in other processes take them there.
+ * When the run ends, the final marking is written back to the places of the executable net, unless the runner
+ * is {@link #setDetached(boolean) detached}.  Immediate transitions only.
+ */
+public class PartitionedRunner implements Runner {
+
+	private static final String NO_TRANSITION = "";
+	private final CompiledNet net;
+	private final Partitioning partitioning;
+	private final Transport transport;
+	private final int partitions;
+	private final EnabledSet enabledSet;
+	private final boolean[] enabled;
+	private final PropertyChangeSupport changeSupport;
+	private RestorableRandom random;
+	private int firingLimit;
+	private int round;
+	private boolean detached;
+	private Endpoint endpoint;
+	private int[] pendingSlots;
+	private int[] pendingCounts;
+	private int pendingSize;
+	private int[] counts;
+	private List<PartitionRunner> localPartitions;
+	private List<Thread> localThreads;
+	private volatile Throwable partitionFailure;
+
+	/**
+	 * @param partitioning of a net compiled without timing
+	 * @param transport with one endpoint per partition, then one for this runner
+	 */
+	public PartitionedRunner(Partitioning partitioning, Transport transport) {
+		this.net = partitioning.getNet();
+		if (net.getTimedStart() < net.getTransitionCount()) {
+			throw new IllegalArgumentException("PartitionedRunner:  timed transitions are not supported");
+		}
+		if (transport.getEndpointCount() != partitioning.getPartitionCount() + 1) {
+			throw new IllegalArgumentException("PartitionedRunner:  transport has "+transport.getEndpointCount()+
+					" endpoints; expected one per partition, plus one for the runner");
+		}
+		this.partitioning = partitioning;
+		this.transport = transport;
+		this.partitions = partitioning.getPartitionCount();
+		this.enabledSet = new EnabledSet(net);
+		this.enabled = new boolean[net.getTransitionCount()];
+		this.changeSupport = new PropertyChangeSupport(this);
+		this.random = new RestorableRandom();
+		this.firingLimit = Integer.MAX_VALUE;
+		this.pendingSlots = new int[8];
+		this.pendingCounts = new int[8];
+	}
+
+	/**
+	 * Creates a {@link PartitionRunner} for every partition, to run on daemon threads of this JVM, started by
+	 * the first {@link #run()}.  Set their transition contexts before the run.
+	 * @return partition runners, in partition order
+	 */
+	public List<PartitionRunner> localPartitions() {
+		if (localPartitions == null) {
+			List<PartitionRunner> runners = new ArrayList<PartitionRunner>();
+			for (int partition = 0; partition < partitions; partition++) {
+				runners.add(new PartitionRunner(partitioning, partition, transport));
+			}
+			localPartitions = Collections.unmodifiableList(runners);
+		}
+		return localPartitions;
+	}
+
+	@Override
+	public void run() {
+		try {
+			open();
+			start();
+			while ((round < firingLimit) && step()) {
+			}
+			end();
+		} catch (IOException e) {
+			throw new IllegalStateException("PartitionedRunner:  transport failed in round "+round,
+					partitionFailure != null ? partitionFailure : e);
+		}
+	}
+
+	private void open() throws IOException {
+		if (endpoint != null) {
+			return;
+		}
+		if (localPartitions != null) {
+			final Thread runnerThread = Thread.currentThread();
+			localThreads = new ArrayList<Thread>();
+			for (PartitionRunner partitionRunner : localPartitions) {
+				Thread thread = new Thread(partitionRunner,
+						"partition "+partitioning.getName(partitionRunner.getPartition()));
+				thread.setDaemon(true);
+				thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+					@Override
+					public void uncaughtException(Thread thread, Throwable e) {
+						partitionFailure = e;
+						runnerThread.interrupt();
+					}
+				});
+				localThreads.add(thread);
+			}
+			for (Thread thread : localThreads) {
+				thread.start();
+			}
+		}
+		endpoint = transport.open(partitions);
+	}
+
+	private void start() throws IOException {
+		Arrays.fill(enabled, false);
+		enabledSet.clear();
+		round = 0;
+		for (int partition = 0; partition < partitions; partition++) {
+			endpoint.send(partition, new PartitionMessage(PartitionMessage.START, partitions,
+					new int[] {detached ? 1 : 0}));
+		}
+		endpoint.flush();
+		awaitEnabling(partitions);
+		report(NO_TRANSITION);
+	}
+
+	private boolean step() throws IOException {
+		applyPendingMarkings();
+		int fireable = enabledSet.getFireableCount();
+		if (fireable == 0) {
+			return false;
+		}
+		int transition = enabledSet.select(random.nextInt(fireable));
+		endpoint.send(partitioning.getPartition(transition), new PartitionMessage(PartitionMessage.FIRE, partitions,
+				new int[] {transition}));
+		endpoint.flush();
+		awaitEnabling(1);
+		round++;
+		report(net.getTransitionId(transition));
+		return true;
+	}
+
+	private void end() throws IOException {
+		applyPendingMarkings();
+		counts = collectCounts();
+		if (!detached) {
+			net.writeMarking(counts);
+		}
+		changeSupport.firePropertyChange(CompiledPetriNetRunner.EXECUTION_COMPLETED, null, round);
+	}
+
+	/**
+	 * Waits until every partition told to act, and every partition it sent token changes to, has reported
+	 * its enabling changes, and applies them to the enabled set.
+	 * @param expected number of replies outstanding
+	 */
+	private void awaitEnabling(int expected) throws IOException {
+		while (expected > 0) {
+			PartitionMessage message = endpoint.receive();
+			if (message.type != PartitionMessage.ENABLING) {
+				throw new IllegalStateException("PartitionedRunner:  unexpected message "+message);
+			}
+			int[] values = message.values;
+			expected += values[0] - 1;
+			for (int i = 1; i < values.length; i += 2) {
+				int transition = values[i];
+				boolean now = values[i + 1] != 0;
+				if (now != enabled[transition]) {
+					enabled[transition] = now;
+					if (now) {
+						enabledSet.add(transition);
+					} else {
+						enabledSet.remove(transition);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends the markings requested since the last round to the partitions that keep the marked places.
+	 */
+	private void applyPendingMarkings() throws IOException {
+		if (pendingSize == 0) {
+			return;
+		}
+		int[][] values = new int[partitions][];
+		int[] sizes = new int[partitions];
+		int tokens = net.getTokenTypeCount();
+		for (int i = 0; i < pendingSize; i++) {
+			for (int partition : partitioning.getPartitions(pendingSlots[i] / tokens)) {
+				if (values[partition] == null) {
+					values[partition] = new int[2 * pendingSize];
+				}
+				values[partition][sizes[partition]++] = pendingSlots[i];
+				values[partition][sizes[partition]++] = pendingCounts[i];
+			}
+		}
+		pendingSize = 0;
+		int sent = 0;
+		for (int partition = 0; partition < partitions; partition++) {
+			if (values[partition] != null) {
+				endpoint.send(partition, new PartitionMessage(PartitionMessage.MARK, this.partitions,
+						Arrays.copyOf(values[partition], sizes[partition])));
+				sent++;
+			}
+		}
+		endpoint.flush();
+		awaitEnabling(sent);
+	}
+
+	/**
+	 * @return the current marking, with each place counted by the partition that owns it
+	 */
+	private int[] collectCounts() throws IOException {
+		for (int partition = 0; partition < partitions; partition++) {
+			endpoint.send(partition, new PartitionMessage(PartitionMessage.COUNTS, partitions));
+		}
+		endpoint.flush();
+		int[] counts = new int[net.getSlotCount()];
+		for (int received = 0; received < partitions; received++) {
+			PartitionMessage message = endpoint.receive();
+			if (message.type != PartitionMessage.COUNTS) {
+				throw new IllegalStateException("PartitionedRunner:  unexpected message "+message);
+			}
+			for (int i = 0; i < message.values.length; i += 2) {
+				counts[message.values[i]] = message.values[i + 1];
+			}
+		}
+		return counts;
+	}
+
+	private void report(String transitionId) throws IOException {
+		if (changeSupport.hasListeners(CompiledPetriNetRunner.UPDATED_STATE)) {
+			changeSupport.firePropertyChange(CompiledPetriNetRunner.UPDATED_STATE, null,
+					new Firing(round, transitionId, CompiledPetriNetRunner.buildState(net, collectCounts())));
+		}
+	}
+
+	/**
+	 * Stops the partitions and closes this runner's endpoint; the runner cannot be run again.
+	 */
+	public void shutdown() {
+		if (endpoint == null) {
+			return;
+		}
+		try {
+			for (int partition = 0; partition < partitions; partition++) {
+				endpoint.send(partition, new PartitionMessage(PartitionMessage.STOP, partitions));
+			}
+			endpoint.flush();
+			endpoint.close();
+		} catch (IOException e) {
+			throw new IllegalStateException("PartitionedRunner:  failed to stop the partitions", e);
+		}
+		if (localThreads != null) {
+			for (Thread thread : localThreads) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Requests a marking; it is applied, by the partitions that keep the place, at the start of the next round.
+	 */
+	@Override
+	public void markPlace(String placeId, String token, int count) throws InterfaceException {
+		int place = net.placeIndex(placeId);
+		if (place < 0) {
+			throw new InterfaceException("PartitionedRunner:  place "+placeId+" not found in executable net");
+		}
+		int tokenIndex = net.tokenIndex(token);
+		if (tokenIndex < 0) {
+			throw new InterfaceException("PartitionedRunner:  token "+token+" not found in executable net");
+		}
+		if (pendingSize == pendingSlots.length) {
+			pendingSlots = Arrays.copyOf(pendingSlots, pendingSize * 2);
+			pendingCounts = Arrays.copyOf(pendingCounts, pendingSize * 2);
+		}
+		pendingSlots[pendingSize] = net.slot(place, tokenIndex);
+		pendingCounts[pendingSize] = count;
+		pendingSize++;
+	}
+
+	/**
+	 * The listener is called on the thread of the partition that owns the place.
+	 */
+	@Override
+	public void listenForTokenChanges(PropertyChangeListener listener, String placeId) throws InterfaceException {
+		int place = net.placeIndex(placeId);
+		if (place < 0) {
+			throw new InterfaceException("PartitionedRunner:  place "+placeId+" not found in executable net");
+		}
+		localPartition(partitioning.getOwner(place)).listenForTokenChanges(listener, placeId);
+	}
+
+	@Override
+	public void setTransitionContext(String transitionId, Object object) {
+		int transition = net.transitionIndex(transitionId);
+		if ((transition < 0) || !net.isExternal(transition)) {
+			throw new IllegalArgumentException("PartitionedRunner:  "+transitionId+" is not an external transition");
+		}
+		localPartition(partitioning.getPartition(transition)).setTransitionContext(transitionId, object);
+	}
+
+	private PartitionRunner localPartition(int partition) {
+		if (localPartitions == null) {
+			throw new IllegalStateException("PartitionedRunner:  partition "+partitioning.getName(partition)+
+					" is not local; call localPartitions() first, or set it up in its own process");
+		}
+		return localPartitions.get(partition);
+	}
+
+	@Override
+	public void setFiringLimit(int firingLimit) {
+		this.firingLimit = firingLimit;
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		random = new RestorableRandom(seed);
+	}
+
+	@Override
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		changeSupport.addPropertyChangeListener(listener);
+	}
+
+	@Override
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		changeSupport.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * @param detached if true, partitions start each run from the marking the net was compiled with, and the
+	 * final marking is not written back to the executable net
+	 */
+	public void setDetached(boolean detached) {
+		this.detached = detached;
+	}
+
+	public boolean isDetached() {
+		return detached;
+	}
+
+	/**
+	 * @return final marking of the last run, by slot, or null before a run has ended
+	 */
+	public int[] getCounts() {
+		return counts;
+	}
+
+	public Partitioning getPartitioning() {
+		return partitioning;
+	}
+
+	public int getRound() {
+		return round;
+	}
+}
@@ -0,0 +1,163 @@
+package edu.berkeley.icsi.xschema.partition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+/**
+ * Assigns the transitions and places of a {@link CompiledNet} to partitions, one per include of a hierarchy.
+ * <p>
+ * A component belongs to the include with the longest fully qualified name that prefixes its id, so
+ * "Grasp.Close_hand.Close" belongs to Grasp.Close_hand, and "Grasp.Start" to Grasp; ids with no matching
+ * include belong to partition 0.  Each partition fires only its own transitions, and keeps the counts of
+ * its own places and of every place its transitions touch.  A place kept by more than one partition is
+ * shared:  in a hierarchy, these are the interface places merged by addToInterface, and they are the only
+ * places whose token changes cross between partitions.
+ * Immutable.
+ */
+public class Partitioning {
+
+	private final CompiledNet net;
+	private final String[] names;
+	private final int[] transitionPartition;
+	private final int[] placeOwner;
+	private final int[][] placePartitions;
+
+	/**
+	 * @param net
+	 * @param names fully qualified names of the includes, one per partition
+	 */
+	public Partitioning(CompiledNet net, List<String> names) {
+		this.net = net;
+		this.names = names.toArray(new String[names.size()]);
+		transitionPartition = new int[net.getTransitionCount()];
+		for (int transition = 0; transition < transitionPartition.length; transition++) {
+			transitionPartition[transition] = match(net.getTransitionId(transition));
+		}
+		placeOwner = new int[net.getPlaceCount()];
+		boolean[][] keeps = new boolean[net.getPlaceCount()][this.names.length];
+		for (int place = 0; place < placeOwner.length; place++) {
+			placeOwner[place] = match(net.getPlaceId(place));
+			keeps[place][placeOwner[place]] = true;
+		}
+		int tokens = net.getTokenTypeCount();
+		for (int transition = 0; transition < transitionPartition.length; transition++) {
+			int partition = transitionPartition[transition];
+			for (int place : touched(net, transition, tokens)) {
+				keeps[place][partition] = true;
+			}
+		}
+		placePartitions = new int[placeOwner.length][];
+		for (int place = 0; place < placeOwner.length; place++) {
+			List<Integer> partitions = new ArrayList<Integer>();
+			for (int partition = 0; partition < this.names.length; partition++) {
+				if (keeps[place][partition]) {
+					partitions.add(partition);
+				}
+			}
+			placePartitions[place] = new int[partitions.size()];
+			for (int i = 0; i < partitions.size(); i++) {
+				placePartitions[place][i] = partitions.get(i);
+			}
+		}
+	}
+
+	/**
+	 * @param net compiled from the hierarchy
+	 * @param includes root of the hierarchy
+	 * @return partitioning with one partition per include, the root first, then depth first
+	 */
+	public static Partitioning byInclude(CompiledNet net, IncludeHierarchy includes) {
+		List<String> names = new ArrayList<String>();
+		addNames(includes, names);
+		return new Partitioning(net, names);
+	}
+
+	private static void addNames(IncludeHierarchy include, List<String> names) {
+		names.add(include.getFullyQualifiedName());
+		for (IncludeHierarchy child : include.getIncludeMap().values()) {
+			addNames(child, names);
+		}
+	}
+
+	private int match(String id) {
+		int best = 0;
+		int bestLength = -1;
+		for (int partition = 0; partition < names.length; partition++) {
+			String prefix = names[partition];
+			if ((prefix.length() > bestLength) && id.startsWith(prefix) && (id.length() > prefix.length()) &&
+					(id.charAt(prefix.length()) == '.')) {
+				best = partition;
+				bestLength = prefix.length();
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return places whose counts decide the enabling of the transition, or that it changes
+	 */
+	static int[] touched(CompiledNet net, int transition, int tokens) {
+		int[] places = new int[0];
+		places = addPlaces(places, net.getInputStart(), net.getInputSlot(), transition, tokens);
+		places = addPlaces(places, net.getTestStart(), net.getTestSlot(), transition, tokens);
+		places = addPlaces(places, net.getInhibitorStart(), net.getInhibitorPlace(), transition, 1);
+		return addPlaces(places, net.getOutputStart(), net.getOutputSlot(), transition, tokens);
+	}
+
+	private static int[] addPlaces(int[] places, int[] start, int[] slots, int transition, int tokens) {
+		int size = places.length;
+		int[] added = Arrays.copyOf(places, size + start[transition + 1] - start[transition]);
+		for (int i = start[transition]; i < start[transition + 1]; i++) {
+			added[size++] = slots[i] / tokens;
+		}
+		return added;
+	}
+
+	public CompiledNet getNet() {
+		return net;
+	}
+
+	public int getPartitionCount() {
+		return names.length;
+	}
+
+	public String getName(int partition) {
+		return names[partition];
+	}
+
+	public int getPartition(int transition) {
+		return transitionPartition[transition];
+	}
+
+	/**
+	 * @param place
+	 * @return partition of the include the place belongs to, which reports its count at the end of a run
+	 */
+	public int getOwner(int place) {
+		return placeOwner[place];
+	}
+
+	/**
+	 * @param place
+	 * @return partitions that keep the count of the place, in partition order
+	 */
+	public int[] getPartitions(int place) {
+		return placePartitions[place];
+	}
+
+	public boolean isShared(int place) {
+		return placePartitions[place].length > 1;
+	}
+
+	/**
+	 * @param partition
+	 * @return true if the partition keeps the count of the place
+	 */
+	public boolean keeps(int partition, int place) {
+		return Arrays.binarySearch(placePartitions[place], partition) >= 0;
+	}
+}
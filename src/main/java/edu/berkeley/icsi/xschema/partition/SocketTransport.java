@@ -0,0 +1,251 @@
+package edu.berkeley.icsi.xschema.partition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A {@link Transport} over TCP, one process per endpoint, or several in one process for tests.
+ * <p>
+ * Each endpoint listens at its address.  It connects to each other endpoint the first time it sends to it,
+ * retrying for up to the {@link #setConnectTimeout(long) connect timeout} while the other endpoint starts,
+ * and writes its messages to that connection through a buffer, which {@link Endpoint#flush()} sends.
+ * Connections from the other endpoints are read by a thread each, into one queue of received messages.
+ * {@link #loopback(int)} binds every endpoint to an ephemeral port of the loopback address, for tests.
+ */
+public class SocketTransport implements Transport {
+
+	public static final long DEFAULT_CONNECT_TIMEOUT = 10000;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final InetSocketAddress[] addresses;
+	private final ServerSocket[] bound;
+	private final List<SocketEndpoint> opened;
+	private long connectTimeout;
+
+	/**
+	 * @param addresses of every endpoint, in endpoint order
+	 */
+	public SocketTransport(List<InetSocketAddress> addresses) {
+		this.addresses = addresses.toArray(new InetSocketAddress[addresses.size()]);
+		this.bound = new ServerSocket[this.addresses.length];
+		this.opened = new ArrayList<SocketEndpoint>();
+		this.connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	}
+
+	/**
+	 * @param endpoints
+	 * @return transport whose endpoints are already listening on ephemeral loopback ports
+	 * @throws IOException
+	 */
+	public static SocketTransport loopback(int endpoints) throws IOException {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		ServerSocket[] servers = new ServerSocket[endpoints];
+		for (int i = 0; i < endpoints; i++) {
+			servers[i] = new ServerSocket(0, endpoints, InetAddress.getLoopbackAddress());
+			addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), servers[i].getLocalPort()));
+		}
+		SocketTransport transport = new SocketTransport(addresses);
+		System.arraycopy(servers, 0, transport.bound, 0, endpoints);
+		return transport;
+	}
+
+	public void setConnectTimeout(long connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public InetSocketAddress getAddress(int endpoint) {
+		return addresses[endpoint];
+	}
+
+	@Override
+	public int getEndpointCount() {
+		return addresses.length;
+	}
+
+	@Override
+	public synchronized Endpoint open(int endpoint) throws IOException {
+		ServerSocket server = bound[endpoint];
+		if (server == null) {
+			server = new ServerSocket();
+			server.bind(addresses[endpoint], addresses.length);
+		}
+		bound[endpoint] = null;
+		SocketEndpoint opening = new SocketEndpoint(endpoint, server);
+		opened.add(opening);
+		return opening;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		for (SocketEndpoint endpoint : opened) {
+			endpoint.close();
+		}
+		opened.clear();
+		for (int i = 0; i < bound.length; i++) {
+			if (bound[i] != null) {
+				bound[i].close();
+				bound[i] = null;
+			}
+		}
+	}
+
+	private class SocketEndpoint implements Endpoint {
+		private final int endpoint;
+		private final ServerSocket server;
+		private final LinkedBlockingQueue<Object> received;
+		private final Socket[] sockets;
+		private final DataOutputStream[] outputs;
+		private final List<Socket> accepted;
+		private volatile boolean closed;
+
+		public SocketEndpoint(int endpoint, ServerSocket server) {
+			this.endpoint = endpoint;
+			this.server = server;
+			this.received = new LinkedBlockingQueue<Object>();
+			this.sockets = new Socket[addresses.length];
+			this.outputs = new DataOutputStream[addresses.length];
+			this.accepted = new ArrayList<Socket>();
+			Thread acceptor = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					accept();
+				}
+			}, "SocketTransport-accept-"+endpoint);
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		private void accept() {
+			try {
+				while (!closed) {
+					final Socket socket = server.accept();
+					socket.setTcpNoDelay(true);
+					synchronized (accepted) {
+						accepted.add(socket);
+					}
+					Thread reader = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							read(socket);
+						}
+					}, "SocketTransport-read-"+endpoint);
+					reader.setDaemon(true);
+					reader.start();
+				}
+			} catch (IOException e) {
+				if (!closed) {
+					received.offer(e);
+				}
+			}
+		}
+
+		private void read(Socket socket) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+				while (true) {
+					received.offer(PartitionMessage.read(in));
+				}
+			} catch (EOFException e) {
+				// the sender closed its connection
+			} catch (IOException e) {
+				if (!closed) {
+					received.offer(e);
+				}
+			}
+		}
+
+		@Override
+		public void send(int to, PartitionMessage message) throws IOException {
+			if (outputs[to] == null) {
+				connect(to);
+			}
+			message.write(outputs[to]);
+		}
+
+		private void connect(int to) throws IOException {
+			long deadline = System.currentTimeMillis() + connectTimeout;
+			while (true) {
+				Socket socket = new Socket();
+				try {
+					socket.connect(addresses[to]);
+					socket.setTcpNoDelay(true);
+					sockets[to] = socket;
+					outputs[to] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+					return;
+				} catch (SocketException e) {
+					socket.close();
+					if (System.currentTimeMillis() > deadline) {
+						throw new IOException("SocketTransport:  endpoint "+endpoint+" could not connect to endpoint "+
+								to+" at "+addresses[to], e);
+					}
+					try {
+						Thread.sleep(50);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("SocketTransport:  interrupted connecting to endpoint "+to);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			for (DataOutputStream output : outputs) {
+				if (output != null) {
+					output.flush();
+				}
+			}
+		}
+
+		@Override
+		public PartitionMessage receive() throws IOException {
+			Object next;
+			try {
+				next = received.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("SocketTransport:  interrupted waiting for a message");
+			}
+			if (next instanceof IOException) {
+				throw new IOException("SocketTransport:  endpoint "+endpoint+" failed to receive", (IOException) next);
+			}
+			return (PartitionMessage) next;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			for (int i = 0; i < sockets.length; i++) {
+				if (sockets[i] != null) {
+					try {
+						outputs[i].flush();
+					} catch (IOException e) {
+						// the other endpoint may have closed first
+					}
+					sockets[i].close();
+				}
+			}
+			server.close();
+			synchronized (accepted) {
+				for (Socket socket : accepted) {
+					socket.close();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package edu.berkeley.icsi.xschema.partition;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Carries {@link PartitionMessage}s between a fixed number of endpoints:  one per partition of a net,
+ * numbered from 0, then the {@link PartitionedRunner}, numbered last.
+ * {@link InProcessTransport} connects endpoints in one JVM; {@link SocketTransport} connects them over TCP.
+ */
+public interface Transport extends Closeable {
+
+	public int getEndpointCount();
+
+	/**
+	 * Connects an endpoint to the others; each endpoint is opened once, by the thread or process that uses it.
+	 * @param endpoint
+	 * @return connection
+	 * @throws IOException
+	 */
+	public Endpoint open(int endpoint) throws IOException;
+}
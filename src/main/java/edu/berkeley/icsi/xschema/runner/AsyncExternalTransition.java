@@ -0,0 +1,18 @@
+package edu.berkeley.icsi.xschema.runner;
+
+/**
+ * An external transition that does not block the runner:  {@link #start(Object, ExternalCompletion)} begins
+ * the external action (a sensor read, an actuator command) and returns at once.  When the action finishes,
+ * on any thread, it marks its result places on the completion, and calls {@link ExternalCompletion#complete()}.
+ * <p>
+ * Registered by transition id with {@link AsyncPetriNetRunner#setAsyncTransition(String, AsyncExternalTransition, Object)}.
+ */
+public interface AsyncExternalTransition {
+
+	/**
+	 * Starts the external action; must not block.
+	 * @param context set with the transition, as for setTransitionContext
+	 * @param completion to mark and complete when the action finishes
+	 */
+	public void start(Object context, ExternalCompletion completion);
+}
@@ -0,0 +1,179 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+/**
+ * A {@link CompiledPetriNetRunner} whose external transitions may run asynchronously.
+ * <p>
+ * When an external transition registered with {@link #setAsyncTransition(String, AsyncExternalTransition, Object)}
+ * fires, its tokens move as usual, its action is started, and the runner goes on firing whatever else is enabled
+ * while the action is outstanding.  Completed actions are queued by their threads, and their markings are applied
+ * by the runner between rounds.  If nothing is enabled but actions are outstanding, the runner waits for the next
+ * completion, up to the {@link #setCompletionTimeout(long) completion timeout}; the run ends if none arrives.
+ * <p>
+ * External transitions without an async registration fire synchronously, as in CompiledPetriNetRunner.
+ * Firing and completion counts and rates for the last run are available when it ends.
+ */
+public class AsyncPetriNetRunner extends CompiledPetriNetRunner {
+
+	public static final long DEFAULT_COMPLETION_TIMEOUT = 10000;
+	private final AsyncExternalTransition[] asyncTransitions;
+	private final Object[] asyncContexts;
+	private final LinkedBlockingQueue<ExternalCompletion> completions;
+	private long completionTimeout;
+	private int outstanding;
+	private int maxOutstanding;
+	private long started;
+	private long completed;
+	private long startTime;
+	private long elapsedTime;
+
+	public AsyncPetriNetRunner(PetriNet petriNet) {
+		this(CompiledNet.compile(petriNet));
+	}
+
+	public AsyncPetriNetRunner(CompiledNet net) {
+		super(net);
+		asyncTransitions = new AsyncExternalTransition[net.getTransitionCount()];
+		asyncContexts = new Object[net.getTransitionCount()];
+		completions = new LinkedBlockingQueue<ExternalCompletion>();
+		completionTimeout = DEFAULT_COMPLETION_TIMEOUT;
+	}
+
+	/**
+	 * @param transitionId of an external transition
+	 * @param transition started each time the transition fires
+	 * @param context passed to each start
+	 */
+	public void setAsyncTransition(String transitionId, AsyncExternalTransition transition, Object context) {
+		int index = net.transitionIndex(transitionId);
+		if ((index < 0) || !net.isExternal(index)) {
+			throw new IllegalArgumentException("AsyncPetriNetRunner:  "+transitionId+
+					" is not an external transition of the executable net");
+		}
+		asyncTransitions[index] = transition;
+		asyncContexts[index] = context;
+	}
+
+	/**
+	 * @param completionTimeout milliseconds to wait for an outstanding action when nothing else can fire
+	 */
+	public void setCompletionTimeout(long completionTimeout) {
+		this.completionTimeout = completionTimeout;
+	}
+
+	@Override
+	protected void start() {
+		completions.clear();
+		outstanding = 0;
+		maxOutstanding = 0;
+		started = 0;
+		completed = 0;
+		startTime = System.nanoTime();
+		super.start();
+	}
+
+	@Override
+	protected boolean step() {
+		applyCompletions();
+		if (super.step()) {
+			return true;
+		}
+		while (outstanding > 0) {
+			ExternalCompletion completion;
+			try {
+				completion = completions.poll(completionTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			if (completion == null) {
+				return false;
+			}
+			apply(completion);
+			applyCompletions();
+			if (super.step()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	protected void fireExternal(int transition) {
+		if (asyncTransitions[transition] == null) {
+			super.fireExternal(transition);
+			return;
+		}
+		outstanding++;
+		started++;
+		maxOutstanding = Math.max(maxOutstanding, outstanding);
+		asyncTransitions[transition].start(asyncContexts[transition], new ExternalCompletion(this, transition));
+	}
+
+	@Override
+	protected void end() {
+		applyCompletions();
+		elapsedTime = System.nanoTime() - startTime;
+		super.end();
+	}
+
+	/**
+	 * Called by {@link ExternalCompletion#complete()}, on the thread that completed the action.
+	 */
+	protected void completed(ExternalCompletion completion) {
+		completions.offer(completion);
+	}
+
+	private void applyCompletions() {
+		ExternalCompletion completion = completions.poll();
+		while (completion != null) {
+			apply(completion);
+			completion = completions.poll();
+		}
+	}
+
+	private void apply(ExternalCompletion completion) {
+		completion.apply(marking);
+		outstanding--;
+		completed++;
+		notifyTokenWatches();
+	}
+
+	/**
+	 * @return actions started but not yet applied
+	 */
+	public int getOutstanding() {
+		return outstanding;
+	}
+
+	public int getMaxOutstanding() {
+		return maxOutstanding;
+	}
+
+	public long getStarted() {
+		return started;
+	}
+
+	public long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return duration of the last run, including waits for completions
+	 */
+	public long getElapsedNanos() {
+		return elapsedTime;
+	}
+
+	public double getFiringsPerSecond() {
+		return (elapsedTime == 0) ? 0 : firings * 1e9 / elapsedTime;
+	}
+
+	public double getCompletionsPerSecond() {
+		return (elapsedTime == 0) ? 0 : completed * 1e9 / elapsedTime;
+	}
+}
@@ -0,0 +1,251 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Evaluates the enabling of every transition of a {@link CompiledNet} in one pass, into a packed bitset,
+ * for very wide nets where many places change at once.
+ * <p>
+ * The input and test arcs of a {@link CompiledNet}, held in rows per transition, are laid out again as columns:
+ * column k holds the slot and weight of the k-th requirement of every transition, padded with a slot that is
+ * never short of tokens.  Each column is then checked for all transitions by one loop, without branches, of the form
+ * <code>ok[t] &amp;= ~(counts[slot[t]] - weight[t]) &gt;&gt;&gt; 31</code>, which the JIT can unroll and, where the
+ * hardware allows, vectorize.  Transitions with more requirements than the columns hold keep their extra
+ * requirements in a list of (transition, slot, weight) triples; inhibitor arcs are laid out the same way, over
+ * the token total of each place.  Transitions whose outputs are bounded by a place capacity are evaluated one
+ * at a time, by {@link Marking#evaluate(int)}.
+ * <p>
+ * Transition t is enabled if bit <code>t &amp; 63</code> of word <code>t &gt;&gt;&gt; 6</code> is set.
+ * Not thread-safe; a BatchEnabling holds its scratch arrays, and belongs to one {@link Marking}.
+ */
+public class BatchEnabling {
+
+	private final int transitions;
+	private final int places;
+	private final int tokens;
+	private final int[][] requiredSlot;
+	private final int[][] requiredWeight;
+	private final int[] overflowTransition;
+	private final int[] overflowSlot;
+	private final int[] overflowWeight;
+	private final int[][] inhibitorPlace;
+	private final int[] overflowInhibitorTransition;
+	private final int[] overflowInhibitorPlace;
+	private final int[] capacityTransitions;
+	private final int[] counts;
+	private final int[] totals;
+	private final int[] ok;
+	private final long[] bits;
+
+	public BatchEnabling(CompiledNet net) {
+		transitions = net.getTransitionCount();
+		places = net.getPlaceCount();
+		tokens = net.getTokenTypeCount();
+		int slots = net.getSlotCount();
+		int[][] rows = requirements(net);
+		int width = columns(rows[0], rows[1].length);
+		requiredSlot = new int[width][transitions];
+		requiredWeight = new int[width][transitions];
+		List<int[]> overflow = new ArrayList<int[]>();
+		int[] arity = rows[0];
+		int[] slot = rows[1];
+		int[] weight = rows[2];
+		for (int column = 0; column < width; column++) {
+			Arrays.fill(requiredSlot[column], slots);
+		}
+		for (int t = 0, i = 0; t < transitions; t++) {
+			for (int k = 0; k < arity[t]; k++, i++) {
+				if (k < width) {
+					requiredSlot[k][t] = slot[i];
+					requiredWeight[k][t] = weight[i];
+				} else {
+					overflow.add(new int[] {t, slot[i], weight[i]});
+				}
+			}
+		}
+		overflowTransition = column(overflow, 0);
+		overflowSlot = column(overflow, 1);
+		overflowWeight = column(overflow, 2);
+
+		int[] inhibitorStart = net.getInhibitorStart();
+		int[] inhibitors = net.getInhibitorPlace();
+		int[] inhibitorArity = new int[transitions];
+		for (int t = 0; t < transitions; t++) {
+			inhibitorArity[t] = inhibitorStart[t + 1] - inhibitorStart[t];
+		}
+		int inhibitorWidth = columns(inhibitorArity, inhibitors.length);
+		inhibitorPlace = new int[inhibitorWidth][transitions];
+		overflow.clear();
+		for (int column = 0; column < inhibitorWidth; column++) {
+			Arrays.fill(inhibitorPlace[column], places);
+		}
+		for (int t = 0; t < transitions; t++) {
+			for (int k = 0; k < inhibitorArity[t]; k++) {
+				if (k < inhibitorWidth) {
+					inhibitorPlace[k][t] = inhibitors[inhibitorStart[t] + k];
+				} else {
+					overflow.add(new int[] {t, inhibitors[inhibitorStart[t] + k]});
+				}
+			}
+		}
+		overflowInhibitorTransition = column(overflow, 0);
+		overflowInhibitorPlace = column(overflow, 1);
+		capacityTransitions = capacityTransitions(net);
+
+		counts = new int[slots + 1];
+		counts[slots] = Integer.MAX_VALUE;
+		totals = new int[places + 1];
+		ok = new int[transitions];
+		bits = new long[(transitions + 63) >>> 6];
+	}
+
+	/**
+	 * @return per transition, the number of input and test requirements; then their slots and weights, in rows
+	 */
+	private static int[][] requirements(CompiledNet net) {
+		int transitions = net.getTransitionCount();
+		int[] inputStart = net.getInputStart();
+		int[] testStart = net.getTestStart();
+		int[] arity = new int[transitions];
+		int[] slot = new int[inputStart[transitions] + testStart[transitions]];
+		int[] weight = new int[slot.length];
+		int i = 0;
+		for (int t = 0; t < transitions; t++) {
+			for (int j = inputStart[t]; j < inputStart[t + 1]; j++, i++) {
+				slot[i] = net.getInputSlot()[j];
+				weight[i] = net.getInputWeight()[j];
+			}
+			for (int j = testStart[t]; j < testStart[t + 1]; j++, i++) {
+				slot[i] = net.getTestSlot()[j];
+				weight[i] = net.getTestWeight()[j];
+			}
+			arity[t] = (inputStart[t + 1] - inputStart[t]) + (testStart[t + 1] - testStart[t]);
+		}
+		return new int[][] {arity, slot, weight};
+	}
+
+	/**
+	 * @return the widest layout whose padding at most doubles the entries, plus one column
+	 */
+	private int columns(int[] arity, int entries) {
+		int width = 0;
+		for (int t = 0; t < transitions; t++) {
+			width = Math.max(width, arity[t]);
+		}
+		while ((width > 1) && ((long) width * transitions > 2L * entries + transitions)) {
+			width--;
+		}
+		return width;
+	}
+
+	private static int[] column(List<int[]> rows, int column) {
+		int[] values = new int[rows.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = rows.get(i)[column];
+		}
+		return values;
+	}
+
+	private static int[] capacityTransitions(CompiledNet net) {
+		int tokens = net.getTokenTypeCount();
+		int[] outputStart = net.getOutputStart();
+		int[] outputSlot = net.getOutputSlot();
+		List<Integer> bounded = new ArrayList<Integer>();
+		for (int t = 0; t < net.getTransitionCount(); t++) {
+			for (int i = outputStart[t]; i < outputStart[t + 1]; i++) {
+				if (net.getCapacity(outputSlot[i] / tokens) > 0) {
+					bounded.add(t);
+					break;
+				}
+			}
+		}
+		int[] transitions = new int[bounded.size()];
+		for (int i = 0; i < transitions.length; i++) {
+			transitions[i] = bounded.get(i);
+		}
+		return transitions;
+	}
+
+	/**
+	 * Evaluates every transition against the counts of a marking.
+	 * @param marking of the net this was built for
+	 * @return bitset of enabled transitions; overwritten by the next evaluation
+	 */
+	public long[] evaluate(Marking marking) {
+		marking.copyCounts(counts);
+		Arrays.fill(ok, 1);
+		for (int column = 0; column < requiredSlot.length; column++) {
+			int[] slot = requiredSlot[column];
+			int[] weight = requiredWeight[column];
+			for (int t = 0; t < transitions; t++) {
+				ok[t] &= ~(counts[slot[t]] - weight[t]) >>> 31;
+			}
+		}
+		for (int i = 0; i < overflowTransition.length; i++) {
+			ok[overflowTransition[i]] &= ~(counts[overflowSlot[i]] - overflowWeight[i]) >>> 31;
+		}
+		if ((inhibitorPlace.length > 0) || (overflowInhibitorTransition.length > 0)) {
+			sumPlaces();
+			for (int column = 0; column < inhibitorPlace.length; column++) {
+				int[] place = inhibitorPlace[column];
+				for (int t = 0; t < transitions; t++) {
+					ok[t] &= (totals[place[t]] - 1) >>> 31;
+				}
+			}
+			for (int i = 0; i < overflowInhibitorTransition.length; i++) {
+				ok[overflowInhibitorTransition[i]] &= (totals[overflowInhibitorPlace[i]] - 1) >>> 31;
+			}
+		}
+		for (int word = 0; word < bits.length; word++) {
+			int base = word << 6;
+			int end = Math.min(64, transitions - base);
+			long packed = 0;
+			for (int j = 0; j < end; j++) {
+				packed |= ((long) ok[base + j]) << j;
+			}
+			bits[word] = packed;
+		}
+		for (int i = 0; i < capacityTransitions.length; i++) {
+			int t = capacityTransitions[i];
+			if ((ok[t] != 0) && !marking.evaluate(t)) {
+				bits[t >>> 6] &= ~(1L << t);
+			}
+		}
+		return bits;
+	}
+
+	private void sumPlaces() {
+		for (int place = 0, slot = 0; place < places; place++) {
+			int total = 0;
+			for (int token = 0; token < tokens; token++, slot++) {
+				total += counts[slot];
+			}
+			totals[place] = total;
+		}
+	}
+
+	/**
+	 * @param bits from {@link #evaluate(Marking)}
+	 * @param transition
+	 * @return true if the transition's bit is set
+	 */
+	public static boolean isSet(long[] bits, int transition) {
+		return (bits[transition >>> 6] & (1L << transition)) != 0;
+	}
+
+	/**
+	 * @return number of requirement columns; requirements beyond these are checked one by one
+	 */
+	public int getColumnCount() {
+		return requiredSlot.length;
+	}
+
+	/**
+	 * @return number of input and test requirements that did not fit in the columns
+	 */
+	public int getOverflowCount() {
+		return overflowTransition.length;
+	}
+}
@@ -0,0 +1,16 @@
+package edu.berkeley.icsi.xschema.runner;
+
+/**
+ * Receives each fused step of a runner with {@link CompiledPetriNetRunner#setChainFusion(boolean) chain fusion},
+ * on the runner thread, before the step is reported.  The step records only the transitions fired;
+ * the markings between them, and per-transition Firings for a report, are built only if asked for.
+ * <p>
+ * Registered with {@link CompiledPetriNetRunner#setChainListener(ChainListener)}.
+ */
+public interface ChainListener {
+
+	/**
+	 * @param step valid only during the call; it is reused for the next step
+	 */
+	public void chainFired(FusedStep step);
+}
@@ -0,0 +1,289 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.imperial.pipe.exceptions.IncludeException;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentException;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.Arc;
+import uk.ac.imperial.pipe.models.petrinet.InboundArc;
+import uk.ac.imperial.pipe.models.petrinet.InboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.OutboundArc;
+import uk.ac.imperial.pipe.models.petrinet.OutboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Token;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import edu.berkeley.icsi.xschema.runner.NetDefinition.ArcDefinition;
+
+/**
+ * Builds an IncludeHierarchy and compiles it without building an executable net, caching what it reads of each include.
+ * <p>
+ * Each include is flattened on its own into a fragment:  its places, transitions and arcs, with ids
+ * qualified by the include's fully qualified name, as in the executable net ("Grasp.Close_hand.Enabled").
+ * Edits made through this class ({@link #include(IncludeHierarchy, PetriNet, String)}, {@link #addToInterface},
+ * {@link #addAvailablePlaceToPetriNet} and {@link #mergeArc}) mark only the includes they touch, and
+ * {@link #refresh()} reads only those again from pipe-core; its cost does not depend on the size of the hierarchy.
+ * This is not incremental compilation:  {@link #getCompiledNet()} builds the whole CompiledNet again from all the
+ * fragments after every edit, sorting every place and transition, so its cost grows with the size of the hierarchy.
+ * What it saves, against {@link CompiledNet#compile(IncludeHierarchy)}, is walking the unchanged includes
+ * and building an executable net.
+ * Edits made directly to an include's PetriNet must be reported with {@link #changed(IncludeHierarchy)}.
+ * <p>
+ * An away place added to a parent for a merge arc is named alias.place, so its qualified id is that of the
+ * home place in the include, and the two are compiled as one place, with the capacity and tokens of the home place.
+ * <p>
+ * Transitions are ordered include by include, in the order the includes were added, and by id within an include,
+ * so the order, and the runs of a seed, do not depend on the order of edits.  This order differs from that of the
+ * executable net, so a seeded run of this net does not reproduce one of PetriNetRunner; compile with
+ * {@link CompiledNet#compile(IncludeHierarchy)} when runs must match.
+ * External transition classes are loaded once for the hierarchy, and reused by every compile.
+ */
+public class CompiledHierarchy {
+
+	private final IncludeHierarchy root;
+	private final Map<IncludeHierarchy, Fragment> fragments;
+	private final List<Fragment> fragmentOrder;
+	private CompiledNet compiledNet;
+	private int refreshCount;
+	private final Map<String, ExternalClass> externalClasses;
+
+	public CompiledHierarchy(IncludeHierarchy root) {
+		this.root = root;
+		fragments = new IdentityHashMap<IncludeHierarchy, Fragment>();
+		fragmentOrder = new ArrayList<Fragment>();
+		externalClasses = new HashMap<String, ExternalClass>();
+		addFragments(root, 0);
+	}
+
+	private void addFragments(IncludeHierarchy include, int depth) {
+		Fragment fragment = new Fragment(include, depth);
+		fragments.put(include, fragment);
+		fragmentOrder.add(fragment);
+		for (IncludeHierarchy child : include.getIncludeMap().values()) {
+			addFragments(child, depth + 1);
+		}
+	}
+
+	public IncludeHierarchy getIncludeHierarchy() {
+		return root;
+	}
+
+	/**
+	 * Includes a net in a parent include; only the new include is read by the next refresh.
+	 * @param parent
+	 * @param petriNet
+	 * @param alias
+	 * @return the new include
+	 * @throws IncludeException
+	 */
+	public IncludeHierarchy include(IncludeHierarchy parent, PetriNet petriNet, String alias) throws IncludeException {
+		IncludeHierarchy child = parent.include(petriNet, alias);
+		addFragments(child, fragment(parent).depth + 1);
+		compiledNet = null;
+		return child;
+	}
+
+	/**
+	 * Adds a place of an include to its interface; the interface does not change the include's own net.
+	 * @param include
+	 * @param place of the include's net
+	 * @param home
+	 * @param away
+	 * @param inbound
+	 * @param outbound
+	 * @throws IncludeException
+	 */
+	public void addToInterface(IncludeHierarchy include, Place place, boolean home, boolean away,
+			boolean inbound, boolean outbound) throws IncludeException {
+		include.addToInterface(place, home, away, inbound, outbound);
+		changed(include);
+	}
+
+	/**
+	 * Adds an interface place to the net of an include, as an away place.
+	 * @param include
+	 * @param place interface place
+	 * @throws IncludeException
+	 */
+	public void addAvailablePlaceToPetriNet(IncludeHierarchy include, Place place) throws IncludeException {
+		include.addAvailablePlaceToPetriNet(place);
+		changed(include);
+	}
+
+	/**
+	 * Connects a transition of a parent to a place of one of its includes, as GraspExampleTest.buildMergeArc does:
+	 * the home place is added to the include's interface, made available in the parent as alias.place,
+	 * and connected to the transition.
+	 * @param inbound true for an arc from the place to the transition; false for an arc from the transition to the place
+	 * @param parent
+	 * @param child alias of the include
+	 * @param homePlace id of the place in the include's net
+	 * @param transition id of the transition in the parent's net
+	 * @param tokenWeights of the arc
+	 * @throws IncludeException
+	 * @throws PetriNetComponentNotFoundException
+	 * @throws PetriNetComponentException
+	 */
+	@SuppressWarnings("rawtypes")
+	public void mergeArc(boolean inbound, IncludeHierarchy parent, String child, String homePlace, String transition,
+			Map<String, String> tokenWeights)
+			throws IncludeException, PetriNetComponentNotFoundException, PetriNetComponentException {
+		IncludeHierarchy include = parent.getInclude(child);
+		addToInterface(include, include.getPetriNet().getComponent(homePlace, Place.class), true, false, false, false);
+		String awayPlace = child+"."+homePlace;
+		addAvailablePlaceToPetriNet(parent, parent.getInterfacePlace(awayPlace));
+		Transition parentTransition = parent.getPetriNet().getComponent(transition, Transition.class);
+		Arc arc = (inbound) ? new InboundNormalArc(parent.getInterfacePlace(awayPlace), parentTransition, tokenWeights)
+				: new OutboundNormalArc(parentTransition, parent.getInterfacePlace(awayPlace), tokenWeights);
+		parent.getPetriNet().add(arc);
+	}
+
+	/**
+	 * Marks an include whose net was edited directly, so it is read again by the next {@link #refresh()}.
+	 * @param include
+	 */
+	public void changed(IncludeHierarchy include) {
+		fragment(include).stale = true;
+		compiledNet = null;
+	}
+
+	private Fragment fragment(IncludeHierarchy include) {
+		Fragment fragment = fragments.get(include);
+		if (fragment == null) {
+			throw new IllegalArgumentException("CompiledHierarchy:  include "+include.getName()+
+					" was not added through this CompiledHierarchy");
+		}
+		return fragment;
+	}
+
+	/**
+	 * Reads again the includes changed since the last refresh; the other fragments are kept as they are.
+	 * @return number of includes read
+	 */
+	public int refresh() {
+		int read = 0;
+		for (Fragment fragment : fragmentOrder) {
+			if (fragment.stale) {
+				fragment.refresh();
+				read++;
+			}
+		}
+		refreshCount += read;
+		return read;
+	}
+
+	/**
+	 * Refreshes the changed includes, and builds the whole CompiledNet again from all the fragments.
+	 * @return compiled net; the same net is returned until the next edit
+	 */
+	public CompiledNet getCompiledNet() {
+		if (compiledNet == null) {
+			refresh();
+			NetDefinition definition = new NetDefinition(null);
+			Map<String, Integer> placeDepth = new HashMap<String, Integer>();
+			Map<String, Place> placeById = new HashMap<String, Place>();
+			for (Fragment fragment : fragmentOrder) {
+				for (int i = 0; i < fragment.placeIds.size(); i++) {
+					String placeId = fragment.placeIds.get(i);
+					Integer depth = placeDepth.get(placeId);
+					if ((depth == null) || (depth < fragment.depth)) {
+						placeDepth.put(placeId, fragment.depth);
+						placeById.put(placeId, fragment.places.get(i));
+					}
+				}
+				for (String tokenId : fragment.tokenIds) {
+					definition.addToken(tokenId);
+				}
+				for (int i = 0; i < fragment.transitionIds.size(); i++) {
+					definition.addTransition(fragment.transitionIds.get(i), fragment.transitions.get(i),
+							fragment.inbound.get(i), fragment.outbound.get(i));
+				}
+			}
+			for (Map.Entry<String, Place> entry : placeById.entrySet()) {
+				definition.addPlace(entry.getKey(), entry.getValue());
+			}
+			compiledNet = new CompiledNet(definition, false, externalClasses);
+		}
+		return compiledNet;
+	}
+
+	/**
+	 * @return number of includes read since this hierarchy was created; each include is read once, and again after each change
+	 */
+	public int getRefreshCount() {
+		return refreshCount;
+	}
+
+	/**
+	 * The components of one include, with qualified ids.
+	 */
+	private static class Fragment {
+		private final IncludeHierarchy include;
+		private final int depth;
+		private final List<String> placeIds = new ArrayList<String>();
+		private final List<Place> places = new ArrayList<Place>();
+		private final List<String> tokenIds = new ArrayList<String>();
+		private final List<String> transitionIds = new ArrayList<String>();
+		private final List<Transition> transitions = new ArrayList<Transition>();
+		private final List<List<ArcDefinition>> inbound = new ArrayList<List<ArcDefinition>>();
+		private final List<List<ArcDefinition>> outbound = new ArrayList<List<ArcDefinition>>();
+		private boolean stale;
+
+		public Fragment(IncludeHierarchy include, int depth) {
+			this.include = include;
+			this.depth = depth;
+			this.stale = true;
+		}
+
+		public void refresh() {
+			placeIds.clear();
+			places.clear();
+			tokenIds.clear();
+			transitionIds.clear();
+			transitions.clear();
+			inbound.clear();
+			outbound.clear();
+			String prefix = include.getFullyQualifiedName()+".";
+			PetriNet petriNet = include.getPetriNet();
+			for (Place place : petriNet.getPlaces()) {
+				placeIds.add(prefix + place.getId());
+				places.add(place);
+			}
+			for (Token token : petriNet.getTokens()) {
+				tokenIds.add(token.getId());
+			}
+			List<Transition> sorted = new ArrayList<Transition>(petriNet.getTransitions());
+			Collections.sort(sorted, new Comparator<Transition>() {
+				@Override
+				public int compare(Transition transition1, Transition transition2) {
+					return transition1.getId().compareTo(transition2.getId());
+				}
+			});
+			for (Transition transition : sorted) {
+				List<ArcDefinition> in = new ArrayList<ArcDefinition>();
+				for (InboundArc arc : petriNet.inboundArcs(transition)) {
+					in.add(new ArcDefinition(prefix + arc.getId(), prefix + arc.getSource().getId(),
+							arc.getType(), arc.getTokenWeights()));
+				}
+				List<ArcDefinition> out = new ArrayList<ArcDefinition>();
+				for (OutboundArc arc : petriNet.outboundArcs(transition)) {
+					out.add(new ArcDefinition(prefix + arc.getId(), prefix + arc.getTarget().getId(),
+							arc.getType(), arc.getTokenWeights()));
+				}
+				transitionIds.add(prefix + transition.getId());
+				transitions.add(transition);
+				inbound.add(in);
+				outbound.add(out);
+			}
+			stale = false;
+		}
+	}
+}
@@ -0,0 +1,601 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import uk.ac.imperial.pipe.models.petrinet.ArcType;
+import uk.ac.imperial.pipe.models.petrinet.DiscreteExternalTransition;
+import uk.ac.imperial.pipe.models.petrinet.ExecutablePetriNet;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import edu.berkeley.icsi.xschema.runner.NetDefinition.ArcDefinition;
+
+/**
+ * The executable net of a PetriNet or IncludeHierarchy, compiled to int indices and arrays.
+ * <p>
+ * Places are indexed in id order (the column order of report.csv), tokens in id order,
+ * and a marking is an int array of place * tokens + token "slots".
+ * Transitions are indexed in the order of the executable net, grouped by descending priority,
+ * so that each priority level is a contiguous range of indices.
+ * Arcs are held in compressed rows per transition:  inputs (consumed), test inputs (read only), inhibitors
+ * and outputs, and for each place, the transitions whose enabling depends on it.
+ * <p>
+ * A CompiledNet is immutable, and may be shared by any number of {@link Marking}s and runners.
+ * It does not follow later edits to the model; compile again after editing, or build an IncludeHierarchy
+ * through a {@link CompiledHierarchy}, which reads again only the includes an edit touches.
+ * The class of each external transition is loaded when the net is compiled ({@link ExternalClass}), so a bad
+ * class name fails here rather than at the first firing.
+ * Only integer arc weights can be compiled.  Timed transitions are rejected, unless the net is compiled for a
+ * {@link TimedPetriNetRunner} with {@link #compileTimed(PetriNet)}:  they are then indexed after every immediate
+ * transition, outside the priority levels, so a {@link Marking} never selects them.
+ */
+public class CompiledNet {
+
+	private final ExecutablePetriNet executablePetriNet;
+	private final String[] placeIds;
+	private final Place[] places;
+	private final String[] tokenIds;
+	private final String[] transitionIds;
+	private final Transition[] transitions;
+	private final boolean[] external;
+	private final ExternalClass[] externalClasses;
+	private final int[] priorities;
+	private final int[] levelStart;
+	private final int timedStart;
+	private final double[] rates;
+	private final int[] capacities;
+	private final int[] initialMarking;
+	private final Map<String, Integer> placeIndex;
+	private final Map<String, Integer> tokenIndex;
+	private final Map<String, Integer> transitionIndex;
+	private final int[] inputStart;
+	private final int[] inputSlot;
+	private final int[] inputWeight;
+	private final int[] testStart;
+	private final int[] testSlot;
+	private final int[] testWeight;
+	private final int[] inhibitorStart;
+	private final int[] inhibitorPlace;
+	private final int[] outputStart;
+	private final int[] outputSlot;
+	private final int[] outputWeight;
+	private final int[] dependentStart;
+	private final int[] dependents;
+
+	public static CompiledNet compile(PetriNet petriNet) {
+		return new CompiledNet(petriNet.getExecutablePetriNet());
+	}
+
+	public static CompiledNet compile(IncludeHierarchy includes) {
+		return compile(includes.getPetriNet());
+	}
+
+	/**
+	 * Compiles a net that may have timed transitions, for a {@link TimedPetriNetRunner}.
+	 * @param petriNet
+	 * @return net
+	 * @throws IllegalArgumentException if a timed transition has a rate that is not a positive number
+	 */
+	public static CompiledNet compileTimed(PetriNet petriNet) {
+		return new CompiledNet(NetDefinition.of(petriNet.getExecutablePetriNet()), true);
+	}
+
+	public static CompiledNet compileTimed(IncludeHierarchy includes) {
+		return compileTimed(includes.getPetriNet());
+	}
+
+	public CompiledNet(ExecutablePetriNet executablePetriNet) {
+		this(NetDefinition.of(executablePetriNet));
+	}
+
+	CompiledNet(NetDefinition definition) {
+		this(definition, false);
+	}
+
+	CompiledNet(NetDefinition definition, boolean timedAllowed) {
+		this(definition, timedAllowed, new HashMap<String, ExternalClass>());
+	}
+
+	/**
+	 * @param externalClasses already resolved, by class name; classes resolved here are added
+	 */
+	CompiledNet(NetDefinition definition, boolean timedAllowed, Map<String, ExternalClass> externalClasses) {
+		this.executablePetriNet = definition.executablePetriNet;
+		Integer[] placeOrder = sortedOrder(definition.placeIds);
+		places = new Place[placeOrder.length];
+		placeIds = new String[placeOrder.length];
+		placeIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < placeOrder.length; i++) {
+			places[i] = definition.places.get(placeOrder[i]);
+			placeIds[i] = definition.placeIds.get(placeOrder[i]);
+			placeIndex.put(placeIds[i], i);
+		}
+		List<String> tokenList = new ArrayList<String>(definition.tokenIds);
+		Collections.sort(tokenList);
+		tokenIds = tokenList.toArray(new String[tokenList.size()]);
+		tokenIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < tokenIds.length; i++) {
+			tokenIndex.put(tokenIds[i], i);
+		}
+		Integer[] transitionOrder = orderByPriority(definition.transitions);
+		transitions = new Transition[transitionOrder.length];
+		transitionIds = new String[transitionOrder.length];
+		transitionIndex = new HashMap<String, Integer>();
+		external = new boolean[transitions.length];
+		this.externalClasses = new ExternalClass[transitions.length];
+		priorities = new int[transitions.length];
+		rates = new double[transitions.length];
+		List<Integer> levels = new ArrayList<Integer>();
+		int firstTimed = transitions.length;
+		for (int i = 0; i < transitions.length; i++) {
+			Transition transition = definition.transitions.get(transitionOrder[i]);
+			transitions[i] = transition;
+			transitionIds[i] = definition.transitionIds.get(transitionOrder[i]);
+			transitionIndex.put(transitionIds[i], i);
+			external[i] = transition instanceof DiscreteExternalTransition;
+			if (external[i]) {
+				this.externalClasses[i] = externalClass(externalClasses, transitionIds[i],
+						((DiscreteExternalTransition) transition).getClassName());
+			}
+			priorities[i] = transition.getPriority();
+			if (transition.isTimed()) {
+				if (!timedAllowed) {
+					throw new IllegalArgumentException("CompiledNet:  timed transition "+transitionIds[i]+
+							" cannot be compiled; run this net with TimedPetriNetRunner or PetriNetRunner");
+				}
+				rates[i] = rate(transitionIds[i], transition.getRateExpr());
+				firstTimed = Math.min(firstTimed, i);
+			} else if (i == 0 || priorities[i] != priorities[i-1]) {
+				levels.add(i);
+			}
+		}
+		timedStart = firstTimed;
+		levelStart = new int[levels.size() + 1];
+		for (int i = 0; i < levels.size(); i++) {
+			levelStart[i] = levels.get(i);
+		}
+		levelStart[levels.size()] = timedStart;
+		capacities = new int[places.length];
+		initialMarking = new int[places.length * tokenIds.length];
+		readMarking(initialMarking);
+
+		ArcRows inputs = new ArcRows();
+		ArcRows tests = new ArcRows();
+		ArcRows inhibitors = new ArcRows();
+		ArcRows outputs = new ArcRows();
+		List<List<Integer>> dependentLists = new ArrayList<List<Integer>>(places.length);
+		for (int i = 0; i < places.length; i++) {
+			capacities[i] = places[i].getCapacity();
+			dependentLists.add(new ArrayList<Integer>());
+		}
+		for (int t = 0; t < transitions.length; t++) {
+			for (ArcDefinition arc : definition.inbound.get(transitionOrder[t])) {
+				int place = placeOf(arc);
+				addDependent(dependentLists, place, t);
+				if (arc.type == ArcType.INHIBITOR) {
+					inhibitors.add(place, 0);
+				} else {
+					ArcRows rows = (arc.type == ArcType.TEST) ? tests : inputs;
+					addWeights(rows, place, arc.arcId, arc.tokenWeights);
+				}
+			}
+			for (ArcDefinition arc : definition.outbound.get(transitionOrder[t])) {
+				int place = placeOf(arc);
+				if (capacities[place] > 0) {
+					addDependent(dependentLists, place, t);
+				}
+				addWeights(outputs, place, arc.arcId, arc.tokenWeights);
+			}
+			inputs.endRow();
+			tests.endRow();
+			inhibitors.endRow();
+			outputs.endRow();
+		}
+		inputStart = inputs.starts();
+		inputSlot = inputs.slots();
+		inputWeight = inputs.weights();
+		testStart = tests.starts();
+		testSlot = tests.slots();
+		testWeight = tests.weights();
+		inhibitorStart = inhibitors.starts();
+		inhibitorPlace = inhibitors.slots();
+		outputStart = outputs.starts();
+		outputSlot = outputs.slots();
+		outputWeight = outputs.weights();
+		ArcRows dependentRows = new ArcRows();
+		for (List<Integer> list : dependentLists) {
+			for (Integer transition : list) {
+				dependentRows.add(transition, 0);
+			}
+			dependentRows.endRow();
+		}
+		dependentStart = dependentRows.starts();
+		dependents = dependentRows.slots();
+	}
+
+	private int placeOf(ArcDefinition arc) {
+		Integer place = placeIndex.get(arc.placeId);
+		if (place == null) {
+			throw new IllegalArgumentException("CompiledNet:  arc "+arc.arcId+" refers to unknown place "+arc.placeId);
+		}
+		return place;
+	}
+
+	private static Integer[] sortedOrder(final List<String> ids) {
+		Integer[] order = new Integer[ids.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer index1, Integer index2) {
+				return ids.get(index1).compareTo(ids.get(index2));
+			}
+		});
+		return order;
+	}
+
+	private Integer[] orderByPriority(final List<Transition> transitionList) {
+		Integer[] order = new Integer[transitionList.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// stable sort:  definition order is kept within a priority level, and among timed transitions
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer index1, Integer index2) {
+				Transition transition1 = transitionList.get(index1);
+				Transition transition2 = transitionList.get(index2);
+				if (transition1.isTimed() != transition2.isTimed()) {
+					return transition1.isTimed() ? 1 : -1;
+				}
+				if (transition1.isTimed()) {
+					return 0;
+				}
+				return Integer.compare(transition2.getPriority(), transition1.getPriority());
+			}
+		});
+		return order;
+	}
+
+	private static ExternalClass externalClass(Map<String, ExternalClass> externalClasses, String transitionId,
+			String className) {
+		ExternalClass externalClass = externalClasses.get(className);
+		if (externalClass == null) {
+			try {
+				externalClass = ExternalClass.resolve(className);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("CompiledNet:  external transition "+transitionId+
+						" cannot be compiled; "+e.getMessage(), e);
+			}
+			externalClasses.put(className, externalClass);
+		}
+		return externalClass;
+	}
+
+	private static double rate(String transitionId, String rateExpr) {
+		double rate;
+		try {
+			rate = Double.parseDouble(rateExpr.trim());
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("CompiledNet:  timed transition "+transitionId+" has functional rate \""+
+					rateExpr+"\"; only constant rates can be compiled");
+		}
+		if (!(rate > 0)) {
+			throw new IllegalArgumentException("CompiledNet:  timed transition "+transitionId+" has rate "+rate+
+					"; rates must be positive");
+		}
+		return rate;
+	}
+
+	private void addDependent(List<List<Integer>> dependentLists, int place, int transition) {
+		List<Integer> list = dependentLists.get(place);
+		if (list.isEmpty() || list.get(list.size() - 1) != transition) {
+			list.add(transition);
+		}
+	}
+
+	private void addWeights(ArcRows rows, int place, String arcId, Map<String, String> weights) {
+		for (Entry<String, String> entry : weights.entrySet()) {
+			Integer token = tokenIndex.get(entry.getKey());
+			if (token == null) {
+				throw new IllegalArgumentException("CompiledNet:  arc "+arcId+" refers to unknown token "+entry.getKey());
+			}
+			int weight;
+			try {
+				weight = Integer.parseInt(entry.getValue().trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("CompiledNet:  arc "+arcId+" has functional weight \""+
+						entry.getValue()+"\"; only integer weights can be compiled");
+			}
+			if (weight > 0) {
+				rows.add(place * tokenIds.length + token, weight);
+			}
+		}
+	}
+
+	/**
+	 * Reads the current token counts of the executable net places into a marking.
+	 * @param marking of {@link #getSlotCount()} slots
+	 */
+	public void readMarking(int[] marking) {
+		for (int place = 0; place < places.length; place++) {
+			for (int token = 0; token < tokenIds.length; token++) {
+				marking[place * tokenIds.length + token] = places[place].getTokenCount(tokenIds[token]);
+			}
+		}
+	}
+
+	/**
+	 * Writes a marking back to the executable net places, for places whose token counts differ.
+	 * @param marking of {@link #getSlotCount()} slots
+	 */
+	public void writeMarking(int[] marking) {
+		for (int place = 0; place < places.length; place++) {
+			for (int token = 0; token < tokenIds.length; token++) {
+				int count = marking[place * tokenIds.length + token];
+				if (places[place].getTokenCount(tokenIds[token]) != count) {
+					places[place].setTokenCount(tokenIds[token], count);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param placeId
+	 * @return index of the place, or -1 if the net has no such place
+	 */
+	public int placeIndex(String placeId) {
+		Integer index = placeIndex.get(placeId);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * @param tokenId
+	 * @return index of the token, or -1 if the net has no such token
+	 */
+	public int tokenIndex(String tokenId) {
+		Integer index = tokenIndex.get(tokenId);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * @param transitionId
+	 * @return index of the transition, or -1 if the net has no such transition
+	 */
+	public int transitionIndex(String transitionId) {
+		Integer index = transitionIndex.get(transitionId);
+		return (index == null) ? -1 : index;
+	}
+
+	public int slot(int place, int token) {
+		return place * tokenIds.length + token;
+	}
+
+	/**
+	 * @return the executable net this net was compiled from, or null if compiled by a {@link CompiledHierarchy}
+	 */
+	public ExecutablePetriNet getExecutablePetriNet() {
+		return executablePetriNet;
+	}
+
+	public int getPlaceCount() {
+		return places.length;
+	}
+
+	public int getTokenTypeCount() {
+		return tokenIds.length;
+	}
+
+	public int getSlotCount() {
+		return places.length * tokenIds.length;
+	}
+
+	public int getTransitionCount() {
+		return transitions.length;
+	}
+
+	public String getPlaceId(int place) {
+		return placeIds[place];
+	}
+
+	public Place getPlace(int place) {
+		return places[place];
+	}
+
+	public String getTokenId(int token) {
+		return tokenIds[token];
+	}
+
+	public String getTransitionId(int transition) {
+		return transitionIds[transition];
+	}
+
+	public Transition getTransition(int transition) {
+		return transitions[transition];
+	}
+
+	public boolean isExternal(int transition) {
+		return external[transition];
+	}
+
+	/**
+	 * @param transition external
+	 * @return class of the external transition, resolved when the net was compiled; null if not external
+	 */
+	public ExternalClass getExternalClass(int transition) {
+		return externalClasses[transition];
+	}
+
+	public int getPriority(int transition) {
+		return priorities[transition];
+	}
+
+	/**
+	 * @return true if the transition is timed; only nets {@link #compileTimed(PetriNet) compiled for timing} have any
+	 */
+	public boolean isTimed(int transition) {
+		return transition >= timedStart;
+	}
+
+	/**
+	 * @return index of the first timed transition; timed transitions follow every immediate one.
+	 * The transition count if there are none.
+	 */
+	public int getTimedStart() {
+		return timedStart;
+	}
+
+	/**
+	 * @param transition timed
+	 * @return rate of its exponentially distributed delay, per unit of simulated time
+	 */
+	public double getRate(int transition) {
+		return rates[transition];
+	}
+
+	public int getCapacity(int place) {
+		return capacities[place];
+	}
+
+	/**
+	 * @return marking read from the executable net when this net was compiled
+	 */
+	public int[] getInitialMarking() {
+		return Arrays.copyOf(initialMarking, initialMarking.length);
+	}
+
+	/**
+	 * @return number of priority levels of immediate transitions; level 0 is the highest priority
+	 */
+	public int getLevelCount() {
+		return levelStart.length - 1;
+	}
+
+	/**
+	 * @param level
+	 * @return index of the first transition of the level; level {@link #getLevelCount()} returns
+	 * {@link #getTimedStart()}, the transition count unless the net has timed transitions
+	 */
+	public int getLevelStart(int level) {
+		return levelStart[level];
+	}
+
+	public int getLevel(int transition) {
+		int level = Arrays.binarySearch(levelStart, 0, levelStart.length - 1, transition);
+		return (level >= 0) ? level : -level - 2;
+	}
+
+	// arc rows are exposed as arrays for the hot loops of Marking and the analysis code; callers must not modify them
+
+	public int[] getInputStart() {
+		return inputStart;
+	}
+
+	public int[] getInputSlot() {
+		return inputSlot;
+	}
+
+	public int[] getInputWeight() {
+		return inputWeight;
+	}
+
+	public int[] getTestStart() {
+		return testStart;
+	}
+
+	public int[] getTestSlot() {
+		return testSlot;
+	}
+
+	public int[] getTestWeight() {
+		return testWeight;
+	}
+
+	public int[] getInhibitorStart() {
+		return inhibitorStart;
+	}
+
+	/**
+	 * @return place indices (not slots) of inhibitor arcs; an inhibitor arc requires its place to hold no tokens
+	 */
+	public int[] getInhibitorPlace() {
+		return inhibitorPlace;
+	}
+
+	public int[] getOutputStart() {
+		return outputStart;
+	}
+
+	public int[] getOutputSlot() {
+		return outputSlot;
+	}
+
+	public int[] getOutputWeight() {
+		return outputWeight;
+	}
+
+	/**
+	 * @return for each place, the start of its row in {@link #getDependents()}
+	 */
+	public int[] getDependentStart() {
+		return dependentStart;
+	}
+
+	/**
+	 * @return transitions whose enabling depends on each place:  those with an inbound arc from the place,
+	 * and those with an outbound arc to the place, if the place has a capacity
+	 */
+	public int[] getDependents() {
+		return dependents;
+	}
+
+	/**
+	 * Growable compressed rows of (slot, weight) pairs.
+	 */
+	private static class ArcRows {
+		private int[] starts = new int[16];
+		private int[] slots = new int[16];
+		private int[] weights = new int[16];
+		private int rows = 0;
+		private int size = 0;
+
+		public void add(int slot, int weight) {
+			if (size == slots.length) {
+				slots = Arrays.copyOf(slots, size * 2);
+				weights = Arrays.copyOf(weights, size * 2);
+			}
+			slots[size] = slot;
+			weights[size] = weight;
+			size++;
+		}
+
+		public void endRow() {
+			if (rows + 2 > starts.length) {
+				starts = Arrays.copyOf(starts, starts.length * 2);
+			}
+			rows++;
+			starts[rows] = size;
+		}
+
+		public int[] starts() {
+			return Arrays.copyOf(starts, rows + 1);
+		}
+
+		public int[] slots() {
+			return Arrays.copyOf(slots, size);
+		}
+
+		public int[] weights() {
+			return Arrays.copyOf(weights, size);
+		}
+	}
+}
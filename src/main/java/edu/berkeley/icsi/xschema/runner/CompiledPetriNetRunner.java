@@ -0,0 +1,712 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import uk.ac.imperial.pipe.models.petrinet.DiscreteExternalTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.Firing;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+import uk.ac.imperial.pipe.runner.PetriNetRunner;
+import uk.ac.imperial.pipe.runner.Runner;
+import uk.ac.imperial.pipe.state.HashedStateBuilder;
+import uk.ac.imperial.pipe.state.State;
+import edu.berkeley.icsi.xschema.metrics.NoOpMetrics;
+import edu.berkeley.icsi.xschema.metrics.RunnerMetrics;
+
+/**
+ * A {@link Runner} over a {@link CompiledNet}, as an alternative to {@link PetriNetRunner} for large hierarchies.
+ * <p>
+ * Each round applies the markings requested through {@link #markPlace(String, String, int)} since the last round,
+ * then picks one of the fireable transitions with <code>random.nextInt(fireable)</code>, in the order of the
+ * executable net, as PetriNetRunner does, so a given seed produces the same firing sequence.
+ * Enabled transitions are tracked incrementally by the {@link Marking}, rather than re-evaluated every round.
+ * External transitions fire through method handles bound to the runner's own instances of their
+ * {@link ExternalClass classes}, without reflection per firing.
+ * <p>
+ * Listeners receive the same {@link PetriNetRunner#UPDATED_STATE} events as from PetriNetRunner, so a FiringWriter
+ * produces the same report.  The state for these events is only built when there are listeners.
+ * With {@link #setChainFusion(boolean) chain fusion}, each round fires a whole chain of immediate transitions.
+ * Tokens may also be added from other threads through a {@link ConcurrentPlaceInput}, drained between rounds;
+ * this is the only part of the runner that is thread-safe.
+ * When the run ends, the final marking is written back to the places of the executable net, unless the runner
+ * is {@link #setDetached(boolean) detached}.
+ */
+public class CompiledPetriNetRunner implements Runner {
+
+	public static final String UPDATED_STATE = PetriNetRunner.UPDATED_STATE;
+	public static final String EXECUTION_COMPLETED = PetriNetRunner.EXECUTION_COMPLETED;
+	public static final long DEFAULT_INPUT_TIMEOUT = 10000;
+	protected static final String NO_TRANSITION = "";
+	protected final CompiledNet net;
+	protected Marking marking;
+	protected RestorableRandom random;
+	protected int firingLimit;
+	protected int round;
+	protected final PropertyChangeSupport changeSupport;
+	protected RunnerMetrics metrics;
+	private boolean measuring;
+	private long listenerNanos;
+	private boolean listenersCalled;
+	private boolean detached;
+	private ConcurrentPlaceInput concurrentInput;
+	private boolean waitForExternalInput;
+	private long inputTimeout;
+	private int[] pendingSlots;
+	private int[] pendingCounts;
+	private int pendingSize;
+	private final List<TokenWatch> tokenWatches;
+	private final Object[] contexts;
+	private final Object[] externalInstances;
+	private final MethodHandle[] externalFires;
+	private int[] watchIndex;
+	private TransitionChains chains;
+	private int[] chain;
+	private boolean inChain;
+	protected long firings;
+	private ChainListener chainListener;
+	private FusedStep fusedStep;
+
+	public CompiledPetriNetRunner(PetriNet petriNet) {
+		this(CompiledNet.compile(petriNet));
+	}
+
+	/**
+	 * @param net may be shared with other runners; each runner has its own {@link Marking}
+	 */
+	public CompiledPetriNetRunner(CompiledNet net) {
+		this.net = net;
+		this.marking = new Marking(net);
+		this.random = new RestorableRandom();
+		this.firingLimit = Integer.MAX_VALUE;
+		this.changeSupport = new PropertyChangeSupport(this);
+		this.pendingSlots = new int[8];
+		this.pendingCounts = new int[8];
+		this.tokenWatches = new ArrayList<TokenWatch>();
+		this.contexts = new Object[net.getTransitionCount()];
+		this.externalInstances = new Object[net.getTransitionCount()];
+		this.externalFires = new MethodHandle[net.getTransitionCount()];
+		this.inputTimeout = DEFAULT_INPUT_TIMEOUT;
+		this.metrics = NoOpMetrics.INSTANCE;
+	}
+
+	@Override
+	public void run() {
+		start();
+		while ((round < firingLimit) && step()) {
+		}
+		end();
+	}
+
+	/**
+	 * Continues a run from the current marking and round, as left by a previous run or by
+	 * {@link #restore(int[], int, long, long, int[])}, without reporting a new round 0.
+	 */
+	public void resume() {
+		if (measuring) {
+			metrics.runStarted(net);
+		}
+		resetTokenWatches();
+		while ((round < firingLimit) && step()) {
+		}
+		end();
+	}
+
+	/**
+	 * Sets the state of a run, to be continued with {@link #resume()}.
+	 * @param counts marking, of {@link CompiledNet#getSlotCount()} slots
+	 * @param round of the marking
+	 * @param firings up to the marking, as from {@link #getFirings()}
+	 * @param randomState from {@link RestorableRandom#getState()}
+	 * @param pendingMarkings requested but not yet applied, as from {@link #getPendingMarkings()}
+	 */
+	public void restore(int[] counts, int round, long firings, long randomState, int[] pendingMarkings) {
+		marking.reset(counts);
+		this.round = round;
+		this.firings = firings;
+		random.setState(randomState);
+		pendingSize = 0;
+		if (pendingSlots.length < pendingMarkings.length / 2) {
+			pendingSlots = new int[pendingMarkings.length / 2];
+			pendingCounts = new int[pendingMarkings.length / 2];
+		}
+		for (int i = 0; i < pendingMarkings.length; i += 2) {
+			pendingSlots[pendingSize] = pendingMarkings[i];
+			pendingCounts[pendingSize] = pendingMarkings[i + 1];
+			pendingSize++;
+		}
+	}
+
+	/**
+	 * @return markings requested but not yet applied, as pairs of slot and count
+	 */
+	public int[] getPendingMarkings() {
+		int[] pending = new int[2 * pendingSize];
+		for (int i = 0; i < pendingSize; i++) {
+			pending[2 * i] = pendingSlots[i];
+			pending[2 * i + 1] = pendingCounts[i];
+		}
+		return pending;
+	}
+
+	public RestorableRandom getRandom() {
+		return random;
+	}
+
+	/**
+	 * Reads the current marking of the executable net (if detached, the marking it was compiled with),
+	 * and reports round 0.
+	 */
+	protected void start() {
+		if (detached) {
+			marking.reset(net.getInitialMarking());
+		} else {
+			int[] counts = new int[net.getSlotCount()];
+			net.readMarking(counts);
+			marking.reset(counts);
+		}
+		round = 0;
+		firings = 0;
+		if (measuring) {
+			metrics.runStarted(net);
+		}
+		resetTokenWatches();
+		report(NO_TRANSITION);
+	}
+
+	/**
+	 * Runs one round:  applies pending markings, then fires one fireable transition, if any.
+	 * @return false if no transition could fire
+	 */
+	protected boolean step() {
+		applyPendingMarkings();
+		int fireable = marking.getFireableCount();
+		while (fireable == 0) {
+			if (!awaitInput()) {
+				return false;
+			}
+			applyPendingMarkings();
+			fireable = marking.getFireableCount();
+		}
+		int transition = marking.select(random.nextInt(fireable));
+		measureFiring(transition);
+		if (chains == null) {
+			fire(transition);
+			firings++;
+			round++;
+		} else {
+			transition = fireChain(transition);
+		}
+		report(net.getTransitionId(transition));
+		measureListeners();
+		return true;
+	}
+
+	/**
+	 * Records a transition about to fire with the metrics, if they are enabled; called by {@link #step()}.
+	 */
+	protected void measureFiring(int transition) {
+		if (measuring) {
+			metrics.transitionFired(transition, marking.getEnabledCount());
+		}
+	}
+
+	/**
+	 * Records the time spent in token listeners in the round, if any were called; called by {@link #step()}.
+	 */
+	protected void measureListeners() {
+		if (listenersCalled) {
+			metrics.listenersNotified(listenerNanos);
+			listenerNanos = 0;
+			listenersCalled = false;
+		}
+	}
+
+	protected void fire(int transition) {
+		marking.fire(transition);
+		if (!measuring) {
+			if (net.isExternal(transition)) {
+				fireExternal(transition);
+			}
+			if (!inChain) {
+				notifyTokenWatches(transition);
+			}
+			return;
+		}
+		if (net.isExternal(transition)) {
+			long begin = System.nanoTime();
+			fireExternal(transition);
+			metrics.externalFired(transition, System.nanoTime() - begin);
+		}
+		if ((watchIndex != null) && !inChain) {
+			long begin = System.nanoTime();
+			notifyTokenWatches(transition);
+			listenerNanos += System.nanoTime() - begin;
+			listenersCalled = true;
+		}
+	}
+
+	/**
+	 * Fires a transition, then the following links of its chain for as long as they are fireable, as one round.
+	 * Token listeners see only the marking at the end of the chain.
+	 * @param transition first of the chain
+	 * @return last transition fired
+	 */
+	protected int fireChain(int transition) {
+		int length = 0;
+		int link = transition;
+		inChain = true;
+		try {
+			do {
+				if ((length > 0) && measuring) {
+					metrics.transitionFired(link, marking.getEnabledCount());
+				}
+				fire(link);
+				chain[length++] = link;
+				link = chains.next(link);
+			} while ((link >= 0) && (length < chain.length) && marking.isFireable(link));
+		} finally {
+			inChain = false;
+		}
+		long firstFiring = firings + 1;
+		firings += length;
+		round++;
+		if (watchIndex != null) {
+			long begin = measuring ? System.nanoTime() : 0;
+			for (int i = 0; i < length; i++) {
+				notifyTokenWatches(chain[i]);
+			}
+			if (measuring) {
+				listenerNanos += System.nanoTime() - begin;
+				listenersCalled = true;
+			}
+		}
+		if (chainListener != null) {
+			fusedStep.set(round, firstFiring, chain, length);
+			chainListener.chainFired(fusedStep);
+		}
+		return chain[length - 1];
+	}
+
+	/**
+	 * Runs the external class of an external transition, after its tokens have moved, through the handle
+	 * bound to this runner's instance of the class.
+	 * @param transition
+	 */
+	protected void fireExternal(int transition) {
+		MethodHandle fire = externalFires[transition];
+		if (fire == null) {
+			fire = bindExternal(transition);
+		}
+		ExternalClass.fire(fire);
+	}
+
+	private MethodHandle bindExternal(int transition) {
+		ExternalClass externalClass = net.getExternalClass(transition);
+		externalInstances[transition] = externalClass.newInstance();
+		externalFires[transition] = externalClass.bindFire(externalInstances[transition]);
+		return externalFires[transition];
+	}
+
+	/**
+	 * @param transition external
+	 * @return the instance of its class that this runner fires, or null before it is first needed
+	 */
+	public Object getExternalInstance(int transition) {
+		return externalInstances[transition];
+	}
+
+	protected void end() {
+		applyPendingMarkings();
+		if (!detached) {
+			net.writeMarking(marking.getCounts());
+		}
+		changeSupport.firePropertyChange(EXECUTION_COMPLETED, null, round);
+	}
+
+	protected void report(String transitionId) {
+		if (changeSupport.hasListeners(UPDATED_STATE)) {
+			long begin = measuring ? System.nanoTime() : 0;
+			changeSupport.firePropertyChange(UPDATED_STATE, null, new Firing(round, transitionId, buildState()));
+			if (measuring) {
+				listenerNanos += System.nanoTime() - begin;
+				listenersCalled = true;
+			}
+		}
+	}
+
+	/**
+	 * @return pipe-core State of the current marking, for listeners written against PetriNetRunner
+	 */
+	public State buildState() {
+		return buildState(net, marking.getCounts());
+	}
+
+	/**
+	 * @param net
+	 * @param counts marking, by slot
+	 * @return pipe-core State of the marking
+	 */
+	public static State buildState(CompiledNet net, int[] counts) {
+		HashedStateBuilder builder = new HashedStateBuilder();
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			for (int token = 0; token < net.getTokenTypeCount(); token++) {
+				builder.placeWithToken(net.getPlaceId(place), net.getTokenId(token), counts[net.slot(place, token)]);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Requests a marking; it is applied at the start of the next round, so a marking made by an external
+	 * transition while it fires is not visible in the report of that firing.
+	 */
+	@Override
+	public void markPlace(String placeId, String token, int count) throws InterfaceException {
+		int slot = findSlot(placeId, token);
+		if (pendingSize == pendingSlots.length) {
+			pendingSlots = Arrays.copyOf(pendingSlots, pendingSize * 2);
+			pendingCounts = Arrays.copyOf(pendingCounts, pendingSize * 2);
+		}
+		pendingSlots[pendingSize] = slot;
+		pendingCounts[pendingSize] = count;
+		pendingSize++;
+	}
+
+	protected int findSlot(String placeId, String token) throws InterfaceException {
+		int place = net.placeIndex(placeId);
+		if (place < 0) {
+			throw new InterfaceException("CompiledPetriNetRunner:  place "+placeId+" not found in executable net");
+		}
+		int tokenIndex = net.tokenIndex(token);
+		if (tokenIndex < 0) {
+			throw new InterfaceException("CompiledPetriNetRunner:  token "+token+" not found in executable net");
+		}
+		return net.slot(place, tokenIndex);
+	}
+
+	protected void applyPendingMarkings() {
+		boolean changed = false;
+		if (pendingSize > 0) {
+			marking.set(pendingSlots, pendingCounts, pendingSize);
+			pendingSize = 0;
+			changed = true;
+		}
+		if ((concurrentInput != null) && concurrentInput.drainTo(marking)) {
+			changed = true;
+		}
+		if (changed) {
+			notifyTokenWatches();
+		}
+	}
+
+	/**
+	 * Waits for concurrent input when nothing can fire, if {@link #setWaitForExternalInput(boolean) waiting}.
+	 * @return true if input arrived, so the round should be retried
+	 */
+	protected boolean awaitInput() {
+		return (concurrentInput != null) && waitForExternalInput && concurrentInput.await(inputTimeout);
+	}
+
+	/**
+	 * Accepts tokens for the given places from any thread, through the returned input; pending tokens are
+	 * drained between rounds.  Call before the run.
+	 * @param placeIds input places; see {@link ConcurrentPlaceInput#externalInputPlaces(CompiledNet)}
+	 * @return input for producer threads
+	 */
+	public ConcurrentPlaceInput enableConcurrentInput(Collection<String> placeIds) {
+		concurrentInput = new ConcurrentPlaceInput(net, placeIds);
+		return concurrentInput;
+	}
+
+	public ConcurrentPlaceInput getConcurrentInput() {
+		return concurrentInput;
+	}
+
+	/**
+	 * @param waitForExternalInput if true, a run with concurrent input does not end when nothing can fire,
+	 * but waits for input, up to the input timeout
+	 */
+	public void setWaitForExternalInput(boolean waitForExternalInput) {
+		this.waitForExternalInput = waitForExternalInput;
+	}
+
+	/**
+	 * @param inputTimeout milliseconds to wait for concurrent input before the run ends
+	 */
+	public void setInputTimeout(long inputTimeout) {
+		this.inputTimeout = inputTimeout;
+	}
+
+	/**
+	 * Listens through a {@link TokenChangeEventAdapter}, which allocates an event per change;
+	 * prefer {@link #listenForTokenChanges(TokenListener, String)} for busy places.
+	 */
+	@Override
+	public void listenForTokenChanges(PropertyChangeListener listener, String placeId) throws InterfaceException {
+		listenForTokenChanges(new TokenChangeEventAdapter(net, listener), placeId);
+	}
+
+	/**
+	 * Listens for changes to the token counts of a place, without allocation per change.
+	 * @param listener
+	 * @param placeId
+	 * @throws InterfaceException if the net has no such place
+	 */
+	public void listenForTokenChanges(TokenListener listener, String placeId) throws InterfaceException {
+		int place = net.placeIndex(placeId);
+		if (place < 0) {
+			throw new InterfaceException("CompiledPetriNetRunner:  place "+placeId+" not found in executable net");
+		}
+		if (watchIndex == null) {
+			watchIndex = new int[net.getPlaceCount()];
+			Arrays.fill(watchIndex, -1);
+		}
+		if (watchIndex[place] < 0) {
+			watchIndex[place] = tokenWatches.size();
+			tokenWatches.add(new TokenWatch(place));
+		}
+		tokenWatches.get(watchIndex[place]).add(listener);
+	}
+
+	private void resetTokenWatches() {
+		for (int i = 0; i < tokenWatches.size(); i++) {
+			tokenWatches.get(i).reset();
+		}
+	}
+
+	/**
+	 * Checks every watched place; used after markings, which may touch any place.
+	 */
+	protected void notifyTokenWatches() {
+		for (int i = 0; i < tokenWatches.size(); i++) {
+			tokenWatches.get(i).check();
+		}
+	}
+
+	/**
+	 * Checks only the watched places a firing touched.
+	 * @param transition
+	 */
+	protected void notifyTokenWatches(int transition) {
+		if (watchIndex == null) {
+			return;
+		}
+		int tokens = net.getTokenTypeCount();
+		int[] start = net.getInputStart();
+		int[] slot = net.getInputSlot();
+		for (int i = start[transition]; i < start[transition + 1]; i++) {
+			int watch = watchIndex[slot[i] / tokens];
+			if (watch >= 0) {
+				tokenWatches.get(watch).check();
+			}
+		}
+		start = net.getOutputStart();
+		slot = net.getOutputSlot();
+		for (int i = start[transition]; i < start[transition + 1]; i++) {
+			int watch = watchIndex[slot[i] / tokens];
+			if (watch >= 0) {
+				tokenWatches.get(watch).check();
+			}
+		}
+	}
+
+	/**
+	 * Sets the context of this runner's instance of the external transition's class; each runner has its own
+	 * instances, created once and reused for every firing, so the context is set once rather than per firing.
+	 */
+	@Override
+	public void setTransitionContext(String transitionId, Object object) {
+		int transition = net.transitionIndex(transitionId);
+		if ((transition < 0) || !net.isExternal(transition)) {
+			throw new IllegalArgumentException("CompiledPetriNetRunner:  "+transitionId+
+					" is not an external transition of the executable net");
+		}
+		((DiscreteExternalTransition) net.getTransition(transition)).setContext(object);
+		bindContext(transition, object);
+	}
+
+	/**
+	 * Sets the context of this runner's instance of the external transition's class only, leaving the
+	 * transition of the shared model as it is; for runners that share a model with other runners.
+	 * @param transition external
+	 * @param object context
+	 */
+	protected void bindContext(int transition, Object object) {
+		contexts[transition] = object;
+		if (externalFires[transition] == null) {
+			bindExternal(transition);
+		}
+		net.getExternalClass(transition).setContext(externalInstances[transition], object);
+	}
+
+	/**
+	 * @param transition index
+	 * @return context set for the transition through this runner, or null
+	 */
+	public Object getTransitionContext(int transition) {
+		return contexts[transition];
+	}
+
+	@Override
+	public void setFiringLimit(int firingLimit) {
+		this.firingLimit = firingLimit;
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		random = new RestorableRandom(seed);
+	}
+
+	@Override
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		changeSupport.addPropertyChangeListener(listener);
+	}
+
+	@Override
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		changeSupport.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * A detached runner starts each run from the marking the net was compiled with, and does not write
+	 * its final marking back to the executable net, so many runners may share one CompiledNet across threads.
+	 * Detached runners should not be used with external transitions, whose contexts belong to the shared model.
+	 * @param detached
+	 */
+	public void setDetached(boolean detached) {
+		this.detached = detached;
+	}
+
+	public boolean isDetached() {
+		return detached;
+	}
+
+	/**
+	 * Sets the metrics measured from now on; the default {@link NoOpMetrics} measures nothing, and costs nothing.
+	 * @param metrics e.g., a {@link edu.berkeley.icsi.xschema.metrics.MetricsRegistry}
+	 */
+	public void setMetrics(RunnerMetrics metrics) {
+		this.metrics = metrics;
+		this.measuring = metrics.isEnabled();
+	}
+
+	public RunnerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Fires each deterministic chain of immediate transitions ({@link TransitionChains}) as one round:
+	 * the first transition is chosen at random, as usual, and the rest of its chain follows while fireable.
+	 * Only the marking at the end of the chain is reported, and the firing limit counts chains, so a run
+	 * needs far fewer rounds per external event.  The firing sequence for a seed differs from that of an
+	 * unfused run, but is one an unfused run could produce.
+	 * @param chainFusion
+	 */
+	public void setChainFusion(boolean chainFusion) {
+		if (chainFusion) {
+			chains = new TransitionChains(net);
+			chain = new int[Math.max(1, net.getTransitionCount())];
+			fusedStep = new FusedStep(net, marking);
+		} else {
+			chains = null;
+		}
+	}
+
+	/**
+	 * Evaluates the enabling of every transition in one pass, with a {@link BatchEnabling}, when the run starts or
+	 * is restored, and when many markings are applied at once; otherwise, only the transitions that depend on each
+	 * changed place are evaluated.  For nets of many thousands of transitions; firings are evaluated incrementally
+	 * either way, and the firing sequence for a seed is the same.
+	 * @param batchEnabling
+	 */
+	public void setBatchEnabling(boolean batchEnabling) {
+		marking.setBatchEnabling(batchEnabling ? new BatchEnabling(net) : null);
+	}
+
+	public boolean isBatchEnabling() {
+		return marking.isBatchEnabling();
+	}
+
+	public boolean isChainFusion() {
+		return chains != null;
+	}
+
+	/**
+	 * @param chainListener receives the transitions of each fused round, e.g., to write a per-transition trace;
+	 * null to remove
+	 */
+	public void setChainListener(ChainListener chainListener) {
+		this.chainListener = chainListener;
+	}
+
+	/**
+	 * @return transitions fired in the run so far; equal to the round without chain fusion
+	 */
+	public long getFirings() {
+		return firings;
+	}
+
+	public CompiledNet getCompiledNet() {
+		return net;
+	}
+
+	public Marking getMarking() {
+		return marking;
+	}
+
+	public int getRound() {
+		return round;
+	}
+
+	/**
+	 * Listeners on the token counts of one place; they are called only for tokens whose counts changed.
+	 */
+	private class TokenWatch {
+		private final int place;
+		private final int[] last;
+		private TokenListener[] listeners;
+
+		public TokenWatch(int place) {
+			this.place = place;
+			this.last = new int[net.getTokenTypeCount()];
+			this.listeners = new TokenListener[0];
+		}
+
+		public void add(TokenListener listener) {
+			listeners = Arrays.copyOf(listeners, listeners.length + 1);
+			listeners[listeners.length - 1] = listener;
+			if (listener instanceof TokenChangeEventAdapter) {
+				((TokenChangeEventAdapter) listener).reset(last);
+			}
+		}
+
+		public void reset() {
+			for (int token = 0; token < last.length; token++) {
+				last[token] = marking.getCount(place, token);
+			}
+			for (TokenListener listener : listeners) {
+				if (listener instanceof TokenChangeEventAdapter) {
+					((TokenChangeEventAdapter) listener).reset(last);
+				}
+			}
+		}
+
+		public void check() {
+			for (int token = 0; token < last.length; token++) {
+				int count = marking.getCount(place, token);
+				if (last[token] != count) {
+					last[token] = count;
+					for (int i = 0; i < listeners.length; i++) {
+						listeners[i].tokensChanged(place, token, count);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import uk.ac.imperial.pipe.models.petrinet.PlaceStatus;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+
+/**
+ * Lock-free input of tokens into a running net, from any number of threads.
+ * <p>
+ * Each input place and token has its own atomic counter of tokens added since the runner last drained it,
+ * so producers never wait on each other or on the runner, and adds to different places do not contend.
+ * Counters are grouped in stripes of {@link #STRIPE} inputs, each with a dirty flag that producers set after adding,
+ * and only when it is not already set, so there is no counter that every producer writes.
+ * Between rounds the runner clears the flag of each dirty stripe, then drains its counters with an atomic
+ * get-and-set, so a token added concurrently with a drain is applied either in this round or the next,
+ * but never lost or applied twice.
+ * <p>
+ * Unlike {@link CompiledPetriNetRunner#markPlace(String, String, int)}, which sets a count, input is additive:
+ * adds commute, so the result does not depend on how producers interleave.
+ * Input places are typically those with an external, input-only {@link PlaceStatus}, as returned by
+ * {@link #externalInputPlaces(CompiledNet)}.
+ */
+public class ConcurrentPlaceInput {
+
+	public static final int STRIPE = 16;
+	private final CompiledNet net;
+	private final int[] slots;
+	private final int[] inputIndex;
+	private final AtomicIntegerArray pending;
+	private final AtomicIntegerArray dirty;
+	private volatile Thread waiter;
+
+	/**
+	 * @param net
+	 * @param placeIds input places; every token of each place may be added
+	 */
+	public ConcurrentPlaceInput(CompiledNet net, Collection<String> placeIds) {
+		this.net = net;
+		int tokens = net.getTokenTypeCount();
+		slots = new int[placeIds.size() * tokens];
+		inputIndex = new int[net.getSlotCount()];
+		Arrays.fill(inputIndex, -1);
+		int input = 0;
+		for (String placeId : placeIds) {
+			int place = net.placeIndex(placeId);
+			if (place < 0) {
+				throw new IllegalArgumentException("ConcurrentPlaceInput:  place "+placeId+" not found in executable net");
+			}
+			for (int token = 0; token < tokens; token++) {
+				slots[input] = net.slot(place, token);
+				inputIndex[slots[input]] = input;
+				input++;
+			}
+		}
+		pending = new AtomicIntegerArray(slots.length);
+		dirty = new AtomicIntegerArray((slots.length + STRIPE - 1) / STRIPE);
+	}
+
+	/**
+	 * @param net
+	 * @return ids of places whose status is external, with an input-only arc constraint
+	 */
+	public static List<String> externalInputPlaces(CompiledNet net) {
+		List<String> placeIds = new ArrayList<String>();
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			PlaceStatus status = net.getPlace(place).getStatus();
+			if ((status != null) && status.isExternal() && status.isInputOnlyArcConstraint()) {
+				placeIds.add(net.getPlaceId(place));
+			}
+		}
+		return placeIds;
+	}
+
+	/**
+	 * @param placeId
+	 * @param token
+	 * @return index for {@link #addTokens(int, int)}
+	 * @throws InterfaceException if the place is not an input place, or the token is unknown
+	 */
+	public int inputIndex(String placeId, String token) throws InterfaceException {
+		int place = net.placeIndex(placeId);
+		int tokenIndex = net.tokenIndex(token);
+		int input = ((place < 0) || (tokenIndex < 0)) ? -1 : inputIndex[net.slot(place, tokenIndex)];
+		if (input < 0) {
+			throw new InterfaceException("ConcurrentPlaceInput:  "+placeId+" with token "+token+" is not an input place");
+		}
+		return input;
+	}
+
+	/**
+	 * Adds tokens to a place; may be called from any thread.
+	 * @throws InterfaceException if the place is not an input place, or the token is unknown
+	 */
+	public void addTokens(String placeId, String token, int count) throws InterfaceException {
+		addTokens(inputIndex(placeId, token), count);
+	}
+
+	/**
+	 * Adds tokens by input index, without lookups; may be called from any thread.
+	 * @param input from {@link #inputIndex(String, String)}
+	 * @param count not negative
+	 */
+	public void addTokens(int input, int count) {
+		if (count < 0) {
+			throw new IllegalArgumentException("ConcurrentPlaceInput:  tokens can only be added");
+		}
+		pending.getAndAdd(input, count);
+		int stripe = input / STRIPE;
+		if (dirty.get(stripe) == 0) {
+			dirty.set(stripe, 1);
+		}
+		Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Applies every pending add to a marking; called by the runner between rounds.
+	 * @param marking
+	 * @return true if any count changed
+	 */
+	public boolean drainTo(Marking marking) {
+		boolean changed = false;
+		for (int stripe = 0; stripe < dirty.length(); stripe++) {
+			if (dirty.get(stripe) == 0) {
+				continue;
+			}
+			dirty.set(stripe, 0);
+			int end = Math.min(slots.length, (stripe + 1) * STRIPE);
+			for (int input = stripe * STRIPE; input < end; input++) {
+				int count = pending.getAndSet(input, 0);
+				if (count != 0) {
+					marking.add(slots[input], count);
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @return true if tokens were added since the last drain
+	 */
+	public boolean hasPending() {
+		for (int stripe = 0; stripe < dirty.length(); stripe++) {
+			if (dirty.get(stripe) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parks the calling runner until tokens are added, or the timeout passes.
+	 * @param timeoutMillis
+	 * @return true if tokens are pending
+	 */
+	public boolean await(long timeoutMillis) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		waiter = Thread.currentThread();
+		try {
+			while (!hasPending()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+					return false;
+				}
+				LockSupport.parkNanos(this, remaining);
+			}
+			return true;
+		} finally {
+			waiter = null;
+		}
+	}
+}
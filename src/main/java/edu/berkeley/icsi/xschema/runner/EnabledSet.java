@@ -0,0 +1,122 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.Arrays;
+
+/**
+ * The enabled immediate transitions of a {@link CompiledNet}, counted per priority level and indexed in a
+ * Fenwick tree, so that selecting the k-th enabled transition of the highest enabled level takes O(log n) time.
+ * <p>
+ * A {@link Marking} keeps one from its own evaluation of the transitions; a runner that learns of enabling
+ * changes from elsewhere, e.g., from the partitions of a net, can keep one directly, and select exactly as
+ * a Marking would.  The caller tracks which transitions are in the set.  Not thread-safe.
+ */
+public class EnabledSet {
+
+	private final CompiledNet net;
+	private final int[] tree;
+	private final int[] levelCounts;
+	private final int treeMask;
+
+	public EnabledSet(CompiledNet net) {
+		this.net = net;
+		this.tree = new int[net.getTransitionCount() + 1];
+		this.levelCounts = new int[net.getLevelCount()];
+		treeMask = Integer.highestOneBit(Math.max(1, net.getTransitionCount()));
+	}
+
+	public void clear() {
+		Arrays.fill(tree, 0);
+		Arrays.fill(levelCounts, 0);
+	}
+
+	/**
+	 * @param transition immediate, not in the set
+	 */
+	public void add(int transition) {
+		change(transition, 1);
+	}
+
+	/**
+	 * @param transition in the set
+	 */
+	public void remove(int transition) {
+		change(transition, -1);
+	}
+
+	private void change(int transition, int delta) {
+		levelCounts[net.getLevel(transition)] += delta;
+		for (int i = transition + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * @param level
+	 * @return true if no transition of a higher priority level is in the set
+	 */
+	public boolean isTopLevel(int level) {
+		for (int higher = 0; higher < level; higher++) {
+			if (levelCounts[higher] > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of transitions at the highest priority level in the set; only these can fire
+	 */
+	public int getFireableCount() {
+		for (int level = 0; level < levelCounts.length; level++) {
+			if (levelCounts[level] > 0) {
+				return levelCounts[level];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return number of transitions in the set, at any priority level
+	 */
+	public int getEnabledCount() {
+		int total = 0;
+		for (int level = 0; level < levelCounts.length; level++) {
+			total += levelCounts[level];
+		}
+		return total;
+	}
+
+	/**
+	 * Selects a fireable transition by position, in transition index order.
+	 * @param k from 0 to {@link #getFireableCount()} - 1
+	 * @return transition index, or -1 if the set is empty
+	 */
+	public int select(int k) {
+		for (int level = 0; level < levelCounts.length; level++) {
+			if (levelCounts[level] > 0) {
+				return find(prefix(net.getLevelStart(level)) + k + 1);
+			}
+		}
+		return -1;
+	}
+
+	private int prefix(int transitions) {
+		int sum = 0;
+		for (int i = transitions; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+
+	private int find(int target) {
+		int position = 0;
+		for (int step = treeMask; step > 0; step >>= 1) {
+			int next = position + step;
+			if (next < tree.length && tree[next] < target) {
+				position = next;
+				target -= tree[next];
+			}
+		}
+		return position;
+	}
+}
@@ -0,0 +1,14 @@
+package edu.berkeley.icsi.xschema.runner;
+
+/**
+ * Told by a {@link Marking} when a timed transition becomes enabled or disabled, so that its firing
+ * can be scheduled or cancelled.
+ */
+public interface EnablingListener {
+
+	/**
+	 * @param transition timed
+	 * @param enabled
+	 */
+	public void enablingChanged(int transition, boolean enabled);
+}
@@ -0,0 +1,165 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.Arrays;
+
+/**
+ * Scheduled firings of timed transitions, in order of simulated time:  a binary heap of transition indices,
+ * with the position of each transition in the heap, so scheduling, cancelling and taking the earliest firing
+ * each take O(log n) time.  Firings at the same time are taken in transition index order, so a run is
+ * reproducible for a seed.  A transition is scheduled at most once.
+ */
+class EventQueue {
+
+	private final double[] times;
+	private final int[] heap;
+	private final int[] position;
+	private int size;
+
+	public EventQueue(int transitions) {
+		times = new double[transitions];
+		heap = new int[transitions];
+		position = new int[transitions];
+		Arrays.fill(position, -1);
+	}
+
+	/**
+	 * Schedules a transition, or moves its scheduled firing.
+	 * @param transition
+	 * @param time
+	 */
+	public void schedule(int transition, double time) {
+		times[transition] = time;
+		int i = position[transition];
+		if (i < 0) {
+			i = size++;
+			heap[i] = transition;
+			position[transition] = i;
+			siftUp(i);
+		} else {
+			siftUp(i);
+			siftDown(position[transition]);
+		}
+	}
+
+	/**
+	 * @param transition
+	 * @return false if the transition was not scheduled
+	 */
+	public boolean cancel(int transition) {
+		int i = position[transition];
+		if (i < 0) {
+			return false;
+		}
+		removeAt(i);
+		return true;
+	}
+
+	public boolean isScheduled(int transition) {
+		return position[transition] >= 0;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return earliest scheduled transition, or -1
+	 */
+	public int peek() {
+		return (size == 0) ? -1 : heap[0];
+	}
+
+	/**
+	 * @return time of the earliest scheduled firing; undefined if empty
+	 */
+	public double peekTime() {
+		return times[heap[0]];
+	}
+
+	/**
+	 * @param transition
+	 * @return scheduled time of the transition; undefined if not scheduled
+	 */
+	public double getTime(int transition) {
+		return times[transition];
+	}
+
+	/**
+	 * Removes and returns the earliest scheduled transition.
+	 * @return transition, or -1 if empty
+	 */
+	public int poll() {
+		if (size == 0) {
+			return -1;
+		}
+		int transition = heap[0];
+		removeAt(0);
+		return transition;
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	private void removeAt(int i) {
+		int removed = heap[i];
+		position[removed] = -1;
+		size--;
+		if (i < size) {
+			int moved = heap[size];
+			move(moved, i);
+			siftUp(i);
+			siftDown(position[moved]);
+		}
+	}
+
+	private boolean before(int transition1, int transition2) {
+		double time1 = times[transition1];
+		double time2 = times[transition2];
+		return (time1 < time2) || ((time1 == time2) && (transition1 < transition2));
+	}
+
+	private void siftUp(int i) {
+		int transition = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!before(transition, heap[parent])) {
+				break;
+			}
+			move(heap[parent], i);
+			i = parent;
+		}
+		move(transition, i);
+	}
+
+	private void siftDown(int i) {
+		int transition = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if ((child + 1 < size) && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], transition)) {
+				break;
+			}
+			move(heap[child], i);
+			i = child;
+		}
+		move(transition, i);
+	}
+
+	private void move(int transition, int i) {
+		heap[i] = transition;
+		position[transition] = i;
+	}
+}
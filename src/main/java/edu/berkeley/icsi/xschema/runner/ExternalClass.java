@@ -0,0 +1,124 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import uk.ac.imperial.pipe.models.petrinet.DiscreteExternalTransition;
+
+/**
+ * The class named by a {@link DiscreteExternalTransition}, loaded once, with method handles for its constructor,
+ * setContext and fire, so that firing does not look anything up by name.
+ * <p>
+ * A {@link CompiledNet} resolves the class of each of its external transitions when it is compiled, once per
+ * class name, so a class that is missing, not public or without a public no-argument constructor fails
+ * the compile, rather than the first firing.  Runners create one instance per external transition from it,
+ * and reuse that instance for every firing, through {@link #bindFire(Object)}.
+ * Immutable, and shared by every runner of the net.
+ */
+public final class ExternalClass {
+
+	private static final MethodType CONSTRUCTOR = MethodType.methodType(void.class);
+	private static final MethodType FIRE = MethodType.methodType(void.class);
+	private static final MethodType SET_CONTEXT = MethodType.methodType(void.class, Object.class);
+	private final Class<?> type;
+	private final MethodHandle constructor;
+	private final MethodHandle fire;
+	private final MethodHandle setContext;
+
+	private ExternalClass(Class<?> type, MethodHandle constructor, MethodHandle fire, MethodHandle setContext) {
+		this.type = type;
+		this.constructor = constructor;
+		this.fire = fire;
+		this.setContext = setContext;
+	}
+
+	/**
+	 * Loads a class with the context class loader of the current thread, or else the loader of this class.
+	 * @param className
+	 * @return resolved class
+	 * @throws IllegalArgumentException if the class cannot be loaded, or has no public no-argument constructor,
+	 * fire() or setContext(Object)
+	 */
+	public static ExternalClass resolve(String className) {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null) {
+			loader = ExternalClass.class.getClassLoader();
+		}
+		Class<?> type;
+		try {
+			type = Class.forName(className, false, loader);
+		} catch (ClassNotFoundException | LinkageError e) {
+			throw new IllegalArgumentException("ExternalClass:  external transition class "+className+
+					" could not be loaded", e);
+		}
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		try {
+			return new ExternalClass(type,
+					lookup.findConstructor(type, CONSTRUCTOR).asType(MethodType.methodType(Object.class)),
+					lookup.findVirtual(type, "fire", FIRE),
+					lookup.findVirtual(type, "setContext", SET_CONTEXT).
+							asType(MethodType.methodType(void.class, Object.class, Object.class)));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new IllegalArgumentException("ExternalClass:  external transition class "+className+
+					" needs to be public, with a public no-argument constructor, fire() and setContext(Object)", e);
+		}
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+
+	public String getName() {
+		return type.getName();
+	}
+
+	/**
+	 * @return new instance
+	 * @throws IllegalStateException if the constructor throws
+	 */
+	public Object newInstance() {
+		try {
+			return (Object) constructor.invokeExact();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("ExternalClass:  unable to create "+getName(), e);
+		}
+	}
+
+	/**
+	 * @param instance of this class
+	 * @param context passed to its setContext
+	 */
+	public void setContext(Object instance, Object context) {
+		try {
+			setContext.invokeExact(instance, context);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("ExternalClass:  setContext of "+getName()+" failed", e);
+		}
+	}
+
+	/**
+	 * @param instance of this class
+	 * @return handle of type ()void that fires the instance; invoke with {@link #fire(MethodHandle)}
+	 */
+	public MethodHandle bindFire(Object instance) {
+		return fire.bindTo(instance);
+	}
+
+	/**
+	 * @param boundFire from {@link #bindFire(Object)}
+	 */
+	public static void fire(MethodHandle boundFire) {
+		try {
+			boundFire.invokeExact();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("ExternalClass:  external transition failed", e);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import uk.ac.imperial.pipe.runner.InterfaceException;
+
+/**
+ * Completion handle of one firing of an {@link AsyncExternalTransition}.
+ * Markings are collected by the thread that completes the action, and handed to the runner
+ * by {@link #complete()}; the runner applies them between rounds, on its own thread.
+ * A completion may be completed only once.
+ */
+public class ExternalCompletion {
+
+	private final AsyncPetriNetRunner runner;
+	private final int transition;
+	private final AtomicBoolean done;
+	private int[] slots;
+	private int[] counts;
+	private int size;
+
+	protected ExternalCompletion(AsyncPetriNetRunner runner, int transition) {
+		this.runner = runner;
+		this.transition = transition;
+		this.done = new AtomicBoolean(false);
+		this.slots = new int[2];
+		this.counts = new int[2];
+	}
+
+	/**
+	 * Requests a marking, applied when the runner receives this completion.
+	 * @param placeId
+	 * @param token
+	 * @param count
+	 * @throws InterfaceException if the net has no such place or token
+	 */
+	public void markPlace(String placeId, String token, int count) throws InterfaceException {
+		if (done.get()) {
+			throw new IllegalStateException("ExternalCompletion:  already completed");
+		}
+		int slot = runner.findSlot(placeId, token);
+		if (size == slots.length) {
+			slots = Arrays.copyOf(slots, size * 2);
+			counts = Arrays.copyOf(counts, size * 2);
+		}
+		slots[size] = slot;
+		counts[size] = count;
+		size++;
+	}
+
+	/**
+	 * Hands the markings to the runner; later calls are ignored.
+	 */
+	public void complete() {
+		if (done.compareAndSet(false, true)) {
+			runner.completed(this);
+		}
+	}
+
+	public boolean isDone() {
+		return done.get();
+	}
+
+	public String getTransitionId() {
+		return runner.getCompiledNet().getTransitionId(transition);
+	}
+
+	protected void apply(Marking marking) {
+		for (int i = 0; i < size; i++) {
+			marking.set(slots[i], counts[i]);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import uk.ac.imperial.pipe.runner.Firing;
+
+/**
+ * The transitions fired in one round of a runner with chain fusion, in order, and the marking they left.
+ * Markings after each transition are computed on request, by undoing the later transitions of the step
+ * from the boundary marking, so a step costs nothing beyond the array of transition indices unless a
+ * {@link ChainListener} asks for more.
+ */
+public class FusedStep {
+
+	private final CompiledNet net;
+	private final Marking marking;
+	private int[] transitions;
+	private int length;
+	private int round;
+	private long firstFiring;
+
+	public FusedStep(CompiledNet net, Marking marking) {
+		this.net = net;
+		this.marking = marking;
+	}
+
+	protected void set(int round, long firstFiring, int[] transitions, int length) {
+		this.round = round;
+		this.firstFiring = firstFiring;
+		this.transitions = transitions;
+		this.length = length;
+	}
+
+	public int getRound() {
+		return round;
+	}
+
+	/**
+	 * @return number of the first transition of the step among all transitions fired in the run, from 1;
+	 * the round it would have had without fusion
+	 */
+	public long getFirstFiring() {
+		return firstFiring;
+	}
+
+	/**
+	 * @return number of transitions fired in the step, at least 1
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @param i from 0 to {@link #getLength()} - 1
+	 * @return transition index
+	 */
+	public int getTransition(int i) {
+		return transitions[i];
+	}
+
+	public String getTransitionId(int i) {
+		return net.getTransitionId(transitions[i]);
+	}
+
+	/**
+	 * Copies the marking just after the i-th transition of the step.
+	 * @param i from 0 to {@link #getLength()} - 1; the last is the boundary marking
+	 * @param counts of at least {@link CompiledNet#getSlotCount()} slots
+	 */
+	public void getMarking(int i, int[] counts) {
+		marking.copyCounts(counts);
+		for (int j = length - 1; j > i; j--) {
+			int transition = transitions[j];
+			for (int k = net.getOutputStart()[transition]; k < net.getOutputStart()[transition + 1]; k++) {
+				counts[net.getOutputSlot()[k]] -= net.getOutputWeight()[k];
+			}
+			for (int k = net.getInputStart()[transition]; k < net.getInputStart()[transition + 1]; k++) {
+				counts[net.getInputSlot()[k]] += net.getInputWeight()[k];
+			}
+		}
+	}
+
+	/**
+	 * @param i from 0 to {@link #getLength()} - 1
+	 * @return the Firing PetriNetRunner would have reported for the i-th transition, in the same firing order
+	 */
+	public Firing getFiring(int i) {
+		int[] counts = new int[net.getSlotCount()];
+		getMarking(i, counts);
+		return new Firing((int) (firstFiring + i), getTransitionId(i), CompiledPetriNetRunner.buildState(net, counts));
+	}
+}
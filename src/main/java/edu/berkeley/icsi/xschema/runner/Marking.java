@@ -0,0 +1,361 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.Arrays;
+
+/**
+ * Token counts of one instance of a {@link CompiledNet}, with its set of enabled transitions.
+ * <p>
+ * The enabled set is maintained incrementally:  after a firing or a change to a place, only the transitions
+ * that depend on the touched places are re-evaluated.  Enabled transitions are counted per priority level,
+ * and indexed in a Fenwick tree ({@link EnabledSet}), so selecting the k-th enabled transition of the highest
+ * enabled level takes O(log n) time rather than a scan of every transition.
+ * For very wide nets, every transition can be evaluated at once by a {@link BatchEnabling}, when the marking is
+ * reset or many slots are set together.
+ * Timed transitions, in a net {@link CompiledNet#compileTimed compiled for timing}, are never selected;
+ * changes to their enabling are reported to an {@link EnablingListener} instead.
+ * <p>
+ * Not thread-safe; a Marking belongs to a single runner.
+ */
+public class Marking {
+
+	private final CompiledNet net;
+	private final int[] counts;
+	private final boolean[] enabled;
+	private final EnabledSet enabledSet;
+	private final int[] stamps;
+	private int epoch;
+	private final int timedStart;
+	private EnablingListener enablingListener;
+	private BatchEnabling batchEnabling;
+	private int batchThreshold;
+
+	public Marking(CompiledNet net) {
+		this(net, net.getInitialMarking());
+	}
+
+	public Marking(CompiledNet net, int[] counts) {
+		this.net = net;
+		this.counts = new int[net.getSlotCount()];
+		this.enabled = new boolean[net.getTransitionCount()];
+		this.enabledSet = new EnabledSet(net);
+		this.stamps = new int[net.getTransitionCount()];
+		timedStart = net.getTimedStart();
+		reset(counts);
+	}
+
+	/**
+	 * Replaces every token count, and re-evaluates every transition.
+	 * @param newCounts of {@link CompiledNet#getSlotCount()} slots
+	 */
+	public void reset(int[] newCounts) {
+		System.arraycopy(newCounts, 0, counts, 0, counts.length);
+		for (int transition = timedStart; transition < enabled.length; transition++) {
+			if (enabled[transition] && (enablingListener != null)) {
+				enablingListener.enablingChanged(transition, false);
+			}
+		}
+		Arrays.fill(enabled, false);
+		enabledSet.clear();
+		if (batchEnabling != null) {
+			refresh();
+			return;
+		}
+		for (int transition = 0; transition < enabled.length; transition++) {
+			update(transition);
+		}
+	}
+
+	/**
+	 * Re-evaluates every transition in one pass of the {@link BatchEnabling}, and applies the changes.
+	 */
+	private void refresh() {
+		long[] bits = batchEnabling.evaluate(this);
+		for (int transition = 0; transition < enabled.length; transition++) {
+			boolean now = BatchEnabling.isSet(bits, transition);
+			if (now != enabled[transition]) {
+				setEnabled(transition, now);
+			}
+		}
+	}
+
+	public int getCount(int slot) {
+		return counts[slot];
+	}
+
+	public int getCount(int place, int token) {
+		return counts[net.slot(place, token)];
+	}
+
+	/**
+	 * @param place
+	 * @return tokens of all types in the place
+	 */
+	public int getPlaceTotal(int place) {
+		int tokens = net.getTokenTypeCount();
+		int total = 0;
+		for (int slot = place * tokens; slot < (place + 1) * tokens; slot++) {
+			total += counts[slot];
+		}
+		return total;
+	}
+
+	/**
+	 * @return copy of the token counts
+	 */
+	public int[] getCounts() {
+		return Arrays.copyOf(counts, counts.length);
+	}
+
+	/**
+	 * Copies the token counts into an array, without allocating.
+	 * @param target of at least {@link CompiledNet#getSlotCount()} slots
+	 */
+	public void copyCounts(int[] target) {
+		System.arraycopy(counts, 0, target, 0, counts.length);
+	}
+
+	public CompiledNet getNet() {
+		return net;
+	}
+
+	/**
+	 * @param enablingListener told when a timed transition becomes enabled or disabled; null to remove
+	 */
+	public void setEnablingListener(EnablingListener enablingListener) {
+		this.enablingListener = enablingListener;
+	}
+
+	/**
+	 * Evaluates every transition at once, with a {@link BatchEnabling}, on {@link #reset(int[])} and when many
+	 * slots are set together with {@link #set(int[], int[], int)}, rather than one dependent at a time.
+	 * Worthwhile for very wide nets; firings are still evaluated incrementally.
+	 * @param batchEnabling for this marking's net; null to evaluate one transition at a time
+	 */
+	public void setBatchEnabling(BatchEnabling batchEnabling) {
+		this.batchEnabling = batchEnabling;
+		batchThreshold = Math.max(1, net.getPlaceCount() / 64);
+	}
+
+	public boolean isBatchEnabling() {
+		return batchEnabling != null;
+	}
+
+	/**
+	 * Sets the counts of several slots.  With {@link #setBatchEnabling(BatchEnabling) batch enabling}, and more
+	 * than one slot per 64 places, every transition is re-evaluated in one pass; otherwise, as by {@link #set(int, int)}.
+	 * @param slots
+	 * @param newCounts for each slot
+	 * @param length number of slots to set
+	 */
+	public void set(int[] slots, int[] newCounts, int length) {
+		if ((batchEnabling == null) || (length < batchThreshold)) {
+			for (int i = 0; i < length; i++) {
+				set(slots[i], newCounts[i]);
+			}
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			counts[slots[i]] = newCounts[i];
+		}
+		refresh();
+	}
+
+	/**
+	 * Sets the count of one slot, and updates the transitions that depend on its place.
+	 * @param slot
+	 * @param count
+	 */
+	public void set(int slot, int count) {
+		if (counts[slot] != count) {
+			counts[slot] = count;
+			nextEpoch();
+			updateDependents(slot / net.getTokenTypeCount());
+		}
+	}
+
+	/**
+	 * Adds tokens to one slot, and updates the transitions that depend on its place.
+	 * @param slot
+	 * @param delta may be negative, but the count may not go below zero
+	 */
+	public void add(int slot, int delta) {
+		set(slot, counts[slot] + delta);
+	}
+
+	public boolean isEnabled(int transition) {
+		return enabled[transition];
+	}
+
+	/**
+	 * @return true if the transition is enabled, and no transition of a higher priority level is;
+	 * false for timed transitions, which are not selected
+	 */
+	public boolean isFireable(int transition) {
+		if (!enabled[transition] || (transition >= timedStart)) {
+			return false;
+		}
+		return enabledSet.isTopLevel(net.getLevel(transition));
+	}
+
+	/**
+	 * @return number of enabled transitions at the highest enabled priority level; only these can fire
+	 */
+	public int getFireableCount() {
+		return enabledSet.getFireableCount();
+	}
+
+	/**
+	 * @return number of enabled transitions at any priority level
+	 */
+	public int getEnabledCount() {
+		return enabledSet.getEnabledCount();
+	}
+
+	/**
+	 * Selects a fireable transition by position, in transition index order.
+	 * @param k from 0 to {@link #getFireableCount()} - 1
+	 * @return transition index, or -1 if no transition is enabled
+	 */
+	public int select(int k) {
+		return enabledSet.select(k);
+	}
+
+	/**
+	 * Fires an enabled transition:  consumes its inputs, produces its outputs, and
+	 * re-evaluates only the transitions that depend on the places it touched.
+	 * External transition behavior is left to the caller.
+	 * @param transition
+	 */
+	public void fire(int transition) {
+		int[] inputStart = net.getInputStart();
+		int[] inputSlot = net.getInputSlot();
+		int[] inputWeight = net.getInputWeight();
+		int[] outputStart = net.getOutputStart();
+		int[] outputSlot = net.getOutputSlot();
+		int[] outputWeight = net.getOutputWeight();
+		for (int i = inputStart[transition]; i < inputStart[transition + 1]; i++) {
+			counts[inputSlot[i]] -= inputWeight[i];
+		}
+		for (int i = outputStart[transition]; i < outputStart[transition + 1]; i++) {
+			counts[outputSlot[i]] += outputWeight[i];
+		}
+		int tokens = net.getTokenTypeCount();
+		nextEpoch();
+		for (int i = inputStart[transition]; i < inputStart[transition + 1]; i++) {
+			updateDependents(inputSlot[i] / tokens);
+		}
+		for (int i = outputStart[transition]; i < outputStart[transition + 1]; i++) {
+			updateDependents(outputSlot[i] / tokens);
+		}
+	}
+
+	/**
+	 * Evaluates a transition against the current counts, without consulting the enabled set.
+	 * @param transition
+	 * @return true if the transition can fire
+	 */
+	public boolean evaluate(int transition) {
+		int[] start = net.getInputStart();
+		int[] slot = net.getInputSlot();
+		int[] weight = net.getInputWeight();
+		for (int i = start[transition]; i < start[transition + 1]; i++) {
+			if (counts[slot[i]] < weight[i]) {
+				return false;
+			}
+		}
+		start = net.getTestStart();
+		slot = net.getTestSlot();
+		weight = net.getTestWeight();
+		for (int i = start[transition]; i < start[transition + 1]; i++) {
+			if (counts[slot[i]] < weight[i]) {
+				return false;
+			}
+		}
+		start = net.getInhibitorStart();
+		int[] inhibitorPlace = net.getInhibitorPlace();
+		for (int i = start[transition]; i < start[transition + 1]; i++) {
+			if (getPlaceTotal(inhibitorPlace[i]) > 0) {
+				return false;
+			}
+		}
+		return withinCapacity(transition);
+	}
+
+	private boolean withinCapacity(int transition) {
+		int[] outputStart = net.getOutputStart();
+		int[] outputSlot = net.getOutputSlot();
+		int tokens = net.getTokenTypeCount();
+		for (int i = outputStart[transition]; i < outputStart[transition + 1]; i++) {
+			int place = outputSlot[i] / tokens;
+			int capacity = net.getCapacity(place);
+			if ((capacity > 0) && (getPlaceTotal(place) + netChange(transition, place) > capacity)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int netChange(int transition, int place) {
+		int tokens = net.getTokenTypeCount();
+		int change = 0;
+		int[] start = net.getOutputStart();
+		int[] slot = net.getOutputSlot();
+		int[] weight = net.getOutputWeight();
+		for (int i = start[transition]; i < start[transition + 1]; i++) {
+			if (slot[i] / tokens == place) {
+				change += weight[i];
+			}
+		}
+		start = net.getInputStart();
+		slot = net.getInputSlot();
+		weight = net.getInputWeight();
+		for (int i = start[transition]; i < start[transition + 1]; i++) {
+			if (slot[i] / tokens == place) {
+				change -= weight[i];
+			}
+		}
+		return change;
+	}
+
+	private void nextEpoch() {
+		epoch++;
+		if (epoch == 0) {
+			Arrays.fill(stamps, 0);
+			epoch = 1;
+		}
+	}
+
+	private void updateDependents(int place) {
+		int[] dependentStart = net.getDependentStart();
+		int[] dependents = net.getDependents();
+		for (int i = dependentStart[place]; i < dependentStart[place + 1]; i++) {
+			int transition = dependents[i];
+			if (stamps[transition] != epoch) {
+				stamps[transition] = epoch;
+				update(transition);
+			}
+		}
+	}
+
+	private void update(int transition) {
+		boolean now = evaluate(transition);
+		if (now != enabled[transition]) {
+			setEnabled(transition, now);
+		}
+	}
+
+	private void setEnabled(int transition, boolean now) {
+		enabled[transition] = now;
+		if (transition >= timedStart) {
+			if (enablingListener != null) {
+				enablingListener.enablingChanged(transition, now);
+			}
+			return;
+		}
+		if (now) {
+			enabledSet.add(transition);
+		} else {
+			enabledSet.remove(transition);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.imperial.pipe.models.petrinet.ArcType;
+import uk.ac.imperial.pipe.models.petrinet.ExecutablePetriNet;
+import uk.ac.imperial.pipe.models.petrinet.InboundArc;
+import uk.ac.imperial.pipe.models.petrinet.OutboundArc;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Token;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+/**
+ * The components a {@link CompiledNet} is compiled from, by id:  places, tokens, transitions and their arcs.
+ * Read from an ExecutablePetriNet, or assembled include by include by a {@link CompiledHierarchy}.
+ * Ids are those of the flattened net (e.g., "Grasp.Close_hand.Enabled"), which for a hierarchy
+ * are not the ids of the model components themselves.
+ */
+class NetDefinition {
+
+	protected final ExecutablePetriNet executablePetriNet;
+	protected final List<String> placeIds;
+	protected final List<Place> places;
+	protected final List<String> tokenIds;
+	protected final List<String> transitionIds;
+	protected final List<Transition> transitions;
+	protected final List<List<ArcDefinition>> inbound;
+	protected final List<List<ArcDefinition>> outbound;
+
+	public NetDefinition(ExecutablePetriNet executablePetriNet) {
+		this.executablePetriNet = executablePetriNet;
+		placeIds = new ArrayList<String>();
+		places = new ArrayList<Place>();
+		tokenIds = new ArrayList<String>();
+		transitionIds = new ArrayList<String>();
+		transitions = new ArrayList<Transition>();
+		inbound = new ArrayList<List<ArcDefinition>>();
+		outbound = new ArrayList<List<ArcDefinition>>();
+	}
+
+	public static NetDefinition of(ExecutablePetriNet executablePetriNet) {
+		NetDefinition definition = new NetDefinition(executablePetriNet);
+		for (Place place : executablePetriNet.getPlaces()) {
+			definition.addPlace(place.getId(), place);
+		}
+		for (Token token : executablePetriNet.getTokens()) {
+			definition.addToken(token.getId());
+		}
+		for (Transition transition : executablePetriNet.getTransitions()) {
+			List<ArcDefinition> in = new ArrayList<ArcDefinition>();
+			for (InboundArc arc : executablePetriNet.inboundArcs(transition)) {
+				in.add(new ArcDefinition(arc.getId(), arc.getSource().getId(), arc.getType(), arc.getTokenWeights()));
+			}
+			List<ArcDefinition> out = new ArrayList<ArcDefinition>();
+			for (OutboundArc arc : executablePetriNet.outboundArcs(transition)) {
+				out.add(new ArcDefinition(arc.getId(), arc.getTarget().getId(), arc.getType(), arc.getTokenWeights()));
+			}
+			definition.addTransition(transition.getId(), transition, in, out);
+		}
+		return definition;
+	}
+
+	public void addPlace(String placeId, Place place) {
+		placeIds.add(placeId);
+		places.add(place);
+	}
+
+	public void addToken(String tokenId) {
+		if (!tokenIds.contains(tokenId)) {
+			tokenIds.add(tokenId);
+		}
+	}
+
+	public void addTransition(String transitionId, Transition transition, List<ArcDefinition> in, List<ArcDefinition> out) {
+		transitionIds.add(transitionId);
+		transitions.add(transition);
+		inbound.add(Collections.unmodifiableList(in));
+		outbound.add(Collections.unmodifiableList(out));
+	}
+
+	/**
+	 * An arc between a transition and a place, by the flattened id of the place.
+	 */
+	static class ArcDefinition {
+		protected final String arcId;
+		protected final String placeId;
+		protected final ArcType type;
+		protected final Map<String, String> tokenWeights;
+
+		public ArcDefinition(String arcId, String placeId, ArcType type, Map<String, String> tokenWeights) {
+			this.arcId = arcId;
+			this.placeId = placeId;
+			this.type = type;
+			this.tokenWeights = tokenWeights;
+		}
+	}
+}
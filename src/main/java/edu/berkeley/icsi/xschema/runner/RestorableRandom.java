@@ -0,0 +1,55 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.Random;
+
+/**
+ * A java.util.Random whose state can be read and restored, so a run can be saved and resumed exactly.
+ * It uses the same linear congruential generator as Random, so a seed produces the same sequence
+ * as <code>new Random(seed)</code>, and the runs of {@link CompiledPetriNetRunner} match those of PetriNetRunner.
+ * <p>
+ * Only the generator state is restorable:  a pending second value of nextGaussian is not.
+ * Unlike Random, not thread-safe; it belongs to one runner.
+ */
+public class RestorableRandom extends Random {
+
+	private static final long serialVersionUID = 1L;
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+	// no initializer:  Random's constructor sets it through setSeed, before field initializers would run
+	private long state;
+
+	public RestorableRandom() {
+		super();
+	}
+
+	public RestorableRandom(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		state = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	@Override
+	protected int next(int bits) {
+		state = (state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+
+	/**
+	 * @return the 48 bits of generator state
+	 */
+	public long getState() {
+		return state;
+	}
+
+	/**
+	 * @param state from {@link #getState()}
+	 */
+	public void setState(long state) {
+		this.state = state & MASK;
+	}
+}
@@ -0,0 +1,23 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import uk.ac.imperial.pipe.runner.Firing;
+import uk.ac.imperial.pipe.state.State;
+
+/**
+ * A {@link Firing} with the simulated time at which it happened, the payload of
+ * {@link TimedPetriNetRunner#TIMED_STATE} events.
+ */
+public class TimedFiring extends Firing {
+
+	public final double time;
+
+	public TimedFiring(double time, int round, String transition, State state) {
+		super(round, transition, state);
+		this.time = time;
+	}
+
+	@Override
+	public String toString() {
+		return "TimedFiring: time "+time+" round "+round+" transition "+transition;
+	}
+}
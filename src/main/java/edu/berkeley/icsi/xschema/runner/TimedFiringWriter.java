@@ -0,0 +1,83 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uk.ac.imperial.pipe.runner.PetriNetRunner;
+import uk.ac.imperial.pipe.state.State;
+
+/**
+ * Writes the {@link TimedPetriNetRunner#TIMED_STATE} events of a run as CSV, in the layout of FiringWriter's
+ * report.csv with a leading column for simulated time:  "Time","Round","Transition", then the total tokens
+ * of each place, in place id order.  Closed when the runner reports {@link PetriNetRunner#EXECUTION_COMPLETED}.
+ */
+public class TimedFiringWriter implements PropertyChangeListener, Closeable {
+
+	private final Writer writer;
+	private String[] placeIds;
+
+	public TimedFiringWriter(String filename) throws IOException {
+		this(new BufferedWriter(new FileWriter(filename)));
+	}
+
+	public TimedFiringWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		try {
+			if (evt.getPropertyName().equals(TimedPetriNetRunner.TIMED_STATE)) {
+				TimedFiring firing = (TimedFiring) evt.getNewValue();
+				write(firing.time, firing.round, firing.transition, firing.state);
+			} else if (evt.getPropertyName().equals(PetriNetRunner.EXECUTION_COMPLETED)) {
+				close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("TimedFiringWriter:  unable to write report", e);
+		}
+	}
+
+	/**
+	 * Writes one row; the places of the first state written become the columns of the report.
+	 * @param time
+	 * @param round
+	 * @param transitionId fired this round, or "" for the initial state
+	 * @param state
+	 * @throws IOException
+	 */
+	public void write(double time, int round, String transitionId, State state) throws IOException {
+		if (placeIds == null) {
+			List<String> places = new ArrayList<String>(state.getPlaces());
+			Collections.sort(places);
+			placeIds = places.toArray(new String[places.size()]);
+			writer.write("\"Time\",\"Round\",\"Transition\"");
+			for (String placeId : placeIds) {
+				writer.write(",\""+placeId+"\"");
+			}
+			writer.write("\n");
+		}
+		writer.write(time+","+round+",\""+transitionId+"\"");
+		for (String placeId : placeIds) {
+			int total = 0;
+			for (Integer count : state.getTokens(placeId).values()) {
+				total += count;
+			}
+			writer.write(","+total);
+		}
+		writer.write("\n");
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
@@ -0,0 +1,166 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.Arrays;
+
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.PetriNetRunner;
+
+/**
+ * A {@link CompiledPetriNetRunner} for nets with timed transitions, as a discrete-event simulation in simulated time.
+ * <p>
+ * A timed transition is scheduled in an {@link EventQueue} when it becomes enabled, at the current time plus its
+ * delay, and its scheduled firing is cancelled if it is disabled first.  The delay is drawn from an exponential
+ * distribution with the rate of the transition, using the runner's random, or is fixed with
+ * {@link #setDelay(String, double)}.  Each round fires one of the fireable immediate transitions, as
+ * CompiledPetriNetRunner does; only when none is fireable does time advance, to the earliest scheduled firing.
+ * Scheduling and cancelling take O(log n) time in the number of scheduled transitions.
+ * <p>
+ * Timed transitions have single-server semantics:  a transition that is still enabled after it fires is scheduled
+ * again, with a new delay; {@link uk.ac.imperial.pipe.models.petrinet.Transition#isInfiniteServer()} is ignored.
+ * Rates must be plain positive numbers; see {@link CompiledNet#compileTimed(PetriNet)}.
+ * <p>
+ * Listeners receive the usual {@link PetriNetRunner#UPDATED_STATE} events, and, if registered for them,
+ * {@link #TIMED_STATE} events with a {@link TimedFiring}, e.g., for a {@link TimedFiringWriter}.
+ * Chain fusion is not supported, and the simulated time is not part of a snapshot.
+ */
+public class TimedPetriNetRunner extends CompiledPetriNetRunner implements EnablingListener {
+
+	public static final String TIMED_STATE = "timed state";
+	private final EventQueue events;
+	private final double[] delays;
+	private double time;
+	private double timeLimit;
+
+	public TimedPetriNetRunner(PetriNet petriNet) {
+		this(CompiledNet.compileTimed(petriNet));
+	}
+
+	public TimedPetriNetRunner(IncludeHierarchy includes) {
+		this(CompiledNet.compileTimed(includes));
+	}
+
+	/**
+	 * @param net compiled with {@link CompiledNet#compileTimed(PetriNet)}; may be shared with other runners
+	 */
+	public TimedPetriNetRunner(CompiledNet net) {
+		super(net);
+		events = new EventQueue(net.getTransitionCount());
+		delays = new double[net.getTransitionCount()];
+		Arrays.fill(delays, -1);
+		timeLimit = Double.POSITIVE_INFINITY;
+		marking.setEnablingListener(this);
+	}
+
+	/**
+	 * Replaces the exponential delay of a timed transition with a fixed delay.
+	 * @param transitionId
+	 * @param delay in simulated time, not negative
+	 */
+	public void setDelay(String transitionId, double delay) {
+		int transition = net.transitionIndex(transitionId);
+		if ((transition < 0) || !net.isTimed(transition)) {
+			throw new IllegalArgumentException("TimedPetriNetRunner:  "+transitionId+" is not a timed transition");
+		}
+		if (delay < 0) {
+			throw new IllegalArgumentException("TimedPetriNetRunner:  delay for "+transitionId+" may not be negative: "+delay);
+		}
+		delays[transition] = delay;
+	}
+
+	/**
+	 * @param timeLimit the run ends before any firing scheduled after this time
+	 */
+	public void setTimeLimit(double timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	/**
+	 * @return simulated time of the latest firing
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * @return number of timed transitions scheduled to fire
+	 */
+	public int getScheduledCount() {
+		return events.size();
+	}
+
+	@Override
+	public void enablingChanged(int transition, boolean enabled) {
+		if (enabled) {
+			events.schedule(transition, time + delay(transition));
+		} else {
+			events.cancel(transition);
+		}
+	}
+
+	private double delay(int transition) {
+		if (delays[transition] >= 0) {
+			return delays[transition];
+		}
+		return -Math.log(1 - random.nextDouble()) / net.getRate(transition);
+	}
+
+	@Override
+	protected void start() {
+		events.clear();
+		time = 0;
+		super.start();
+	}
+
+	@Override
+	protected boolean step() {
+		applyPendingMarkings();
+		int fireable = marking.getFireableCount();
+		while ((fireable == 0) && events.isEmpty()) {
+			if (!awaitInput()) {
+				return false;
+			}
+			applyPendingMarkings();
+			fireable = marking.getFireableCount();
+		}
+		int transition;
+		if (fireable > 0) {
+			transition = marking.select(random.nextInt(fireable));
+		} else {
+			if (events.peekTime() > timeLimit) {
+				return false;
+			}
+			time = events.peekTime();
+			transition = events.poll();
+		}
+		measureFiring(transition);
+		fire(transition);
+		firings++;
+		round++;
+		if (net.isTimed(transition) && marking.isEnabled(transition)) {
+			events.schedule(transition, time + delay(transition));
+		}
+		report(net.getTransitionId(transition));
+		measureListeners();
+		return true;
+	}
+
+	@Override
+	protected void report(String transitionId) {
+		super.report(transitionId);
+		if (changeSupport.hasListeners(TIMED_STATE)) {
+			changeSupport.firePropertyChange(TIMED_STATE, null, new TimedFiring(time, round, transitionId, buildState()));
+		}
+	}
+
+	/**
+	 * Not supported; timed transitions would have to be fired within a chain.
+	 * @throws IllegalArgumentException if chainFusion is true
+	 */
+	@Override
+	public void setChainFusion(boolean chainFusion) {
+		if (chainFusion) {
+			throw new IllegalArgumentException("TimedPetriNetRunner:  chain fusion is not supported");
+		}
+	}
+}
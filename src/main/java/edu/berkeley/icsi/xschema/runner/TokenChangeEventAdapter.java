@@ -0,0 +1,49 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.ac.imperial.pipe.models.petrinet.Place;
+
+/**
+ * Delivers {@link TokenListener} changes to a PropertyChangeListener, as {@link Place#TOKEN_CHANGE_MESSAGE} events
+ * from the Place, with maps of token id to count as old and new values, as PetriNetRunner does.
+ * This allocates an event and two maps per change; listeners on busy places should implement TokenListener instead.
+ */
+public class TokenChangeEventAdapter implements TokenListener {
+
+	private final CompiledNet net;
+	private final PropertyChangeListener listener;
+	private final int[] last;
+
+	public TokenChangeEventAdapter(CompiledNet net, PropertyChangeListener listener) {
+		this.net = net;
+		this.listener = listener;
+		this.last = new int[net.getTokenTypeCount()];
+	}
+
+	@Override
+	public void tokensChanged(int place, int token, int count) {
+		Map<String, Integer> oldCounts = counts();
+		last[token] = count;
+		listener.propertyChange(new PropertyChangeEvent(net.getPlace(place), Place.TOKEN_CHANGE_MESSAGE, oldCounts, counts()));
+	}
+
+	/**
+	 * Called by the runner when a run starts, so the first event has the right old values.
+	 * @param counts current counts of the place, by token index
+	 */
+	public void reset(int[] counts) {
+		System.arraycopy(counts, 0, last, 0, last.length);
+	}
+
+	private Map<String, Integer> counts() {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int token = 0; token < last.length; token++) {
+			counts.put(net.getTokenId(token), last[token]);
+		}
+		return counts;
+	}
+}
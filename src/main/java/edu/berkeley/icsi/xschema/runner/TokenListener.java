@@ -0,0 +1,18 @@
+package edu.berkeley.icsi.xschema.runner;
+
+/**
+ * Receives token changes of a place by index, without allocation:  no event object, and no map of counts.
+ * Place and token indices are those of the {@link CompiledNet}.
+ * Called on the runner thread, once per changed token of the place, after each round.
+ * <p>
+ * Registered with {@link CompiledPetriNetRunner#listenForTokenChanges(TokenListener, String)}.
+ */
+public interface TokenListener {
+
+	/**
+	 * @param place index
+	 * @param token index
+	 * @param count new count of the token in the place
+	 */
+	public void tokensChanged(int place, int token, int count);
+}
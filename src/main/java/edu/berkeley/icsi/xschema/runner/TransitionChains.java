@@ -0,0 +1,98 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import java.util.Arrays;
+
+/**
+ * The deterministic chains of immediate transitions of a {@link CompiledNet}, such as T0 &rarr; T1 &rarr; T2
+ * of buildBasicNet:  a transition links to the next when all its outputs go to one place, and that place is
+ * read by exactly one other transition, and by no inhibitor arc.  Firing the next transition right after
+ * the first is then one of the orders the runner could have chosen, and nothing else competes for the tokens.
+ * <p>
+ * External transitions end a chain:  their classes may request markings, which are applied at the next round.
+ * Whether a link actually fires is decided when the chain runs, by whether it is fireable then.
+ */
+public class TransitionChains {
+
+	private final CompiledNet net;
+	private final int[] next;
+
+	public TransitionChains(CompiledNet net) {
+		this.net = net;
+		int transitions = net.getTransitionCount();
+		int[] readers = new int[net.getSlotCount()];
+		int[] reader = new int[net.getSlotCount()];
+		Arrays.fill(reader, -1);
+		count(net.getInputStart(), net.getInputSlot(), readers, reader, transitions);
+		count(net.getTestStart(), net.getTestSlot(), readers, reader, transitions);
+		boolean[] inhibiting = new boolean[net.getPlaceCount()];
+		for (int i = 0; i < net.getInhibitorStart()[transitions]; i++) {
+			inhibiting[net.getInhibitorPlace()[i]] = true;
+		}
+		int tokens = net.getTokenTypeCount();
+		next = new int[transitions];
+		for (int t = 0; t < transitions; t++) {
+			next[t] = -1;
+			int start = net.getOutputStart()[t];
+			int end = net.getOutputStart()[t + 1];
+			if (net.isExternal(t) || (start == end)) {
+				continue;
+			}
+			int slot = net.getOutputSlot()[start];
+			boolean onePlace = true;
+			for (int i = start + 1; i < end; i++) {
+				onePlace &= (net.getOutputSlot()[i] == slot);
+			}
+			if (onePlace && (readers[slot] == 1) && (reader[slot] != t) && !inhibiting[slot / tokens]) {
+				next[t] = reader[slot];
+			}
+		}
+	}
+
+	private static void count(int[] start, int[] slots, int[] readers, int[] reader, int transitions) {
+		for (int t = 0; t < transitions; t++) {
+			for (int i = start[t]; i < start[t + 1]; i++) {
+				if (reader[slots[i]] != t) {
+					readers[slots[i]]++;
+					reader[slots[i]] = t;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param transition
+	 * @return the transition that follows it in its chain, or -1 if it ends a chain
+	 */
+	public int next(int transition) {
+		return next[transition];
+	}
+
+	/**
+	 * @return number of transitions that link to a next one
+	 */
+	public int getLinkCount() {
+		int links = 0;
+		for (int transition : next) {
+			if (transition >= 0) {
+				links++;
+			}
+		}
+		return links;
+	}
+
+	/**
+	 * @param transition
+	 * @return number of transitions in the chain from the transition on, at most the transition count for a cycle
+	 */
+	public int getChainLength(int transition) {
+		int length = 1;
+		for (int link = next[transition]; (link >= 0) && (length < next.length); link = next[link]) {
+			length++;
+		}
+		return length;
+	}
+
+	public CompiledNet getCompiledNet() {
+		return net;
+	}
+}
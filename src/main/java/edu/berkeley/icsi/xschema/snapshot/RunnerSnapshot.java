@@ -0,0 +1,329 @@
+package edu.berkeley.icsi.xschema.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.json.Json;
+
+import uk.ac.imperial.pipe.runner.JsonParameters;
+import edu.berkeley.icsi.xschema.parameters.ParameterStore;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+/**
+ * The state of a {@link CompiledPetriNetRunner} between rounds, as a compact binary image:  the marking,
+ * the round and the count of firings, the state of the random number generator, markings requested but not yet applied,
+ * and the JSON contexts of external transitions.
+ * <p>
+ * An image can be written to a file and memory-mapped when read back, so a controller can resume a run
+ * after a restart without replaying it.  Any number of runners can be restored or {@link #fork(CompiledNet) forked}
+ * from one image, e.g., to run what-if continuations from the round before "Grasp.Close_hand.Suspend";
+ * with the same seed state, a restored runner fires the same sequence the original would have.
+ * <p>
+ * Contexts that are {@link ParameterStore}s or JsonParameters are saved as JSON; of JsonParameters, only the
+ * parameters of its active transition, keyed by that transition.  A store shared by several transitions is restored as one store.
+ * Other contexts cannot be saved, and must be set again after a restore.
+ * <p>
+ * The image layout, all values big-endian:
+ * <pre>
+ * int magic, byte version, int net fingerprint, int round, long firings, long random state,
+ * int slots, int[slots] counts, int pending, int[2 * pending] (slot, count),
+ * int contexts, per context:  int transition, byte kind, then for a shared context int earlier transition,
+ * otherwise string active transition, string JSON; a string is int length (-1 for null) and UTF-8 bytes
+ * </pre>
+ */
+public class RunnerSnapshot {
+
+	public static final int MAGIC = 0x58534e50;
+	public static final byte VERSION = 2;
+	public static final byte PARAMETER_STORE = 1;
+	public static final byte JSON_PARAMETERS = 2;
+	public static final byte SHARED = 3;
+	private static final int FINGERPRINT = 5;
+	private static final int ROUND = 9;
+	private static final int FIRINGS = 13;
+	private static final int RANDOM = 21;
+	private static final int SLOTS = 29;
+	private static final int COUNTS = 33;
+	private final ByteBuffer image;
+
+	private RunnerSnapshot(ByteBuffer image) {
+		this.image = image;
+		if (image.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("RunnerSnapshot:  not a runner snapshot");
+		}
+		if (image.get(4) != VERSION) {
+			throw new IllegalArgumentException("RunnerSnapshot:  unsupported snapshot version "+image.get(4));
+		}
+	}
+
+	/**
+	 * Captures the state of a runner between rounds, e.g., after a run that reached its firing limit.
+	 * @param runner
+	 * @return snapshot, held in memory
+	 */
+	public static RunnerSnapshot capture(CompiledPetriNetRunner runner) {
+		CompiledNet net = runner.getCompiledNet();
+		int[] counts = runner.getMarking().getCounts();
+		int[] pending = runner.getPendingMarkings();
+		byte[][] strings = new byte[2 * net.getTransitionCount()][];
+		byte[] kinds = new byte[net.getTransitionCount()];
+		int[] sharedWith = new int[net.getTransitionCount()];
+		int contexts = 0;
+		int stringBytes = 0;
+		Map<Object, Integer> seen = new IdentityHashMap<Object, Integer>();
+		for (int transition = 0; transition < net.getTransitionCount(); transition++) {
+			Object context = runner.getTransitionContext(transition);
+			if (seen.containsKey(context)) {
+				kinds[transition] = SHARED;
+				sharedWith[transition] = seen.get(context);
+			} else if (context instanceof ParameterStore) {
+				ParameterStore store = (ParameterStore) context;
+				kinds[transition] = PARAMETER_STORE;
+				strings[2 * transition] = bytes(store.getActiveTransitionId());
+				strings[2 * transition + 1] = bytes(store.toString());
+			} else if (context instanceof JsonParameters) {
+				JsonParameters parameters = (JsonParameters) context;
+				String activeId = parameters.getActiveTransition().getTransitionId();
+				kinds[transition] = JSON_PARAMETERS;
+				strings[2 * transition] = bytes(activeId);
+				strings[2 * transition + 1] = bytes(Json.createObjectBuilder().add(ParameterStore.TRANSITIONS,
+						Json.createObjectBuilder().add(activeId, parameters.getActiveTransition().getJsonObject())).build().toString());
+			} else {
+				continue;
+			}
+			if (kinds[transition] != SHARED) {
+				seen.put(context, transition);
+				stringBytes += length(strings[2 * transition]) + length(strings[2 * transition + 1]);
+			}
+			contexts++;
+		}
+		int size = COUNTS + 4 * counts.length + 4 + 4 * pending.length + 4 + contexts * (4 + 1 + 8) + stringBytes;
+		ByteBuffer image = ByteBuffer.allocate(size);
+		image.putInt(MAGIC).put(VERSION).putInt(fingerprint(net)).putInt(runner.getRound()).putLong(runner.getFirings());
+		image.putLong(runner.getRandom().getState());
+		image.putInt(counts.length);
+		image.asIntBuffer().put(counts);
+		image.position(COUNTS + 4 * counts.length);
+		image.putInt(pending.length / 2);
+		for (int value : pending) {
+			image.putInt(value);
+		}
+		image.putInt(contexts);
+		for (int transition = 0; transition < net.getTransitionCount(); transition++) {
+			if (kinds[transition] == 0) {
+				continue;
+			}
+			image.putInt(transition).put(kinds[transition]);
+			if (kinds[transition] == SHARED) {
+				image.putInt(sharedWith[transition]);
+			} else {
+				putString(image, strings[2 * transition]);
+				putString(image, strings[2 * transition + 1]);
+			}
+		}
+		image.flip();
+		return new RunnerSnapshot(image.slice());
+	}
+
+	/**
+	 * Maps a snapshot file into memory; the file is read as the snapshot is restored.
+	 * @param path
+	 * @return snapshot
+	 * @throws IOException
+	 */
+	public static RunnerSnapshot read(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new RunnerSnapshot(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @param image as written by {@link #write(Path)}
+	 * @return snapshot over the buffer, which is not copied
+	 */
+	public static RunnerSnapshot wrap(ByteBuffer image) {
+		return new RunnerSnapshot(image.slice());
+	}
+
+	/**
+	 * @param path
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		try {
+			ByteBuffer buffer = image.duplicate();
+			buffer.clear();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Restores the state into a runner over the same net, to be continued with {@link CompiledPetriNetRunner#resume()}.
+	 * Saved contexts are set with {@link CompiledPetriNetRunner#setTransitionContext(String, Object)}, so also on the
+	 * external transitions of the model.
+	 * @param runner
+	 */
+	public void restore(CompiledPetriNetRunner runner) {
+		Object[] restored = restoreState(runner);
+		for (int transition = 0; transition < restored.length; transition++) {
+			if (restored[transition] != null) {
+				runner.setTransitionContext(runner.getCompiledNet().getTransitionId(transition), restored[transition]);
+			}
+		}
+	}
+
+	/**
+	 * Restores the state into a new, {@link CompiledPetriNetRunner#setDetached(boolean) detached} runner over a shared net.
+	 * Forks may run concurrently:  each fires its own instances of the external classes, with its own copies of the saved
+	 * contexts, and the contexts of the shared model are left untouched.
+	 * @param net the net the snapshot was taken of
+	 * @return runner, to be continued with {@link CompiledPetriNetRunner#resume()}
+	 */
+	public CompiledPetriNetRunner fork(CompiledNet net) {
+		Fork runner = new Fork(net);
+		runner.setDetached(true);
+		Object[] restored = restoreState(runner);
+		for (int transition = 0; transition < restored.length; transition++) {
+			if (restored[transition] != null) {
+				runner.restoreContext(transition, restored[transition]);
+			}
+		}
+		return runner;
+	}
+
+	/**
+	 * @return restored contexts, by transition index; null for transitions without a saved context
+	 */
+	private Object[] restoreState(CompiledPetriNetRunner runner) {
+		CompiledNet net = runner.getCompiledNet();
+		if ((image.getInt(FINGERPRINT) != fingerprint(net)) || (image.getInt(SLOTS) != net.getSlotCount())) {
+			throw new IllegalArgumentException("RunnerSnapshot:  snapshot was taken of a different net");
+		}
+		ByteBuffer buffer = image.duplicate();
+		buffer.position(COUNTS);
+		int[] counts = new int[net.getSlotCount()];
+		IntBuffer countBuffer = buffer.asIntBuffer();
+		countBuffer.get(counts);
+		buffer.position(COUNTS + 4 * counts.length);
+		int[] pending = new int[2 * buffer.getInt()];
+		for (int i = 0; i < pending.length; i++) {
+			pending[i] = buffer.getInt();
+		}
+		runner.restore(counts, getRound(), getFirings(), image.getLong(RANDOM), pending);
+		Object[] restored = new Object[net.getTransitionCount()];
+		int contexts = buffer.getInt();
+		for (int i = 0; i < contexts; i++) {
+			int transition = buffer.getInt();
+			byte kind = buffer.get();
+			if (kind == SHARED) {
+				restored[transition] = restored[buffer.getInt()];
+			} else {
+				String active = getString(buffer);
+				String json = getString(buffer);
+				if (kind == PARAMETER_STORE) {
+					ParameterStore store = new ParameterStore(json);
+					store.setActiveTransition(active);
+					restored[transition] = store;
+				} else {
+					JsonParameters parameters = new JsonParameters(json);
+					parameters.setActiveTransition(active);
+					restored[transition] = parameters;
+				}
+			}
+		}
+		return restored;
+	}
+
+	public int getRound() {
+		return image.getInt(ROUND);
+	}
+
+	/**
+	 * @return firings of the runner up to the snapshot; more than the round when chains were fused
+	 */
+	public long getFirings() {
+		return image.getLong(FIRINGS);
+	}
+
+	/**
+	 * @return size of the image in bytes
+	 */
+	public int size() {
+		return image.limit();
+	}
+
+	/**
+	 * @return hash of the place, token and transition ids of the net, in index order
+	 */
+	public static int fingerprint(CompiledNet net) {
+		int hash = 1;
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			hash = 31 * hash + net.getPlaceId(place).hashCode();
+		}
+		for (int token = 0; token < net.getTokenTypeCount(); token++) {
+			hash = 31 * hash + net.getTokenId(token).hashCode();
+		}
+		for (int transition = 0; transition < net.getTransitionCount(); transition++) {
+			hash = 31 * hash + net.getTransitionId(transition).hashCode();
+		}
+		return hash;
+	}
+
+	private static byte[] bytes(String value) {
+		return (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int length(byte[] bytes) {
+		return (bytes == null) ? 0 : bytes.length;
+	}
+
+	private static void putString(ByteBuffer buffer, byte[] bytes) {
+		if (bytes == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(bytes.length).put(bytes);
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A runner whose contexts are bound to its own instances of the external classes only.
+	 */
+	private static class Fork extends CompiledPetriNetRunner {
+
+		public Fork(CompiledNet net) {
+			super(net);
+		}
+
+		private void restoreContext(int transition, Object context) {
+			bindContext(transition, context);
+		}
+	}
+}
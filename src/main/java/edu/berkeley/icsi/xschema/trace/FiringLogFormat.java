@@ -0,0 +1,58 @@
+package edu.berkeley.icsi.xschema.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the binary firing log written by {@link FiringLogWriter} and read by {@link FiringLogReader}.
+ * <pre>
+ * header:      MAGIC (int), VERSION (byte), place count (varint), place ids (varint length + UTF-8 bytes)
+ * transition:  TRANSITION (byte), index (varint), id (varint length + UTF-8 bytes) -- first use of an id only
+ * round:       ROUND (byte), round (varint), transition index + 1 (varint, 0 for no transition),
+ *              changed places (varint), then per changed place:  index gap (varint), count change (zigzag varint)
+ * end:         END (byte)
+ * </pre>
+ * Place counts are the total tokens in each place, in place id order, the columns of report.csv.
+ * Each round record holds only the places whose count changed since the previous record.
+ */
+final class FiringLogFormat {
+
+	static final int MAGIC = 0x58464c47; // "XFLG"
+	static final byte VERSION = 1;
+	static final byte END = 0;
+	static final byte TRANSITION = 1;
+	static final byte ROUND = 2;
+	static final int MAX_VARINT_BYTES = 5;
+
+	private FiringLogFormat() {
+	}
+
+	static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7f) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static void putZigzag(ByteBuffer buffer, int value) {
+		putVarint(buffer, (value << 1) ^ (value >> 31));
+	}
+
+	static int getVarint(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("FiringLogFormat:  malformed varint");
+	}
+
+	static int getZigzag(ByteBuffer buffer) throws IOException {
+		int value = getVarint(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
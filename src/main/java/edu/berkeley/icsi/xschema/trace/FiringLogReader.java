@@ -0,0 +1,260 @@
+package edu.berkeley.icsi.xschema.trace;
+
+import static edu.berkeley.icsi.xschema.trace.FiringLogFormat.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a log written by {@link FiringLogWriter}, one round at a time, in constant memory
+ * (the current place counts, and the transition ids seen so far).
+ * Each round can be formatted as the row FiringWriter writes to report.csv, so
+ * <code>FiringLogReader.readLines("report.log")</code> replaces reading report.csv into a line list,
+ * or the rounds can be replayed through a {@link TraceStream} to answer queries without formatting them.
+ */
+public class FiringLogReader implements TraceRound, Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private final FileChannel channel;
+	private ByteBuffer buffer;
+	private final String[] placeIds;
+	private final int[] counts;
+	private final List<String> transitionIds;
+	private int round;
+	private int transition;
+	private boolean ended;
+
+	public FiringLogReader(String filename) throws IOException {
+		this(Paths.get(filename));
+	}
+
+	public FiringLogReader(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+		buffer.flip();
+		fill(4 + 1);
+		if (buffer.getInt() != MAGIC) {
+			channel.close();
+			throw new IOException("FiringLogReader:  "+path+" is not a firing log");
+		}
+		byte version = buffer.get();
+		if (version != VERSION) {
+			channel.close();
+			throw new IOException("FiringLogReader:  unsupported firing log version "+version);
+		}
+		fill(MAX_VARINT_BYTES);
+		placeIds = new String[getVarint(buffer)];
+		for (int place = 0; place < placeIds.length; place++) {
+			placeIds[place] = readString();
+		}
+		counts = new int[placeIds.length];
+		transitionIds = new ArrayList<String>();
+		transitionIds.add("");
+		round = -1;
+	}
+
+	/**
+	 * Reads the complete log as the lines of report.csv:  the header, then one line per round.
+	 * @param filename of the log
+	 * @return lines
+	 * @throws IOException
+	 */
+	public static List<String> readLines(String filename) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		FiringLogReader reader = new FiringLogReader(filename);
+		try {
+			lines.add(reader.headerLine());
+			while (reader.next()) {
+				lines.add(reader.line());
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	/**
+	 * Advances to the next round.
+	 * @return false at the end of the log
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		while (!ended) {
+			fill(1);
+			if (!buffer.hasRemaining()) {
+				ended = true;
+				break;
+			}
+			byte type = buffer.get();
+			switch (type) {
+			case END:
+				ended = true;
+				break;
+			case TRANSITION:
+				fill(MAX_VARINT_BYTES);
+				int index = getVarint(buffer);
+				String id = readString();
+				if (index != transitionIds.size()) {
+					throw new IOException("FiringLogReader:  transition "+id+" out of sequence");
+				}
+				transitionIds.add(id);
+				break;
+			case ROUND:
+				readRound();
+				return true;
+			default:
+				throw new IOException("FiringLogReader:  unknown record type "+type);
+			}
+		}
+		return false;
+	}
+
+	private void readRound() throws IOException {
+		fill(3 * MAX_VARINT_BYTES);
+		round = getVarint(buffer);
+		transition = getVarint(buffer);
+		int changed = getVarint(buffer);
+		int place = 0;
+		for (int i = 0; i < changed; i++) {
+			fill(2 * MAX_VARINT_BYTES);
+			place += getVarint(buffer);
+			counts[place] += getZigzag(buffer);
+		}
+	}
+
+	private String readString() throws IOException {
+		fill(MAX_VARINT_BYTES);
+		int length = getVarint(buffer);
+		if (length > buffer.capacity()) {
+			ByteBuffer larger = ByteBuffer.allocateDirect(length);
+			larger.put(buffer);
+			larger.flip();
+			buffer = larger;
+		}
+		fill(length);
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Makes at least the requested bytes available in the buffer, unless the end of the file is reached first.
+	 */
+	private void fill(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+	}
+
+	public String[] getPlaceIds() {
+		return placeIds.clone();
+	}
+
+	@Override
+	public int getPlaceCount() {
+		return placeIds.length;
+	}
+
+	@Override
+	public String getPlaceId(int place) {
+		return placeIds[place];
+	}
+
+	@Override
+	public int placeIndex(String placeId) {
+		for (int place = 0; place < placeIds.length; place++) {
+			if (placeIds[place].equals(placeId)) {
+				return place;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int getRound() {
+		return round;
+	}
+
+	/**
+	 * @return index of the transition fired this round, in order of first firing from 1; 0 for no transition
+	 */
+	public int getTransitionIndex() {
+		return transition;
+	}
+
+	/**
+	 * @return id of the transition fired this round, or "" for the initial state
+	 */
+	@Override
+	public String getTransitionId() {
+		return transitionIds.get(transition);
+	}
+
+	/**
+	 * @param place index, in place id order
+	 * @return total tokens in the place after this round
+	 */
+	@Override
+	public int getCount(int place) {
+		return counts[place];
+	}
+
+	/**
+	 * @return the header line of report.csv
+	 */
+	public String headerLine() {
+		StringBuilder sb = new StringBuilder("\"Round\",\"Transition\"");
+		for (String placeId : placeIds) {
+			sb.append(",\"").append(placeId).append("\"");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the line of report.csv for the current round
+	 */
+	public String line() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(round).append(",\"").append(getTransitionId()).append("\"");
+		for (int count : counts) {
+			sb.append(",").append(count);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the rest of the log as report.csv, header first.
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeCsv(Writer writer) throws IOException {
+		writer.write(headerLine());
+		writer.write("\n");
+		while (next()) {
+			writer.write(line());
+			writer.write("\n");
+		}
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,208 @@
+package edu.berkeley.icsi.xschema.trace;
+
+import static edu.berkeley.icsi.xschema.trace.FiringLogFormat.*;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.imperial.pipe.runner.Firing;
+import uk.ac.imperial.pipe.runner.PetriNetRunner;
+import uk.ac.imperial.pipe.state.State;
+
+/**
+ * A faster, smaller alternative to FiringWriter:  listens to a runner, and writes each round to a binary log
+ * as the round number, the index of the transition fired and only the places whose token count changed.
+ * Records are collected in a buffer and written to the file channel in batches; the log is closed
+ * when the runner reports {@link PetriNetRunner#EXECUTION_COMPLETED}.
+ * <p>
+ * {@link FiringLogReader} reads the log back, and can rebuild the rows of report.csv.
+ * The log format is described in {@link FiringLogFormat}.
+ */
+public class FiringLogWriter implements PropertyChangeListener, Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_ENTRY_BYTES = 2 * MAX_VARINT_BYTES;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final Map<String, Integer> transitionIndex;
+	private String[] placeIds;
+	private int[] counts;
+	private int[] scratch;
+	private boolean closed;
+
+	public FiringLogWriter(String filename) throws IOException {
+		this(Paths.get(filename), DEFAULT_BUFFER_SIZE);
+	}
+
+	public FiringLogWriter(Path path, int bufferSize) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 64));
+		transitionIndex = new HashMap<String, Integer>();
+	}
+
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		try {
+			if (evt.getPropertyName().equals(PetriNetRunner.UPDATED_STATE)) {
+				Firing firing = (Firing) evt.getNewValue();
+				write(firing.round, firing.transition, firing.state);
+			} else if (evt.getPropertyName().equals(PetriNetRunner.EXECUTION_COMPLETED)) {
+				close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("FiringLogWriter:  unable to write firing log", e);
+		}
+	}
+
+	/**
+	 * Writes one round from a pipe-core State; the places of the first state written become the columns of the log.
+	 * @param round
+	 * @param transitionId fired this round, or "" for the initial state
+	 * @param state
+	 * @throws IOException
+	 */
+	public void write(int round, String transitionId, State state) throws IOException {
+		if (placeIds == null) {
+			List<String> places = new ArrayList<String>(state.getPlaces());
+			Collections.sort(places);
+			start(places.toArray(new String[places.size()]));
+		}
+		for (int place = 0; place < placeIds.length; place++) {
+			int total = 0;
+			for (Integer count : state.getTokens(placeIds[place]).values()) {
+				total += count;
+			}
+			scratch[place] = total;
+		}
+		write(round, transitionId, scratch);
+	}
+
+	/**
+	 * Writes the header; needed only when rounds are written directly with {@link #write(int, String, int[])}.
+	 * @param placeIds in column order
+	 * @throws IOException
+	 */
+	public void start(String[] placeIds) throws IOException {
+		if (this.placeIds != null) {
+			throw new IllegalStateException("FiringLogWriter:  log already started");
+		}
+		this.placeIds = placeIds;
+		counts = new int[placeIds.length];
+		scratch = new int[placeIds.length];
+		ensure(4 + 1 + MAX_VARINT_BYTES);
+		buffer.putInt(MAGIC);
+		buffer.put(VERSION);
+		putVarint(buffer, placeIds.length);
+		for (String placeId : placeIds) {
+			putString(placeId);
+		}
+	}
+
+	/**
+	 * Writes one round, with only the places whose counts differ from the previous round.
+	 * @param round
+	 * @param transitionId fired this round, or "" for the initial state
+	 * @param placeCounts total tokens per place, in column order; not retained
+	 * @throws IOException
+	 * @throws IllegalStateException if the log has not been started with {@link #start(String[])}
+	 */
+	public void write(int round, String transitionId, int[] placeCounts) throws IOException {
+		if (placeIds == null) {
+			throw new IllegalStateException("FiringLogWriter:  start(String[]) must be called before writing rounds directly");
+		}
+		int transition = indexOf(transitionId);
+		int changed = 0;
+		for (int place = 0; place < counts.length; place++) {
+			if (placeCounts[place] != counts[place]) {
+				changed++;
+			}
+		}
+		ensure(1 + 3 * MAX_VARINT_BYTES);
+		buffer.put(ROUND);
+		putVarint(buffer, round);
+		putVarint(buffer, transition);
+		putVarint(buffer, changed);
+		int previous = 0;
+		for (int place = 0; place < counts.length; place++) {
+			if (placeCounts[place] != counts[place]) {
+				ensure(MAX_ENTRY_BYTES);
+				putVarint(buffer, place - previous);
+				putZigzag(buffer, placeCounts[place] - counts[place]);
+				counts[place] = placeCounts[place];
+				previous = place;
+			}
+		}
+	}
+
+	private int indexOf(String transitionId) throws IOException {
+		if ((transitionId == null) || transitionId.isEmpty()) {
+			return 0;
+		}
+		Integer index = transitionIndex.get(transitionId);
+		if (index == null) {
+			index = transitionIndex.size() + 1;
+			transitionIndex.put(transitionId, index);
+			ensure(1 + MAX_VARINT_BYTES);
+			buffer.put(TRANSITION);
+			putVarint(buffer, index);
+			putString(transitionId);
+		}
+		return index;
+	}
+
+	private void putString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		ensure(MAX_VARINT_BYTES);
+		putVarint(buffer, bytes.length);
+		int offset = 0;
+		while (offset < bytes.length) {
+			ensure(1);
+			int length = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes buffered records to the file.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			ensure(1);
+			buffer.put(END);
+			flush();
+			channel.close();
+		}
+	}
+}
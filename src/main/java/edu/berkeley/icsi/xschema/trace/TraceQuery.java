@@ -0,0 +1,223 @@
+package edu.berkeley.icsi.xschema.trace;
+
+/**
+ * A question answered in one pass over a trace, in constant memory, such as "first round where Grasp.Suspended > 0"
+ * or "count of Grasp.Close_hand.Close".  Queries are fed by a {@link TraceStream}, live from a runner or replayed
+ * from a firing log.  Place ids are resolved to indices when the first round arrives; after that, each round costs
+ * one comparison of a count, or of a transition id.
+ * <p>
+ * A query whose answer can no longer change is {@link #isDone() done}, and a replay stops once all of its queries are.
+ */
+public abstract class TraceQuery {
+
+	public static final int NONE = -1;
+
+	/**
+	 * Comparison of a place's token count with a value.
+	 */
+	public enum Comparison {
+		LESS {
+			@Override
+			public boolean holds(int count, int value) {
+				return count < value;
+			}
+		},
+		LESS_OR_EQUAL {
+			@Override
+			public boolean holds(int count, int value) {
+				return count <= value;
+			}
+		},
+		EQUAL {
+			@Override
+			public boolean holds(int count, int value) {
+				return count == value;
+			}
+		},
+		NOT_EQUAL {
+			@Override
+			public boolean holds(int count, int value) {
+				return count != value;
+			}
+		},
+		GREATER_OR_EQUAL {
+			@Override
+			public boolean holds(int count, int value) {
+				return count >= value;
+			}
+		},
+		GREATER {
+			@Override
+			public boolean holds(int count, int value) {
+				return count > value;
+			}
+		};
+
+		public abstract boolean holds(int count, int value);
+	}
+
+	private boolean bound;
+	private boolean done;
+	protected int value;
+
+	protected TraceQuery(int initialValue) {
+		this.value = initialValue;
+	}
+
+	/**
+	 * @return the first round in which the place's count compares as given with the value, or {@link #NONE}
+	 */
+	public static TraceQuery firstRound(String placeId, Comparison comparison, int value) {
+		return new PlaceQuery(placeId, comparison, value, NONE) {
+			@Override
+			protected void accept(TraceRound round) {
+				if (matches(round)) {
+					this.value = round.getRound();
+					finish();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return number of rounds in which the place's count compares as given with the value
+	 */
+	public static TraceQuery countRounds(String placeId, Comparison comparison, int value) {
+		return new PlaceQuery(placeId, comparison, value, 0) {
+			@Override
+			protected void accept(TraceRound round) {
+				if (matches(round)) {
+					this.value++;
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the greatest count of the place in any round
+	 */
+	public static TraceQuery maxCount(String placeId) {
+		return new PlaceQuery(placeId, Comparison.GREATER_OR_EQUAL, 0, 0) {
+			@Override
+			protected void accept(TraceRound round) {
+				this.value = Math.max(this.value, round.getCount(place));
+			}
+		};
+	}
+
+	/**
+	 * @return the round in which the transition first fired, or {@link #NONE}
+	 */
+	public static TraceQuery firstFiring(String transitionId) {
+		return new TransitionQuery(transitionId, NONE) {
+			@Override
+			protected void accept(TraceRound round) {
+				if (fired(round)) {
+					this.value = round.getRound();
+					finish();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return number of times the transition fired
+	 */
+	public static TraceQuery count(String transitionId) {
+		return new TransitionQuery(transitionId, 0) {
+			@Override
+			protected void accept(TraceRound round) {
+				if (fired(round)) {
+					this.value++;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Resolves ids against the places of the trace; called once, before the first round.
+	 * @param trace positioned at its first round
+	 * @throws IllegalArgumentException if the trace has no such place
+	 */
+	protected void bind(TraceRound trace) {
+	}
+
+	/**
+	 * Updates the answer with one round; not called once the query is done.
+	 * @param round
+	 */
+	protected abstract void accept(TraceRound round);
+
+	/**
+	 * Marks the answer final.
+	 */
+	protected void finish() {
+		done = true;
+	}
+
+	void offer(TraceRound round) {
+		if (!bound) {
+			bind(round);
+			bound = true;
+		}
+		if (!done) {
+			accept(round);
+		}
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the answer for the rounds seen so far
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	/**
+	 * A query on the count of one place, compared by index.
+	 */
+	private abstract static class PlaceQuery extends TraceQuery {
+		private final String placeId;
+		private final Comparison comparison;
+		private final int threshold;
+		protected int place;
+
+		public PlaceQuery(String placeId, Comparison comparison, int threshold, int initialValue) {
+			super(initialValue);
+			this.placeId = placeId;
+			this.comparison = comparison;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void bind(TraceRound trace) {
+			place = trace.placeIndex(placeId);
+			if (place < 0) {
+				throw new IllegalArgumentException("TraceQuery:  place "+placeId+" not found in trace");
+			}
+		}
+
+		protected boolean matches(TraceRound round) {
+			return comparison.holds(round.getCount(place), threshold);
+		}
+	}
+
+	/**
+	 * A query on the firings of one transition.
+	 */
+	private abstract static class TransitionQuery extends TraceQuery {
+		private final String transitionId;
+
+		public TransitionQuery(String transitionId, int initialValue) {
+			super(initialValue);
+			this.transitionId = transitionId;
+		}
+
+		protected boolean fired(TraceRound round) {
+			return transitionId.equals(round.getTransitionId());
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package edu.berkeley.icsi.xschema.trace;
+
+/**
+ * One round of a trace, as seen by a {@link TraceQuery}:  the transition fired, and the total tokens in each place,
+ * by place index.  Place indices are fixed for the whole trace, in the column order of report.csv, so a query
+ * looks up its places once, and compares counts by index every round.
+ * <p>
+ * The same object is reused for every round of a trace; queries must not keep it.
+ */
+public interface TraceRound {
+
+	public int getRound();
+
+	/**
+	 * @return id of the transition fired this round, or "" for the initial state
+	 */
+	public String getTransitionId();
+
+	public int getPlaceCount();
+
+	public String getPlaceId(int place);
+
+	/**
+	 * @param placeId
+	 * @return index of the place, or -1 if the trace has no such place
+	 */
+	public int placeIndex(String placeId);
+
+	/**
+	 * @param place index
+	 * @return total tokens in the place after this round
+	 */
+	public int getCount(int place);
+}
@@ -0,0 +1,163 @@
+package edu.berkeley.icsi.xschema.trace;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.imperial.pipe.runner.Firing;
+import uk.ac.imperial.pipe.runner.PetriNetRunner;
+import uk.ac.imperial.pipe.state.State;
+
+/**
+ * Feeds the rounds of a trace to {@link TraceQuery queries}, one round at a time, without keeping earlier rounds.
+ * <p>
+ * Live, the stream listens to a runner's {@link PetriNetRunner#UPDATED_STATE} events, as FiringWriter does, and
+ * reduces each state to the total tokens per place, in place id order, the columns of report.csv.
+ * Replayed, it reads a log written by {@link FiringLogWriter}, and stops reading once every query is done.
+ * Either way, memory is one count per place, plus the queries.
+ */
+public class TraceStream implements PropertyChangeListener {
+
+	private final List<TraceQuery> queries;
+	private LiveRound live;
+
+	public TraceStream() {
+		queries = new ArrayList<TraceQuery>();
+	}
+
+	/**
+	 * @param query to answer from the next round on
+	 * @return the query, for its answer
+	 */
+	public <Q extends TraceQuery> Q add(Q query) {
+		queries.add(query);
+		return query;
+	}
+
+	/**
+	 * @return true if every query is done
+	 */
+	public boolean isDone() {
+		for (int i = 0; i < queries.size(); i++) {
+			if (!queries.get(i).isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		if (evt.getPropertyName().equals(PetriNetRunner.UPDATED_STATE)) {
+			Firing firing = (Firing) evt.getNewValue();
+			if (live == null) {
+				live = new LiveRound(firing.state);
+			}
+			live.update(firing);
+			offer(live);
+		}
+	}
+
+	/**
+	 * Replays the rest of a log, until it ends or every query is done.
+	 * @param reader
+	 * @return rounds read
+	 * @throws IOException
+	 */
+	public int replay(FiringLogReader reader) throws IOException {
+		int rounds = 0;
+		while (!isDone() && reader.next()) {
+			offer(reader);
+			rounds++;
+		}
+		return rounds;
+	}
+
+	/**
+	 * Replays a log file, until it ends or every query is done.
+	 * @param path
+	 * @return rounds read
+	 * @throws IOException
+	 */
+	public int replay(Path path) throws IOException {
+		FiringLogReader reader = new FiringLogReader(path);
+		try {
+			return replay(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Offers one round to every query; for traces from other sources.
+	 * @param round
+	 */
+	public void offer(TraceRound round) {
+		for (int i = 0; i < queries.size(); i++) {
+			queries.get(i).offer(round);
+		}
+	}
+
+	/**
+	 * The round of the latest UPDATED_STATE event.
+	 */
+	private static class LiveRound implements TraceRound {
+		private final String[] placeIds;
+		private final int[] counts;
+		private int round;
+		private String transitionId;
+
+		public LiveRound(State state) {
+			placeIds = state.getPlaces().toArray(new String[0]);
+			Arrays.sort(placeIds);
+			counts = new int[placeIds.length];
+		}
+
+		public void update(Firing firing) {
+			round = firing.round;
+			transitionId = firing.transition;
+			for (int place = 0; place < placeIds.length; place++) {
+				int total = 0;
+				for (Integer count : firing.state.getTokens(placeIds[place]).values()) {
+					total += count;
+				}
+				counts[place] = total;
+			}
+		}
+
+		@Override
+		public int getRound() {
+			return round;
+		}
+
+		@Override
+		public String getTransitionId() {
+			return transitionId;
+		}
+
+		@Override
+		public int getPlaceCount() {
+			return placeIds.length;
+		}
+
+		@Override
+		public String getPlaceId(int place) {
+			return placeIds[place];
+		}
+
+		@Override
+		public int placeIndex(String placeId) {
+			int place = Arrays.binarySearch(placeIds, placeId);
+			return (place < 0) ? -1 : place;
+		}
+
+		@Override
+		public int getCount(int place) {
+			return counts[place];
+		}
+	}
+}
@@ -3,7 +3,6 @@ package edu.berkeley.icsi.xschema;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
-import java.awt.Color;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.BufferedReader;
@@ -20,19 +19,6 @@ import java.util.Map.Entry;
 import org.junit.Before;
 import org.junit.Test;
 
-import uk.ac.imperial.pipe.dsl.ANormalArc;
-import uk.ac.imperial.pipe.dsl.APetriNet;
-import uk.ac.imperial.pipe.dsl.APlace;
-import uk.ac.imperial.pipe.dsl.AToken;
-import uk.ac.imperial.pipe.dsl.AnExternalTransition;
-import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
-import uk.ac.imperial.pipe.exceptions.IncludeException;
-import uk.ac.imperial.pipe.exceptions.PetriNetComponentException;
-import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
-import uk.ac.imperial.pipe.models.petrinet.Arc;
-import uk.ac.imperial.pipe.models.petrinet.DiscreteExternalTransition;
-import uk.ac.imperial.pipe.models.petrinet.DiscretePlace;
-import uk.ac.imperial.pipe.models.petrinet.DiscreteTransition;
 import uk.ac.imperial.pipe.models.petrinet.InboundArc;
 import uk.ac.imperial.pipe.models.petrinet.InboundNormalArc;
 import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
@@ -40,7 +26,6 @@ import uk.ac.imperial.pipe.models.petrinet.OutboundArc;
 import uk.ac.imperial.pipe.models.petrinet.OutboundNormalArc;
 import uk.ac.imperial.pipe.models.petrinet.PetriNet;
 import uk.ac.imperial.pipe.models.petrinet.Place;
-import uk.ac.imperial.pipe.models.petrinet.PlaceStatusInterface;
 import uk.ac.imperial.pipe.models.petrinet.Transition;
 import uk.ac.imperial.pipe.runner.FiringWriter;
 import uk.ac.imperial.pipe.runner.InterfaceException;
@@ -69,27 +54,22 @@ public class GraspExampleTest implements PropertyChangeListener {
 	private List<String> linelist;
 	private IncludeHierarchy includes;
 	private Map<String,String> tokenweights;
-	private boolean prepareTransitionExpanded;
-	private Transition targetTransition;
-	private Place beforePlace;
-	private Place afterPlace;
-	private Transition t10;
-	private Transition t11;
+	private GraspNets nets;
 	private boolean closeSensed;
 
 	@Before
 	public void setUp() {
 		cleanupFile(filename); 
 		buildTokenWeights(); 
-		prepareTransitionExpanded = false; 
+		nets = new GraspNets(); 
 		closeSensed = true;
 		tokenEvent = false; 
 	}
 
 	@Test
 	public void basicXschemaBuilt() throws Exception {
-		PetriNet basicControl = buildBasicNet("net1"); 
-		runner = new PetriNetRunner(basicControl); 
+		PetriNet basicControl = nets.buildBasicNet("net1"); 
+		runner = buildRunner(basicControl); 
 		runner.markPlace("Enabled", "Default", 1);
 		run();
 //		printResults();
@@ -103,8 +83,8 @@ public class GraspExampleTest implements PropertyChangeListener {
 
 	@Test
 	public void closeHandXschemaBuilt() throws Exception {
-		PetriNet closeHand = buildCloseHand(); 
-		runner = new PetriNetRunner(closeHand); 
+		PetriNet closeHand = nets.buildCloseHand(); 
+		runner = buildRunner(closeHand); 
 		runner.markPlace("Enabled", "Default", 1);
 		CLOSE_SENSED = "Close_sensed"; 
 		runner.setTransitionContext("Close", this);
@@ -116,8 +96,8 @@ public class GraspExampleTest implements PropertyChangeListener {
 	}
 	@Test
 	public void graspXschemaIncludesCloseHand() throws Exception {
-		PetriNet basicControl = buildBasicNet("net1"); 
-		PetriNet closeHand = buildCloseHand(); 
+		PetriNet basicControl = nets.buildBasicNet("net1"); 
+		PetriNet closeHand = nets.buildCloseHand(); 
 		includes = new IncludeHierarchy(basicControl, "Grasp"); 
 		includes.include(closeHand, "Close_hand");
 //		build a "merge arc" by hand the first time...
@@ -128,11 +108,11 @@ public class GraspExampleTest implements PropertyChangeListener {
 		OutboundArc arcOut = new OutboundNormalArc(start, graspCloseHandEnabled, tokenweights);
 		basicControl.add(arcOut); 
 //		...equivalent to this:
-//		buildMergeArc(false, includes, "Close_hand", "Enabled", "Start", "Close_hand.Enabled"); 
+//		nets.buildMergeArc(false, includes, "Close_hand", "Enabled", "Start", "Close_hand.Enabled"); 
     	
-		buildMergeArc(true, includes, "Close_hand", "Done", "Finish", "Close_hand.Done"); 
+		nets.buildMergeArc(true, includes, "Close_hand", "Done", "Finish", "Close_hand.Done"); 
     	
-		runner = new PetriNetRunner(includes.getPetriNet()); 
+		runner = buildRunner(includes); 
 		runner.markPlace("Grasp.Enabled", "Default", 1);
 		CLOSE_SENSED = "Grasp.Close_hand.Close_sensed"; 
 		runner.setTransitionContext("Grasp.Close_hand.Close", this);
@@ -152,13 +132,13 @@ public class GraspExampleTest implements PropertyChangeListener {
 	}
 	@Test
 	public void expandSingleTransitionDefaultsToIncludingBasicControlXschema() throws Exception {
-		PetriNet basicControl = buildBasicNet("net1"); 
+		PetriNet basicControl = nets.buildBasicNet("net1"); 
 		includes = new IncludeHierarchy(basicControl, "Grasp");
-		findComponentsAffectedByExpansion(includes, "Prepare");
-		expandTransition(includes, "Prepare", "Pre-shape");
-		expandTransition(includes, "Prepare", "Approach");
-		removeTransition(includes, "Prepare"); 
-		runner = new PetriNetRunner(includes.getPetriNet()); 
+		nets.findComponentsAffectedByExpansion(includes, "Prepare");
+		nets.expandTransition(includes, "Prepare", "Pre-shape");
+		nets.expandTransition(includes, "Prepare", "Approach");
+		nets.removeTransition(includes); 
+		runner = buildRunner(includes); 
 		runner.markPlace("Grasp.Enabled", "Default", 1);
 		run(); 
 //		printResults();
@@ -181,26 +161,26 @@ public class GraspExampleTest implements PropertyChangeListener {
 	}
 	@Test
 	public void closeHandXschemaBuiltWithSuspendSemantics() throws Exception {
-		PetriNet basicControl = buildBasicNet("net1"); 
-		PetriNet closeHand = buildCloseHand(); 
+		PetriNet basicControl = nets.buildBasicNet("net1"); 
+		PetriNet closeHand = nets.buildCloseHand(); 
 		includes = new IncludeHierarchy(basicControl, "Grasp"); 
 		includes.include(closeHand, "Close_hand");
-		buildMergeArc(false, includes, "Close_hand", "Enabled", "Start", "Close_hand.Enabled"); 
-		buildMergeArc(true, includes, "Close_hand", "Done", "Finish", "Close_hand.Done"); 
+		nets.buildMergeArc(false, includes, "Close_hand", "Enabled", "Start", "Close_hand.Enabled"); 
+		nets.buildMergeArc(true, includes, "Close_hand", "Done", "Finish", "Close_hand.Done"); 
 
-		addSuspend(closeHand); 
-		Place missed = addMissedExternalInputPlaceToCloseHandXschema(closeHand); 
+		nets.addSuspend(closeHand); 
+		Place missed = nets.addMissedExternalInputPlace(includes, closeHand); 
 		Transition transition = closeHand.getComponent("Suspend", Transition.class);
 		InboundArc inbound = new InboundNormalArc(missed, transition, tokenweights);
 		closeHand.add(inbound);
 		closeSensed = false; 
 
-		addSuspend(basicControl); 
-		addExternalOutputStatusToGraspSuspendedPlace(basicControl);
+		nets.addSuspend(basicControl); 
+		nets.addExternalOutputStatusToSuspendedPlace(includes, basicControl);
 
-		buildMergeArc(true, includes, "Close_hand", "Suspended", "Suspend", "Close_hand.Suspended"); 
+		nets.buildMergeArc(true, includes, "Close_hand", "Suspended", "Suspend", "Close_hand.Suspended"); 
     	
-		runner = new PetriNetRunner(includes.getPetriNet()); 
+		runner = buildRunner(includes); 
 		runner.markPlace("Grasp.Enabled", "Default", 1);
 		CLOSE_SENSED = "Grasp.Close_hand.Close_sensed"; 
 		runner.setTransitionContext("Grasp.Close_hand.Close", this);
@@ -224,35 +204,35 @@ public class GraspExampleTest implements PropertyChangeListener {
 	}
 	@Test
 	public void completeGraspXschema() throws Exception {
-		PetriNet basicControl = buildBasicNet("net1"); 
+		PetriNet basicControl = nets.buildBasicNet("net1"); 
 		
 		includes = new IncludeHierarchy(basicControl, "Grasp");
-		findComponentsAffectedByExpansion(includes, "Prepare");
-		expandTransition(includes, "Prepare", "Pre-shape");
-		expandTransition(includes, "Prepare", "Approach");
-		removeTransition(includes, "Prepare"); 
-		addExternalTransitionToApproach(includes); 
+		nets.findComponentsAffectedByExpansion(includes, "Prepare");
+		nets.expandTransition(includes, "Prepare", "Pre-shape");
+		nets.expandTransition(includes, "Prepare", "Approach");
+		nets.removeTransition(includes); 
+		nets.addExternalTransitionToApproach(includes); 
 		JsonParameters parameters = new JsonParameters("{\"transitions\":{\"Grasp.Approach.T3\":{\"num\":1}}}"); 
 		parameters.setActiveTransition("Grasp.Approach.T3");
 
-		PetriNet closeHand = buildCloseHand(); 
+		PetriNet closeHand = nets.buildCloseHand(); 
 		includes.include(closeHand, "Close_hand");
-		buildMergeArc(false, includes, "Close_hand", "Enabled", "Start", "Close_hand.Enabled"); 
-		buildMergeArc(true, includes, "Close_hand", "Done", "Finish", "Close_hand.Done"); 
+		nets.buildMergeArc(false, includes, "Close_hand", "Enabled", "Start", "Close_hand.Enabled"); 
+		nets.buildMergeArc(true, includes, "Close_hand", "Done", "Finish", "Close_hand.Done"); 
 		
-		addSuspend(closeHand); 
-		Place missed = addMissedExternalInputPlaceToCloseHandXschema(closeHand); 
+		nets.addSuspend(closeHand); 
+		Place missed = nets.addMissedExternalInputPlace(includes, closeHand); 
 		Transition transition = closeHand.getComponent("Suspend", Transition.class);
 		InboundArc inbound = new InboundNormalArc(missed, transition, tokenweights);
 		closeHand.add(inbound);
 		closeSensed = false; 
 		
-		addSuspend(basicControl); 
-		addExternalOutputStatusToGraspSuspendedPlace(basicControl);
+		nets.addSuspend(basicControl); 
+		nets.addExternalOutputStatusToSuspendedPlace(includes, basicControl);
 		
-		buildMergeArc(true, includes, "Close_hand", "Suspended", "Suspend", "Close_hand.Suspended"); 
+		nets.buildMergeArc(true, includes, "Close_hand", "Suspended", "Suspend", "Close_hand.Suspended"); 
 		
-		runner = new PetriNetRunner(includes.getPetriNet()); 
+		runner = buildRunner(includes); 
 		runner.markPlace("Grasp.Enabled", "Default", 1);
 		CLOSE_SENSED = "Grasp.Close_hand.Close_sensed"; 
 		runner.setTransitionContext("Grasp.Approach.T3", parameters);
@@ -287,112 +267,22 @@ public class GraspExampleTest implements PropertyChangeListener {
 		checkLine("", 16, "15,\"Grasp.Suspend\",0,0,0,0,0,0,1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,1");
 	}
 
-	private void addExternalTransitionToApproach(IncludeHierarchy includes) throws Exception {
-		PetriNet approach = includes.getInclude("Approach").getPetriNet(); 
-		Place p4 = new DiscretePlace("P4");
-		approach.add(p4);
-		Transition t3 = new DiscreteExternalTransition("T3", "T3","edu.berkeley.icsi.xschema.TestingApproachExternalTransition"); 
-		approach.add(t3);
-		approach.add(new OutboundNormalArc(approach.getComponent("Start", Transition.class), p4, tokenweights));    
-		approach.add(new InboundNormalArc(p4, t3, tokenweights));    
-		
-	}
-
-	private void addExternalOutputStatusToGraspSuspendedPlace(PetriNet basicControl) throws Exception {
-		Place suspended = basicControl.getComponent("Suspended", Place.class); 
-		PlaceStatusInterface status = new PlaceStatusInterface(suspended, includes);  
-		status.setExternal(true);
-		status.setOutputOnlyArcConstraint(true);
-		status.update(); 
-		suspended.setStatus(status);
-	}
-
-	private Place addMissedExternalInputPlaceToCloseHandXschema(PetriNet closeHand) throws Exception {
-		Place missed = new DiscretePlace("P000");
-		PlaceStatusInterface status = new PlaceStatusInterface(missed, includes.getInclude("Close_hand"));  
-		status.setExternal(true);
-		status.setInputOnlyArcConstraint(true);
-		status.update(); 
-		missed.setStatus(status);
-		closeHand.add(missed);
-		name(closeHand, Place.class, "P000", "Missed");
-		return missed; 
-	}
-
-	private void addSuspend(PetriNet net) throws  Exception {
-		Place suspended = new DiscretePlace("P00");
-		Transition suspend = new DiscreteTransition("T00"); 
-		Place ongoing = net.getComponent("Ongoing", Place.class);
-		net.add(suspended);
-		net.add(suspend);
-		name(net, Place.class, "P00", "Suspended"); 
-		name(net, Transition.class, "T00", "Suspend"); 
-		InboundArc arcIn = new InboundNormalArc(ongoing, suspend, tokenweights); 
-		OutboundArc arcOut = new OutboundNormalArc(suspend, suspended, tokenweights);
-		net.add(arcIn);
-		net.add(arcOut);
-	}
-
-	private void removeTransition(IncludeHierarchy includes, String transition) {
-		// perhaps we shouldn't have to explicitly delete the Arcs; may be bug in PIPECore
-		InboundArc beforeArc = includes.getPetriNet().inboundArcs(targetTransition).iterator().next();
-		OutboundArc afterArc = includes.getPetriNet().outboundArcs(targetTransition).iterator().next();
-		includes.getPetriNet().removeArc(beforeArc);
-		includes.getPetriNet().removeArc(afterArc);
-
-		includes.getPetriNet().removeTransition(targetTransition);
-//		for (Arc arc : includes.getPetriNet().getArcs()) {
-//			System.out.println(arc.getId());
-//		}
-	}
-
-	private void expandTransition(IncludeHierarchy includes, String transition, String child) throws Exception {
-		PetriNet expanded = buildBasicNet(child+"net"); 
-		includes.include(expanded, child);
-		buildPrePostTransitions(includes, transition);
-		includes.getPetriNet().add(new InboundNormalArc(beforePlace, t10, tokenweights));    
-		buildMergeArc(false, includes, child, "Enabled", "Pre-"+transition, child+".Enabled"); 
-		includes.getPetriNet().add(new OutboundNormalArc(t11, afterPlace, tokenweights));    
-		buildMergeArc(true, includes, child, "Done", "Post-"+transition, child+".Done"); 
-	}
-
-	private void buildPrePostTransitions(IncludeHierarchy includes,
-		String transition) throws PetriNetComponentException {
-		if (!prepareTransitionExpanded) {
-			t10 = new DiscreteTransition("T10");  
-			t11 = new DiscreteTransition("T11"); 
-			includes.getPetriNet().add(t10);
-			includes.getPetriNet().add(t11);
-			name(includes.getPetriNet(), Transition.class, "T10", "Pre-"+transition); 
-			name(includes.getPetriNet(), Transition.class, "T11", "Post-"+transition); 
-			prepareTransitionExpanded = true; 
-		}
-	}
-
-	private void findComponentsAffectedByExpansion(IncludeHierarchy includes,
-		String transition) throws PetriNetComponentNotFoundException {
-		targetTransition = includes.getPetriNet().getComponent(transition, Transition.class); 
-		beforePlace = includes.getPetriNet().inboundArcs(targetTransition).iterator().next().getSource();
-		afterPlace = includes.getPetriNet().outboundArcs(targetTransition).iterator().next().getTarget();
-	}
-
-	@SuppressWarnings("rawtypes")
-	private void buildMergeArc(boolean inbound,
-		IncludeHierarchy parent, String child, String homePlace, String transition, String awayPlace) 
-				throws IncludeException, PetriNetComponentNotFoundException, PetriNetComponentException {
-		parent.getInclude(child).addToInterface(parent.getInclude(child).getPetriNet().
-				getComponent(homePlace, Place.class), true, false, false, false);    
-		parent.addAvailablePlaceToPetriNet(parent.getInterfacePlace(awayPlace));
-		Arc arc = (inbound) ? new InboundNormalArc(parent.getInterfacePlace(awayPlace), 
-				parent.getPetriNet().getComponent(transition,Transition.class), tokenweights)   
-			    : new OutboundNormalArc(parent.getPetriNet().getComponent(transition,Transition.class), 
-						parent.getInterfacePlace(awayPlace), tokenweights)	;
-		parent.getPetriNet().add(arc); 
-	}
 	private void buildTokenWeights() {
 		tokenweights = new HashMap<String, String>(); 
 		tokenweights.put("Default", "1");
 	}
+	/**
+	 * Subclasses may run the same expectations against a different {@link Runner}.
+	 */
+	protected Runner buildRunner(PetriNet net) throws Exception {
+		return new PetriNetRunner(net);
+	}
+	/**
+	 * Builds the runner for a hierarchy; by default, for its root net.
+	 */
+	protected Runner buildRunner(IncludeHierarchy includes) throws Exception {
+		return buildRunner(includes.getPetriNet());
+	}
 	private void run() throws Exception {
 		runner.addPropertyChangeListener(new FiringWriter("report.csv"));
 		runner.setFiringLimit(100);
@@ -422,73 +312,6 @@ public class GraspExampleTest implements PropertyChangeListener {
 		fileReader.close();
 	}
 
-    private PetriNet buildBasicNet(String name) {
-    	PetriNet net = APetriNet.named(name).and(AToken.called("Default").withColor(Color.BLACK)).
-    		and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).and(APlace.withId("P2")).and(APlace.withId("P3")).
-    		and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(AnImmediateTransition.withId("T2")).		
-    		and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
-    		and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
-    		and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
-    		and(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()).
-    		and(ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).
-    		andFinally(ANormalArc.withSource("T2").andTarget("P3").with("1", "Default").token());
-    	name(net, Place.class, "P0", "Enabled"); 
-    	name(net, Place.class, "P1", "Ready"); 
-    	name(net, Place.class, "P2", "Ongoing"); 
-    	name(net, Place.class, "P3", "Done"); 
-    	name(net, Transition.class, "T0", "Prepare"); 
-    	name(net, Transition.class, "T1", "Start"); 
-    	name(net, Transition.class, "T2", "Finish"); 
-    	return net; 
-    }
-    
-    private PetriNet buildCloseHand() {
-    	// P0 / Enabled is externally accessible for testing, not because required for Grasp xschema
-    	PetriNet net = APetriNet.named("Close_hand").and(AToken.called("Default").withColor(Color.BLACK)).
-    		and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).and(APlace.withId("P2")).and(APlace.withId("P3")).
-    		and(APlace.withId("P4")).and(APlace.withId("P5")).and(APlace.withId("P6").externallyAccessible()).
-    		and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(AnImmediateTransition.withId("T2")).		
-    		and(AnExternalTransition.withId("T3").andExternalClass("edu.berkeley.icsi.xschema.TestingCloseExternalTransition")).
-    		and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
-    		and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
-    		and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
-    		and(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()).
-    		and(ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).
-    		and(ANormalArc.withSource("T2").andTarget("P3").with("1", "Default").token()).
-    		and(ANormalArc.withSource("T1").andTarget("P4").with("1", "Default").token()).
-    		and(ANormalArc.withSource("P4").andTarget("T3").with("1", "Default").token()).
-    		and(ANormalArc.withSource("T3").andTarget("P5").with("1", "Default").token()).
-    		and(ANormalArc.withSource("P5").andTarget("T2").with("1", "Default").token()).
-    		andFinally(ANormalArc.withSource("P6").andTarget("T2").with("1", "Default").token());
-    	name(net, Place.class, "P0", "Enabled"); 
-    	name(net, Place.class, "P1", "Ready"); 
-    	name(net, Place.class, "P2", "Ongoing"); 
-    	name(net, Place.class, "P3", "Done"); 
-    	name(net, Place.class, "P5", "Closing"); 
-    	name(net, Place.class, "P6", "Close_sensed"); 
-    	name(net, Transition.class, "T0", "Prepare"); 
-    	name(net, Transition.class, "T1", "Start"); 
-    	name(net, Transition.class, "T2", "Finish"); 
-    	name(net, Transition.class, "T3", "Close"); 
-//    	for (Place place : net.getExecutablePetriNet().getPlaces()) {
-//			System.out.println(place.getId());
-//			System.out.println(place.getName());
-//		}
-    	return net; 
-    }
-
-	@SuppressWarnings("unchecked")
-	private void name(PetriNet net, @SuppressWarnings("rawtypes") Class clazz, String component, String name) {
-		// rename components manually, until support added to DSL in PIPECore
-		// works after a fashion, but arcs are inconsistently named
-		try {
-			net.getComponent(component, clazz).setId(name);
-		} catch (PetriNetComponentNotFoundException e) {
-			e.printStackTrace();
-		}
-		
-	}
-
 	public void closeExternalTransitionFired() {
 		try {
 			if (closeSensed) {
@@ -0,0 +1,348 @@
+package edu.berkeley.icsi.xschema;
+
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.exceptions.IncludeException;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentException;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.Arc;
+import uk.ac.imperial.pipe.models.petrinet.DiscreteExternalTransition;
+import uk.ac.imperial.pipe.models.petrinet.DiscretePlace;
+import uk.ac.imperial.pipe.models.petrinet.DiscreteTransition;
+import uk.ac.imperial.pipe.models.petrinet.InboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.NormalRate;
+import uk.ac.imperial.pipe.models.petrinet.OutboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.PlaceStatusInterface;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+/**
+ * Builds the nets of GraspExampleTest, plus synthetic nets of arbitrary size.
+ * GraspExampleTest builds its nets with these methods, step by step, and the benchmarks module depends on the
+ * test jar for these builders, so the nets the benchmarks measure are the nets the tests run.
+ * A new GraspNets should be used for each net built, because the expansion steps keep state between calls.
+ * @author stevedoubleday
+ *
+ */
+public class GraspNets {
+
+	public static final String CLOSE_CLASS = "edu.berkeley.icsi.xschema.TestingCloseExternalTransition";
+	public static final String APPROACH_CLASS = "edu.berkeley.icsi.xschema.TestingApproachExternalTransition";
+	private String closeClass;
+	private String approachClass;
+	private Map<String, String> tokenweights;
+	private boolean prepareTransitionExpanded;
+	private Transition targetTransition;
+	private Place beforePlace;
+	private Place afterPlace;
+	private Transition t10;
+	private Transition t11;
+
+	public GraspNets() {
+		this(CLOSE_CLASS, APPROACH_CLASS);
+	}
+
+	/**
+	 * @param closeClass external class of the Close transition of Close_hand
+	 * @param approachClass external class of the T3 transition added to Approach
+	 */
+	public GraspNets(String closeClass, String approachClass) {
+		this.closeClass = closeClass;
+		this.approachClass = approachClass;
+		tokenweights = new HashMap<String, String>();
+		tokenweights.put("Default", "1");
+		prepareTransitionExpanded = false;
+	}
+
+    public PetriNet buildBasicNet(String name) {
+    	PetriNet net = APetriNet.named(name).and(AToken.called("Default").withColor(Color.BLACK)).
+    		and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).and(APlace.withId("P2")).and(APlace.withId("P3")).
+    		and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(AnImmediateTransition.withId("T2")).
+    		and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+    		and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+    		and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+    		and(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()).
+    		and(ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).
+    		andFinally(ANormalArc.withSource("T2").andTarget("P3").with("1", "Default").token());
+    	name(net, Place.class, "P0", "Enabled");
+    	name(net, Place.class, "P1", "Ready");
+    	name(net, Place.class, "P2", "Ongoing");
+    	name(net, Place.class, "P3", "Done");
+    	name(net, Transition.class, "T0", "Prepare");
+    	name(net, Transition.class, "T1", "Start");
+    	name(net, Transition.class, "T2", "Finish");
+    	return net;
+    }
+
+    public PetriNet buildCloseHand() {
+    	// P0 / Enabled is externally accessible for testing, not because required for Grasp xschema
+    	PetriNet net = APetriNet.named("Close_hand").and(AToken.called("Default").withColor(Color.BLACK)).
+    		and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).and(APlace.withId("P2")).and(APlace.withId("P3")).
+    		and(APlace.withId("P4")).and(APlace.withId("P5")).and(APlace.withId("P6").externallyAccessible()).
+    		and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(AnImmediateTransition.withId("T2")).
+    		and(AnExternalTransition.withId("T3").andExternalClass(closeClass)).
+    		and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+    		and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+    		and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+    		and(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()).
+    		and(ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).
+    		and(ANormalArc.withSource("T2").andTarget("P3").with("1", "Default").token()).
+    		and(ANormalArc.withSource("T1").andTarget("P4").with("1", "Default").token()).
+    		and(ANormalArc.withSource("P4").andTarget("T3").with("1", "Default").token()).
+    		and(ANormalArc.withSource("T3").andTarget("P5").with("1", "Default").token()).
+    		and(ANormalArc.withSource("P5").andTarget("T2").with("1", "Default").token()).
+    		andFinally(ANormalArc.withSource("P6").andTarget("T2").with("1", "Default").token());
+    	name(net, Place.class, "P0", "Enabled");
+    	name(net, Place.class, "P1", "Ready");
+    	name(net, Place.class, "P2", "Ongoing");
+    	name(net, Place.class, "P3", "Done");
+    	name(net, Place.class, "P5", "Closing");
+    	name(net, Place.class, "P6", "Close_sensed");
+    	name(net, Transition.class, "T0", "Prepare");
+    	name(net, Transition.class, "T1", "Start");
+    	name(net, Transition.class, "T2", "Finish");
+    	name(net, Transition.class, "T3", "Close");
+    	return net;
+    }
+
+    /**
+     * Builds the hierarchy of GraspExampleTest.completeGraspXschema:  Prepare expanded into Pre-shape and Approach
+     * (Approach with the parameterized external transition T3), Close_hand included with suspend semantics.
+     * @return the Grasp include hierarchy; run it with {@link IncludeHierarchy#getPetriNet()}
+     * @throws Exception
+     */
+    public IncludeHierarchy buildCompleteGrasp() throws Exception {
+		PetriNet basicControl = buildBasicNet("net1");
+		IncludeHierarchy includes = new IncludeHierarchy(basicControl, "Grasp");
+		findComponentsAffectedByExpansion(includes, "Prepare");
+		expandTransition(includes, "Prepare", "Pre-shape");
+		expandTransition(includes, "Prepare", "Approach");
+		removeTransition(includes);
+		addExternalTransitionToApproach(includes);
+
+		PetriNet closeHand = buildCloseHand();
+		includes.include(closeHand, "Close_hand");
+		buildMergeArc(false, includes, "Close_hand", "Enabled", "Start", "Close_hand.Enabled");
+		buildMergeArc(true, includes, "Close_hand", "Done", "Finish", "Close_hand.Done");
+
+		addSuspend(closeHand);
+		Place missed = addMissedExternalInputPlace(includes, closeHand);
+		closeHand.add(new InboundNormalArc(missed, closeHand.getComponent("Suspend", Transition.class), tokenweights));
+
+		addSuspend(basicControl);
+		addExternalOutputStatusToSuspendedPlace(includes, basicControl);
+		buildMergeArc(true, includes, "Close_hand", "Suspended", "Suspend", "Close_hand.Suspended");
+		return includes;
+	}
+
+    /**
+     * Builds a ring of places P0 -> T0 -> P1 -> T1 ... -> P0, so a run never runs out of enabled transitions.
+     * Every spacing-th place is externally accessible, so it can be marked with a circulating token.
+     * @param places in the ring
+     * @param spacing between marked places
+     * @return net
+     */
+    public PetriNet buildRing(int places, int spacing) {
+    	APetriNet builder = APetriNet.named("Ring").and(AToken.called("Default").withColor(Color.BLACK));
+    	for (int i = 0; i < places; i++) {
+    		builder = (i % spacing == 0) ? builder.and(APlace.withId("P"+i).externallyAccessible()) :
+    			builder.and(APlace.withId("P"+i));
+    		builder = builder.and(AnImmediateTransition.withId("T"+i));
+		}
+    	for (int i = 0; i < places - 1; i++) {
+    		builder = builder.and(ANormalArc.withSource("P"+i).andTarget("T"+i).with("1", "Default").token()).
+    				and(ANormalArc.withSource("T"+i).andTarget("P"+(i+1)).with("1", "Default").token());
+		}
+    	int last = places - 1;
+    	return builder.and(ANormalArc.withSource("P"+last).andTarget("T"+last).with("1", "Default").token()).
+    			andFinally(ANormalArc.withSource("T"+last).andTarget("P0").with("1", "Default").token());
+    }
+
+    /**
+     * Builds one flat net of many copies of the Close_hand net, as an include hierarchy of Close_hand includes
+     * would flatten to, with the Close transition immediate so that no context is needed.
+     * Ids are qualified by copy, e.g., "C12.P4".
+     * @param copies of Close_hand, at least one; the net has 7 places and 4 transitions per copy
+     * @return net
+     */
+    public PetriNet buildCloseHands(int copies) {
+    	APetriNet builder = APetriNet.named("Close_hands").and(AToken.called("Default").withColor(Color.BLACK));
+    	String[][] arcs = {{"P0", "T0"}, {"T0", "P1"}, {"P1", "T1"}, {"T1", "P2"}, {"P2", "T2"}, {"T2", "P3"},
+    			{"T1", "P4"}, {"P4", "T3"}, {"T3", "P5"}, {"P5", "T2"}, {"P6", "T2"}};
+    	for (int c = 0; c < copies; c++) {
+    		String prefix = "C"+c+".";
+    		for (int p = 0; p < 7; p++) {
+    			builder = builder.and(APlace.withId(prefix+"P"+p));
+			}
+    		for (int t = 0; t < 4; t++) {
+    			builder = builder.and(AnImmediateTransition.withId(prefix+"T"+t));
+			}
+    		for (int a = 0; a < arcs.length - 1; a++) {
+    			builder = builder.and(ANormalArc.withSource(prefix+arcs[a][0]).andTarget(prefix+arcs[a][1]).with("1", "Default").token());
+			}
+    		if (c < copies - 1) {
+    			builder = builder.and(ANormalArc.withSource(prefix+"P6").andTarget(prefix+"T2").with("1", "Default").token());
+    		}
+		}
+    	String last = "C"+(copies - 1)+".";
+    	return builder.andFinally(ANormalArc.withSource(last+"P6").andTarget(last+"T2").with("1", "Default").token());
+    }
+
+    /**
+     * Builds the ring of {@link #buildRing(int, int)} with every transition timed, for a TimedPetriNetRunner.
+     * @param places in the ring
+     * @param spacing between marked places
+     * @param rate of every transition
+     * @return net
+     */
+    public PetriNet buildTimedRing(int places, int spacing, String rate) throws PetriNetComponentNotFoundException {
+    	PetriNet net = buildRing(places, spacing);
+    	for (int i = 0; i < places; i++) {
+    		Transition transition = net.getComponent("T"+i, Transition.class);
+    		transition.setTimed(true);
+    		transition.setRate(new NormalRate(rate));
+		}
+    	return net;
+    }
+
+	/**
+	 * Adds the parameterized external transition T3 to Approach, fed from its Start transition through P4.
+	 */
+	public void addExternalTransitionToApproach(IncludeHierarchy includes) throws Exception {
+		PetriNet approach = includes.getInclude("Approach").getPetriNet();
+		Place p4 = new DiscretePlace("P4");
+		approach.add(p4);
+		Transition t3 = new DiscreteExternalTransition("T3", "T3", approachClass);
+		approach.add(t3);
+		approach.add(new OutboundNormalArc(approach.getComponent("Start", Transition.class), p4, tokenweights));
+		approach.add(new InboundNormalArc(p4, t3, tokenweights));
+	}
+
+	/**
+	 * Makes the Suspended place of the root net external and output only, so clients can listen to it.
+	 */
+	public void addExternalOutputStatusToSuspendedPlace(IncludeHierarchy includes, PetriNet basicControl) throws Exception {
+		Place suspended = basicControl.getComponent("Suspended", Place.class);
+		PlaceStatusInterface status = new PlaceStatusInterface(suspended, includes);
+		status.setExternal(true);
+		status.setOutputOnlyArcConstraint(true);
+		status.update();
+		suspended.setStatus(status);
+	}
+
+	/**
+	 * Adds Missed to Close_hand, an external, input only place, to be marked when the Close action misses.
+	 * @return the Missed place
+	 */
+	public Place addMissedExternalInputPlace(IncludeHierarchy includes, PetriNet closeHand) throws Exception {
+		Place missed = new DiscretePlace("P000");
+		PlaceStatusInterface status = new PlaceStatusInterface(missed, includes.getInclude("Close_hand"));
+		status.setExternal(true);
+		status.setInputOnlyArcConstraint(true);
+		status.update();
+		missed.setStatus(status);
+		closeHand.add(missed);
+		name(closeHand, Place.class, "P000", "Missed");
+		return missed;
+	}
+
+	/**
+	 * Adds a Suspend transition, from Ongoing to a new Suspended place.
+	 */
+	public void addSuspend(PetriNet net) throws Exception {
+		Place suspended = new DiscretePlace("P00");
+		Transition suspend = new DiscreteTransition("T00");
+		Place ongoing = net.getComponent("Ongoing", Place.class);
+		net.add(suspended);
+		net.add(suspend);
+		name(net, Place.class, "P00", "Suspended");
+		name(net, Transition.class, "T00", "Suspend");
+		net.add(new InboundNormalArc(ongoing, suspend, tokenweights));
+		net.add(new OutboundNormalArc(suspend, suspended, tokenweights));
+	}
+
+	/**
+	 * Removes the transition found by {@link #findComponentsAffectedByExpansion(IncludeHierarchy, String)}, with its arcs.
+	 */
+	public void removeTransition(IncludeHierarchy includes) {
+		// perhaps we shouldn't have to explicitly delete the Arcs; may be bug in PIPECore
+		PetriNet net = includes.getPetriNet();
+		net.removeArc(net.inboundArcs(targetTransition).iterator().next());
+		net.removeArc(net.outboundArcs(targetTransition).iterator().next());
+		net.removeTransition(targetTransition);
+	}
+
+	/**
+	 * Includes a basic net as child, run between the Pre- and Post- transitions that replace the transition.
+	 */
+	public void expandTransition(IncludeHierarchy includes, String transition, String child) throws Exception {
+		PetriNet expanded = buildBasicNet(child+"net");
+		includes.include(expanded, child);
+		buildPrePostTransitions(includes, transition);
+		includes.getPetriNet().add(new InboundNormalArc(beforePlace, t10, tokenweights));
+		buildMergeArc(false, includes, child, "Enabled", "Pre-"+transition, child+".Enabled");
+		includes.getPetriNet().add(new OutboundNormalArc(t11, afterPlace, tokenweights));
+		buildMergeArc(true, includes, child, "Done", "Post-"+transition, child+".Done");
+	}
+
+	private void buildPrePostTransitions(IncludeHierarchy includes, String transition) throws PetriNetComponentException {
+		if (!prepareTransitionExpanded) {
+			t10 = new DiscreteTransition("T10");
+			t11 = new DiscreteTransition("T11");
+			includes.getPetriNet().add(t10);
+			includes.getPetriNet().add(t11);
+			name(includes.getPetriNet(), Transition.class, "T10", "Pre-"+transition);
+			name(includes.getPetriNet(), Transition.class, "T11", "Post-"+transition);
+			prepareTransitionExpanded = true;
+		}
+	}
+
+	/**
+	 * Finds the transition to be expanded, and the places before and after it; call before expanding it.
+	 */
+	public void findComponentsAffectedByExpansion(IncludeHierarchy includes, String transition)
+			throws PetriNetComponentNotFoundException {
+		targetTransition = includes.getPetriNet().getComponent(transition, Transition.class);
+		beforePlace = includes.getPetriNet().inboundArcs(targetTransition).iterator().next().getSource();
+		afterPlace = includes.getPetriNet().outboundArcs(targetTransition).iterator().next().getTarget();
+	}
+
+	/**
+	 * Adds the home place of the child to its interface, and an arc between it and the transition of the parent.
+	 * @param inbound if true, the arc is from the place to the transition
+	 */
+	@SuppressWarnings("rawtypes")
+	public void buildMergeArc(boolean inbound, IncludeHierarchy parent, String child, String homePlace, String transition,
+			String awayPlace) throws IncludeException, PetriNetComponentNotFoundException, PetriNetComponentException {
+		parent.getInclude(child).addToInterface(parent.getInclude(child).getPetriNet().
+				getComponent(homePlace, Place.class), true, false, false, false);
+		parent.addAvailablePlaceToPetriNet(parent.getInterfacePlace(awayPlace));
+		Arc arc = (inbound) ? new InboundNormalArc(parent.getInterfacePlace(awayPlace),
+				parent.getPetriNet().getComponent(transition,Transition.class), tokenweights)
+			    : new OutboundNormalArc(parent.getPetriNet().getComponent(transition,Transition.class),
+			    		parent.getInterfacePlace(awayPlace), tokenweights)	;
+		parent.getPetriNet().add(arc);
+	}
+
+	/**
+	 * Renames a component, until support is added to the DSL in PIPECore.
+	 */
+	@SuppressWarnings("unchecked")
+	private void name(PetriNet net, @SuppressWarnings("rawtypes") Class clazz, String component, String name) {
+		try {
+			net.getComponent(component, clazz).setId(name);
+		} catch (PetriNetComponentNotFoundException e) {
+			throw new IllegalStateException("GraspNets:  "+component+" not found, so not renamed "+name, e);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+public class ReachabilityExplorerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private ReachabilityExplorer explorer;
+
+	@After
+	public void tearDown() throws Exception {
+		explorer.shutdown();
+	}
+
+	/**
+	 * Like Close_hand:  Enabled starts Active, which ends in Done, or is Suspended and resumed.
+	 * If bothEnd, a transition from Active marks both Done and Suspended.
+	 */
+	private PetriNet buildCloseHand(boolean bothEnd) {
+		APetriNet net = APetriNet.named("close").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Enabled")).and(APlace.withId("Active")).
+				and(APlace.withId("Done")).and(APlace.withId("Suspended")).
+				and(AnImmediateTransition.withId("Start")).and(AnImmediateTransition.withId("Finish")).
+				and(AnImmediateTransition.withId("Suspend")).and(AnImmediateTransition.withId("Resume")).
+				and(ANormalArc.withSource("Enabled").andTarget("Start").with("1", "Default").token()).
+				and(ANormalArc.withSource("Start").andTarget("Active").with("1", "Default").token()).
+				and(ANormalArc.withSource("Active").andTarget("Finish").with("1", "Default").token()).
+				and(ANormalArc.withSource("Finish").andTarget("Done").with("1", "Default").token()).
+				and(ANormalArc.withSource("Active").andTarget("Suspend").with("1", "Default").token()).
+				and(ANormalArc.withSource("Suspend").andTarget("Suspended").with("1", "Default").token()).
+				and(ANormalArc.withSource("Suspended").andTarget("Resume").with("1", "Default").token());
+		if (bothEnd) {
+			net.and(AnImmediateTransition.withId("Both")).
+					and(ANormalArc.withSource("Active").andTarget("Both").with("1", "Default").token()).
+					and(ANormalArc.withSource("Both").andTarget("Done").with("1", "Default").token()).
+					and(ANormalArc.withSource("Both").andTarget("Suspended").with("1", "Default").token());
+		}
+		return net.andFinally(ANormalArc.withSource("Resume").andTarget("Active").with("1", "Default").token());
+	}
+
+	@Test
+	public void findsEveryMarkingAndTheDeadlock() throws Exception {
+		explorer = new ReachabilityExplorer(buildCloseHand(false));
+		explorer.markPlace("Enabled", "Default", 1);
+		explorer.addMutualExclusion("Done", "Suspended");
+		ReachabilityResult result = explorer.explore();
+		assertTrue(result.isComplete());
+		assertEquals(4, result.getStateCount());
+		assertEquals(4, result.getEdgeCount());
+		assertEquals(2, result.getDepth());
+		assertEquals(1, result.getDeadlockCount());
+		assertEquals(Collections.singletonMap("Done", 1), result.describe(result.getDeadlocks().get(0)));
+		assertTrue(result.getInvariant("mutual exclusion of [Done, Suspended]").holds());
+		assertTrue(result.getUnboundedPlaces().isEmpty());
+	}
+
+	@Test
+	public void reportsInvariantViolationWithExample() throws Exception {
+		explorer = new ReachabilityExplorer(buildCloseHand(true));
+		explorer.markPlace("Enabled", "Default", 1);
+		explorer.addMutualExclusion("Done", "Suspended");
+		ReachabilityResult result = explorer.explore();
+		InvariantViolation violation = result.getInvariants().values().iterator().next();
+		assertTrue(violation.getCount() > 0);
+		Map<String, Integer> example = result.describe(violation.getExample());
+		assertEquals(2, example.size());
+		assertEquals(1, (int) example.get("Done"));
+		assertEquals(1, (int) example.get("Suspended"));
+	}
+
+	@Test
+	public void reportsUnboundedPlace() throws Exception {
+		PetriNet petriNet = APetriNet.named("producer").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Count")).and(AnImmediateTransition.withId("Produce")).
+				andFinally(ANormalArc.withSource("Produce").andTarget("Count").with("1", "Default").token());
+		explorer = new ReachabilityExplorer(petriNet);
+		explorer.setBitsPerSlot(4);
+		ReachabilityResult result = explorer.explore();
+		assertFalse(result.isComplete());
+		assertEquals(16, result.getStateCount());
+		assertEquals(Arrays.asList("Count"), result.getUnboundedPlaces());
+		assertEquals(Arrays.asList("Count"), result.getBoundExceededPlaces());
+	}
+
+	@Test
+	public void spilledFrontierFindsSameStates() throws Exception {
+		// 14 independent toggles:  2^14 markings, up to 3432 in one level
+		APetriNet net = APetriNet.named("toggles").and(AToken.called("Default").withColor(Color.BLACK));
+		for (int i = 0; i < 14; i++) {
+			net.and(APlace.withId("A"+i)).and(APlace.withId("B"+i)).
+					and(AnImmediateTransition.withId("T"+i)).
+					and(ANormalArc.withSource("A"+i).andTarget("T"+i).with("1", "Default").token()).
+					and(ANormalArc.withSource("T"+i).andTarget("B"+i).with("1", "Default").token());
+		}
+		PetriNet petriNet = net.andFinally(APlace.withId("Unused"));
+		explorer = new ReachabilityExplorer(petriNet);
+		for (int i = 0; i < 14; i++) {
+			explorer.markPlace("A"+i, "Default", 1);
+		}
+		ReachabilityResult inMemory = explorer.explore();
+		explorer.setSpillDirectory(folder.getRoot().toPath(), 1);
+		ReachabilityResult spilled = explorer.explore();
+		assertFalse(inMemory.hasSpilled());
+		assertTrue(spilled.hasSpilled());
+		assertEquals(16384, inMemory.getStateCount());
+		assertEquals(inMemory.getStateCount(), spilled.getStateCount());
+		assertEquals(14, spilled.getDepth());
+		assertEquals(1, spilled.getDeadlockCount());
+	}
+
+	@Test
+	public void hashCompactionFindsSameStates() throws Exception {
+		explorer = new ReachabilityExplorer(buildCloseHand(false));
+		explorer.markPlace("Enabled", "Default", 1);
+		explorer.setHashCompaction(true);
+		assertEquals(4, explorer.explore().getStateCount());
+	}
+
+	private IncludeHierarchy buildParallelChildren(int children) throws Exception {
+		IncludeHierarchy includes = new IncludeHierarchy(APetriNet.named("root").
+				and(AToken.called("Default").withColor(Color.BLACK)).andFinally(APlace.withId("Idle")), "Grasp");
+		for (int i = 0; i < children; i++) {
+			includes.include(APetriNet.named("child"+i).and(AToken.called("Default").withColor(Color.BLACK)).
+					and(APlace.withId("P0")).and(APlace.withId("P1")).and(APlace.withId("P2")).
+					and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+					and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+					and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+					and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+					andFinally(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()), "Child"+i);
+		}
+		return includes;
+	}
+
+	private ReachabilityExplorer parallelChildrenExplorer(int children) throws Exception {
+		ReachabilityExplorer childExplorer = new ReachabilityExplorer(buildParallelChildren(children));
+		for (int i = 0; i < children; i++) {
+			childExplorer.markPlace("Grasp.Child"+i+".P0", "Default", 1);
+		}
+		return childExplorer;
+	}
+
+	@Test
+	public void partialOrderReductionExploresOneInterleavingOfIndependentChildren() throws Exception {
+		explorer = parallelChildrenExplorer(4);
+		ReachabilityResult full = explorer.explore();
+		explorer.setPartialOrderReduction(true);
+		ReachabilityResult reduced = explorer.explore();
+		assertEquals(81, full.getStateCount());
+		assertTrue(reduced.isPartialOrderReduced());
+		assertEquals(9, reduced.getStateCount());
+		assertEquals(full.getDeadlockCount(), reduced.getDeadlockCount());
+		assertEquals(full.describe(full.getDeadlocks().get(0)), reduced.describe(reduced.getDeadlocks().get(0)));
+	}
+
+	@Test
+	public void symmetryReductionTreatsIdenticalChildrenAsOne() throws Exception {
+		explorer = parallelChildrenExplorer(4);
+		explorer.setSymmetryReduction(true);
+		ReachabilityResult result = explorer.explore();
+		assertEquals(Arrays.asList(Arrays.asList("Grasp.Child0", "Grasp.Child1", "Grasp.Child2", "Grasp.Child3")),
+				result.getSymmetricIncludes());
+		// markings are multisets of 4 children over 3 places
+		assertEquals(15, result.getStateCount());
+		assertEquals(1, result.getDeadlockCount());
+	}
+
+	@Test
+	public void childReadByInvariantIsNotExchanged() throws Exception {
+		explorer = parallelChildrenExplorer(3);
+		explorer.addMutualExclusion("Grasp.Child0.P1", "Grasp.Child0.P2");
+		explorer.setSymmetryReduction(true);
+		explorer.setPartialOrderReduction(true);
+		ReachabilityResult result = explorer.explore();
+		assertEquals(Arrays.asList(Arrays.asList("Grasp.Child1", "Grasp.Child2")), result.getSymmetricIncludes());
+		assertTrue(result.getInvariants().values().iterator().next().holds());
+		assertEquals(1, result.getDeadlockCount());
+	}
+}
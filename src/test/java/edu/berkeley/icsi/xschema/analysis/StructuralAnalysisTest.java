@@ -0,0 +1,167 @@
+package edu.berkeley.icsi.xschema.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import edu.berkeley.icsi.xschema.runner.CompiledHierarchy;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+public class StructuralAnalysisTest {
+
+	private Map<String, String> tokenweights;
+	private IncludeHierarchy includes;
+	private CompiledHierarchy hierarchy;
+	private StructuralAnalysisCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		tokenweights = new HashMap<String, String>();
+		tokenweights.put("Default", "1");
+		PetriNet grasp = buildGrasp();
+		grasp.getComponent("Enabled", Place.class).setTokenCount("Default", 1);
+		includes = new IncludeHierarchy(grasp, "Grasp");
+		hierarchy = new CompiledHierarchy(includes);
+		hierarchy.include(includes, buildCloseHand(), "Close_hand");
+		cache = new StructuralAnalysisCache(hierarchy);
+	}
+
+	@Test
+	public void mergedHierarchyIsCoveredByPlaceInvariants() throws Exception {
+		mergeBothWays();
+		StructuralAnalysis analysis = cache.get();
+		assertTrue(analysis.isComplete());
+		assertEquals(2, analysis.getPlaceInvariants().getRowCount());
+		assertTrue(analysis.isBounded());
+		assertEquals(1, analysis.getBound("Grasp.Ongoing"));
+		assertTrue(analysis.isSafe(analysis.getNet().placeIndex("Grasp.Ongoing")));
+		assertEquals(1, analysis.getBound("Grasp.Close_hand.Done"));
+	}
+
+	@Test
+	public void transitionInvariantsAreTheCyclesOfTheGrasp() throws Exception {
+		mergeBothWays();
+		StructuralAnalysis analysis = cache.get();
+		CompiledNet net = analysis.getNet();
+		SparseIntMatrix invariants = analysis.getTransitionInvariants();
+		assertEquals(2, invariants.getRowCount());
+		int close = net.transitionIndex("Grasp.Close_hand.Close");
+		int slip = net.transitionIndex("Grasp.Close_hand.Slip");
+		for (int row = 0; row < invariants.getRowCount(); row++) {
+			assertEquals(1, invariants.get(row, net.transitionIndex("Grasp.Start")));
+			assertEquals(1, invariants.get(row, close) + invariants.get(row, slip));
+		}
+	}
+
+	@Test
+	public void transitionsSharingAnInputAreInConflict() throws Exception {
+		mergeBothWays();
+		StructuralAnalysis analysis = cache.get();
+		CompiledNet net = analysis.getNet();
+		int close = net.transitionIndex("Grasp.Close_hand.Close");
+		int slip = net.transitionIndex("Grasp.Close_hand.Slip");
+		int reset = net.transitionIndex("Grasp.Reset");
+		assertTrue(analysis.isConflict(close, slip));
+		assertArrayEquals(new int[] {slip}, analysis.getConflicts(close));
+		assertTrue(analysis.isIndependent(close, reset));
+		assertFalse(analysis.isIndependent(close, close));
+	}
+
+	@Test
+	public void placeInvariantsRuleOutConcurrency() throws Exception {
+		mergeBothWays();
+		StructuralAnalysis analysis = cache.get();
+		CompiledNet net = analysis.getNet();
+		int close = net.transitionIndex("Grasp.Close_hand.Close");
+		int slip = net.transitionIndex("Grasp.Close_hand.Slip");
+		int start = net.transitionIndex("Grasp.Start");
+		int reset = net.transitionIndex("Grasp.Reset");
+		// in conflict, but enabled together by the token in Close_hand.Enabled
+		assertTrue(analysis.isConcurrent(close, slip));
+		assertArrayEquals(new int[] {slip}, analysis.getConcurrent(close));
+		// independent, but Grasp.Enabled and Grasp.Done share one token
+		assertTrue(analysis.isIndependent(start, reset));
+		assertFalse(analysis.isConcurrent(start, reset));
+		assertFalse(analysis.isConcurrent(close, close));
+	}
+
+	@Test
+	public void mergeArcWithoutReturnLeavesIncludeUnbounded() throws Exception {
+		StructuralAnalysis before = cache.get();
+		assertTrue(before.isBounded());
+		hierarchy.mergeArc(false, includes, "Close_hand", "Enabled", "Start", tokenweights);
+		StructuralAnalysis after = cache.get();
+		assertEquals(Arrays.asList("Grasp.Close_hand.Done", "Grasp.Close_hand.Enabled", "Grasp.Close_hand.Ongoing"),
+				sorted(after.unboundedSince(before)));
+		assertEquals(0, after.getTransitionInvariants().getRowCount());
+		assertEquals(1, after.getBound("Grasp.Ongoing"));
+	}
+
+	@Test
+	public void analysisRecomputedOnlyAfterEdits() throws Exception {
+		StructuralAnalysis first = cache.get();
+		assertSame(first, cache.get());
+		assertEquals(1, cache.getComputeCount());
+		mergeBothWays();
+		assertNotSame(first, cache.get());
+		assertSame(cache.get(), cache.get());
+		assertEquals(2, cache.getComputeCount());
+	}
+
+	private void mergeBothWays() throws Exception {
+		hierarchy.mergeArc(false, includes, "Close_hand", "Enabled", "Start", tokenweights);
+		hierarchy.mergeArc(true, includes, "Close_hand", "Done", "Finish", tokenweights);
+	}
+
+	private List<String> sorted(List<String> ids) {
+		String[] array = ids.toArray(new String[ids.size()]);
+		Arrays.sort(array);
+		return Arrays.asList(array);
+	}
+
+	private PetriNet buildGrasp() {
+		return APetriNet.named("grasp").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Enabled")).and(APlace.withId("Ongoing")).and(APlace.withId("Done")).
+				and(AnImmediateTransition.withId("Start")).and(AnImmediateTransition.withId("Finish")).
+				and(AnImmediateTransition.withId("Reset")).
+				and(ANormalArc.withSource("Enabled").andTarget("Start").with("1", "Default").token()).
+				and(ANormalArc.withSource("Start").andTarget("Ongoing").with("1", "Default").token()).
+				and(ANormalArc.withSource("Ongoing").andTarget("Finish").with("1", "Default").token()).
+				and(ANormalArc.withSource("Finish").andTarget("Done").with("1", "Default").token()).
+				and(ANormalArc.withSource("Done").andTarget("Reset").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("Reset").andTarget("Enabled").with("1", "Default").token());
+	}
+
+	private PetriNet buildCloseHand() {
+		return APetriNet.named("close_hand").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Enabled")).and(APlace.withId("Ongoing")).and(APlace.withId("Done")).
+				and(AnImmediateTransition.withId("Close")).and(AnImmediateTransition.withId("Slip")).
+				and(AnImmediateTransition.withId("Release")).
+				and(ANormalArc.withSource("Enabled").andTarget("Close").with("1", "Default").token()).
+				and(ANormalArc.withSource("Close").andTarget("Ongoing").with("1", "Default").token()).
+				and(ANormalArc.withSource("Enabled").andTarget("Slip").with("1", "Default").token()).
+				and(ANormalArc.withSource("Slip").andTarget("Ongoing").with("1", "Default").token()).
+				and(ANormalArc.withSource("Ongoing").andTarget("Release").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("Release").andTarget("Done").with("1", "Default").token());
+	}
+}
@@ -0,0 +1,14 @@
+package edu.berkeley.icsi.xschema.ensemble;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.ac.imperial.pipe.models.petrinet.AbstractExternalTransition;
+
+public class CountingExternalTransition extends AbstractExternalTransition {
+
+	@Override
+	public void fire() {
+		((AtomicInteger) context).incrementAndGet();
+	}
+
+}
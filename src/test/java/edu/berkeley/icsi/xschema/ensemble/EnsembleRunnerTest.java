@@ -0,0 +1,98 @@
+package edu.berkeley.icsi.xschema.ensemble;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+public class EnsembleRunnerTest {
+
+	private CompiledNet net;
+	private List<ForkJoinPool> pools;
+
+	@Before
+	public void setUp() throws Exception {
+		pools = new ArrayList<ForkJoinPool>();
+		// Enabled is consumed by either Left or Right, at random
+		PetriNet petriNet = APetriNet.named("choice").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Enabled").externallyAccessible()).and(APlace.withId("LeftDone")).and(APlace.withId("RightDone")).
+				and(AnImmediateTransition.withId("Left")).and(AnImmediateTransition.withId("Right")).
+				and(ANormalArc.withSource("Enabled").andTarget("Left").with("1", "Default").token()).
+				and(ANormalArc.withSource("Enabled").andTarget("Right").with("1", "Default").token()).
+				and(ANormalArc.withSource("Left").andTarget("LeftDone").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("Right").andTarget("RightDone").with("1", "Default").token());
+		net = CompiledNet.compile(petriNet);
+	}
+
+	@After
+	public void tearDown() {
+		for (ForkJoinPool pool : pools) {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void everyRunChoosesOneBranch() throws Exception {
+		EnsembleStatistics statistics = buildEnsemble(new ForkJoinPool(4)).run(0, 1000);
+		assertEquals(1000, statistics.getRuns());
+		assertEquals(1000, statistics.getFirings("Left") + statistics.getFirings("Right"));
+		assertTrue(statistics.getRunsFired("Left") > 300);
+		assertTrue(statistics.getRunsFired("Right") > 300);
+		assertEquals(1000, statistics.getRunsMarked("Enabled"));
+		assertEquals(0, statistics.getMaxTokens("Enabled"));
+		assertEquals(1.0, statistics.getMeanTokens("LeftDone") + statistics.getMeanTokens("RightDone"), 0.0001);
+		assertEquals(1.0, statistics.getMeanRounds(), 0.0001);
+		assertEquals(2, statistics.getFiringHistogram().size());
+	}
+
+	@Test
+	public void resultsDoNotDependOnParallelism() throws Exception {
+		EnsembleStatistics sequential = buildEnsemble(new ForkJoinPool(1)).run(123456l, 500);
+		EnsembleStatistics parallel = buildEnsemble(new ForkJoinPool(8)).run(123456l, 500);
+		assertEquals(sequential.getFiringHistogram(), parallel.getFiringHistogram());
+		assertEquals(sequential.getRunsMarked("LeftDone"), parallel.getRunsMarked("LeftDone"));
+	}
+
+	@Test
+	public void everyRunFiresItsOwnInstanceOfAnExternalClass() throws Exception {
+		PetriNet petriNet = APetriNet.named("sense").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Enabled").externallyAccessible()).and(APlace.withId("Sensed")).
+				and(AnExternalTransition.withId("Sense").andExternalClass("edu.berkeley.icsi.xschema.ensemble.CountingExternalTransition")).
+				and(ANormalArc.withSource("Enabled").andTarget("Sense").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("Sense").andTarget("Sensed").with("1", "Default").token());
+		net = CompiledNet.compile(petriNet);
+		AtomicInteger sensed = new AtomicInteger();
+		EnsembleRunner ensemble = buildEnsemble(new ForkJoinPool(4));
+		ensemble.setTransitionContext("Sense", sensed);
+		EnsembleStatistics statistics = ensemble.run(0, 100);
+		assertEquals(100, statistics.getFirings("Sense"));
+		assertEquals(100, sensed.get());
+		assertEquals(1.0, statistics.getMeanTokens("Sensed"), 0.0001);
+	}
+
+	private EnsembleRunner buildEnsemble(ForkJoinPool pool) throws Exception {
+		pools.add(pool);
+		EnsembleRunner ensemble = new EnsembleRunner(net, pool);
+		ensemble.markPlace("Enabled", "Default", 1);
+		ensemble.setFiringLimit(100);
+		ensemble.setBatchSize(8);
+		return ensemble;
+	}
+}
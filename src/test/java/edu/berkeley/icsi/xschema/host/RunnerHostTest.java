@@ -0,0 +1,197 @@
+package edu.berkeley.icsi.xschema.host;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+public class RunnerHostTest {
+
+	private static final int ROUNDS = 200;
+	private CompiledNet net;
+	private RunnerHost host;
+
+	@Before
+	public void setUp() throws Exception {
+		// a token circulates from P0 through T0 or T1 (a random choice) to P1, and back through T2; T0 also counts
+		PetriNet petriNet = APetriNet.named("choice").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).and(APlace.withId("Count")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(AnImmediateTransition.withId("T2")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("Count").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T2").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+		net = CompiledNet.compile(petriNet);
+	}
+
+	@After
+	public void tearDown() {
+		if (host != null) {
+			host.shutdown();
+		}
+	}
+
+	@Test
+	public void eachInstanceFiresTheSequenceOfADetachedRunnerWithItsSeed() throws Exception {
+		host = new RunnerHost(net, 4);
+		host.setSliceFirings(7);
+		host.setFiringLimit(ROUNDS);
+		List<HostedInstance> instances = startInstances(100);
+		assertTrue(host.awaitQuiescence(10000));
+		for (HostedInstance instance : instances) {
+			CompiledPetriNetRunner runner = new CompiledPetriNetRunner(net);
+			runner.setDetached(true);
+			runner.setSeed(instance.getId());
+			runner.setFiringLimit(ROUNDS);
+			runner.markPlace("P0", "Default", 1);
+			runner.run();
+			assertTrue(instance.isCompleted());
+			assertEquals(ROUNDS, instance.getRound());
+			assertEquals(runner.getMarking().getCount(net.placeIndex("Count"), 0), instance.getCount("Count", "Default"));
+			assertEquals(runner.getMarking().getCount(net.placeIndex("P0"), 0), instance.getCount("P0", "Default"));
+		}
+		assertEquals(100 * ROUNDS, host.getFirings());
+	}
+
+	@Test
+	public void resultsDoNotDependOnSliceOrWorkers() throws Exception {
+		host = new RunnerHost(net, 1);
+		host.setSliceFirings(1000);
+		host.setFiringLimit(ROUNDS);
+		List<HostedInstance> single = startInstances(20);
+		assertTrue(host.awaitQuiescence(10000));
+		host.shutdown();
+		host = new RunnerHost(net, 8);
+		host.setSliceFirings(3);
+		host.setFiringLimit(ROUNDS);
+		List<HostedInstance> sliced = startInstances(20);
+		assertTrue(host.awaitQuiescence(10000));
+		for (int i = 0; i < single.size(); i++) {
+			assertEquals(single.get(i).getCount("Count", "Default"), sliced.get(i).getCount("Count", "Default"));
+		}
+		assertEquals(ROUNDS / 3 + 1, sliced.get(0).getSlices());
+	}
+
+	@Test
+	public void idleInstanceRunsAgainWhenMarked() throws Exception {
+		host = new RunnerHost(net, 2);
+		final AtomicInteger idle = new AtomicInteger();
+		host.setListener(new InstanceListener() {
+			@Override
+			public void instanceIdle(HostedInstance instance) {
+				idle.incrementAndGet();
+			}
+
+			@Override
+			public void instanceCompleted(HostedInstance instance) {
+			}
+		});
+		HostedInstance instance = host.addInstance(1);
+		instance.start();
+		assertTrue(host.awaitQuiescence(10000));
+		assertTrue(instance.isIdle());
+		assertEquals(0, instance.getRound());
+		assertEquals(1, idle.get());
+		instance.markPlace("Count", "Default", 3);
+		assertTrue(host.awaitQuiescence(10000));
+		assertTrue(instance.isIdle());
+		assertEquals(3, instance.getCount("Count", "Default"));
+		assertEquals(2, idle.get());
+		assertEquals(2, instance.getSlices());
+		assertEquals(0, host.getActiveCount());
+	}
+
+	@Test
+	public void removedInstanceIsNotScheduledAgain() throws Exception {
+		host = new RunnerHost(net, 1);
+		host.setSliceFirings(10);
+		HostedInstance instance = host.addInstance(1);
+		instance.markPlace("P0", "Default", 1);
+		host.remove(instance);
+		instance.start();
+		assertTrue(host.awaitQuiescence(10000));
+		assertTrue(instance.isCompleted());
+		assertEquals(0, instance.getRound());
+	}
+
+	@Test(expected = InterfaceException.class)
+	public void markingAnUnknownPlaceThrows() throws Exception {
+		host = new RunnerHost(net, 1);
+		host.addInstance(1).markPlace("P9", "Default", 1);
+	}
+
+	@Test
+	public void eachInstanceFiresItsOwnInstanceOfAnExternalClass() throws Exception {
+		// a token circulates from P0 through the external Sense to P1, and back through T1
+		PetriNet petriNet = APetriNet.named("external").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).
+				and(AnExternalTransition.withId("Sense").andExternalClass(
+						"edu.berkeley.icsi.xschema.ensemble.CountingExternalTransition")).
+				and(AnImmediateTransition.withId("T1")).
+				and(ANormalArc.withSource("P0").andTarget("Sense").with("1", "Default").token()).
+				and(ANormalArc.withSource("Sense").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+		net = CompiledNet.compile(petriNet);
+		host = new RunnerHost(net, 4);
+		host.setSliceFirings(7);
+		host.setFiringLimit(ROUNDS);
+		List<AtomicInteger> sensed = new ArrayList<AtomicInteger>();
+		List<HostedInstance> instances = new ArrayList<HostedInstance>();
+		for (int i = 0; i < 10; i++) {
+			HostedInstance instance = host.addInstance(i);
+			sensed.add(new AtomicInteger());
+			instance.setTransitionContext("Sense", sensed.get(i));
+			instance.markPlace("P0", "Default", 1);
+			instances.add(instance);
+		}
+		HostedInstance unused = host.addInstance(10);
+		for (HostedInstance instance : instances) {
+			instance.start();
+		}
+		assertTrue(host.awaitQuiescence(10000));
+		for (int i = 0; i < instances.size(); i++) {
+			assertEquals(ROUNDS / 2, sensed.get(i).get());
+		}
+		assertNotSame(instances.get(0).getExternalInstance(net.transitionIndex("Sense")),
+				instances.get(1).getExternalInstance(net.transitionIndex("Sense")));
+		assertNull(unused.getExternalInstance(net.transitionIndex("Sense")));
+	}
+
+	private List<HostedInstance> startInstances(int count) throws Exception {
+		List<HostedInstance> instances = new ArrayList<HostedInstance>();
+		for (int i = 0; i < count; i++) {
+			HostedInstance instance = host.addInstance(i);
+			instance.markPlace("P0", "Default", 1);
+			instances.add(instance);
+		}
+		for (HostedInstance instance : instances) {
+			instance.start();
+		}
+		return instances;
+	}
+}
@@ -0,0 +1,114 @@
+package edu.berkeley.icsi.xschema.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import edu.berkeley.icsi.xschema.parameters.ParameterStore;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+public class MetricsRegistryTest {
+
+	private static final int ROUNDS = 100;
+	private CompiledNet net;
+	private CompiledPetriNetRunner runner;
+	private MetricsRegistry registry;
+
+	@Before
+	public void setUp() throws Exception {
+		// a token circulates P0 -> T0 or T1 -> P1 -> external T2 -> P0
+		PetriNet petriNet = APetriNet.named("metrics").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(AnExternalTransition.withId("T2").andExternalClass(
+						"edu.berkeley.icsi.xschema.parameters.TestingApproachParameterTransition")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T2").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+		net = CompiledNet.compile(petriNet);
+		runner = new CompiledPetriNetRunner(net);
+		runner.setSeed(123456l);
+		runner.setFiringLimit(ROUNDS);
+		runner.markPlace("P0", "Default", 1);
+		ParameterStore store = new ParameterStore("{\"transitions\":{\"T2\":{\"num\":1}}}");
+		store.setActiveTransition("T2");
+		runner.setTransitionContext("T2", store);
+		registry = new MetricsRegistry();
+		runner.setMetrics(registry);
+	}
+
+	@Test
+	public void countsEveryFiringAndExternalLatency() throws Exception {
+		runner.run();
+		assertEquals(1, registry.getRuns());
+		assertEquals(ROUNDS, registry.getFirings());
+		Map<String, Long> counts = registry.getFireCounts();
+		assertEquals(ROUNDS / 2, (long) counts.get("T2"));
+		assertEquals(ROUNDS / 2, counts.get("T0") + counts.get("T1"));
+		assertEquals(ROUNDS / 2, registry.getExternalLatency(net.transitionIndex("T2")).getCount());
+		assertNull(registry.getExternalLatency(net.transitionIndex("T0")));
+		assertEquals(ROUNDS, registry.getEnabled().getCount());
+		assertEquals(2, registry.getEnabled().getMax());
+		assertEquals(0, registry.getListeners().getCount());
+		assertEquals(ROUNDS, (long) registry.getFireCountsByInclude().get(""));
+	}
+
+	@Test
+	public void measuresListenerTime() throws Exception {
+		runner.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+			}
+		});
+		runner.run();
+		assertEquals(ROUNDS, registry.getListeners().getCount());
+	}
+
+	@Test
+	public void jmxExporterReadsRegistry() throws Exception {
+		runner.run();
+		JmxMetricsExporter exporter = new JmxMetricsExporter(registry, "metricsTest");
+		exporter.register();
+		try {
+			assertEquals((long) ROUNDS, ManagementFactory.getPlatformMBeanServer().getAttribute(
+					exporter.getObjectName(), "Firings"));
+			assertTrue(exporter.getExternalFireP99Nanos().containsKey("T2"));
+		} finally {
+			exporter.unregister();
+		}
+	}
+
+	@Test
+	public void histogramPercentilesWithinFactorOfTwo() throws Exception {
+		Histogram histogram = new Histogram();
+		for (int value = 1; value <= 1000; value++) {
+			histogram.record(value);
+		}
+		assertEquals(1, histogram.getMin());
+		assertEquals(1000, histogram.getMax());
+		assertEquals(500.5, histogram.getMean(), 0.0001);
+		long p50 = histogram.getPercentile(50);
+		assertTrue((p50 >= 500) && (p50 < 1000));
+		assertEquals(1000, histogram.getPercentile(100));
+	}
+}
@@ -0,0 +1,174 @@
+package edu.berkeley.icsi.xschema.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.DiscreteExternalTransition;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.InboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.OutboundNormalArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.PlaceStatusInterface;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+
+public class ModelImageTest {
+
+	private static final String CLOSE_CLASS = "edu.berkeley.icsi.xschema.parameters.TestingApproachParameterTransition";
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private Map<String, String> tokenweights;
+	private IncludeHierarchy includes;
+
+	@Before
+	public void setUp() throws Exception {
+		tokenweights = new HashMap<String, String>();
+		tokenweights.put("Default", "1");
+		PetriNet basicControl = APetriNet.named("net1").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Enabled")).and(APlace.withId("Ongoing")).and(APlace.withId("Done")).
+				and(AnImmediateTransition.withId("Start")).and(AnImmediateTransition.withId("Finish")).
+				and(ANormalArc.withSource("Enabled").andTarget("Start").with("1", "Default").token()).
+				and(ANormalArc.withSource("Start").andTarget("Ongoing").with("1", "Default").token()).
+				and(ANormalArc.withSource("Ongoing").andTarget("Finish").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("Finish").andTarget("Done").with("1", "Default").token());
+		PetriNet closeHand = APetriNet.named("net2").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Enabled")).and(APlace.withId("Missed")).and(APlace.withId("Done")).
+				and(AnExternalTransition.withId("Close").andExternalClass(CLOSE_CLASS)).
+				and(ANormalArc.withSource("Enabled").andTarget("Close").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("Close").andTarget("Done").with("1", "Default").token());
+		includes = new IncludeHierarchy(basicControl, "Grasp");
+		includes.include(closeHand, "Close_hand");
+		includes.getInclude("Close_hand").addToInterface(closeHand.getComponent("Enabled", Place.class), true, false, false, false);
+		includes.addAvailablePlaceToPetriNet(includes.getInterfacePlace("Close_hand.Enabled"));
+		basicControl.add(new OutboundNormalArc(basicControl.getComponent("Start", Transition.class),
+				includes.getInterfacePlace("Close_hand.Enabled"), tokenweights));
+		includes.getInclude("Close_hand").addToInterface(closeHand.getComponent("Done", Place.class), true, false, false, false);
+		includes.addAvailablePlaceToPetriNet(includes.getInterfacePlace("Close_hand.Done"));
+		basicControl.add(new InboundNormalArc(includes.getInterfacePlace("Close_hand.Done"),
+				basicControl.getComponent("Finish", Transition.class), tokenweights));
+		Place missed = closeHand.getComponent("Missed", Place.class);
+		PlaceStatusInterface status = new PlaceStatusInterface(missed, includes.getInclude("Close_hand"));
+		status.setExternal(true);
+		status.setInputOnlyArcConstraint(true);
+		status.update();
+		missed.setStatus(status);
+		basicControl.getComponent("Enabled", Place.class).setTokenCount("Default", 1);
+	}
+
+	@Test
+	public void netRoundTripsThroughFile() throws Exception {
+		PetriNet closeHand = includes.getInclude("Close_hand").getPetriNet();
+		Path path = folder.newFile("close_hand.xsm").toPath();
+		ModelWriter.write(closeHand).write(path);
+		ModelImage image = ModelImage.read(path);
+		assertFalse(image.isHierarchy());
+		assertEquals(Files.size(path), image.size());
+		PetriNet copy = image.buildPetriNet();
+		assertEquals("net2", copy.getNameValue());
+		assertEquals(CLOSE_CLASS, ((DiscreteExternalTransition) copy.getComponent("Close", Transition.class)).getClassName());
+		assertSameStructure(CompiledNet.compile(closeHand), CompiledNet.compile(copy));
+	}
+
+	@Test
+	public void hierarchyRoundTripsWithMergeArcsAndStatus() throws Exception {
+		Path path = folder.newFile("grasp.xsm").toPath();
+		ModelWriter.write(includes).write(path);
+		ModelImage image = ModelImage.read(path);
+		assertTrue(image.isHierarchy());
+		assertEquals(Arrays.asList("Grasp", "Grasp.Close_hand"), image.getIncludeNames());
+		IncludeHierarchy copy = image.buildHierarchy();
+		assertEquals("Grasp", copy.getName());
+		assertNotNull(copy.getInterfacePlace("Close_hand.Enabled"));
+		assertNotNull(copy.getInterfacePlace("Close_hand.Done"));
+		Place missed = copy.getInclude("Close_hand").getPetriNet().getComponent("Missed", Place.class);
+		assertTrue(missed.getStatus().isExternal());
+		assertTrue(missed.getStatus().isInputOnlyArcConstraint());
+		assertFalse(missed.getStatus().isOutputOnlyArcConstraint());
+		assertSameStructure(CompiledNet.compile(includes), CompiledNet.compile(copy));
+	}
+
+	@Test
+	public void subtreeBuildsAloneWithoutItsParent() throws Exception {
+		ModelImage image = ModelWriter.write(includes);
+		IncludeHierarchy closeHand = image.buildHierarchy("Grasp.Close_hand");
+		assertEquals("Close_hand", closeHand.getName());
+		PetriNet net = closeHand.getPetriNet();
+		assertEquals(3, net.getPlaces().size());
+		assertEquals(2, net.getArcs().size());
+		assertNotNull(closeHand.getPetriNet().getComponent("Close", DiscreteExternalTransition.class));
+	}
+
+	@Test
+	public void rootNetLeavesOutInterfacePlaces() throws Exception {
+		PetriNet root = ModelWriter.write(includes).buildPetriNet();
+		assertEquals(3, root.getPlaces().size());
+		assertEquals(4, root.getArcs().size());
+		assertEquals(1, (int) root.getComponent("Enabled", Place.class).getTokenCounts().get("Default"));
+	}
+
+	@Test
+	public void wrappedImageCopiesAreIndependent() throws Exception {
+		ModelImage image = ModelWriter.write(includes);
+		PetriNet first = image.buildPetriNet();
+		first.getComponent("Enabled", Place.class).setTokenCount("Default", 5);
+		assertEquals(1, (int) image.buildPetriNet().getComponent("Enabled", Place.class).getTokenCounts().get("Default"));
+	}
+
+	@Test(expected = IOException.class)
+	public void fileThatIsNotAnImageIsRejected() throws Exception {
+		Path path = folder.newFile("other.xsm").toPath();
+		Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14});
+		ModelImage.read(path);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void bufferThatIsNotAnImageIsRejected() throws Exception {
+		ModelImage.wrap(ByteBuffer.allocate(32));
+	}
+
+	private void assertSameStructure(CompiledNet expected, CompiledNet actual) {
+		assertEquals(expected.getPlaceCount(), actual.getPlaceCount());
+		assertEquals(expected.getTransitionCount(), actual.getTransitionCount());
+		assertEquals(expected.getTokenTypeCount(), actual.getTokenTypeCount());
+		for (int place = 0; place < expected.getPlaceCount(); place++) {
+			assertEquals(expected.getPlaceId(place), actual.getPlaceId(place));
+			assertEquals(expected.getCapacity(place), actual.getCapacity(place));
+		}
+		for (int t = 0; t < expected.getTransitionCount(); t++) {
+			assertEquals(expected.getTransitionId(t), actual.getTransitionId(t));
+			assertEquals(expected.isExternal(t), actual.isExternal(t));
+			assertEquals(expected.getPriority(t), actual.getPriority(t));
+		}
+		assertArrayEquals(expected.getInitialMarking(), actual.getInitialMarking());
+		assertArrayEquals(expected.getInputStart(), actual.getInputStart());
+		assertArrayEquals(expected.getInputSlot(), actual.getInputSlot());
+		assertArrayEquals(expected.getInputWeight(), actual.getInputWeight());
+		assertArrayEquals(expected.getOutputStart(), actual.getOutputStart());
+		assertArrayEquals(expected.getOutputSlot(), actual.getOutputSlot());
+		assertArrayEquals(expected.getOutputWeight(), actual.getOutputWeight());
+	}
+}
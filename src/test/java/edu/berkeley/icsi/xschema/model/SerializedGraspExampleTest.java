@@ -0,0 +1,24 @@
+package edu.berkeley.icsi.xschema.model;
+
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.PetriNetRunner;
+import uk.ac.imperial.pipe.runner.Runner;
+import edu.berkeley.icsi.xschema.GraspExampleTest;
+
+/**
+ * Runs every Grasp example on nets and hierarchies that have been written to a {@link ModelImage} and read back;
+ * the report lines must be identical to those of the nets as built.
+ */
+public class SerializedGraspExampleTest extends GraspExampleTest {
+
+	@Override
+	protected Runner buildRunner(PetriNet net) throws Exception {
+		return new PetriNetRunner(ModelWriter.write(net).buildPetriNet());
+	}
+
+	@Override
+	protected Runner buildRunner(IncludeHierarchy includes) throws Exception {
+		return new PetriNetRunner(ModelWriter.write(includes).buildHierarchy().getPetriNet());
+	}
+}
@@ -0,0 +1,114 @@
+package edu.berkeley.icsi.xschema.parameters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+
+import javax.json.JsonObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.JsonParameters;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+public class ParameterStoreTest {
+
+	private static final String JSON = "{\"transitions\":{\"Grasp.Approach.T3\":{\"num\":1,\"speed\":0.5,"
+			+ "\"open\":true,\"hand\":\"left\",\"limits\":[1,2]}}}";
+	private ParameterStore store;
+	private TransitionParameters parameters;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new ParameterStore(JSON);
+		store.setActiveTransition("Grasp.Approach.T3");
+		parameters = store.getActiveTransition();
+	}
+
+	@Test
+	public void parametersAreTyped() throws Exception {
+		assertEquals(5, parameters.size());
+		assertEquals(TransitionParameters.LONG, parameters.getType(parameters.indexOf("num")));
+		assertEquals(1, parameters.getInt("num"));
+		assertEquals(0.5, parameters.getDouble("speed"), 0);
+		assertTrue(parameters.getBoolean("open"));
+		assertEquals("left", parameters.getString("hand"));
+		assertEquals(TransitionParameters.JSON, parameters.getType(parameters.indexOf("limits")));
+		assertEquals(-1, parameters.indexOf("missing"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void throwsForWrongType() throws Exception {
+		parameters.setDouble(parameters.indexOf("num"), 2.5);
+	}
+
+	@Test
+	public void jsonBuiltOnlyAfterChange() throws Exception {
+		JsonObject before = parameters.toJsonObject();
+		assertSame(before, parameters.toJsonObject());
+		int num = parameters.indexOf("num");
+		parameters.add(num, 1);
+		JsonObject after = parameters.toJsonObject();
+		assertNotSame(before, after);
+		assertEquals(2, after.getInt("num"));
+		assertEquals("left", after.getString("hand"));
+		assertEquals(2, after.getJsonArray("limits").size());
+	}
+
+	@Test
+	public void jsonParametersExportedOnlyAfterChange() throws Exception {
+		JsonParameters exported = store.getJsonParameters();
+		assertEquals(1, exported.getActiveTransition().getJsonObject().getInt("num"));
+		assertSame(exported, store.getJsonParameters());
+		parameters.setInt("num", 7);
+		JsonParameters changed = store.getJsonParameters();
+		assertNotSame(exported, changed);
+		assertEquals(7, changed.getActiveTransition().getJsonObject().getInt("num"));
+	}
+
+	@Test
+	public void jsonParametersExportedAfterActiveTransitionChanges() throws Exception {
+		store = new ParameterStore("{\"transitions\":{\"Grasp.Approach.T3\":{\"num\":1},\"Grasp.Close.T1\":{\"num\":2}}}");
+		store.setActiveTransition("Grasp.Approach.T3");
+		JsonParameters exported = store.getJsonParameters();
+		assertEquals(1, exported.getActiveTransition().getJsonObject().getInt("num"));
+		store.setActiveTransition("Grasp.Close.T1");
+		assertEquals(2, store.getJsonParameters().getActiveTransition().getJsonObject().getInt("num"));
+	}
+
+	@Test
+	public void storeRoundTripsThroughJson() throws Exception {
+		ParameterStore copy = new ParameterStore(store.toString());
+		assertEquals(store.toJsonObject(), copy.toJsonObject());
+		assertFalse(copy.hasTransition("Grasp.Close_hand.Close"));
+	}
+
+	@Test
+	public void transitionUpdatesParametersInPlaceWhenFired() throws Exception {
+		PetriNet net = APetriNet.named("approach").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Ready").externallyAccessible()).and(APlace.withId("Done")).
+				and(AnExternalTransition.withId("T3").andExternalClass(
+						"edu.berkeley.icsi.xschema.parameters.TestingApproachParameterTransition")).
+				and(ANormalArc.withSource("Ready").andTarget("T3").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T3").andTarget("Done").with("1", "Default").token());
+		CompiledPetriNetRunner runner = new CompiledPetriNetRunner(net);
+		runner.setSeed(123456l);
+		runner.setFiringLimit(10);
+		runner.markPlace("Ready", "Default", 3);
+		runner.setTransitionContext("T3", store);
+		runner.run();
+		assertEquals(4, parameters.getInt("num"));
+		assertEquals(4, store.getJsonParameters().getActiveTransition().getJsonObject().getInt("num"));
+	}
+}
@@ -0,0 +1,19 @@
+package edu.berkeley.icsi.xschema.parameters;
+
+/**
+ * TestingApproachExternalTransition, updating "num" in place rather than rebuilding its JSON.
+ */
+public class TestingApproachParameterTransition extends AbstractTransitionParameters {
+
+	private int num;
+
+	@Override
+	protected void resolve(TransitionParameters parameters) {
+		num = parameters.indexOf("num");
+	}
+
+	@Override
+	public void fire() {
+		getParameters().add(num, 1);
+	}
+}
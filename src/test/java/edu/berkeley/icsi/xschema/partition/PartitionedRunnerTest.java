@@ -0,0 +1,209 @@
+package edu.berkeley.icsi.xschema.partition;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.Firing;
+import uk.ac.imperial.pipe.runner.Runner;
+import edu.berkeley.icsi.xschema.runner.CompiledHierarchy;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+public class PartitionedRunnerTest {
+
+	private CompiledNet net;
+	private IncludeHierarchy includes;
+	private Partitioning partitioning;
+
+	@Before
+	public void setUp() throws Exception {
+		partition(buildCycle("net2"));
+	}
+
+	private void partition(PetriNet closeHand) throws Exception {
+		Map<String, String> tokenweights = new HashMap<String, String>();
+		tokenweights.put("Default", "1");
+		includes = new IncludeHierarchy(buildCycle("net1"), "Grasp");
+		CompiledHierarchy hierarchy = new CompiledHierarchy(includes);
+		hierarchy.include(includes, closeHand, "Close_hand");
+		hierarchy.mergeArc(false, includes, "Close_hand", "P1", "T0", tokenweights);
+		hierarchy.mergeArc(true, includes, "Close_hand", "P2", "T2", tokenweights);
+		net = hierarchy.getCompiledNet();
+		partitioning = Partitioning.byInclude(net, includes);
+	}
+
+	@Test
+	public void componentsAssignedToTheirIncludes() throws Exception {
+		assertEquals(2, partitioning.getPartitionCount());
+		assertEquals("Grasp", partitioning.getName(0));
+		assertEquals("Grasp.Close_hand", partitioning.getName(1));
+		assertEquals(0, partitioning.getPartition(net.transitionIndex("Grasp.T0")));
+		assertEquals(1, partitioning.getPartition(net.transitionIndex("Grasp.Close_hand.T0")));
+		assertEquals(1, partitioning.getOwner(net.placeIndex("Grasp.Close_hand.P1")));
+	}
+
+	@Test
+	public void onlyInterfacePlacesAreShared() throws Exception {
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			String id = net.getPlaceId(place);
+			boolean merged = id.equals("Grasp.Close_hand.P1") || id.equals("Grasp.Close_hand.P2");
+			assertEquals(id, merged, partitioning.isShared(place));
+		}
+		int shared = net.placeIndex("Grasp.Close_hand.P2");
+		assertArrayEquals(new int[] {0, 1}, partitioning.getPartitions(shared));
+		assertTrue(partitioning.keeps(0, shared));
+		assertFalse(partitioning.keeps(0, net.placeIndex("Grasp.Close_hand.P0")));
+	}
+
+	@Test
+	public void firesSameSequenceAsCompiledRunnerInProcess() throws Exception {
+		assertSameRun(new InProcessTransport(3));
+	}
+
+	@Test
+	public void firesSameSequenceAsCompiledRunnerOverSockets() throws Exception {
+		assertSameRun(SocketTransport.loopback(3));
+	}
+
+	@Test
+	public void contextsAndTokenListenersAreForwardedToTheOwningPartition() throws Exception {
+		partition(buildCycle("net2", "edu.berkeley.icsi.xschema.ensemble.CountingExternalTransition"));
+		Transport transport = new InProcessTransport(3);
+		PartitionedRunner partitioned = new PartitionedRunner(partitioning, transport);
+		partitioned.localPartitions();
+		AtomicInteger fired = new AtomicInteger();
+		partitioned.setTransitionContext("Grasp.Close_hand.T1", fired);
+		final List<Integer> counts = new ArrayList<Integer>();
+		partitioned.listenForTokenChanges(new PropertyChangeListener() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public void propertyChange(PropertyChangeEvent evt) {
+				synchronized (counts) {
+					counts.add(((Map<String, Integer>) evt.getNewValue()).get("Default"));
+				}
+			}
+		}, "Grasp.Close_hand.P2");
+		try {
+			List<String> firings = run(partitioned);
+			int expected = 0;
+			for (String transition : firings) {
+				if (transition.equals("Grasp.Close_hand.T1")) {
+					expected++;
+				}
+			}
+			assertTrue(expected > 0);
+			assertEquals(expected, fired.get());
+			int slot = net.slot(net.placeIndex("Grasp.Close_hand.P2"), net.tokenIndex("Default"));
+			synchronized (counts) {
+				assertFalse(counts.isEmpty());
+				assertEquals(partitioned.getCounts()[slot], (int) counts.get(counts.size() - 1));
+			}
+		} finally {
+			partitioned.shutdown();
+			transport.close();
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void contextsNeedLocalPartitions() throws Exception {
+		partition(buildCycle("net2", "edu.berkeley.icsi.xschema.ensemble.CountingExternalTransition"));
+		new PartitionedRunner(partitioning, new InProcessTransport(3)).setTransitionContext("Grasp.Close_hand.T1", new AtomicInteger());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void transportNeedsEndpointForRunner() throws Exception {
+		new PartitionedRunner(partitioning, new InProcessTransport(2));
+	}
+
+	private void assertSameRun(Transport transport) throws Exception {
+		CompiledPetriNetRunner compiled = new CompiledPetriNetRunner(net);
+		List<String> expected = run(compiled);
+		PartitionedRunner partitioned = new PartitionedRunner(partitioning, transport);
+		partitioned.localPartitions();
+		try {
+			List<String> actual = run(partitioned);
+			assertEquals(101, actual.size());
+			assertEquals(expected, actual);
+			assertArrayEquals(compiled.getMarking().getCounts(), partitioned.getCounts());
+		} finally {
+			partitioned.shutdown();
+			transport.close();
+		}
+	}
+
+	private List<String> run(Runner runner) throws Exception {
+		final List<String> firings = new ArrayList<String>();
+		runner.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (evt.getPropertyName().equals(CompiledPetriNetRunner.UPDATED_STATE)) {
+					firings.add(((Firing) evt.getNewValue()).transition);
+				}
+			}
+		});
+		if (runner instanceof CompiledPetriNetRunner) {
+			((CompiledPetriNetRunner) runner).setDetached(true);
+		} else {
+			((PartitionedRunner) runner).setDetached(true);
+		}
+		runner.setSeed(123456l);
+		runner.setFiringLimit(100);
+		runner.markPlace("Grasp.P0", "Default", 2);
+		runner.markPlace("Grasp.Close_hand.P0", "Default", 3);
+		runner.run();
+		return firings;
+	}
+
+	/**
+	 * T0 moves a token from P0 to P1, T1 from P1 to P2, and T2 from P2 back to P0.
+	 */
+	private PetriNet buildCycle(String name) {
+		return APetriNet.named(name).and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0")).and(APlace.withId("P1")).and(APlace.withId("P2")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(AnImmediateTransition.withId("T2")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()).
+				and(ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+	}
+
+	/**
+	 * As {@link #buildCycle(String)}, with T1 external.
+	 */
+	private PetriNet buildCycle(String name, String externalClass) {
+		return APetriNet.named(name).and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0")).and(APlace.withId("P1")).and(APlace.withId("P2")).
+				and(AnImmediateTransition.withId("T0")).and(AnExternalTransition.withId("T1").andExternalClass(externalClass)).
+				and(AnImmediateTransition.withId("T2")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()).
+				and(ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+	}
+}
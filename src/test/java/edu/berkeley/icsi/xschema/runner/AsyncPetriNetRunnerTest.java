@@ -0,0 +1,145 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.Firing;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+
+public class AsyncPetriNetRunnerTest implements PropertyChangeListener, AsyncExternalTransition {
+
+	private ExecutorService sensor;
+	private AsyncPetriNetRunner runner;
+	private List<String> fired;
+	private CountDownLatch rested;
+	private volatile List<String> firedBeforeCompletion;
+	private volatile Exception sensorFailure;
+
+	@Before
+	public void setUp() throws Exception {
+		sensor = Executors.newSingleThreadExecutor();
+		fired = new CopyOnWriteArrayList<String>();
+		rested = new CountDownLatch(1);
+		// Start marks both Closing_requested (for the slow external Close) and Busy (an independent chain of two steps);
+		// Finish needs Close_sensed and Idle
+		PetriNet net = APetriNet.named("async").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Enabled").externallyAccessible()).and(APlace.withId("Closing_requested")).
+				and(APlace.withId("Close_sensed").externallyAccessible()).and(APlace.withId("Busy")).
+				and(APlace.withId("Working")).and(APlace.withId("Idle")).and(APlace.withId("Done")).
+				and(AnImmediateTransition.withId("Start")).and(AnImmediateTransition.withId("Work")).
+				and(AnImmediateTransition.withId("Rest")).and(AnImmediateTransition.withId("Finish")).
+				and(AnExternalTransition.withId("Close").andExternalClass("edu.berkeley.icsi.xschema.TestingCloseExternalTransition")).
+				and(ANormalArc.withSource("Enabled").andTarget("Start").with("1", "Default").token()).
+				and(ANormalArc.withSource("Start").andTarget("Closing_requested").with("1", "Default").token()).
+				and(ANormalArc.withSource("Start").andTarget("Busy").with("1", "Default").token()).
+				and(ANormalArc.withSource("Closing_requested").andTarget("Close").with("1", "Default").token()).
+				and(ANormalArc.withSource("Busy").andTarget("Work").with("1", "Default").token()).
+				and(ANormalArc.withSource("Work").andTarget("Working").with("1", "Default").token()).
+				and(ANormalArc.withSource("Working").andTarget("Rest").with("1", "Default").token()).
+				and(ANormalArc.withSource("Rest").andTarget("Idle").with("1", "Default").token()).
+				and(ANormalArc.withSource("Close_sensed").andTarget("Finish").with("1", "Default").token()).
+				and(ANormalArc.withSource("Idle").andTarget("Finish").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("Finish").andTarget("Done").with("1", "Default").token());
+		runner = new AsyncPetriNetRunner(net);
+		runner.setAsyncTransition("Close", this, "Close_sensed");
+		runner.addPropertyChangeListener(this);
+		runner.setFiringLimit(100);
+		runner.setSeed(123456l);
+	}
+
+	@After
+	public void tearDown() {
+		sensor.shutdownNow();
+	}
+
+	@Test
+	public void independentTransitionsFireWhileExternalActionIsOutstanding() throws Exception {
+		runner.markPlace("Enabled", "Default", 1);
+		runner.run();
+		assertNull(sensorFailure);
+		assertEquals(5, runner.getFirings());
+		assertEquals("Finish", fired.get(fired.size() - 1));
+		// the sensor holds its completion until Rest fires, so Work and Rest can only fire while Close is outstanding
+		assertTrue(firedBeforeCompletion.contains("Work"));
+		assertTrue(firedBeforeCompletion.contains("Rest"));
+		assertFalse(firedBeforeCompletion.contains("Finish"));
+		assertEquals(1, runner.getStarted());
+		assertEquals(1, runner.getCompleted());
+		assertEquals(0, runner.getOutstanding());
+		assertEquals(1, runner.getMarking().getPlaceTotal(runner.getCompiledNet().placeIndex("Done")));
+		assertTrue(runner.getFiringsPerSecond() > 0);
+	}
+
+	@Test
+	public void runEndsWhenCompletionTimesOut() throws Exception {
+		runner.setAsyncTransition("Close", new AsyncExternalTransition() {
+			@Override
+			public void start(Object context, ExternalCompletion completion) {
+			}
+		}, null);
+		runner.setCompletionTimeout(50);
+		runner.markPlace("Enabled", "Default", 1);
+		runner.run();
+		assertEquals(4, runner.getFirings());
+		assertEquals(1, runner.getOutstanding());
+	}
+
+	@Override
+	public void start(final Object context, final ExternalCompletion completion) {
+		sensor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!rested.await(5, TimeUnit.SECONDS)) {
+						sensorFailure = new IllegalStateException("Rest did not fire while Close was outstanding");
+						return;
+					}
+					firedBeforeCompletion = new ArrayList<String>(fired);
+					completion.markPlace((String) context, "Default", 1);
+					completion.complete();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (InterfaceException e) {
+					sensorFailure = e;
+				}
+			}
+		});
+	}
+
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		if (evt.getPropertyName().equals(CompiledPetriNetRunner.UPDATED_STATE)) {
+			Firing firing = (Firing) evt.getNewValue();
+			if (!firing.transition.isEmpty()) {
+				fired.add(firing.transition);
+			}
+			if (firing.transition.equals("Rest")) {
+				rested.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.InboundInhibitorArc;
+import uk.ac.imperial.pipe.models.petrinet.InboundTestArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+public class BatchEnablingTest {
+
+	private CompiledNet net;
+
+	@Before
+	public void setUp() throws Exception {
+		// T0 has six inputs, more than the columns hold; T1 and T3 are inhibited; T2 tests P1 and fills bounded P5
+		PetriNet petriNet = APetriNet.named("wide").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).and(APlace.withId("P2")).
+				and(APlace.withId("P3")).and(APlace.withId("P4")).and(APlace.withId("P5")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(AnImmediateTransition.withId("T2")).and(AnImmediateTransition.withId("T3")).
+				and(AnImmediateTransition.withId("T4")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T0").with("2", "Default").token()).
+				and(ANormalArc.withSource("P2").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P3").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P4").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P5").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P4").with("1", "Default").token()).
+				and(ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).
+				and(ANormalArc.withSource("T2").andTarget("P5").with("1", "Default").token()).
+				and(ANormalArc.withSource("T3").andTarget("P0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P5").andTarget("T4").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T4").andTarget("P2").with("1", "Default").token());
+		Map<String, String> weights = new HashMap<String, String>();
+		weights.put("Default", "1");
+		petriNet.add(new InboundInhibitorArc(place(petriNet, "P4"), transition(petriNet, "T1")));
+		petriNet.add(new InboundInhibitorArc(place(petriNet, "P3"), transition(petriNet, "T3")));
+		petriNet.add(new InboundInhibitorArc(place(petriNet, "P4"), transition(petriNet, "T3")));
+		petriNet.add(new InboundTestArc(place(petriNet, "P1"), transition(petriNet, "T2"), weights));
+		place(petriNet, "P5").setCapacity(1);
+		net = CompiledNet.compile(petriNet);
+	}
+
+	private Place place(PetriNet petriNet, String id) throws Exception {
+		return petriNet.getComponent(id, Place.class);
+	}
+
+	private Transition transition(PetriNet petriNet, String id) throws Exception {
+		return petriNet.getComponent(id, Transition.class);
+	}
+
+	@Test
+	public void batchAgreesWithEvaluationOneTransitionAtATime() throws Exception {
+		BatchEnabling batch = new BatchEnabling(net);
+		assertTrue(batch.getOverflowCount() > 0);
+		Marking marking = new Marking(net);
+		Random random = new Random(123456l);
+		int[] counts = new int[net.getSlotCount()];
+		for (int i = 0; i < 500; i++) {
+			for (int slot = 0; slot < counts.length; slot++) {
+				counts[slot] = random.nextInt(3);
+			}
+			marking.reset(counts);
+			long[] bits = batch.evaluate(marking);
+			for (int transition = 0; transition < net.getTransitionCount(); transition++) {
+				assertEquals(marking.evaluate(transition), BatchEnabling.isSet(bits, transition));
+			}
+		}
+	}
+
+	@Test
+	public void markingWithBatchEnablingTracksTheSameEnabledSet() throws Exception {
+		Marking incremental = new Marking(net);
+		Marking batched = new Marking(net);
+		batched.setBatchEnabling(new BatchEnabling(net));
+		Random random = new Random(42l);
+		int[] slots = new int[net.getSlotCount()];
+		int[] counts = new int[net.getSlotCount()];
+		for (int slot = 0; slot < slots.length; slot++) {
+			slots[slot] = slot;
+		}
+		for (int i = 0; i < 200; i++) {
+			for (int slot = 0; slot < counts.length; slot++) {
+				counts[slot] = random.nextInt(3);
+			}
+			incremental.set(slots, counts, slots.length);
+			batched.set(slots, counts, slots.length);
+			assertSameEnabling(incremental, batched);
+			int fireable = incremental.getFireableCount();
+			if (fireable > 0) {
+				int transition = incremental.select(random.nextInt(fireable));
+				incremental.fire(transition);
+				batched.fire(transition);
+				assertSameEnabling(incremental, batched);
+			}
+		}
+	}
+
+	@Test
+	public void runnerProducesTheSameFiringsWithBatchEnabling() throws Exception {
+		assertEquals(firings(false), firings(true));
+	}
+
+	private List<String> firings(boolean batchEnabling) throws Exception {
+		final List<String> reported = new ArrayList<String>();
+		CompiledPetriNetRunner runner = new CompiledPetriNetRunner(net) {
+			@Override
+			protected void report(String transitionId) {
+				reported.add(transitionId);
+			}
+		};
+		runner.setDetached(true);
+		runner.setBatchEnabling(batchEnabling);
+		runner.setSeed(123456l);
+		runner.setFiringLimit(50);
+		runner.markPlace("P0", "Default", 3);
+		runner.markPlace("P1", "Default", 2);
+		runner.markPlace("P2", "Default", 2);
+		runner.markPlace("P3", "Default", 1);
+		runner.run();
+		return reported;
+	}
+
+	private void assertSameEnabling(Marking expected, Marking actual) {
+		for (int transition = 0; transition < net.getTransitionCount(); transition++) {
+			assertEquals(expected.isEnabled(transition), actual.isEnabled(transition));
+		}
+		assertEquals(expected.getFireableCount(), actual.getFireableCount());
+		for (int k = 0; k < expected.getFireableCount(); k++) {
+			assertEquals(expected.select(k), actual.select(k));
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.Firing;
+
+public class ChainFusionTest {
+
+	private CompiledNet net;
+	private List<Firing> firings;
+	private int changes;
+
+	@Before
+	public void setUp() throws Exception {
+		// P0 -> T0 -> P1 -> T1 -> P2 -> T2 -> P3, as in buildBasicNet
+		PetriNet petriNet = APetriNet.named("chain").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).
+				and(APlace.withId("P2")).and(APlace.withId("P3")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(AnImmediateTransition.withId("T2")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()).
+				and(ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T2").andTarget("P3").with("1", "Default").token());
+		net = CompiledNet.compile(petriNet);
+		firings = new ArrayList<Firing>();
+	}
+
+	private CompiledPetriNetRunner buildRunner(boolean chainFusion) throws Exception {
+		CompiledPetriNetRunner runner = new CompiledPetriNetRunner(net);
+		runner.setDetached(true);
+		runner.setSeed(123456l);
+		runner.setChainFusion(chainFusion);
+		runner.markPlace("P0", "Default", 1);
+		runner.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (evt.getPropertyName().equals(CompiledPetriNetRunner.UPDATED_STATE)) {
+					firings.add((Firing) evt.getNewValue());
+				}
+			}
+		});
+		return runner;
+	}
+
+	@Test
+	public void chainFiresAsOneRound() throws Exception {
+		CompiledPetriNetRunner runner = buildRunner(true);
+		runner.run();
+		assertEquals(1, runner.getRound());
+		assertEquals(3, runner.getFirings());
+		// round 0, and the boundary marking after T2
+		assertEquals(2, firings.size());
+		assertEquals("T2", firings.get(1).transition);
+		assertEquals(1, runner.getMarking().getPlaceTotal(net.placeIndex("P3")));
+	}
+
+	@Test
+	public void chainListenerRebuildsUnfusedTrace() throws Exception {
+		CompiledPetriNetRunner unfused = buildRunner(false);
+		unfused.run();
+		List<Firing> expected = new ArrayList<Firing>(firings.subList(1, firings.size()));
+		firings.clear();
+		final List<Firing> traced = new ArrayList<Firing>();
+		CompiledPetriNetRunner fused = buildRunner(true);
+		fused.setChainListener(new ChainListener() {
+			@Override
+			public void chainFired(FusedStep step) {
+				for (int i = 0; i < step.getLength(); i++) {
+					traced.add(step.getFiring(i));
+				}
+			}
+		});
+		fused.run();
+		assertEquals(expected.size(), traced.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).round, traced.get(i).round);
+			assertEquals(expected.get(i).transition, traced.get(i).transition);
+			assertEquals(expected.get(i).state, traced.get(i).state);
+		}
+	}
+
+	@Test
+	public void tokenListenersSeeOnlyBoundaryMarking() throws Exception {
+		CompiledPetriNetRunner runner = buildRunner(true);
+		TokenListener listener = new TokenListener() {
+			@Override
+			public void tokensChanged(int place, int token, int count) {
+				changes++;
+			}
+		};
+		runner.listenForTokenChanges(listener, "P1");
+		runner.listenForTokenChanges(listener, "P3");
+		runner.run();
+		// P1 goes 0 -> 1 -> 0 inside the chain; only P3 changes between rounds
+		assertEquals(1, changes);
+	}
+
+	@Test
+	public void choicesAndExternalTransitionsEndChains() throws Exception {
+		// T0 or T1 take the token from P0 (a choice), and pass it through P1 to the external T2, back to P0
+		PetriNet petriNet = APetriNet.named("choice").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0")).and(APlace.withId("P1")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(AnExternalTransition.withId("T2").andExternalClass(
+						"edu.berkeley.icsi.xschema.parameters.TestingApproachParameterTransition")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T2").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+		CompiledNet choice = CompiledNet.compile(petriNet);
+		TransitionChains chains = new TransitionChains(choice);
+		assertEquals(choice.transitionIndex("T2"), chains.next(choice.transitionIndex("T0")));
+		assertEquals(choice.transitionIndex("T2"), chains.next(choice.transitionIndex("T1")));
+		assertEquals(-1, chains.next(choice.transitionIndex("T2")));
+		assertEquals(2, chains.getChainLength(choice.transitionIndex("T0")));
+		assertEquals(3, new TransitionChains(net).getChainLength(net.transitionIndex("T0")));
+	}
+}
@@ -0,0 +1,17 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.Runner;
+import edu.berkeley.icsi.xschema.GraspExampleTest;
+
+/**
+ * Runs every Grasp example with a {@link CompiledPetriNetRunner}; the report lines must be identical
+ * to those of PetriNetRunner for the same seed.
+ */
+public class CompiledGraspExampleTest extends GraspExampleTest {
+
+	@Override
+	protected Runner buildRunner(PetriNet net) {
+		return new CompiledPetriNetRunner(net);
+	}
+}
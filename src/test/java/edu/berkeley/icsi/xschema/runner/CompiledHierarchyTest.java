@@ -0,0 +1,124 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.IncludeHierarchy;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+public class CompiledHierarchyTest {
+
+	private Map<String, String> tokenweights;
+	private CompiledHierarchy hierarchy;
+	private IncludeHierarchy includes;
+
+	@Before
+	public void setUp() throws Exception {
+		tokenweights = new HashMap<String, String>();
+		tokenweights.put("Default", "1");
+		includes = new IncludeHierarchy(buildChain("net1", "Enabled", "Ready", "Ongoing", "Done"), "Grasp");
+		hierarchy = new CompiledHierarchy(includes);
+		hierarchy.include(includes, buildChain("net2", "Enabled", "Ready", "Ongoing", "Done"), "Close_hand");
+		hierarchy.mergeArc(false, includes, "Close_hand", "Enabled", "T0", tokenweights);
+		hierarchy.mergeArc(true, includes, "Close_hand", "Done", "T2", tokenweights);
+	}
+
+	@Test
+	public void compilesSameNetAsExecutableNet() throws Exception {
+		assertSameStructure(CompiledNet.compile(includes), hierarchy.getCompiledNet());
+	}
+
+	@Test
+	public void awayPlaceCompiledAsHomePlace() throws Exception {
+		CompiledNet net = hierarchy.getCompiledNet();
+		assertEquals(8, net.getPlaceCount());
+		Set<String> arcs = transitionArcs(net);
+		assertTrue(arcs.contains("Grasp.T0 -> Grasp.Close_hand.Enabled"));
+		assertTrue(arcs.contains("Grasp.Close_hand.Enabled -> Grasp.Close_hand.T0"));
+		assertTrue(arcs.contains("Grasp.Close_hand.Done -> Grasp.T2"));
+	}
+
+	@Test
+	public void onlyEditedIncludesAreReadAgain() throws Exception {
+		CompiledNet net = hierarchy.getCompiledNet();
+		assertEquals(2, hierarchy.getRefreshCount());
+		assertSame(net, hierarchy.getCompiledNet());
+		IncludeHierarchy approach = hierarchy.include(includes, buildChain("net3", "Enabled", "Ready", "Ongoing", "Done"), "Approach");
+		hierarchy.getCompiledNet();
+		assertEquals(3, hierarchy.getRefreshCount());
+		hierarchy.include(approach, buildChain("net4", "Enabled", "Ready", "Ongoing", "Done"), "Grip");
+		hierarchy.mergeArc(false, approach, "Grip", "Enabled", "T1", tokenweights);
+		hierarchy.getCompiledNet();
+		// Grip, and Approach for its away place and merge arc; not Grasp or Close_hand
+		assertEquals(5, hierarchy.getRefreshCount());
+		assertSameStructure(CompiledNet.compile(includes), hierarchy.getCompiledNet());
+	}
+
+	@Test
+	public void refreshReadsOnlyChangedIncludesButCompileRebuildsTheNet() throws Exception {
+		CompiledNet net = hierarchy.getCompiledNet();
+		assertEquals(0, hierarchy.refresh());
+		hierarchy.changed(includes.getInclude("Close_hand"));
+		assertEquals(1, hierarchy.refresh());
+		assertEquals(0, hierarchy.refresh());
+		CompiledNet rebuilt = hierarchy.getCompiledNet();
+		assertEquals(3, hierarchy.getRefreshCount());
+		assertNotSame(net, rebuilt);
+		assertSameStructure(net, rebuilt);
+	}
+
+	private void assertSameStructure(CompiledNet expected, CompiledNet actual) {
+		assertEquals(placeIds(expected), placeIds(actual));
+		assertEquals(transitionArcs(expected), transitionArcs(actual));
+	}
+
+	private Set<String> placeIds(CompiledNet net) {
+		Set<String> ids = new TreeSet<String>();
+		for (int place = 0; place < net.getPlaceCount(); place++) {
+			ids.add(net.getPlaceId(place));
+		}
+		return ids;
+	}
+
+	private Set<String> transitionArcs(CompiledNet net) {
+		Set<String> arcs = new TreeSet<String>();
+		int tokens = net.getTokenTypeCount();
+		for (int t = 0; t < net.getTransitionCount(); t++) {
+			for (int i = net.getInputStart()[t]; i < net.getInputStart()[t + 1]; i++) {
+				arcs.add(net.getPlaceId(net.getInputSlot()[i] / tokens)+" -> "+net.getTransitionId(t));
+			}
+			for (int i = net.getOutputStart()[t]; i < net.getOutputStart()[t + 1]; i++) {
+				arcs.add(net.getTransitionId(t)+" -> "+net.getPlaceId(net.getOutputSlot()[i] / tokens));
+			}
+		}
+		return arcs;
+	}
+
+	private PetriNet buildChain(String name, String p0, String p1, String p2, String p3) {
+		return APetriNet.named(name).and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId(p0)).and(APlace.withId(p1)).and(APlace.withId(p2)).and(APlace.withId(p3)).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(AnImmediateTransition.withId("T2")).
+				and(ANormalArc.withSource(p0).andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget(p1).with("1", "Default").token()).
+				and(ANormalArc.withSource(p1).andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget(p2).with("1", "Default").token()).
+				and(ANormalArc.withSource(p2).andTarget("T2").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T2").andTarget(p3).with("1", "Default").token());
+	}
+}
@@ -0,0 +1,126 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+
+public class ConcurrentPlaceInputTest {
+
+	private static final int PRODUCERS = 8;
+	private static final int ADDS = 20000;
+	private CompiledNet net;
+
+	@Before
+	public void setUp() throws Exception {
+		// each token added to Sensed or Missed is consumed by one firing into Out
+		PetriNet petriNet = APetriNet.named("sensors").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Sensed").externallyAccessible()).and(APlace.withId("Missed").externallyAccessible()).
+				and(APlace.withId("Out")).
+				and(AnImmediateTransition.withId("Consume_sensed")).and(AnImmediateTransition.withId("Consume_missed")).
+				and(ANormalArc.withSource("Sensed").andTarget("Consume_sensed").with("1", "Default").token()).
+				and(ANormalArc.withSource("Missed").andTarget("Consume_missed").with("1", "Default").token()).
+				and(ANormalArc.withSource("Consume_sensed").andTarget("Out").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("Consume_missed").andTarget("Out").with("1", "Default").token());
+		net = CompiledNet.compile(petriNet);
+	}
+
+	@Test
+	public void noTokensLostOrDuplicatedWhileDraining() throws Exception {
+		final ConcurrentPlaceInput input = new ConcurrentPlaceInput(net, Arrays.asList("Sensed", "Missed"));
+		Marking marking = new Marking(net);
+		List<Thread> producers = startProducers(input, new CountDownLatch(0));
+		while (isAlive(producers) || input.hasPending()) {
+			input.drainTo(marking);
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		input.drainTo(marking);
+		int drained = marking.getPlaceTotal(net.placeIndex("Sensed")) + marking.getPlaceTotal(net.placeIndex("Missed"));
+		assertEquals(expectedTotal(), drained);
+		assertFalse(input.hasPending());
+	}
+
+	@Test
+	public void runnerConsumesEveryTokenUnderContention() throws Exception {
+		CompiledPetriNetRunner runner = new CompiledPetriNetRunner(net);
+		ConcurrentPlaceInput input = runner.enableConcurrentInput(Arrays.asList("Sensed", "Missed"));
+		runner.setWaitForExternalInput(true);
+		runner.setInputTimeout(5000);
+		runner.setFiringLimit(expectedTotal());
+		CountDownLatch go = new CountDownLatch(1);
+		List<Thread> producers = startProducers(input, go);
+		go.countDown();
+		runner.run();
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		assertEquals(expectedTotal(), runner.getRound());
+		assertEquals(expectedTotal(), runner.getMarking().getPlaceTotal(net.placeIndex("Out")));
+		assertEquals(0, runner.getMarking().getPlaceTotal(net.placeIndex("Sensed")));
+		assertEquals(0, runner.getMarking().getPlaceTotal(net.placeIndex("Missed")));
+	}
+
+	@Test(expected=InterfaceException.class)
+	public void onlyInputPlacesAcceptTokens() throws Exception {
+		new ConcurrentPlaceInput(net, Arrays.asList("Sensed")).addTokens("Out", "Default", 1);
+	}
+
+	private List<Thread> startProducers(final ConcurrentPlaceInput input, final CountDownLatch go) throws Exception {
+		List<Thread> producers = new ArrayList<Thread>();
+		for (int i = 0; i < PRODUCERS; i++) {
+			final int producer = i;
+			final int sensed = input.inputIndex("Sensed", "Default");
+			final int missed = input.inputIndex("Missed", "Default");
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						go.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int add = 0; add < ADDS; add++) {
+						input.addTokens(((add + producer) % 2 == 0) ? sensed : missed, 1 + (add % 3));
+					}
+				}
+			});
+			thread.start();
+			producers.add(thread);
+		}
+		return producers;
+	}
+
+	private int expectedTotal() {
+		int perProducer = 0;
+		for (int add = 0; add < ADDS; add++) {
+			perProducer += 1 + (add % 3);
+		}
+		return PRODUCERS * perProducer;
+	}
+
+	private boolean isAlive(List<Thread> threads) {
+		for (Thread thread : threads) {
+			if (thread.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,90 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import edu.berkeley.icsi.xschema.parameters.ParameterStore;
+import edu.berkeley.icsi.xschema.parameters.TestingApproachParameterTransition;
+
+public class ExternalClassTest {
+
+	private static final String APPROACH_CLASS = "edu.berkeley.icsi.xschema.parameters.TestingApproachParameterTransition";
+	private CompiledNet net;
+	private ParameterStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		net = CompiledNet.compile(buildNet(APPROACH_CLASS));
+		store = new ParameterStore("{\"transitions\":{\"T0\":{\"num\":1},\"T1\":{\"num\":10}}}");
+	}
+
+	private PetriNet buildNet(String className) throws Exception {
+		return APetriNet.named("approach").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("Ready").externallyAccessible()).and(APlace.withId("Middle")).
+				and(APlace.withId("Done")).
+				and(AnExternalTransition.withId("T0").andExternalClass(className)).
+				and(AnExternalTransition.withId("T1").andExternalClass(className)).
+				and(ANormalArc.withSource("Ready").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("Middle").with("1", "Default").token()).
+				and(ANormalArc.withSource("Middle").andTarget("T1").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T1").andTarget("Done").with("1", "Default").token());
+	}
+
+	private CompiledPetriNetRunner buildRunner() throws Exception {
+		CompiledPetriNetRunner runner = new CompiledPetriNetRunner(net);
+		runner.setDetached(true);
+		runner.setSeed(123456l);
+		runner.setTransitionContext("T0", store.getTransition("T0"));
+		runner.setTransitionContext("T1", store.getTransition("T1"));
+		runner.markPlace("Ready", "Default", 3);
+		return runner;
+	}
+
+	@Test
+	public void classIsResolvedOncePerNet() throws Exception {
+		int t0 = net.transitionIndex("T0");
+		int t1 = net.transitionIndex("T1");
+		assertSame(TestingApproachParameterTransition.class, net.getExternalClass(t0).getType());
+		assertSame(net.getExternalClass(t0), net.getExternalClass(t1));
+	}
+
+	@Test
+	public void instancesAreReusedForEveryFiring() throws Exception {
+		CompiledPetriNetRunner runner = buildRunner();
+		int t0 = net.transitionIndex("T0");
+		Object instance = runner.getExternalInstance(t0);
+		runner.run();
+		assertSame(instance, runner.getExternalInstance(t0));
+		assertEquals(4, store.getTransition("T0").getInt("num"));
+		assertEquals(13, store.getTransition("T1").getInt("num"));
+	}
+
+	@Test
+	public void eachRunnerHasItsOwnInstances() throws Exception {
+		int t0 = net.transitionIndex("T0");
+		assertNotSame(buildRunner().getExternalInstance(t0), buildRunner().getExternalInstance(t0));
+		assertNotSame(buildRunner().getExternalInstance(t0), buildRunner().getExternalInstance(net.transitionIndex("T1")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingClassFailsTheCompile() throws Exception {
+		CompiledNet.compile(buildNet("edu.berkeley.icsi.xschema.NoSuchExternalTransition"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void classWithoutFireIsRejected() throws Exception {
+		ExternalClass.resolve("java.lang.StringBuilder");
+	}
+}
@@ -0,0 +1,74 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+public class MarkingTest {
+
+	private CompiledNet net;
+	private Marking marking;
+
+	@Before
+	public void setUp() throws Exception {
+		// P0 feeds two competing transitions, T0 and T1, each producing into its own place
+		PetriNet petriNet = APetriNet.named("net").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0")).and(APlace.withId("P1")).and(APlace.withId("P2")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token());
+		net = CompiledNet.compile(petriNet);
+		marking = new Marking(net);
+	}
+
+	@Test
+	public void placesAreIndexedInReportOrder() throws Exception {
+		assertEquals(3, net.getPlaceCount());
+		assertEquals("P0", net.getPlaceId(0));
+		assertEquals(2, net.placeIndex("P2"));
+		assertEquals(-1, net.placeIndex("P9"));
+	}
+
+	@Test
+	public void markingEnablesDependentTransitionsOnly() throws Exception {
+		assertEquals(0, marking.getEnabledCount());
+		marking.set(net.slot(net.placeIndex("P0"), 0), 1);
+		assertEquals(2, marking.getFireableCount());
+		assertTrue(marking.isEnabled(net.transitionIndex("T0")));
+		assertTrue(marking.isEnabled(net.transitionIndex("T1")));
+	}
+
+	@Test
+	public void firingDisablesConflictingTransition() throws Exception {
+		marking.set(net.slot(net.placeIndex("P0"), 0), 1);
+		int transition = marking.select(1);
+		marking.fire(transition);
+		assertEquals(0, marking.getEnabledCount());
+		assertFalse(marking.isEnabled(net.transitionIndex("T0")));
+		assertEquals(0, marking.getPlaceTotal(net.placeIndex("P0")));
+		assertEquals(1, marking.getPlaceTotal(net.placeIndex("P1")) + marking.getPlaceTotal(net.placeIndex("P2")));
+	}
+
+	@Test
+	public void selectsEnabledTransitionsInIndexOrder() throws Exception {
+		marking.set(net.slot(net.placeIndex("P0"), 0), 2);
+		int first = marking.select(0);
+		int second = marking.select(1);
+		assertTrue(first < second);
+		assertEquals(-1, new Marking(net, new int[net.getSlotCount()]).select(0));
+	}
+}
@@ -0,0 +1,184 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.NormalRate;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import edu.berkeley.icsi.xschema.metrics.MetricsRegistry;
+
+public class TimedPetriNetRunnerTest {
+
+	private PetriNet petriNet;
+	private List<TimedFiring> firings;
+
+	@Before
+	public void setUp() throws Exception {
+		// P0 -> T0 (timed) -> P1 -> T1 -> P2 -> T2 (timed) -> P3, and P1 -> T3 (timed) -> P4, raced by T1
+		petriNet = APetriNet.named("timed").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).
+				and(APlace.withId("P2")).and(APlace.withId("P3")).and(APlace.withId("P4")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(AnImmediateTransition.withId("T2")).and(AnImmediateTransition.withId("T3")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()).
+				and(ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).
+				and(ANormalArc.withSource("T2").andTarget("P3").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T3").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T3").andTarget("P4").with("1", "Default").token());
+		makeTimed("T0", "2");
+		makeTimed("T2", "0.5");
+		makeTimed("T3", "4");
+		firings = new ArrayList<TimedFiring>();
+	}
+
+	private void makeTimed(String transitionId, String rate) throws Exception {
+		Transition transition = petriNet.getComponent(transitionId, Transition.class);
+		transition.setTimed(true);
+		transition.setRate(new NormalRate(rate));
+	}
+
+	private TimedPetriNetRunner buildRunner(long seed) throws Exception {
+		TimedPetriNetRunner runner = new TimedPetriNetRunner(CompiledNet.compileTimed(petriNet));
+		runner.setDetached(true);
+		runner.setSeed(seed);
+		runner.markPlace("P0", "Default", 1);
+		runner.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (evt.getPropertyName().equals(TimedPetriNetRunner.TIMED_STATE)) {
+					firings.add((TimedFiring) evt.getNewValue());
+				}
+			}
+		});
+		return runner;
+	}
+
+	@Test
+	public void fixedDelaysAdvanceSimulatedTime() throws Exception {
+		TimedPetriNetRunner runner = buildRunner(123456l);
+		runner.setDelay("T0", 2);
+		runner.setDelay("T2", 3);
+		runner.setDelay("T3", 10);
+		runner.run();
+		assertEquals(4, firings.size());
+		assertFiring(0, 0, "");
+		assertFiring(1, 2, "T0");
+		assertFiring(2, 2, "T1");
+		assertFiring(3, 5, "T2");
+		assertEquals(5, runner.getTime(), 0);
+		assertEquals(1, runner.getMarking().getPlaceTotal(runner.getCompiledNet().placeIndex("P3")));
+	}
+
+	@Test
+	public void immediateTransitionDisablesAScheduledFiring() throws Exception {
+		TimedPetriNetRunner runner = buildRunner(123456l);
+		runner.setDelay("T0", 1);
+		runner.setDelay("T2", 1);
+		runner.setDelay("T3", 0);
+		runner.run();
+		// T3 was scheduled when T0 marked P1, but T1 fires first, as it is immediate
+		for (TimedFiring firing : firings) {
+			assertTrue(!firing.transition.equals("T3"));
+		}
+		assertEquals(0, runner.getScheduledCount());
+		assertEquals(2, runner.getTime(), 0);
+	}
+
+	@Test
+	public void timeLimitEndsTheRunBeforeLaterFirings() throws Exception {
+		TimedPetriNetRunner runner = buildRunner(123456l);
+		runner.setDelay("T0", 2);
+		runner.setDelay("T2", 3);
+		runner.setTimeLimit(4);
+		runner.run();
+		assertEquals("T1", firings.get(firings.size() - 1).transition);
+		assertEquals(1, runner.getScheduledCount());
+	}
+
+	@Test
+	public void exponentialDelaysAreReproducibleForASeed() throws Exception {
+		buildRunner(42l).run();
+		List<TimedFiring> first = new ArrayList<TimedFiring>(firings);
+		firings.clear();
+		buildRunner(42l).run();
+		assertEquals(first.size(), firings.size());
+		for (int i = 0; i < first.size(); i++) {
+			assertEquals(first.get(i).time, firings.get(i).time, 0);
+			assertEquals(first.get(i).transition, firings.get(i).transition);
+		}
+		assertTrue(first.get(1).time > 0);
+	}
+
+	@Test
+	public void writerReportsSimulatedTime() throws Exception {
+		TimedPetriNetRunner runner = buildRunner(123456l);
+		runner.setDelay("T0", 2);
+		runner.setDelay("T2", 3);
+		StringWriter report = new StringWriter();
+		runner.addPropertyChangeListener(new TimedFiringWriter(report));
+		runner.run();
+		String[] lines = report.toString().split("\n");
+		assertEquals("\"Time\",\"Round\",\"Transition\",\"P0\",\"P1\",\"P2\",\"P3\",\"P4\"", lines[0]);
+		assertEquals("0.0,0,\"\",0,0,0,0,0", lines[1]);
+		assertEquals("5.0,3,\"T2\",0,0,0,1,0", lines[4]);
+	}
+
+	@Test
+	public void metricsCountTimedFirings() throws Exception {
+		TimedPetriNetRunner runner = buildRunner(123456l);
+		runner.setDelay("T0", 2);
+		runner.setDelay("T2", 3);
+		runner.setDelay("T3", 10);
+		MetricsRegistry registry = new MetricsRegistry();
+		runner.setMetrics(registry);
+		runner.run();
+		assertEquals(1, registry.getRuns());
+		assertEquals(3, registry.getFirings());
+		assertEquals(1, (long) registry.getFireCounts().get("T2"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void chainFusionIsRejected() throws Exception {
+		buildRunner(123456l).setChainFusion(true);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void compiledNetRejectsTimedTransitions() throws Exception {
+		CompiledNet.compile(petriNet);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void functionalRateIsRejected() throws Exception {
+		makeTimed("T3", "#(P1)");
+		CompiledNet.compileTimed(petriNet);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void delayOnlyForTimedTransitions() throws Exception {
+		buildRunner(123456l).setDelay("T1", 1);
+	}
+
+	private void assertFiring(int index, double time, String transition) {
+		assertEquals(time, firings.get(index).time, 0);
+		assertEquals(transition, firings.get(index).transition);
+	}
+}
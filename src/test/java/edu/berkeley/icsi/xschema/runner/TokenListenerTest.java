@@ -0,0 +1,91 @@
+package edu.berkeley.icsi.xschema.runner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+
+public class TokenListenerTest {
+
+	private PetriNet petriNet;
+	private CompiledPetriNetRunner runner;
+	private int changes;
+	private int lastCount;
+	private int events;
+	private Map<?, ?> lastOld;
+	private Map<?, ?> lastNew;
+
+	@Before
+	public void setUp() throws Exception {
+		// P0 -> T0 -> P1 -> T1 -> P2; only P1 is watched
+		petriNet = APetriNet.named("chain").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).and(APlace.withId("P2")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token());
+		runner = new CompiledPetriNetRunner(petriNet);
+		runner.setSeed(123456l);
+	}
+
+	@Test
+	public void typedListenerCalledOncePerChange() throws Exception {
+		runner.listenForTokenChanges(new TokenListener() {
+			@Override
+			public void tokensChanged(int place, int token, int count) {
+				assertEquals(runner.getCompiledNet().placeIndex("P1"), place);
+				changes++;
+				lastCount = count;
+			}
+		}, "P1");
+		runner.markPlace("P0", "Default", 1);
+		runner.setFiringLimit(10);
+		runner.run();
+		// P1:  0 -> 1 on T0, 1 -> 0 on T1
+		assertEquals(2, changes);
+		assertEquals(0, lastCount);
+	}
+
+	@Test
+	public void propertyChangeListenerReceivesTokenMaps() throws Exception {
+		runner.listenForTokenChanges(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				assertEquals(Place.TOKEN_CHANGE_MESSAGE, evt.getPropertyName());
+				events++;
+				lastOld = (Map<?, ?>) evt.getOldValue();
+				lastNew = (Map<?, ?>) evt.getNewValue();
+			}
+		}, "P1");
+		runner.markPlace("P0", "Default", 1);
+		runner.setFiringLimit(10);
+		runner.run();
+		assertEquals(2, events);
+		assertEquals(1, lastOld.get("Default"));
+		assertEquals(0, lastNew.get("Default"));
+	}
+
+	@Test(expected=InterfaceException.class)
+	public void throwsForUnknownPlace() throws Exception {
+		runner.listenForTokenChanges(new TokenListener() {
+			@Override
+			public void tokensChanged(int place, int token, int count) {
+			}
+		}, "P9");
+	}
+}
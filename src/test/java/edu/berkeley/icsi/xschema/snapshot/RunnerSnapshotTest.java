@@ -0,0 +1,129 @@
+package edu.berkeley.icsi.xschema.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.awt.Color;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnExternalTransition;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.Firing;
+import edu.berkeley.icsi.xschema.parameters.ParameterStore;
+import edu.berkeley.icsi.xschema.runner.CompiledNet;
+import edu.berkeley.icsi.xschema.runner.CompiledPetriNetRunner;
+
+public class RunnerSnapshotTest {
+
+	private static final int ROUNDS = 50;
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private CompiledNet net;
+	private CompiledPetriNetRunner runner;
+	private ParameterStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		// a token circulates from P0 through T0 or T1 (a random choice) to P1, and back through the external T2
+		PetriNet petriNet = APetriNet.named("choice").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(AnExternalTransition.withId("T2").andExternalClass(
+						"edu.berkeley.icsi.xschema.parameters.TestingApproachParameterTransition")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T2").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+		net = CompiledNet.compile(petriNet);
+		runner = new CompiledPetriNetRunner(net);
+		runner.setDetached(true);
+		runner.setSeed(123456l);
+		runner.setFiringLimit(ROUNDS);
+		runner.markPlace("P0", "Default", 1);
+		store = new ParameterStore("{\"transitions\":{\"T2\":{\"num\":1}}}");
+		store.setActiveTransition("T2");
+		runner.setTransitionContext("T2", store);
+		runner.run();
+	}
+
+	@Test
+	public void restoredRunnerContinuesAsOriginal() throws Exception {
+		RunnerSnapshot snapshot = RunnerSnapshot.capture(runner);
+		File file = folder.newFile("runner.snapshot");
+		snapshot.write(file.toPath());
+		List<String> expected = continueRun(runner);
+		int[] expectedCounts = runner.getMarking().getCounts();
+
+		CompiledPetriNetRunner restored = new CompiledPetriNetRunner(net);
+		restored.setDetached(true);
+		RunnerSnapshot.read(file.toPath()).restore(restored);
+		assertEquals(ROUNDS, restored.getRound());
+		assertEquals(ROUNDS, restored.getFirings());
+		assertEquals(expected, continueRun(restored));
+		assertArrayEquals(expectedCounts, restored.getMarking().getCounts());
+	}
+
+	@Test
+	public void forksFromOneSnapshotAreIndependentAndIdentical() throws Exception {
+		RunnerSnapshot snapshot = RunnerSnapshot.capture(runner);
+		CompiledPetriNetRunner first = snapshot.fork(net);
+		List<String> firstFirings = continueRun(first);
+		CompiledPetriNetRunner second = snapshot.fork(net);
+		assertEquals(firstFirings, continueRun(second));
+		assertNotSame(first.getTransitionContext(net.transitionIndex("T2")),
+				second.getTransitionContext(net.transitionIndex("T2")));
+	}
+
+	@Test
+	public void parameterContextsRestored() throws Exception {
+		int num = store.getActiveTransition().getInt("num");
+		RunnerSnapshot snapshot = RunnerSnapshot.capture(runner);
+		store.getActiveTransition().setInt("num", 0);
+		CompiledPetriNetRunner restored = snapshot.fork(net);
+		ParameterStore restoredStore = (ParameterStore) restored.getTransitionContext(net.transitionIndex("T2"));
+		assertEquals(num, restoredStore.getActiveTransition().getInt("num"));
+		assertEquals("T2", restoredStore.getActiveTransitionId());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void throwsForDifferentNet() throws Exception {
+		PetriNet other = APetriNet.named("other").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0")).and(AnImmediateTransition.withId("T0")).
+				andFinally(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token());
+		RunnerSnapshot.capture(runner).fork(CompiledNet.compile(other));
+	}
+
+	private List<String> continueRun(CompiledPetriNetRunner continued) {
+		final List<String> firings = new ArrayList<String>();
+		PropertyChangeListener listener = new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (evt.getPropertyName().equals(CompiledPetriNetRunner.UPDATED_STATE)) {
+					firings.add(((Firing) evt.getNewValue()).transition);
+				}
+			}
+		};
+		continued.addPropertyChangeListener(listener);
+		continued.setFiringLimit(2 * ROUNDS);
+		continued.resume();
+		continued.removePropertyChangeListener(listener);
+		return firings;
+	}
+}
@@ -0,0 +1,141 @@
+package edu.berkeley.icsi.xschema.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.runner.FiringWriter;
+import uk.ac.imperial.pipe.runner.PetriNetRunner;
+import uk.ac.imperial.pipe.runner.Runner;
+
+public class FiringLogTest {
+
+	private static final String CSV = "report.csv";
+	private static final String LOG = "report.log";
+
+	@Before
+	public void setUp() {
+		cleanupFiles();
+	}
+
+	@After
+	public void tearDown() {
+		cleanupFiles();
+	}
+
+	@Test
+	public void logRebuildsReportLines() throws Exception {
+		Runner runner = new PetriNetRunner(buildCycleNet());
+		runner.markPlace("P0", "Default", 1);
+		runner.addPropertyChangeListener(new FiringWriter(CSV));
+		runner.addPropertyChangeListener(new FiringLogWriter(LOG));
+		runner.setFiringLimit(20);
+		runner.setSeed(123456l);
+		runner.run();
+		List<String> expected = readCsv();
+		assertEquals(22, expected.size());
+		assertEquals(expected, FiringLogReader.readLines(LOG));
+	}
+
+	@Test
+	public void onlyChangedPlacesAreWrittenAndSmallBuffersAreFlushed() throws Exception {
+		FiringLogWriter writer = new FiringLogWriter(Paths.get(LOG), 64);
+		String[] places = new String[100];
+		for (int i = 0; i < places.length; i++) {
+			places[i] = "Place_with_a_long_identifier_"+i;
+		}
+		writer.start(places);
+		int[] counts = new int[places.length];
+		writer.write(0, "", counts);
+		for (int round = 1; round <= 500; round++) {
+			counts[round % places.length]++;
+			counts[(round + 1) % places.length] = 0;
+			writer.write(round, "T"+(round % 3), counts);
+		}
+		writer.close();
+		assertTrue(new File(LOG).length() < 500 * 10 + 4000);
+
+		FiringLogReader reader = new FiringLogReader(LOG);
+		assertEquals(places.length, reader.getPlaceCount());
+		assertEquals("Place_with_a_long_identifier_99", reader.getPlaceIds()[99]);
+		int[] expected = new int[places.length];
+		int round = 0;
+		while (reader.next()) {
+			if (round > 0) {
+				expected[round % places.length]++;
+				expected[(round + 1) % places.length] = 0;
+				assertEquals("T"+(round % 3), reader.getTransitionId());
+			}
+			assertEquals(round, reader.getRound());
+			for (int place = 0; place < places.length; place++) {
+				assertEquals(expected[place], reader.getCount(place));
+			}
+			round++;
+		}
+		assertEquals(501, round);
+		assertFalse(reader.next());
+		reader.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void roundsCannotBeWrittenDirectlyBeforeStart() throws Exception {
+		FiringLogWriter writer = new FiringLogWriter(LOG);
+		try {
+			writer.write(0, "", new int[2]);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private PetriNet buildCycleNet() {
+		// P0 -> T0 -> P1 -> T1 -> P0, with a branch T2 from P1 to P2 and back through T3
+		return APetriNet.named("cycle").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).and(APlace.withId("P2")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(AnImmediateTransition.withId("T2")).and(AnImmediateTransition.withId("T3")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T2").with("1", "Default").token()).
+				and(ANormalArc.withSource("T2").andTarget("P2").with("1", "Default").token()).
+				and(ANormalArc.withSource("P2").andTarget("T3").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T3").andTarget("P0").with("1", "Default").token());
+	}
+
+	private List<String> readCsv() throws IOException {
+		BufferedReader fileReader = new BufferedReader(new FileReader(CSV));
+		List<String> lines = new ArrayList<String>();
+		String line = fileReader.readLine();
+		while (line != null) {
+			lines.add(line);
+			line = fileReader.readLine();
+		}
+		fileReader.close();
+		return lines;
+	}
+
+	private void cleanupFiles() {
+		new File(CSV).delete();
+		new File(LOG).delete();
+	}
+}
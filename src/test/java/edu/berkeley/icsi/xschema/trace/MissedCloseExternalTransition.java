@@ -0,0 +1,22 @@
+package edu.berkeley.icsi.xschema.trace;
+
+import uk.ac.imperial.pipe.models.petrinet.AbstractExternalTransition;
+import uk.ac.imperial.pipe.runner.InterfaceException;
+import uk.ac.imperial.pipe.runner.Runner;
+
+/**
+ * Close transition of the Grasp example when the close is not sensed:  the context is the runner,
+ * and the Missed place of Close_hand is marked, as GraspExampleTest does with closeSensed false.
+ */
+public class MissedCloseExternalTransition extends AbstractExternalTransition {
+
+	@Override
+	public void fire() {
+		try {
+			((Runner) context).markPlace("Grasp.Close_hand.Missed", "Default", 1);
+		} catch (InterfaceException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
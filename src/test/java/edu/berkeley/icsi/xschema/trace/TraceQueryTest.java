@@ -0,0 +1,152 @@
+package edu.berkeley.icsi.xschema.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.imperial.pipe.dsl.ANormalArc;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.dsl.AnImmediateTransition;
+import uk.ac.imperial.pipe.runner.JsonParameters;
+import uk.ac.imperial.pipe.runner.PetriNetRunner;
+import uk.ac.imperial.pipe.runner.Runner;
+import edu.berkeley.icsi.xschema.GraspNets;
+import edu.berkeley.icsi.xschema.trace.TraceQuery.Comparison;
+
+public class TraceQueryTest {
+
+	private static final String LOG = "report.log";
+	private TraceStream live;
+	private TraceQuery firstP2;
+	private TraceQuery countT2;
+	private TraceQuery firstT3;
+	private TraceQuery maxP0;
+	private TraceQuery emptyP0;
+
+	@Before
+	public void setUp() throws Exception {
+		new File(LOG).delete();
+		live = new TraceStream();
+		addQueries(live);
+		Runner runner = new PetriNetRunner(APetriNet.named("cycle").and(AToken.called("Default").withColor(Color.BLACK)).
+				and(APlace.withId("P0").externallyAccessible()).and(APlace.withId("P1")).and(APlace.withId("P2")).
+				and(AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).
+				and(AnImmediateTransition.withId("T2")).and(AnImmediateTransition.withId("T3")).
+				and(ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).
+				and(ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).
+				and(ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token()).
+				and(ANormalArc.withSource("P1").andTarget("T2").with("1", "Default").token()).
+				and(ANormalArc.withSource("T2").andTarget("P2").with("1", "Default").token()).
+				and(ANormalArc.withSource("P2").andTarget("T3").with("1", "Default").token()).
+				andFinally(ANormalArc.withSource("T3").andTarget("P0").with("1", "Default").token()));
+		runner.markPlace("P0", "Default", 1);
+		runner.addPropertyChangeListener(new FiringLogWriter(LOG));
+		runner.addPropertyChangeListener(live);
+		runner.setFiringLimit(40);
+		runner.setSeed(123456l);
+		runner.run();
+	}
+
+	@After
+	public void tearDown() {
+		new File(LOG).delete();
+	}
+
+	@Test
+	public void liveQueriesMatchTheReportLines() throws Exception {
+		List<String> lines = FiringLogReader.readLines(LOG);
+		int expectedFirstP2 = TraceQuery.NONE;
+		int expectedCountT2 = 0;
+		int expectedFirstT3 = TraceQuery.NONE;
+		for (String line : lines.subList(1, lines.size())) {
+			String[] fields = line.split(",");
+			int round = Integer.parseInt(fields[0]);
+			if ((expectedFirstP2 == TraceQuery.NONE) && (Integer.parseInt(fields[4]) > 0)) {
+				expectedFirstP2 = round;
+			}
+			if (fields[1].equals("\"T2\"")) {
+				expectedCountT2++;
+			}
+			if ((expectedFirstT3 == TraceQuery.NONE) && fields[1].equals("\"T3\"")) {
+				expectedFirstT3 = round;
+			}
+		}
+		assertTrue(expectedCountT2 > 0);
+		assertEquals(expectedFirstP2, firstP2.getValue());
+		assertEquals(expectedCountT2, countT2.getValue());
+		assertEquals(expectedFirstT3, firstT3.getValue());
+		assertEquals(expectedFirstP2 + 1, expectedFirstT3);
+		assertEquals(1, maxP0.getValue());
+		assertTrue(firstP2.isDone());
+		assertFalse(countT2.isDone());
+	}
+
+	@Test
+	public void replayGivesTheLiveAnswers() throws Exception {
+		TraceStream replay = new TraceStream();
+		TraceQuery replayFirstP2 = replay.add(TraceQuery.firstRound("P2", Comparison.GREATER, 0));
+		TraceQuery replayCountT2 = replay.add(TraceQuery.count("T2"));
+		TraceQuery replayEmptyP0 = replay.add(TraceQuery.countRounds("P0", Comparison.EQUAL, 0));
+		assertEquals(41, replay.replay(Paths.get(LOG)));
+		assertEquals(firstP2.getValue(), replayFirstP2.getValue());
+		assertEquals(countT2.getValue(), replayCountT2.getValue());
+		assertEquals(emptyP0.getValue(), replayEmptyP0.getValue());
+	}
+
+	@Test
+	public void replayStopsOnceEveryQueryIsDone() throws Exception {
+		TraceStream replay = new TraceStream();
+		TraceQuery first = replay.add(TraceQuery.firstFiring("T0"));
+		assertEquals(2, replay.replay(Paths.get(LOG)));
+		assertEquals(1, first.getValue());
+		assertTrue(replay.isDone());
+	}
+
+	@Test
+	public void liveQueriesOfTheCompleteGraspExample() throws Exception {
+		GraspNets nets = new GraspNets("edu.berkeley.icsi.xschema.trace.MissedCloseExternalTransition",
+				GraspNets.APPROACH_CLASS);
+		Runner runner = new PetriNetRunner(nets.buildCompleteGrasp().getPetriNet());
+		runner.markPlace("Grasp.Enabled", "Default", 1);
+		JsonParameters parameters = new JsonParameters("{\"transitions\":{\"Grasp.Approach.T3\":{\"num\":1}}}");
+		parameters.setActiveTransition("Grasp.Approach.T3");
+		runner.setTransitionContext("Grasp.Approach.T3", parameters);
+		runner.setTransitionContext("Grasp.Close_hand.Close", runner);
+		TraceStream trace = new TraceStream();
+		TraceQuery suspended = trace.add(TraceQuery.firstRound("Grasp.Suspended", Comparison.GREATER, 0));
+		TraceQuery closes = trace.add(TraceQuery.count("Grasp.Close_hand.Close"));
+		runner.addPropertyChangeListener(trace);
+		runner.setFiringLimit(100);
+		runner.setSeed(123456l);
+		runner.run();
+		assertEquals(15, suspended.getValue());
+		assertEquals(1, closes.getValue());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownPlaceIsRejectedAtTheFirstRound() throws Exception {
+		TraceStream replay = new TraceStream();
+		replay.add(TraceQuery.maxCount("P9"));
+		replay.replay(Paths.get(LOG));
+	}
+
+	private void addQueries(TraceStream stream) {
+		firstP2 = stream.add(TraceQuery.firstRound("P2", Comparison.GREATER, 0));
+		countT2 = stream.add(TraceQuery.count("T2"));
+		firstT3 = stream.add(TraceQuery.firstFiring("T3"));
+		maxP0 = stream.add(TraceQuery.maxCount("P0"));
+		emptyP0 = stream.add(TraceQuery.countRounds("P0", Comparison.EQUAL, 0));
+	}
+}